@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.apache.commons.jcs.access.exception.CacheException;
@@ -31,6 +34,7 @@ import org.apache.commons.jcs.access.exception.InvalidHandleException;
 import org.apache.commons.jcs.access.exception.ObjectExistsException;
 import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheLoader;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.logging.Log;
@@ -78,6 +82,76 @@ public class CacheAccess<K, V>
         return ( element != null ) ? element.getVal() : null;
     }
 
+    /**
+     * Retrieve an object from the cache region this instance provides access to, loading it on a
+     * miss. Only one thread runs the loader for a key, the others wait on the same future. The
+     * futures are kept by the region, so this holds across access handles to the same region. The
+     * future is forgotten as soon as the load completes, so a failed load is not remembered.
+     * <p>
+     * @param name Key the object is stored as
+     * @param loader computes the object on a miss
+     * @return The object if found or loaded, null if the loader returned null
+     * @throws InvalidArgumentException if the key or the loader is null
+     * @throws CacheException wrapping the failure of the loader
+     */
+    @Override
+    public V get( K name, Callable<V> loader )
+    {
+        if ( name == null )
+        {
+            throw new InvalidArgumentException( "Key must not be null" );
+        }
+
+        V value = get( name );
+        if ( value != null )
+        {
+            return value;
+        }
+
+        if ( loader == null )
+        {
+            throw new InvalidArgumentException( "Loader must not be null" );
+        }
+
+        FutureTask<V> task = new FutureTask<V>( new Load( name, loader ) );
+        FutureTask<V> running = this.getCacheControl().startLoad( name, task );
+        if ( running == null )
+        {
+            running = task;
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                this.getCacheControl().finishLoad( name, task );
+            }
+        }
+        else if ( log.isDebugEnabled() )
+        {
+            log.debug( "Waiting for the running load of key [" + name + "]" );
+        }
+
+        try
+        {
+            return running.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new CacheException( "Interrupted while loading key [" + name + "]", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof CacheException )
+            {
+                throw (CacheException) cause;
+            }
+            throw new CacheException( "Failed to load key [" + name + "]", cause );
+        }
+    }
+
     /**
      * Retrieve matching objects from the cache region this instance provides access to.
      * <p>
@@ -305,4 +379,62 @@ public class CacheAccess<K, V>
 
         return attr;
     }
+
+    /**
+     * Register the loader used to refresh elements before they expire.
+     * <p>
+     * @param loader the loader, or null to stop refreshing
+     */
+    @Override
+    public void setCacheLoader( ICacheLoader<K, V> loader )
+    {
+        this.getCacheControl().setCacheLoader( loader );
+    }
+
+    /**
+     * Runs the loader for a key and puts the result. The cache is checked again first, as another
+     * load of the key may have finished between the miss and the registration of this one.
+     */
+    private class Load
+        implements Callable<V>
+    {
+        /** The key to load */
+        private final K name;
+
+        /** The loader supplied by the caller */
+        private final Callable<V> loader;
+
+        /**
+         * @param name the key to load
+         * @param loader the loader supplied by the caller
+         */
+        public Load( K name, Callable<V> loader )
+        {
+            this.name = name;
+            this.loader = loader;
+        }
+
+        /**
+         * @return the cached or loaded value
+         * @throws Exception if the loader fails
+         */
+        @Override
+        public V call()
+            throws Exception
+        {
+            // a load that finished meanwhile put its value into memory, the auxiliaries missed already
+            ICacheElement<K, V> element = getCacheControl().getMemoryCache().getQuiet( name );
+            if ( element != null && !getCacheControl().isExpired( element ) )
+            {
+                return element.getVal();
+            }
+
+            V value = loader.call();
+            if ( value != null )
+            {
+                put( name, value );
+            }
+            return value;
+        }
+    }
 }
@@ -24,12 +24,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.jcs.JCS;
 import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.access.exception.ConfigurationException;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheLoader;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.stats.behavior.ICacheStats;
@@ -204,6 +206,34 @@ public class PartitionedCacheAccess<K, V>
         return partitions[partition].get( key );
     }
 
+    /**
+     * Gets the object for the key from the desired partition, loading it there on a miss.
+     * <p>
+     * @param key key
+     * @param loader computes the object on a miss
+     * @return result, null if not found and the loader returned null.
+     * @throws CacheException if the loader fails
+     */
+    @Override
+    public V get( K key, Callable<V> loader )
+        throws CacheException
+    {
+        if ( key == null )
+        {
+            log.warn( "Input key is null." );
+            return null;
+        }
+
+        if (!ensureInit())
+        {
+            return null;
+        }
+
+        int partition = getPartitionNumberForKey( key );
+
+        return partitions[partition].get( key, loader );
+    }
+
     /**
      * Gets the ICacheElement&lt;K, V&gt; (the wrapped object) for the key from the desired partition.
      * <p>
@@ -457,6 +487,25 @@ public class PartitionedCacheAccess<K, V>
         return partitions[partition].getElementAttributes( key );
     }
 
+    /**
+     * Registers the loader with all the partitions.
+     * <p>
+     * @param loader the loader, or null to stop refreshing
+     */
+    @Override
+    public void setCacheLoader( ICacheLoader<K, V> loader )
+    {
+        if (!ensureInit())
+        {
+            return;
+        }
+
+        for ( ICacheAccess<K, V> partition : partitions )
+        {
+            partition.setCacheLoader( loader );
+        }
+    }
+
     /**
      * Resets the attributes for this item. This has the same effect as an update, in most cases.
      * None of the auxiliaries are optimized to do this more efficiently than a simply update.
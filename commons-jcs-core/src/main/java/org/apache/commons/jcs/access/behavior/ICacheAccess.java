@@ -21,10 +21,12 @@ package org.apache.commons.jcs.access.behavior;
 
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheLoader;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * ICacheAccess defines the behavior for client access.
@@ -40,6 +42,22 @@ public interface ICacheAccess<K, V>
      */
     V get( K name );
 
+    /**
+     * Get an object from the cache, loading it on a miss. If several threads miss on the same key
+     * at the same time, the loader runs only once and all of them wait for its result. A non-null
+     * result is put into the cache with the default element attributes.
+     * <p>
+     * If the loader fails, all waiting callers get the failure and nothing is cached, so the next
+     * call runs the loader again.
+     * <p>
+     * @param name Key the object is stored as
+     * @param loader computes the object on a miss
+     * @return the cached or loaded object, null if the loader returned null
+     * @throws CacheException wrapping the failure of the loader
+     */
+    V get( K name, Callable<V> loader )
+        throws CacheException;
+
     /**
      * Retrieve matching objects from the cache region this instance provides access to.
      * <p>
@@ -164,4 +182,12 @@ public interface ICacheAccess<K, V>
      */
     IElementAttributes getElementAttributes( K name )
         throws CacheException;
+
+    /**
+     * Register the loader used to refresh elements before they expire. Refresh-ahead is enabled
+     * with the RefreshAheadPercent region attribute.
+     * <p>
+     * @param loader the loader, or null to stop refreshing
+     */
+    void setCacheLoader( ICacheLoader<K, V> loader );
 }
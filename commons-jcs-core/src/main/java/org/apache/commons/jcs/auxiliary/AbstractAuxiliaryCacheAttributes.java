@@ -1,5 +1,6 @@
 package org.apache.commons.jcs.auxiliary;
 
+import org.apache.commons.jcs.engine.RingBufferCacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 
 /*
@@ -42,6 +43,15 @@ public abstract class AbstractAuxiliaryCacheAttributes
     /** Named when pooled */
     private String eventQueuePoolName;
 
+    /** Number of slots when ring */
+    private int eventQueueCapacity = RingBufferCacheEventQueue.DEFAULT_CAPACITY;
+
+    /** How the consumer waits when ring */
+    private ICacheEventQueue.WaitStrategy eventQueueWaitStrategy = ICacheEventQueue.WaitStrategy.BLOCKING;
+
+    /** What to do when a ring is full */
+    private ICacheEventQueue.OverflowPolicy eventQueueOverflowPolicy = ICacheEventQueue.OverflowPolicy.BLOCK;
+
     /**
      * @param name
      */
@@ -85,9 +95,11 @@ public abstract class AbstractAuxiliaryCacheAttributes
     }
 
     /**
-     * SINGLE is the default. If you choose POOLED, the value of EventQueuePoolName will be used
+     * SINGLE is the default. If you choose POOLED, the value of EventQueuePoolName will be used.
+     * If you choose RING, the EventQueueCapacity, EventQueueWaitStrategy and
+     * EventQueueOverflowPolicy will be used.
      * <p>
-     * @param queueType SINGLE or POOLED
+     * @param queueType SINGLE, POOLED or RING
      */
     @Override
     public void setEventQueueType( ICacheEventQueue.QueueType queueType )
@@ -96,7 +108,7 @@ public abstract class AbstractAuxiliaryCacheAttributes
     }
 
     /**
-     * @return SINGLE or POOLED
+     * @return SINGLE, POOLED or RING
      */
     @Override
     public ICacheEventQueue.QueueType getEventQueueType()
@@ -128,6 +140,67 @@ public abstract class AbstractAuxiliaryCacheAttributes
         return eventQueuePoolName;
     }
 
+    /**
+     * The number of slots in a RING event queue. Rounded up to a power of two. This is ignored
+     * unless the event queue type is RING.
+     * <p>
+     * @param capacity number of slots
+     */
+    @Override
+    public void setEventQueueCapacity( int capacity )
+    {
+        this.eventQueueCapacity = capacity;
+    }
+
+    /**
+     * @return number of slots in a RING event queue
+     */
+    @Override
+    public int getEventQueueCapacity()
+    {
+        return eventQueueCapacity;
+    }
+
+    /**
+     * How the consumer of a RING event queue waits for events. BLOCKING is the default.
+     * <p>
+     * @param waitStrategy BLOCKING, SLEEPING or YIELDING
+     */
+    @Override
+    public void setEventQueueWaitStrategy( ICacheEventQueue.WaitStrategy waitStrategy )
+    {
+        this.eventQueueWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return BLOCKING, SLEEPING or YIELDING
+     */
+    @Override
+    public ICacheEventQueue.WaitStrategy getEventQueueWaitStrategy()
+    {
+        return eventQueueWaitStrategy;
+    }
+
+    /**
+     * What a RING event queue does when it is full. BLOCK is the default.
+     * <p>
+     * @param overflowPolicy BLOCK, DROP_OLDEST or COALESCE
+     */
+    @Override
+    public void setEventQueueOverflowPolicy( ICacheEventQueue.OverflowPolicy overflowPolicy )
+    {
+        this.eventQueueOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return BLOCK, DROP_OLDEST or COALESCE
+     */
+    @Override
+    public ICacheEventQueue.OverflowPolicy getEventQueueOverflowPolicy()
+    {
+        return eventQueueOverflowPolicy;
+    }
+
     /**
      * @see java.lang.Object#clone()
      */
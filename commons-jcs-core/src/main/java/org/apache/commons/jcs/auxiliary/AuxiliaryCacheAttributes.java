@@ -59,14 +59,16 @@ public interface AuxiliaryCacheAttributes
     String getName();
 
     /**
-     * SINGLE is the default. If you choose POOLED, the value of EventQueuePoolName will be used
+     * SINGLE is the default. If you choose POOLED, the value of EventQueuePoolName will be used.
+     * If you choose RING, the EventQueueCapacity, EventQueueWaitStrategy and
+     * EventQueueOverflowPolicy will be used.
      * <p>
-     * @param s SINGLE or POOLED
+     * @param s SINGLE, POOLED or RING
      */
     void setEventQueueType( ICacheEventQueue.QueueType s );
 
     /**
-     * @return SINGLE or POOLED
+     * @return SINGLE, POOLED or RING
      */
     ICacheEventQueue.QueueType getEventQueueType();
 
@@ -86,6 +88,43 @@ public interface AuxiliaryCacheAttributes
      */
     String getEventQueuePoolName();
 
+    /**
+     * The number of slots in a RING event queue. Rounded up to a power of two. This is ignored
+     * unless the event queue type is RING.
+     * <p>
+     * @param capacity number of slots
+     */
+    void setEventQueueCapacity( int capacity );
+
+    /**
+     * @return number of slots in a RING event queue
+     */
+    int getEventQueueCapacity();
+
+    /**
+     * How the consumer of a RING event queue waits for events. BLOCKING is the default.
+     * <p>
+     * @param waitStrategy BLOCKING, SLEEPING or YIELDING
+     */
+    void setEventQueueWaitStrategy( ICacheEventQueue.WaitStrategy waitStrategy );
+
+    /**
+     * @return BLOCKING, SLEEPING or YIELDING
+     */
+    ICacheEventQueue.WaitStrategy getEventQueueWaitStrategy();
+
+    /**
+     * What a RING event queue does when it is full. BLOCK is the default.
+     * <p>
+     * @param overflowPolicy BLOCK, DROP_OLDEST or COALESCE
+     */
+    void setEventQueueOverflowPolicy( ICacheEventQueue.OverflowPolicy overflowPolicy );
+
+    /**
+     * @return BLOCK, DROP_OLDEST or COALESCE
+     */
+    ICacheEventQueue.OverflowPolicy getEventQueueOverflowPolicy();
+
     /**
      * Clone object
      */
@@ -23,8 +23,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCacheEventLogging;
@@ -32,16 +41,20 @@ import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes;
 import org.apache.commons.jcs.engine.CacheEventQueueFactory;
 import org.apache.commons.jcs.engine.CacheInfo;
+import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.behavior.ICache;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.Stats;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
-import org.apache.commons.jcs.utils.struct.LRUMap;
+import org.apache.commons.jcs.utils.struct.CountingBloomFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -73,8 +86,23 @@ public abstract class AbstractDiskCache<K, V>
      *
      * If the elements are pulled into the memory cache while the are still in purgatory, writing to
      * disk can be canceled.
+     *
+     * A key has at most one queued put. A later put of a key that is still waiting replaces the
+     * element and takes over the queued put, so only the latest element is written.
+     */
+    private volatile ConcurrentMap<K, PurgatoryElement<K, V>> purgatory;
+
+    /**
+     * The puts in purgatory, oldest first, if its size is limited. It may still hold elements
+     * that left purgatory; they are dropped as the oldest are evicted.
      */
-    private Map<K, PurgatoryElement<K, V>> purgatory;
+    private volatile Queue<PurgatoryElement<K, V>> purgatoryOrder;
+
+    /** Number of elements in purgatoryOrder. */
+    private final AtomicInteger purgatoryOrderSize = new AtomicInteger( 0 );
+
+    /** Number of puts that were never written because a later put of the key replaced them. */
+    private final AtomicInteger coalescedPuts = new AtomicInteger( 0 );
 
     /**
      * The CacheEventQueue where changes will be queued for asynchronous updating of the persistent
@@ -100,6 +128,36 @@ public abstract class AbstractDiskCache<K, V>
      */
     private final ReentrantReadWriteLock removeAllLock = new ReentrantReadWriteLock();
 
+    /** Puts taken off the event queue but not written yet, by key. Used when writes are batched. */
+    private final Map<K, PurgatoryElement<K, V>> writeBatch = new LinkedHashMap<K, PurgatoryElement<K, V>>();
+
+    /** The number of batches of puts written. */
+    private int writeBatchCount = 0;
+
+    /** The number of puts written in batches. */
+    private int batchedPutCount = 0;
+
+    /** Filter of the keys in purgatory and on disk, null unless UseKeyFilter is set. */
+    private final CountingBloomFilter keyFilter;
+
+    /** Rebuilding the key filter excludes changes of it. */
+    private final ReentrantReadWriteLock keyFilterLock = new ReentrantReadWriteLock();
+
+    /** Whether the key filter holds all keys. Gets go to disk while it is rebuilt. */
+    private volatile boolean keyFilterReady = false;
+
+    /** Whether the key filter was loaded, which happens when the cache first becomes alive. */
+    private boolean keyFilterLoaded = false;
+
+    /** The number of gets answered by the key filter without going to disk. */
+    private final AtomicInteger keyFilterSkips = new AtomicInteger( 0 );
+
+    /** The number of gets the key filter let through that found nothing. */
+    private final AtomicInteger keyFilterFalsePositives = new AtomicInteger( 0 );
+
+    /** Runs disk reads and writes concurrently on a shared pool, null when they run on the caller. */
+    private final DiskIOEngine ioEngine;
+
     // ----------------------------------------------------------- constructors
 
     /**
@@ -114,13 +172,48 @@ public abstract class AbstractDiskCache<K, V>
         this.cacheName = attr.getCacheName();
 
         // create queue
+        ICacheEventQueue.OverflowPolicy overflowPolicy = attr.getEventQueueOverflowPolicy();
+        if ( overflowPolicy == ICacheEventQueue.OverflowPolicy.DROP_OLDEST )
+        {
+            // a dropped put would stay in purgatory for good and leave an old value on disk
+            log.warn( "Disk cache [" + cacheName + "] cannot drop queued puts, using the "
+                + ICacheEventQueue.OverflowPolicy.BLOCK + " overflow policy instead of " + overflowPolicy );
+            overflowPolicy = ICacheEventQueue.OverflowPolicy.BLOCK;
+        }
         CacheEventQueueFactory<K, V> fact = new CacheEventQueueFactory<K, V>();
         this.cacheEventQueue = fact.createCacheEventQueue( new MyCacheListener(), CacheInfo.listenerId, cacheName,
-                                                           diskCacheAttributes.getEventQueuePoolName(),
-                                                           diskCacheAttributes.getEventQueueType() );
+                                                           10, 500, attr.getEventQueuePoolName(),
+                                                           attr.getEventQueueType(), attr.getEventQueueCapacity(),
+                                                           attr.getEventQueueWaitStrategy(), overflowPolicy );
 
         // create purgatory
         initPurgatory();
+
+        if ( attr.isUseKeyFilter() )
+        {
+            this.keyFilter = new CountingBloomFilter( attr.getKeyFilterExpectedKeys(), attr.getKeyFilterFalsePositiveRate() );
+        }
+        else
+        {
+            this.keyFilter = null;
+        }
+
+        if ( attr.getIOPoolName() != null )
+        {
+            this.ioEngine = new DiskIOEngine( attr.getIOPoolName() );
+        }
+        else
+        {
+            this.ioEngine = null;
+        }
+    }
+
+    /**
+     * @return the engine that runs disk reads and writes on the I/O pool, or null if there is none
+     */
+    protected DiskIOEngine getIOEngine()
+    {
+        return ioEngine;
     }
 
     /**
@@ -132,16 +225,25 @@ public abstract class AbstractDiskCache<K, V>
     }
 
     /**
+     * The key filter is loaded when the cache becomes alive for the first time, i.e. at the end of
+     * the initialization of the child class.
+     *
      * @param alive set the alive status
      */
     public void setAlive(boolean alive)
     {
+        boolean loadKeyFilter = alive && keyFilter != null && !keyFilterLoaded;
         this.alive = alive;
+        if ( loadKeyFilter )
+        {
+            keyFilterLoaded = true;
+            rebuildKeyFilter();
+        }
     }
 
     /**
-     * Purgatory size of -1 means to use a HashMap with no size limit. Anything greater will use an
-     * LRU map of some sort.
+     * Purgatory size of -1 means no size limit. Anything greater evicts the oldest puts that are
+     * not being written once purgatory holds more elements.
      *
      * TODO Currently setting this to 0 will cause nothing to be put to disk, since it will assume
      *       that if an item is not in purgatory, then it must have been plucked. We should make 0
@@ -157,14 +259,17 @@ public abstract class AbstractDiskCache<K, V>
         {
             synchronized (this)
             {
+                // queued puts of the old elements find them gone and do nothing
+                purgatory = new ConcurrentHashMap<K, PurgatoryElement<K, V>>();
                 if ( diskCacheAttributes.getMaxPurgatorySize() >= 0 )
                 {
-                    purgatory = new LRUMap<K, PurgatoryElement<K, V>>( diskCacheAttributes.getMaxPurgatorySize() );
+                    purgatoryOrder = new ConcurrentLinkedQueue<PurgatoryElement<K, V>>();
                 }
                 else
                 {
-                    purgatory = new HashMap<K, PurgatoryElement<K, V>>();
+                    purgatoryOrder = null;
                 }
+                purgatoryOrderSize.set( 0 );
             }
         }
         finally
@@ -206,13 +311,26 @@ public abstract class AbstractDiskCache<K, V>
             pe.setSpoolable( true );
 
             // Add the element to purgatory
-            synchronized ( purgatory )
+            PurgatoryElement<K, V> old = purgatory.put( pe.getKey(), pe );
+
+            if ( old != null && old.supersede() )
+            {
+                // the queued put of the old element will write this one
+                coalescedPuts.incrementAndGet();
+            }
+            else
             {
-                purgatory.put( pe.getKey(), pe );
+                // Queue element for serialization
+                cacheEventQueue.addPutEvent( pe );
             }
 
-            // Queue element for serialization
-            cacheEventQueue.addPutEvent( pe );
+            Queue<PurgatoryElement<K, V>> order = purgatoryOrder;
+            if ( order != null )
+            {
+                order.offer( pe );
+                purgatoryOrderSize.incrementAndGet();
+                evictFromPurgatory( order );
+            }
         }
         catch ( IOException ex )
         {
@@ -244,11 +362,7 @@ public abstract class AbstractDiskCache<K, V>
             return null;
         }
 
-        PurgatoryElement<K, V> pe = null;
-        synchronized ( purgatory )
-        {
-            pe = purgatory.get( key );
-        }
+        PurgatoryElement<K, V> pe = purgatory.get( key );
 
         // If the element was found in purgatory
         if ( pe != null )
@@ -286,9 +400,21 @@ public abstract class AbstractDiskCache<K, V>
 
         // If we reach this point, element was not found in purgatory, so get
         // it from the cache.
+        if ( keyFilter != null && keyFilterReady && !keyFilter.mightContain( getKeyFilterHash( key ) ) )
+        {
+            // a written key is in the filter before it leaves purgatory
+            keyFilterSkips.incrementAndGet();
+            return null;
+        }
+
         try
         {
-            return doGet( key );
+            ICacheElement<K, V> element = doGet( key );
+            if ( element == null && keyFilter != null && keyFilterReady )
+            {
+                keyFilterFalsePositives.incrementAndGet();
+            }
+            return element;
         }
         catch ( Exception e )
         {
@@ -319,13 +445,7 @@ public abstract class AbstractDiskCache<K, V>
         throws IOException
     {
         // Get the keys from purgatory
-        Set<K> keyArray = null;
-
-        // this avoids locking purgatory, but it uses more memory
-        synchronized ( purgatory )
-        {
-            keyArray = new HashSet<K>(purgatory.keySet());
-        }
+        Set<K> keyArray = new HashSet<K>(purgatory.keySet());
 
         Set<K> matchingKeys = getKeyMatcher().getMatchingKeysFromArray( pattern, keyArray );
 
@@ -350,6 +470,11 @@ public abstract class AbstractDiskCache<K, V>
     @Override
     public Map<K, ICacheElement<K, V>> processGetMultiple(Set<K> keys)
     {
+        if ( ioEngine != null && keys != null && keys.size() > 1 )
+        {
+            return getMultipleConcurrently( keys );
+        }
+
         Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
 
         if ( keys != null && !keys.isEmpty() )
@@ -368,6 +493,54 @@ public abstract class AbstractDiskCache<K, V>
         return elements;
     }
 
+    /**
+     * Gets the keys on the I/O pool, so that their disk reads are in flight together. Each element
+     * is added to the result as soon as its read completes.
+     *
+     * @param keys
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element
+     */
+    private Map<K, ICacheElement<K, V>> getMultipleConcurrently( Set<K> keys )
+    {
+        final List<K> keyList = new ArrayList<K>( keys );
+        final Map<K, ICacheElement<K, V>> elements = new ConcurrentHashMap<K, ICacheElement<K, V>>();
+
+        List<Callable<ICacheElement<K, V>>> reads = new ArrayList<Callable<ICacheElement<K, V>>>( keyList.size() );
+        for ( final K key : keyList )
+        {
+            reads.add( new Callable<ICacheElement<K, V>>()
+            {
+                @Override
+                public ICacheElement<K, V> call()
+                {
+                    return get( key );
+                }
+            } );
+        }
+
+        try
+        {
+            ioEngine.runAll( reads, new DiskIOEngine.CompletionHandler<ICacheElement<K, V>>()
+            {
+                @Override
+                public void completed( int index, ICacheElement<K, V> element )
+                {
+                    if ( element != null )
+                    {
+                        elements.put( keyList.get( index ), element );
+                    }
+                }
+            } );
+        }
+        catch ( IOException e )
+        {
+            // get handles its own failures, this is not expected
+            log.error( "Failure getting multiple keys, cacheName: " + cacheName, e );
+        }
+
+        return new HashMap<K, ICacheElement<K, V>>( elements );
+    }
+
     /**
      * The keys in the cache.
      *
@@ -388,41 +561,65 @@ public abstract class AbstractDiskCache<K, V>
     public final boolean remove( K key )
         throws IOException
     {
-        PurgatoryElement<K, V> pe = null;
-
-        synchronized ( purgatory )
+        if ( keyFilter != null )
         {
-            // I'm getting the object, so I can lock on the element
-            // Remove element from purgatory if it is there
-            pe = purgatory.get( key );
+            // a rebuild must not see the key removed before it is taken out of the filter
+            keyFilterLock.readLock().lock();
         }
-
-        if ( pe != null )
+        try
         {
-            synchronized ( pe.getCacheElement() )
+            boolean removed;
+
+            // Remove element from purgatory if it is there, this cancels its queued put
+            PurgatoryElement<K, V> pe = purgatory.remove( key );
+
+            if ( pe != null )
             {
-                synchronized ( purgatory )
+                // wait for a write of the element that is under way
+                synchronized ( pe.getCacheElement() )
                 {
-                    purgatory.remove( key );
-                }
-
-                // no way to remove from queue, just make sure it doesn't get on
-                // disk and then removed right afterwards
-                pe.setSpoolable( false );
+                    // the queued put finds the element gone, this makes sure
+                    // a batch it is already in does not write it
+                    pe.setSpoolable( false );
 
+                    // Remove from persistent store immediately
+                    removed = doRemove( key );
+                }
+            }
+            else
+            {
                 // Remove from persistent store immediately
-                doRemove( key );
+                removed = doRemove( key );
+            }
+
+            // Only a key that was on disk is in the filter. The keys removed along with a group or
+            // a prefix are unknown and stay in the filter.
+            if ( keyFilter != null && removed && !isMultiKeyRemoval( key ) )
+            {
+                keyFilter.remove( getKeyFilterHash( key ) );
             }
         }
-        else
+        finally
         {
-            // Remove from persistent store immediately
-            doRemove( key );
+            if ( keyFilter != null )
+            {
+                keyFilterLock.readLock().unlock();
+            }
         }
 
         return false;
     }
 
+    /**
+     * @param key
+     * @return whether the key removes all keys of a group or with a common prefix
+     */
+    protected boolean isMultiKeyRemoval( K key )
+    {
+        return key instanceof String && key.toString().endsWith( CacheConstants.NAME_COMPONENT_DELIMITER )
+            || key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null;
+    }
+
     /**
      * @throws IOException
      * @see org.apache.commons.jcs.engine.behavior.ICache#removeAll
@@ -438,6 +635,12 @@ public abstract class AbstractDiskCache<K, V>
 
             // Remove all from persistent store immediately
             doRemoveAll();
+
+            if ( keyFilter != null )
+            {
+                // the keys removed with a group or a prefix are dropped from the filter here
+                rebuildKeyFilter();
+            }
         }
         else
         {
@@ -506,6 +709,9 @@ public abstract class AbstractDiskCache<K, V>
         // This stops the processor thread.
         cacheEventQueue.destroy();
 
+        // Write what the last events left in the batch
+        flushWriteBatch();
+
         // Invoke any implementation specific disposal code
         // need to handle the disposal first.
         doDispose();
@@ -549,6 +755,24 @@ public abstract class AbstractDiskCache<K, V>
 
         elems.add(new StatElement<Integer>( "Purgatory Hits", Integer.valueOf(purgHits) ) );
         elems.add(new StatElement<Integer>( "Purgatory Size", Integer.valueOf(purgatory.size()) ) );
+        elems.add(new StatElement<AtomicInteger>( "Coalesced Puts", coalescedPuts ) );
+        if ( diskCacheAttributes.getWriteBatchSize() > 1 )
+        {
+            elems.add(new StatElement<Integer>( "Write Batches", Integer.valueOf(writeBatchCount) ) );
+            elems.add(new StatElement<Integer>( "Batched Puts", Integer.valueOf(batchedPutCount) ) );
+        }
+        if ( ioEngine != null )
+        {
+            elems.add(new StatElement<String>( "IO Pool", ioEngine.getPoolName() ) );
+            elems.add(new StatElement<Long>( "Pooled IO Operations", Long.valueOf(ioEngine.getPooledOperations()) ) );
+            elems.add(new StatElement<Long>( "Caller IO Operations", Long.valueOf(ioEngine.getCallerOperations()) ) );
+        }
+        if ( keyFilter != null )
+        {
+            elems.add(new StatElement<Boolean>( "Key Filter Ready", Boolean.valueOf(keyFilterReady) ) );
+            elems.add(new StatElement<AtomicInteger>( "Key Filter Skips", keyFilterSkips ) );
+            elems.add(new StatElement<AtomicInteger>( "Key Filter False Positives", keyFilterFalsePositives ) );
+        }
 
         // get the stats from the event queue too
         IStats eqStats = this.cacheEventQueue.getStatistics();
@@ -639,53 +863,65 @@ public abstract class AbstractDiskCache<K, V>
             {
                 // If the element is a PurgatoryElement<K, V> we must check to see
                 // if it is still spoolable, and remove it from purgatory.
-                if ( element instanceof PurgatoryElement )
+                if ( element instanceof PurgatoryElement && isBatchingWrites() )
                 {
-                    PurgatoryElement<K, V> pe = (PurgatoryElement<K, V>) element;
-
-                    synchronized ( pe.getCacheElement() )
+                    addToWriteBatch( (PurgatoryElement<K, V>) element );
+                }
+                else if ( element instanceof PurgatoryElement )
+                {
+                    PurgatoryElement<K, V> pe = takeLatest( (PurgatoryElement<K, V>) element );
+                    if ( pe == null )
                     {
-                        // TODO consider a timeout.
-                        // we need this so that we can have multiple update
-                        // threads and still have removeAll requests come in that
-                        // always win
-                        removeAllLock.readLock().lock();
+                        return;
+                    }
 
-                        try
+                    // taken before the element like in remove, a waiting rebuild blocks neither
+                    lockKeyFilter();
+                    try
+                    {
+                        synchronized ( pe.getCacheElement() )
                         {
-                            // TODO consider changing purgatory sync
-                            // String keyAsString = element.getKey().toString();
-                            synchronized ( purgatory )
+                            // TODO consider a timeout.
+                            // we need this so that we can have multiple update
+                            // threads and still have removeAll requests come in that
+                            // always win
+                            removeAllLock.readLock().lock();
+
+                            try
                             {
                                 // If the element has already been removed from
-                                // purgatory do nothing
-                                if ( !purgatory.containsKey( pe.getKey() ) )
+                                // purgatory or replaced do nothing
+                                PurgatoryElement<K, V> current = purgatory.get( pe.getKey() );
+                                if ( current != pe )
                                 {
+                                    if ( current != null )
+                                    {
+                                        // the later element has a queued put of its own
+                                        coalescedPuts.incrementAndGet();
+                                    }
                                     return;
                                 }
 
-                                element = pe.getCacheElement();
+                                // If the element is still eligible, spool it.
+                                if ( pe.isSpoolable() )
+                                {
+                                    doUpdate( pe.getCacheElement() );
+                                }
                             }
-
-                            // I took this out of the purgatory sync block.
-                            // If the element is still eligible, spool it.
-                            if ( pe.isSpoolable() )
+                            finally
                             {
-                                doUpdate( element );
+                                removeAllLock.readLock().unlock();
                             }
-                        }
-                        finally
-                        {
-                            removeAllLock.readLock().unlock();
-                        }
 
-                        synchronized ( purgatory )
-                        {
                             // After the update has completed, it is safe to
-                            // remove the element from purgatory.
-                            purgatory.remove( element.getKey() );
+                            // remove the element from purgatory, unless it was replaced.
+                            purgatory.remove( pe.getKey(), pe );
                         }
                     }
+                    finally
+                    {
+                        unlockKeyFilter();
+                    }
                 }
                 else
                 {
@@ -701,10 +937,7 @@ public abstract class AbstractDiskCache<K, V>
                  * done before it went in the queue. This block handles the case where the disk
                  * cache fails during normal operations.
                  */
-                synchronized ( purgatory )
-                {
-                    purgatory.remove( element.getKey() );
-                }
+                purgatory.remove( element.getKey() );
             }
         }
 
@@ -720,6 +953,7 @@ public abstract class AbstractDiskCache<K, V>
         {
             if ( alive )
             {
+                flushWriteBatch();
                 if ( doRemove( key ) )
                 {
                     log.debug( "Element removed, key: " + key );
@@ -738,6 +972,7 @@ public abstract class AbstractDiskCache<K, V>
         {
             if ( alive )
             {
+                flushWriteBatch();
                 doRemoveAll();
             }
         }
@@ -753,11 +988,250 @@ public abstract class AbstractDiskCache<K, V>
         {
             if ( alive )
             {
+                flushWriteBatch();
                 doDispose();
             }
         }
     }
 
+    /**
+     * Fills the key filter with the keys on disk. Changes of the filter wait for the rebuild, gets
+     * go to disk until it is done. If the keys cannot be loaded, the filter is not used until the
+     * next successful rebuild.
+     */
+    private void rebuildKeyFilter()
+    {
+        keyFilterLock.writeLock().lock();
+        try
+        {
+            keyFilterReady = false;
+            keyFilter.clear();
+            loadKeyFilter( keyFilter );
+            keyFilterReady = true;
+        }
+        catch ( IOException e )
+        {
+            log.error( "Problem loading the keys of " + cacheName + " into the key filter.", e );
+        }
+        catch ( RuntimeException e )
+        {
+            log.error( "Problem loading the keys of " + cacheName + " into the key filter.", e );
+        }
+        finally
+        {
+            keyFilterLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the hashes of all keys on disk to the key filter. By default the keys come from
+     * getKeySet.
+     *
+     * @param filter the key filter
+     * @throws IOException
+     */
+    protected void loadKeyFilter( CountingBloomFilter filter )
+        throws IOException
+    {
+        for ( K key : getKeySet() )
+        {
+            filter.add( getKeyFilterHash( key ) );
+        }
+    }
+
+    /**
+     * The hash of a key in the key filter. This is the hash code of the key, unless the disk cache
+     * can only give back another form of its keys.
+     *
+     * @param key
+     * @return the hash of the key in the key filter
+     */
+    protected int getKeyFilterHash( K key )
+    {
+        return key.hashCode();
+    }
+
+    /**
+     * Puts are batched if a batch size is configured and the event queue is the SINGLE or RING
+     * type. Only then is the size of the queue that of this region alone.
+     *
+     * @return whether queued puts are written in batches
+     */
+    private boolean isBatchingWrites()
+    {
+        return diskCacheAttributes.getWriteBatchSize() > 1
+            && ( cacheEventQueue.getQueueType() == ICacheEventQueue.QueueType.SINGLE
+                || cacheEventQueue.getQueueType() == ICacheEventQueue.QueueType.RING );
+    }
+
+    /**
+     * Adds a put to the batch. The batch is written when it is full or when this was the last
+     * queued event, so that a burst of puts is written together and a lone put is not delayed.
+     *
+     * @param pe
+     * @throws IOException
+     */
+    private void addToWriteBatch( PurgatoryElement<K, V> pe )
+        throws IOException
+    {
+        PurgatoryElement<K, V> latest = takeLatest( pe );
+        boolean full;
+        synchronized ( writeBatch )
+        {
+            // a later put of the key replaces the earlier one
+            if ( latest != null && writeBatch.put( latest.getKey(), latest ) != null )
+            {
+                coalescedPuts.incrementAndGet();
+            }
+            full = writeBatch.size() >= diskCacheAttributes.getWriteBatchSize();
+        }
+
+        if ( full || cacheEventQueue.isEmpty() )
+        {
+            flushWriteBatch();
+        }
+    }
+
+    /**
+     * Writes the pending batch of puts. Elements removed from purgatory or no longer spoolable are
+     * skipped. A remove during the write may have reached the persistent store before the write
+     * did, so removed elements are removed again afterwards.
+     *
+     * @throws IOException
+     */
+    private void flushWriteBatch()
+        throws IOException
+    {
+        List<PurgatoryElement<K, V>> batch;
+        synchronized ( writeBatch )
+        {
+            if ( writeBatch.isEmpty() )
+            {
+                return;
+            }
+            batch = new ArrayList<PurgatoryElement<K, V>>( writeBatch.values() );
+            writeBatch.clear();
+        }
+
+        List<PurgatoryElement<K, V>> written = new ArrayList<PurgatoryElement<K, V>>( batch.size() );
+        removeAllLock.readLock().lock();
+        try
+        {
+            List<ICacheElement<K, V>> elements = new ArrayList<ICacheElement<K, V>>( batch.size() );
+            for ( PurgatoryElement<K, V> pe : batch )
+            {
+                if ( purgatory.get( pe.getKey() ) == pe && pe.isSpoolable() )
+                {
+                    written.add( pe );
+                    elements.add( pe.getCacheElement() );
+                }
+            }
+
+            if ( !elements.isEmpty() )
+            {
+                doUpdates( elements );
+                writeBatchCount++;
+                batchedPutCount += elements.size();
+            }
+
+            for ( PurgatoryElement<K, V> pe : written )
+            {
+                synchronized ( pe.getCacheElement() )
+                {
+                    if ( !pe.isSpoolable() )
+                    {
+                        doRemove( pe.getKey() );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            removeAllLock.readLock().unlock();
+        }
+
+        for ( PurgatoryElement<K, V> pe : batch )
+        {
+            // After the update has completed, it is safe to
+            // remove the element from purgatory, unless it was replaced.
+            purgatory.remove( pe.getKey(), pe );
+        }
+    }
+
+    /**
+     * Takes the element of a queued put for writing. If later puts of the key replaced it, the
+     * latest of them is taken instead.
+     *
+     * @param pe the element the put was queued for
+     * @return the element to write, or null if there is none or another put already took it
+     */
+    private PurgatoryElement<K, V> takeLatest( PurgatoryElement<K, V> pe )
+    {
+        while ( !pe.take() )
+        {
+            if ( !pe.isSuperseded() )
+            {
+                return null;
+            }
+            pe = purgatory.get( pe.getKey() );
+            if ( pe == null )
+            {
+                return null;
+            }
+        }
+        return pe;
+    }
+
+    /**
+     * Evicts the oldest puts until purgatory is within its size limit. Elements that are being
+     * written are left alone, they leave purgatory when they are on disk.
+     *
+     * @param order the puts in purgatory, oldest first
+     */
+    private void evictFromPurgatory( Queue<PurgatoryElement<K, V>> order )
+    {
+        int max = diskCacheAttributes.getMaxPurgatorySize();
+        ConcurrentMap<K, PurgatoryElement<K, V>> current = purgatory;
+        if ( current.size() <= max && purgatoryOrderSize.get() <= 2 * max + 1 )
+        {
+            return;
+        }
+
+        synchronized ( order )
+        {
+            while ( current.size() > max )
+            {
+                PurgatoryElement<K, V> oldest = order.poll();
+                if ( oldest == null )
+                {
+                    return;
+                }
+                purgatoryOrderSize.decrementAndGet();
+                if ( !oldest.isTaken() && current.remove( oldest.getKey(), oldest ) )
+                {
+                    if ( log.isDebugEnabled() )
+                    {
+                        log.debug( "Evicted put from purgatory, cacheName: " + cacheName + ", key: " + oldest.getKey() );
+                    }
+                }
+            }
+
+            // the order also holds elements that were written or superseded, do not let them pile up
+            if ( purgatoryOrderSize.get() > 2 * max + 1 )
+            {
+                for ( Iterator<PurgatoryElement<K, V>> it = order.iterator(); it.hasNext(); )
+                {
+                    PurgatoryElement<K, V> pe = it.next();
+                    if ( current.get( pe.getKey() ) != pe )
+                    {
+                        it.remove();
+                        purgatoryOrderSize.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Before the event logging layer, the subclasses implemented the do* methods. Now the do*
      * methods call the *WithEventLogging method on the super. The *WithEventLogging methods call
@@ -813,7 +1287,118 @@ public abstract class AbstractDiskCache<K, V>
     protected final void doUpdate( ICacheElement<K, V> cacheElement )
         throws IOException
     {
-        super.updateWithEventLogging( cacheElement );
+        lockKeyFilter();
+        try
+        {
+            addToKeyFilter( cacheElement );
+            super.updateWithEventLogging( cacheElement );
+        }
+        finally
+        {
+            unlockKeyFilter();
+        }
+    }
+
+    /**
+     * Add several cache elements to the persistent store at once. Each element is logged as an
+     * update.
+     *
+     * @param cacheElements
+     * @throws IOException
+     */
+    protected final void doUpdates( List<ICacheElement<K, V>> cacheElements )
+        throws IOException
+    {
+        List<ICacheEvent<K>> cacheEvents = new ArrayList<ICacheEvent<K>>( cacheElements.size() );
+        for ( ICacheElement<K, V> cacheElement : cacheElements )
+        {
+            cacheEvents.add( createICacheEvent( cacheElement, ICacheEventLogger.UPDATE_EVENT ) );
+        }
+
+        lockKeyFilter();
+        try
+        {
+            for ( ICacheElement<K, V> cacheElement : cacheElements )
+            {
+                addToKeyFilter( cacheElement );
+            }
+            processUpdates( cacheElements );
+        }
+        finally
+        {
+            unlockKeyFilter();
+            for ( ICacheEvent<K> cacheEvent : cacheEvents )
+            {
+                logICacheEvent( cacheEvent );
+            }
+        }
+    }
+
+    /**
+     * Keeps a rebuild of the key filter from running while a write changes it.
+     */
+    private void lockKeyFilter()
+    {
+        if ( keyFilter != null )
+        {
+            keyFilterLock.readLock().lock();
+        }
+    }
+
+    /**
+     * @see #lockKeyFilter()
+     */
+    private void unlockKeyFilter()
+    {
+        if ( keyFilter != null )
+        {
+            keyFilterLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the key of an element about to be written in the key filter. The key is in the filter
+     * before it leaves purgatory, and keyReplaced takes the count back if it was on disk already.
+     *
+     * @param cacheElement
+     */
+    private void addToKeyFilter( ICacheElement<K, V> cacheElement )
+    {
+        if ( keyFilter != null )
+        {
+            keyFilter.add( getKeyFilterHash( cacheElement.getKey() ) );
+        }
+    }
+
+    /**
+     * Children call this from processUpdate or processUpdates when a write replaces a key that was
+     * on disk already, or an earlier element of the same batch, so that the key filter counts each
+     * key once. A child that does not call it only makes the filter less selective.
+     *
+     * @param key the key that was written again
+     */
+    protected void keyReplaced( K key )
+    {
+        if ( keyFilter != null )
+        {
+            keyFilter.remove( getKeyFilterHash( key ) );
+        }
+    }
+
+    /**
+     * Implementation of a batch of puts. This writes them one at a time, implementations that can
+     * write several elements at a lower cost should override it.
+     *
+     * @param cacheElements
+     * @throws IOException
+     */
+    protected void processUpdates( List<ICacheElement<K, V>> cacheElements )
+        throws IOException
+    {
+        for ( ICacheElement<K, V> cacheElement : cacheElements )
+        {
+            processUpdate( cacheElement );
+        }
     }
 
     /**
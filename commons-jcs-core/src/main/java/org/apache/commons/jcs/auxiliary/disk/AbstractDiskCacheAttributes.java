@@ -58,6 +58,57 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
     /** Type of disk limit: SIZE or COUNT */
     private DiskLimitType diskLimitType = DiskLimitType.COUNT;
 
+    /** Should the keys be kept in a journaled binary index instead of a key file written on shutdown. */
+    public static final boolean DEFAULT_JOURNAL_KEYS = false;
+
+    /** Should the keys be kept in a journaled binary index instead of a key file written on shutdown. */
+    private boolean journalKeys = DEFAULT_JOURNAL_KEYS;
+
+    /** Default time between syncs of the key journal to disk. */
+    public static final long DEFAULT_KEY_JOURNAL_SYNC_INTERVAL_MILLIS = 1000;
+
+    /** Time between syncs of the key journal to disk. This bounds what a crash can lose. */
+    private long keyJournalSyncIntervalMillis = DEFAULT_KEY_JOURNAL_SYNC_INTERVAL_MILLIS;
+
+    /** Default number of journal records after which a checkpoint of the key index is written. */
+    public static final int DEFAULT_KEY_JOURNAL_CHECKPOINT_RECORDS = 100000;
+
+    /** Number of journal records after which a checkpoint of the key index is written. */
+    private int keyJournalCheckpointRecords = DEFAULT_KEY_JOURNAL_CHECKPOINT_RECORDS;
+
+    /** Default number of queued puts written together, 1 writes every put on its own. */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 1;
+
+    /** Number of queued puts written together. */
+    private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+    /** Should the data file be forced to the device after each batch of puts. */
+    public static final boolean DEFAULT_SYNC_WRITE_BATCHES = false;
+
+    /** Should the data file be forced to the device after each batch of puts. */
+    private boolean syncWriteBatches = DEFAULT_SYNC_WRITE_BATCHES;
+
+    /** Should gets check a filter of the stored keys before going to disk. */
+    public static final boolean DEFAULT_USE_KEY_FILTER = false;
+
+    /** Should gets check a filter of the stored keys before going to disk. */
+    private boolean useKeyFilter = DEFAULT_USE_KEY_FILTER;
+
+    /** Default number of keys the key filter is sized for. */
+    public static final int DEFAULT_KEY_FILTER_EXPECTED_KEYS = 100000;
+
+    /** Number of keys the key filter is sized for. */
+    private int keyFilterExpectedKeys = DEFAULT_KEY_FILTER_EXPECTED_KEYS;
+
+    /** Default rate of misses the key filter lets through. */
+    public static final double DEFAULT_KEY_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    /** Rate of misses the key filter lets through at its expected size. */
+    private double keyFilterFalsePositiveRate = DEFAULT_KEY_FILTER_FALSE_POSITIVE_RATE;
+
+    /** Name of the thread pool that runs disk reads and writes concurrently, null for none. */
+    private String ioPoolName = null;
+
     /**
      * Sets the diskPath attribute of the DiskCacheAttributes object
      * <p>
@@ -195,9 +246,175 @@ public abstract class AbstractDiskCacheAttributes extends AbstractAuxiliaryCache
         str.append("\n maxPurgatorySize   = " + getMaxPurgatorySize());
         str.append("\n allowRemoveAll   = " + isAllowRemoveAll());
         str.append("\n ShutdownSpoolTimeLimit   = " + getShutdownSpoolTimeLimit());
+        str.append("\n journalKeys   = " + isJournalKeys());
+        str.append("\n writeBatchSize   = " + getWriteBatchSize());
+        str.append("\n syncWriteBatches   = " + isSyncWriteBatches());
+        str.append("\n useKeyFilter   = " + isUseKeyFilter());
+        str.append("\n keyFilterExpectedKeys   = " + getKeyFilterExpectedKeys());
+        str.append("\n keyFilterFalsePositiveRate   = " + getKeyFilterFalsePositiveRate());
+        str.append("\n ioPoolName   = " + getIOPoolName());
         return str.toString();
     }
 
+    /**
+     * @param journalKeys whether the keys are kept in a journaled binary index
+     */
+    public void setJournalKeys(boolean journalKeys)
+    {
+        this.journalKeys = journalKeys;
+    }
+
+    /**
+     * @return whether the keys are kept in a journaled binary index
+     */
+    public boolean isJournalKeys()
+    {
+        return journalKeys;
+    }
+
+    /**
+     * @param keyJournalSyncIntervalMillis the time between syncs of the key journal to disk
+     */
+    public void setKeyJournalSyncIntervalMillis(long keyJournalSyncIntervalMillis)
+    {
+        this.keyJournalSyncIntervalMillis = keyJournalSyncIntervalMillis;
+    }
+
+    /**
+     * @return the time between syncs of the key journal to disk
+     */
+    public long getKeyJournalSyncIntervalMillis()
+    {
+        return keyJournalSyncIntervalMillis;
+    }
+
+    /**
+     * @param keyJournalCheckpointRecords the number of journal records after which a checkpoint is written
+     */
+    public void setKeyJournalCheckpointRecords(int keyJournalCheckpointRecords)
+    {
+        this.keyJournalCheckpointRecords = keyJournalCheckpointRecords;
+    }
+
+    /**
+     * @return the number of journal records after which a checkpoint is written
+     */
+    public int getKeyJournalCheckpointRecords()
+    {
+        return keyJournalCheckpointRecords;
+    }
+
+    /**
+     * @param writeBatchSize the number of queued puts written together
+     */
+    @Override
+    public void setWriteBatchSize(int writeBatchSize)
+    {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * @return the number of queued puts written together
+     */
+    @Override
+    public int getWriteBatchSize()
+    {
+        return writeBatchSize;
+    }
+
+    /**
+     * @param syncWriteBatches whether the data file is forced to the device after each batch of puts
+     */
+    @Override
+    public void setSyncWriteBatches(boolean syncWriteBatches)
+    {
+        this.syncWriteBatches = syncWriteBatches;
+    }
+
+    /**
+     * @return whether the data file is forced to the device after each batch of puts
+     */
+    @Override
+    public boolean isSyncWriteBatches()
+    {
+        return syncWriteBatches;
+    }
+
+    /**
+     * @param useKeyFilter whether gets check a filter of the stored keys before going to disk
+     */
+    @Override
+    public void setUseKeyFilter(boolean useKeyFilter)
+    {
+        this.useKeyFilter = useKeyFilter;
+    }
+
+    /**
+     * @return whether gets check a filter of the stored keys before going to disk
+     */
+    @Override
+    public boolean isUseKeyFilter()
+    {
+        return useKeyFilter;
+    }
+
+    /**
+     * @param keyFilterExpectedKeys the number of keys the key filter is sized for
+     */
+    @Override
+    public void setKeyFilterExpectedKeys(int keyFilterExpectedKeys)
+    {
+        this.keyFilterExpectedKeys = keyFilterExpectedKeys;
+    }
+
+    /**
+     * @return the number of keys the key filter is sized for
+     */
+    @Override
+    public int getKeyFilterExpectedKeys()
+    {
+        return keyFilterExpectedKeys;
+    }
+
+    /**
+     * @param keyFilterFalsePositiveRate the rate of misses the key filter lets through at its
+     *            expected size
+     */
+    @Override
+    public void setKeyFilterFalsePositiveRate(double keyFilterFalsePositiveRate)
+    {
+        this.keyFilterFalsePositiveRate = keyFilterFalsePositiveRate;
+    }
+
+    /**
+     * @return the rate of misses the key filter lets through at its expected size
+     */
+    @Override
+    public double getKeyFilterFalsePositiveRate()
+    {
+        return keyFilterFalsePositiveRate;
+    }
+
+    /**
+     * @param ioPoolName the name of the thread pool that runs the disk reads and writes of a
+     *            region concurrently, or null to run them on the calling thread
+     */
+    @Override
+    public void setIOPoolName(String ioPoolName)
+    {
+        this.ioPoolName = ioPoolName;
+    }
+
+    /**
+     * @return the name of the thread pool that runs the disk reads and writes of a region
+     *         concurrently, or null to run them on the calling thread
+     */
+    @Override
+    public String getIOPoolName()
+    {
+        return ioPoolName;
+    }
+
     @Override
     public void setDiskLimitType(DiskLimitType diskLimitType)
     {
@@ -0,0 +1,262 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs disk reads and writes on a thread pool so that a region can have several of them in flight
+ * at once. The pool is taken by name from the ThreadPoolManager, so all the regions that name the
+ * same pool share its threads and the device sees a deeper queue without each region getting
+ * threads of its own.
+ * <p>
+ * The thread that hands over a group of operations runs the ones no pool thread has started yet
+ * while it waits for the others. A busy or full pool therefore slows a group down but can never
+ * deadlock it, even when the group is handed over from a pool thread.
+ */
+public class DiskIOEngine
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( DiskIOEngine.class );
+
+    /**
+     * Called when an operation finishes, on the thread that ran it.
+     * <p>
+     * @param <T> the type of the result
+     */
+    public interface CompletionHandler<T>
+    {
+        /**
+         * @param index the position of the operation in its group
+         * @param result the result of the operation
+         */
+        void completed( int index, T result );
+    }
+
+    /** The pool the operations run on. */
+    private final ExecutorService pool;
+
+    /** The name of the pool, for the logs and stats. */
+    private final String poolName;
+
+    /** Number of operations run by a pool thread. */
+    private final AtomicLong pooledOperations = new AtomicLong( 0 );
+
+    /** Number of operations run by the thread that handed them over. */
+    private final AtomicLong callerOperations = new AtomicLong( 0 );
+
+    /**
+     * @param poolName the name of the thread pool in the ThreadPoolManager
+     */
+    public DiskIOEngine( String poolName )
+    {
+        this( ThreadPoolManager.getInstance().getExecutorService( poolName ), poolName );
+    }
+
+    /**
+     * @param pool the pool the operations run on
+     * @param poolName the name of the pool
+     */
+    public DiskIOEngine( ExecutorService pool, String poolName )
+    {
+        this.pool = pool;
+        this.poolName = poolName;
+    }
+
+    /**
+     * Runs a group of operations, as many at once as the pool allows, and waits for all of them.
+     * The handler, if any, gets each result as soon as its operation finishes.
+     * <p>
+     * @param operations the operations to run
+     * @param handler called with each result, may be null
+     * @return the results, in the order of the operations
+     * @throws IOException the first exception thrown by an operation, after all of them finished
+     */
+    public <T> List<T> runAll( List<? extends Callable<T>> operations, final CompletionHandler<? super T> handler )
+        throws IOException
+    {
+        final Thread caller = Thread.currentThread();
+        List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>( operations.size() );
+        for ( int i = 0; i < operations.size(); i++ )
+        {
+            final int index = i;
+            final Callable<T> operation = operations.get( i );
+            tasks.add( new FutureTask<T>( new Callable<T>()
+            {
+                @Override
+                public T call()
+                    throws Exception
+                {
+                    if ( Thread.currentThread() == caller )
+                    {
+                        callerOperations.incrementAndGet();
+                    }
+                    else
+                    {
+                        pooledOperations.incrementAndGet();
+                    }
+                    T result = operation.call();
+                    if ( handler != null )
+                    {
+                        handler.completed( index, result );
+                    }
+                    return result;
+                }
+            } ) );
+        }
+
+        // the last one is run here anyway, there is no point in handing it over
+        for ( int i = 0; i < tasks.size() - 1; i++ )
+        {
+            final FutureTask<T> task = tasks.get( i );
+            try
+            {
+                pool.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        task.run();
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Pool [" + poolName + "] rejected a disk operation, running it on the calling thread" );
+                }
+                break;
+            }
+        }
+
+        List<T> results = new ArrayList<T>( tasks.size() );
+        Throwable failure = null;
+        for ( int i = tasks.size() - 1; i >= 0; i-- )
+        {
+            // run whatever has not been picked up yet, this does nothing for a started task
+            tasks.get( i ).run();
+        }
+        for ( FutureTask<T> task : tasks )
+        {
+            try
+            {
+                results.add( getUninterruptibly( task ) );
+            }
+            catch ( ExecutionException e )
+            {
+                results.add( null );
+                if ( failure == null )
+                {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        if ( failure instanceof IOException )
+        {
+            throw (IOException) failure;
+        }
+        if ( failure instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure;
+        }
+        if ( failure instanceof Error )
+        {
+            throw (Error) failure;
+        }
+        if ( failure != null )
+        {
+            throw new IOException( "Disk operation failed on pool [" + poolName + "]", failure );
+        }
+
+        return results;
+    }
+
+    /**
+     * Waits for a task that some thread has started.
+     * <p>
+     * @param task
+     * @return its result
+     * @throws ExecutionException
+     */
+    private static <T> T getUninterruptibly( FutureTask<T> task )
+        throws ExecutionException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while ( true )
+            {
+                try
+                {
+                    return task.get();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the name of the pool the operations run on
+     */
+    public String getPoolName()
+    {
+        return poolName;
+    }
+
+    /**
+     * @return the number of operations run by a pool thread
+     */
+    public long getPooledOperations()
+    {
+        return pooledOperations.get();
+    }
+
+    /**
+     * @return the number of operations run by the thread that handed them over
+     */
+    public long getCallerOperations()
+    {
+        return callerOperations.get();
+    }
+}
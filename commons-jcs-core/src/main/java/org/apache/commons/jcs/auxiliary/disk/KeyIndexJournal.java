@@ -0,0 +1,593 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IKeyIndexCodec;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A binary key index made of a checkpoint of all the keys and a journal of the keys put and
+ * removed since. Changes are appended to the journal as they happen and synced to disk at most a
+ * sync interval apart, so a crash loses at most that window. On startup the checkpoint and the
+ * journal are replayed.
+ * <p>
+ * Each record is the length of its body, the body, and a CRC32 of the body. The body is an
+ * operation byte, the key, and for puts the descriptor. String keys are written as UTF-8, other
+ * keys with the serializer. Replay stops at the first torn or corrupt record and the journal is
+ * truncated there.
+ * <p>
+ * A checkpoint is taken in two steps. Under the lock the cache uses for changes to its keys, it
+ * copies the key map and calls {@link #rotate()}, which starts a new journal. Then, without the
+ * lock, it calls {@link #writeCheckpoint(Map, long)}, which writes the copy to a temporary file and
+ * renames it over the checkpoint before deleting the rotated journal. A crash at any point leaves a
+ * checkpoint and journals that replay to the latest state.
+ * <p>
+ * @param <K> the type of the keys
+ * @param <D> the type of the descriptors
+ */
+public class KeyIndexJournal<K, D>
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( KeyIndexJournal.class );
+
+    /** First int of a checkpoint file. */
+    private static final int CHECKPOINT_MAGIC = 0x4A43534B;
+
+    /** A key was put. */
+    private static final byte OP_PUT = 1;
+
+    /** A key was removed. */
+    private static final byte OP_REMOVE = 2;
+
+    /** The key is a String. */
+    private static final byte KEY_STRING = 0;
+
+    /** The key is serialized. */
+    private static final byte KEY_OBJECT = 1;
+
+    /** Records longer than this are treated as corrupt. */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /** The checkpoint */
+    private final File checkpointFile;
+
+    /** The journal appended to */
+    private final File journalFile;
+
+    /** The journal rotated out for a checkpoint that is not finished yet */
+    private final File previousJournalFile;
+
+    /** Writes and reads the descriptors */
+    private final IKeyIndexCodec<D> codec;
+
+    /** Serializes keys that are not strings */
+    private final IElementSerializer keySerializer;
+
+    /** Maximum time between syncs of the journal */
+    private final long syncIntervalNanos;
+
+    /** The open journal, null until the first record */
+    private FileOutputStream journalStream;
+
+    /** Buffers the journal between syncs */
+    private DataOutputStream journalOut;
+
+    /** Reused to build the body of a journal record */
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+
+    /** Time of the last sync */
+    private long lastSyncNanos = System.nanoTime();
+
+    /** Records appended since the last rotation */
+    private int recordCount = 0;
+
+    /** Changed by every rotation and clear, so that a stale checkpoint is not installed */
+    private long generation = 0;
+
+    /**
+     * @param directory the directory of the files
+     * @param fileName the base name of the files
+     * @param codec writes and reads the descriptors
+     * @param keySerializer serializes keys that are not strings
+     * @param syncIntervalMillis maximum time between syncs of the journal
+     */
+    public KeyIndexJournal( File directory, String fileName, IKeyIndexCodec<D> codec,
+                            IElementSerializer keySerializer, long syncIntervalMillis )
+    {
+        this.checkpointFile = new File( directory, fileName + ".kidx" );
+        this.journalFile = new File( directory, fileName + ".kjnl" );
+        this.previousJournalFile = new File( directory, fileName + ".kjnl.old" );
+        this.codec = codec;
+        this.keySerializer = keySerializer;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos( syncIntervalMillis );
+    }
+
+    /**
+     * @return true if there is a checkpoint or journal to load
+     */
+    public synchronized boolean exists()
+    {
+        return checkpointFile.length() > 0 || journalFile.length() > 0 || previousJournalFile.length() > 0;
+    }
+
+    /**
+     * Replays the checkpoint and the journals into the map. A torn record at the end of the
+     * journal is cut off.
+     * <p>
+     * @param target the map to load the keys into
+     * @throws IOException if the checkpoint cannot be read
+     */
+    public synchronized void load( Map<K, D> target )
+        throws IOException
+    {
+        if ( checkpointFile.length() > 0 )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( checkpointFile ), 65536 ) );
+            try
+            {
+                if ( in.readInt() != CHECKPOINT_MAGIC )
+                {
+                    throw new IOException( "Not a key index checkpoint: " + checkpointFile );
+                }
+                replay( in, 4, checkpointFile, target );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        if ( previousJournalFile.length() > 0 )
+        {
+            replay( previousJournalFile, target );
+        }
+
+        if ( journalFile.length() > 0 )
+        {
+            long valid = replay( journalFile, target );
+            if ( valid < journalFile.length() )
+            {
+                log.warn( "Truncating torn key journal [" + journalFile + "] to " + valid + " bytes" );
+                RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" );
+                try
+                {
+                    raf.setLength( valid );
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file a journal
+     * @param target
+     * @return the length of the records that could be replayed
+     * @throws IOException
+     */
+    private long replay( File file, Map<K, D> target )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 65536 ) );
+        try
+        {
+            return replay( in, 0, file, target );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Applies records until the end of the stream or the first torn or corrupt record.
+     * <p>
+     * @param in
+     * @param offset the position of the stream in the file
+     * @param file for log messages
+     * @param target
+     * @return the offset after the last record applied
+     * @throws IOException
+     */
+    private long replay( DataInputStream in, long offset, File file, Map<K, D> target )
+        throws IOException
+    {
+        long valid = offset;
+        CRC32 crc = new CRC32();
+        while ( true )
+        {
+            byte[] body;
+            try
+            {
+                int length = in.readInt();
+                if ( length <= 0 || length > MAX_RECORD_LENGTH )
+                {
+                    log.warn( "Corrupt record length " + length + " in [" + file + "] at " + valid );
+                    break;
+                }
+                body = new byte[length];
+                in.readFully( body );
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update( body );
+                if ( (int) crc.getValue() != checksum )
+                {
+                    log.warn( "Checksum mismatch in [" + file + "] at " + valid );
+                    break;
+                }
+            }
+            catch ( EOFException e )
+            {
+                break;
+            }
+
+            apply( body, target );
+            valid += 8 + body.length;
+        }
+        return valid;
+    }
+
+    /**
+     * @param body
+     * @param target
+     * @throws IOException
+     */
+    private void apply( byte[] body, Map<K, D> target )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( body ) );
+        byte op = in.readByte();
+        K key = readKey( in );
+        if ( op == OP_PUT )
+        {
+            target.put( key, codec.read( in ) );
+        }
+        else
+        {
+            target.remove( key );
+        }
+    }
+
+    /**
+     * @param in
+     * @return the key
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked") // The key is of the type it was written with
+    private K readKey( DataInputStream in )
+        throws IOException
+    {
+        byte type = in.readByte();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        if ( type == KEY_STRING )
+        {
+            return (K) new String( bytes, "UTF-8" );
+        }
+
+        try
+        {
+            return (K) keySerializer.deSerialize( bytes, null );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw new IOException( "Cannot read key: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Appends a put of the key to the journal.
+     * <p>
+     * @param key
+     * @param descriptor
+     * @throws IOException
+     */
+    public synchronized void put( K key, D descriptor )
+        throws IOException
+    {
+        append( OP_PUT, key, descriptor );
+    }
+
+    /**
+     * Appends a removal of the key to the journal.
+     * <p>
+     * @param key
+     * @throws IOException
+     */
+    public synchronized void remove( K key )
+        throws IOException
+    {
+        append( OP_REMOVE, key, null );
+    }
+
+    /**
+     * @param op
+     * @param key
+     * @param descriptor
+     * @throws IOException
+     */
+    private void append( byte op, K key, D descriptor )
+        throws IOException
+    {
+        if ( journalOut == null )
+        {
+            journalStream = new FileOutputStream( journalFile, true );
+            journalOut = new DataOutputStream( new BufferedOutputStream( journalStream, 65536 ) );
+        }
+
+        writeRecord( journalOut, recordBuffer, op, key, descriptor );
+        recordCount++;
+
+        if ( System.nanoTime() - lastSyncNanos >= syncIntervalNanos )
+        {
+            sync();
+        }
+    }
+
+    /**
+     * @param out
+     * @param buffer
+     * @param op
+     * @param key
+     * @param descriptor
+     * @throws IOException
+     */
+    private void writeRecord( DataOutputStream out, ByteArrayOutputStream buffer, byte op, K key, D descriptor )
+        throws IOException
+    {
+        buffer.reset();
+        DataOutputStream body = new DataOutputStream( buffer );
+        body.writeByte( op );
+        byte[] keyBytes;
+        if ( key instanceof String )
+        {
+            body.writeByte( KEY_STRING );
+            keyBytes = ( (String) key ).getBytes( "UTF-8" );
+        }
+        else
+        {
+            body.writeByte( KEY_OBJECT );
+            keyBytes = keySerializer.serialize( key );
+        }
+        body.writeInt( keyBytes.length );
+        body.write( keyBytes );
+        if ( op == OP_PUT )
+        {
+            codec.write( body, descriptor );
+        }
+        body.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update( buffer.toByteArray() );
+        out.writeInt( buffer.size() );
+        buffer.writeTo( out );
+        out.writeInt( (int) crc.getValue() );
+    }
+
+    /**
+     * Flushes the journal and forces it to disk.
+     * <p>
+     * @throws IOException
+     */
+    public synchronized void sync()
+        throws IOException
+    {
+        if ( journalOut != null )
+        {
+            journalOut.flush();
+            journalStream.getFD().sync();
+        }
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the number of records appended since the last rotation
+     */
+    public synchronized int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Starts a new journal. The changes in the current one must be part of the copy of the keys
+     * the next checkpoint is written from. Call this under the lock the cache holds for changes to
+     * its keys, right after copying them.
+     * <p>
+     * @return the generation to pass to {@link #writeCheckpoint(Map, long)}
+     * @throws IOException
+     */
+    public synchronized long rotate()
+        throws IOException
+    {
+        closeJournal();
+        if ( journalFile.exists() )
+        {
+            if ( previousJournalFile.exists() )
+            {
+                // the last checkpoint failed, keep its journal in front of this one
+                append( journalFile, previousJournalFile );
+                deleteFile( journalFile );
+            }
+            else if ( !journalFile.renameTo( previousJournalFile ) )
+            {
+                throw new IOException( "Could not rename " + journalFile + " to " + previousJournalFile );
+            }
+        }
+        recordCount = 0;
+        return ++generation;
+    }
+
+    /**
+     * Writes a checkpoint of the keys copied before the rotation that returned the generation, and
+     * deletes the rotated journal. Nothing is installed if the journal was cleared or rotated
+     * again in the meantime.
+     * <p>
+     * @param keys the copy of the keys
+     * @param rotation the generation returned by {@link #rotate()}
+     * @return true if the checkpoint was installed
+     * @throws IOException
+     */
+    public boolean writeCheckpoint( Map<K, D> keys, long rotation )
+        throws IOException
+    {
+        File temp = new File( checkpointFile.getPath() + ".tmp" );
+        FileOutputStream stream = new FileOutputStream( temp );
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( stream, 65536 ) );
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            out.writeInt( CHECKPOINT_MAGIC );
+            for ( Map.Entry<K, D> e : keys.entrySet() )
+            {
+                writeRecord( out, buffer, OP_PUT, e.getKey(), e.getValue() );
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        synchronized ( this )
+        {
+            if ( rotation != generation )
+            {
+                deleteFile( temp );
+                return false;
+            }
+
+            deleteFile( checkpointFile );
+            if ( !temp.renameTo( checkpointFile ) )
+            {
+                throw new IOException( "Could not rename " + temp + " to " + checkpointFile );
+            }
+            deleteFile( previousJournalFile );
+        }
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( "Wrote key index checkpoint [" + checkpointFile + "] with " + keys.size() + " keys" );
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the checkpoint and the journals.
+     * <p>
+     * @throws IOException
+     */
+    public synchronized void clear()
+        throws IOException
+    {
+        closeJournal();
+        deleteFile( checkpointFile );
+        deleteFile( journalFile );
+        deleteFile( previousJournalFile );
+        recordCount = 0;
+        generation++;
+    }
+
+    /**
+     * Syncs and closes the journal. It is opened again by the next change.
+     * <p>
+     * @throws IOException
+     */
+    public synchronized void close()
+        throws IOException
+    {
+        closeJournal();
+    }
+
+    /**
+     * @throws IOException
+     */
+    private void closeJournal()
+        throws IOException
+    {
+        if ( journalOut != null )
+        {
+            sync();
+            journalOut.close();
+            journalOut = null;
+            journalStream = null;
+        }
+    }
+
+    /**
+     * @param source
+     * @param target the file to append the source to
+     * @throws IOException
+     */
+    private static void append( File source, File target )
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream( source );
+        FileOutputStream out = new FileOutputStream( target, true );
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long position = 0;
+            long size = channel.size();
+            while ( position < size )
+            {
+                position += channel.transferTo( position, size - position, out.getChannel() );
+            }
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+            in.close();
+        }
+    }
+
+    /**
+     * @param file
+     */
+    private static void deleteFile( File file )
+    {
+        if ( file.exists() && !file.delete() && log.isDebugEnabled() )
+        {
+            log.debug( "Could not delete file " + file );
+        }
+    }
+}
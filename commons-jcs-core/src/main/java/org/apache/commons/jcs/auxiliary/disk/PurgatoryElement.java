@@ -19,6 +19,8 @@ package org.apache.commons.jcs.auxiliary.disk;
  * under the License.
  */
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
@@ -35,8 +37,20 @@ public class PurgatoryElement<K, V>
     /** Don't change */
     private static final long serialVersionUID = -8152034342684135628L;
 
+    /** The queued put of the element has not been handled yet. */
+    private static final int PENDING = 0;
+
+    /** A later put of the key replaced the element, its queued put writes the later one. */
+    private static final int SUPERSEDED = 1;
+
+    /** The queued put of the element has been handled. */
+    private static final int TAKEN = 2;
+
     /** Is the element ready to be spooled? */
-    private boolean spoolable = false;
+    private volatile boolean spoolable = false;
+
+    /** Where the element is in its way to disk: PENDING, SUPERSEDED or TAKEN. */
+    private final AtomicInteger writeState = new AtomicInteger( PENDING );
 
     /** Wrapped cache Element */
     private ICacheElement<K, V> cacheElement;
@@ -74,6 +88,42 @@ public class PurgatoryElement<K, V>
         this.spoolable = spoolable;
     }
 
+    /**
+     * Hands the queued put of this element over to the element that replaced it in purgatory.
+     *
+     * @return false if the queued put was already handled
+     */
+    boolean supersede()
+    {
+        return writeState.compareAndSet( PENDING, SUPERSEDED );
+    }
+
+    /**
+     * Takes the element for writing.
+     *
+     * @return false if it was superseded or already taken
+     */
+    boolean take()
+    {
+        return writeState.compareAndSet( PENDING, TAKEN );
+    }
+
+    /**
+     * @return whether a later put of the key replaced the element before it was taken
+     */
+    boolean isSuperseded()
+    {
+        return writeState.get() == SUPERSEDED;
+    }
+
+    /**
+     * @return whether the element was taken for writing
+     */
+    boolean isTaken()
+    {
+        return writeState.get() == TAKEN;
+    }
+
     /**
      * Get the wrapped cache element.
      * 
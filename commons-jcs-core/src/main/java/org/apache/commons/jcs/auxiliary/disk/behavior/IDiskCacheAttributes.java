@@ -128,4 +128,70 @@ public interface IDiskCacheAttributes
      * @return active DiskLimitType
      */
     DiskLimitType getDiskLimitType();
+
+    /**
+     * The number of queued puts written together. A batch is written when it is full or when
+     * the event queue has nothing more for the region. Only the SINGLE event queue batches.
+     * <p>
+     * @return the write batch size, 1 writes every put on its own
+     */
+    int getWriteBatchSize();
+
+    /**
+     * @param writeBatchSize the number of queued puts written together
+     */
+    void setWriteBatchSize( int writeBatchSize );
+
+    /**
+     * @return whether the data file is forced to the device after each batch of puts
+     */
+    boolean isSyncWriteBatches();
+
+    /**
+     * @param syncWriteBatches whether the data file is forced to the device after each batch of puts
+     */
+    void setSyncWriteBatches( boolean syncWriteBatches );
+
+    /**
+     * @return whether gets check a filter of the stored keys before going to disk
+     */
+    boolean isUseKeyFilter();
+
+    /**
+     * @param useKeyFilter whether gets check a filter of the stored keys before going to disk
+     */
+    void setUseKeyFilter( boolean useKeyFilter );
+
+    /**
+     * @return the number of keys the key filter is sized for
+     */
+    int getKeyFilterExpectedKeys();
+
+    /**
+     * @param keyFilterExpectedKeys the number of keys the key filter is sized for
+     */
+    void setKeyFilterExpectedKeys( int keyFilterExpectedKeys );
+
+    /**
+     * @return the rate of misses the key filter lets through to disk at its expected size
+     */
+    double getKeyFilterFalsePositiveRate();
+
+    /**
+     * @param keyFilterFalsePositiveRate the rate of misses the key filter lets through to disk at
+     *            its expected size
+     */
+    void setKeyFilterFalsePositiveRate( double keyFilterFalsePositiveRate );
+
+    /**
+     * @return the name of the thread pool that runs the disk reads and writes of a region
+     *         concurrently, or null to run them on the calling thread
+     */
+    String getIOPoolName();
+
+    /**
+     * @param ioPoolName the name of the thread pool that runs the disk reads and writes of a
+     *            region concurrently, or null to run them on the calling thread
+     */
+    void setIOPoolName( String ioPoolName );
 }
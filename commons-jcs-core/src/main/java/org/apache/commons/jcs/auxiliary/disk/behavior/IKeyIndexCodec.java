@@ -0,0 +1,48 @@
+package org.apache.commons.jcs.auxiliary.disk.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the descriptors of a disk cache in the binary key index.
+ * <p>
+ * @param <D> the type of the descriptors
+ */
+public interface IKeyIndexCodec<D>
+{
+    /**
+     * @param out
+     * @param descriptor
+     * @throws IOException
+     */
+    void write( DataOutput out, D descriptor )
+        throws IOException;
+
+    /**
+     * @param in
+     * @return the descriptor
+     * @throws IOException
+     */
+    D read( DataInput in )
+        throws IOException;
+}
@@ -19,19 +19,20 @@ package org.apache.commons.jcs.auxiliary.disk.block;
  * under the License.
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs.utils.zip.CRC32C;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -51,7 +52,7 @@ public class BlockDisk
     // N.B. 4 bytes is the size used for ByteBuffer.putInt(int value) and ByteBuffer.getInt()
 
     /** defaults to 4kb */
-    private static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
+    static final int DEFAULT_BLOCK_SIZE_BYTES = 4 * 1024;
 
     /** Size of the blocks */
     private final int blockSizeBytes;
@@ -62,8 +63,17 @@ public class BlockDisk
      */
     private final AtomicInteger numberOfBlocks = new AtomicInteger(0);
 
-    /** Empty blocks that can be reused. */
-    private final ConcurrentLinkedQueue<Integer> emptyBlocks = new ConcurrentLinkedQueue<Integer>();
+    /** Empty blocks that can be reused, a set bit for each. Guarded by the allocation lock. */
+    private final BitSet emptyBlocks = new BitSet();
+
+    /** The number of bits set in the empty blocks. Guarded by the allocation lock. */
+    private int emptyBlockCount = 0;
+
+    /** Where the search for a run of empty blocks starts, after the run found last. */
+    private int rover = 0;
+
+    /** Serializes the allocation and freeing of blocks. */
+    private final Object allocationLock = new Object();
 
     /** The serializer. */
     private final IElementSerializer elementSerializer;
@@ -80,6 +90,12 @@ public class BlockDisk
     /** How many items have we put to disk */
     private final AtomicLong putCount = new AtomicLong(0);
 
+    /** Whether each record starts with a CRC32C checksum of its data. */
+    private final boolean useChecksums;
+
+    /** The size of the checksum in front of the data of a record. */
+    private static final int CHECKSUM_SIZE_BYTES = 4;
+
     /**
      * Constructor for the Disk object
      * <p>
@@ -93,6 +109,20 @@ public class BlockDisk
         this( file, DEFAULT_BLOCK_SIZE_BYTES, elementSerializer );
     }
 
+    /**
+     * Constructor for the Disk object
+     * <p>
+     * @param file
+     * @param elementSerializer
+     * @param useChecksums whether records carry a CRC32C checksum that is verified on read
+     * @throws IOException
+     */
+    public BlockDisk( File file, IElementSerializer elementSerializer, boolean useChecksums )
+        throws IOException
+    {
+        this( file, DEFAULT_BLOCK_SIZE_BYTES, elementSerializer, useChecksums );
+    }
+
     /**
      * Creates the file and set the block size in bytes.
      * <p>
@@ -117,6 +147,22 @@ public class BlockDisk
     public BlockDisk( File file, int blockSizeBytes, IElementSerializer elementSerializer )
         throws IOException
     {
+        this( file, blockSizeBytes, elementSerializer, false );
+    }
+
+    /**
+     * Creates the file and set the block size in bytes.
+     * <p>
+     * @param file
+     * @param blockSizeBytes
+     * @param elementSerializer
+     * @param useChecksums whether records carry a CRC32C checksum that is verified on read
+     * @throws IOException
+     */
+    public BlockDisk( File file, int blockSizeBytes, IElementSerializer elementSerializer, boolean useChecksums )
+        throws IOException
+    {
+        this.useChecksums = useChecksums;
         this.filepath = file.getAbsolutePath();
         RandomAccessFile raf = new RandomAccessFile( filepath, "rw" );
         this.fc = raf.getChannel();
@@ -132,7 +178,10 @@ public class BlockDisk
     }
 
     /**
-     * Allocate a given number of blocks from the available set
+     * Allocate a given number of blocks from the available set. A run of empty blocks long enough
+     * is preferred, so that the record is written and read as one extent. Else the empty blocks
+     * are used in file order and the rest is appended to the file, continuing a run of empty
+     * blocks at its end.
      *
      * @param numBlocksNeeded
      * @return an array of allocated blocks
@@ -142,20 +191,68 @@ public class BlockDisk
         assert numBlocksNeeded >= 1;
 
         int[] blocks = new int[numBlocksNeeded];
-        // get them from the empty list or take the next one
-        for (int i = 0; i < numBlocksNeeded; i++)
+        int count = 0;
+        synchronized (allocationLock)
         {
-            Integer emptyBlock = emptyBlocks.poll();
-            if (emptyBlock == null)
+            int end = numberOfBlocks.get();
+            int start = findEmptyRun(numBlocksNeeded, rover, end);
+            if (start < 0)
+            {
+                start = findEmptyRun(numBlocksNeeded, 0, rover);
+            }
+
+            if (start >= 0)
+            {
+                for (; count < numBlocksNeeded; count++)
+                {
+                    blocks[count] = start + count;
+                }
+                emptyBlocks.clear(start, start + numBlocksNeeded);
+                emptyBlockCount -= numBlocksNeeded;
+                rover = start + numBlocksNeeded;
+            }
+            else
             {
-                emptyBlock = Integer.valueOf(numberOfBlocks.getAndIncrement());
+                for (int block = emptyBlocks.nextSetBit(0); block >= 0 && count < numBlocksNeeded;
+                     block = emptyBlocks.nextSetBit(block + 1))
+                {
+                    blocks[count++] = block;
+                    emptyBlocks.clear(block);
+                    emptyBlockCount--;
+                }
+                for (; count < numBlocksNeeded; count++)
+                {
+                    blocks[count] = numberOfBlocks.getAndIncrement();
+                }
             }
-            blocks[i] = emptyBlock.intValue();
         }
 
         return blocks;
     }
 
+    /**
+     * Finds the first run of empty blocks of a given length starting in a range.
+     *
+     * @param length the number of blocks needed
+     * @param from the first block of the range
+     * @param to the end of the range, exclusive
+     * @return the first block of the run, or -1 if there is none
+     */
+    private int findEmptyRun(int length, int from, int to)
+    {
+        int start = emptyBlocks.nextSetBit(from);
+        while (start >= 0 && start < to)
+        {
+            int end = emptyBlocks.nextClearBit(start);
+            if (end - start >= length)
+            {
+                return start;
+            }
+            start = emptyBlocks.nextSetBit(end);
+        }
+        return -1;
+    }
+
     /**
      * This writes an object to disk and returns the blocks it was stored in.
      * <p>
@@ -177,8 +274,20 @@ public class BlockDisk
         throws IOException
     {
         // serialize the object
-        byte[] data = elementSerializer.serialize(object);
+        return writeBytes( elementSerializer.serialize(object) );
+    }
 
+    /**
+     * Writes already serialized data to free blocks, as {@link #write(Serializable)} does after
+     * serializing. This lets callers serialize outside of their locks.
+     * <p>
+     * @param data the serialized object
+     * @return the blocks we used.
+     * @throws IOException
+     */
+    protected int[] writeBytes( byte[] data )
+        throws IOException
+    {
         if ( log.isDebugEnabled() )
         {
             log.debug( "write, total pre-chunking data.length = " + data.length );
@@ -187,6 +296,14 @@ public class BlockDisk
         this.putBytes.addAndGet(data.length);
         this.putCount.incrementAndGet();
 
+        if ( useChecksums )
+        {
+            ByteBuffer record = ByteBuffer.allocate( CHECKSUM_SIZE_BYTES + data.length );
+            record.putInt( checksum( data, 0, data.length ) );
+            record.put( data );
+            data = record.array();
+        }
+
         // figure out how many blocks we need.
         int numBlocksNeeded = calculateTheNumberOfBlocksNeeded(data);
 
@@ -198,34 +315,83 @@ public class BlockDisk
         // allocate blocks
         int[] blocks = allocateBlocks(numBlocksNeeded);
 
+        // write each run of consecutive blocks at once
         int offset = 0;
-        final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
-        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-
-        for (int i = 0; i < numBlocksNeeded; i++)
+        int start = 0;
+        while (start < numBlocksNeeded)
         {
-            headerBuffer.clear();
-            int length = Math.min(maxChunkSize, data.length - offset);
-            headerBuffer.putInt(length);
+            int end = extentEnd(blocks, start);
+            offset = writeExtent(blocks[start], end - start, data, offset);
+            start = end;
+        }
 
-            ByteBuffer dataBuffer = ByteBuffer.wrap(data, offset, length);
+        //fc.force(false);
+
+        return blocks;
+    }
 
-            long position = calculateByteOffsetForBlockAsLong(blocks[i]);
-            // write the header
-            headerBuffer.flip();
-            int written = fc.write(headerBuffer, position);
-            assert written == HEADER_SIZE_BYTES;
+    /**
+     * Finds the end of the run of consecutive blocks starting at an index.
+     * <p>
+     * @param blocks
+     * @param start the index of the first block of the run
+     * @return the index after the last block of the run
+     */
+    private static int extentEnd( int[] blocks, int start )
+    {
+        int end = start + 1;
+        while ( end < blocks.length && blocks[end] == blocks[end - 1] + 1 )
+        {
+            end++;
+        }
+        return end;
+    }
 
-            //write the data
-            written = fc.write(dataBuffer, position + HEADER_SIZE_BYTES);
-            assert written == length;
+    /**
+     * Writes the chunks of a record to consecutive blocks. The headers and chunks are copied into
+     * one buffer and written at the position of the first block, which leaves the position of the
+     * channel alone, so extents can be written concurrently.
+     * <p>
+     * @param firstBlock the first block of the extent
+     * @param count the number of blocks
+     * @param data the record
+     * @param offset the offset of the first chunk in the record
+     * @return the offset after the last chunk written
+     * @throws IOException
+     */
+    private int writeExtent( int firstBlock, int count, byte[] data, int offset )
+        throws IOException
+    {
+        final int maxChunkSize = blockSizeBytes - HEADER_SIZE_BYTES;
+        long position = calculateByteOffsetForBlockAsLong( firstBlock );
 
+        int size = count * HEADER_SIZE_BYTES + Math.min( count * maxChunkSize, data.length - offset );
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        for ( int i = 0; i < count; i++ )
+        {
+            int length = Math.min( maxChunkSize, data.length - offset );
+            buffer.putInt( length );
+            buffer.put( data, offset, length );
             offset += length;
         }
+        buffer.flip();
 
-        //fc.force(false);
+        while ( buffer.hasRemaining() )
+        {
+            fc.write( buffer, position + buffer.position() );
+        }
+        return offset;
+    }
 
-        return blocks;
+    /**
+     * Forces any written blocks to the storage device.
+     * <p>
+     * @throws IOException
+     */
+    protected void force()
+        throws IOException
+    {
+        fc.force(false);
     }
 
     /**
@@ -276,24 +442,19 @@ public class BlockDisk
     protected <T extends Serializable> T read( int[] blockNumbers )
         throws IOException, ClassNotFoundException
     {
-        byte[] data = null;
-
-        if ( blockNumbers.length == 1 )
+        // read each run of consecutive blocks at once
+        byte[] data = new byte[blockNumbers.length * ( blockSizeBytes - HEADER_SIZE_BYTES )];
+        int length = 0;
+        int start = 0;
+        while ( start < blockNumbers.length )
         {
-            data = readBlock( blockNumbers[0] );
+            int end = extentEnd( blockNumbers, start );
+            length = readExtent( blockNumbers[start], end - start, data, length );
+            start = end;
         }
-        else
+        if ( length < data.length )
         {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream(getBlockSizeBytes());
-            // get all the blocks into data
-            for ( short i = 0; i < blockNumbers.length; i++ )
-            {
-                byte[] chunk = readBlock( blockNumbers[i] );
-                baos.write(chunk);
-            }
-
-            data = baos.toByteArray();
-            baos.close();
+            data = Arrays.copyOf( data, length );
         }
 
         if ( log.isDebugEnabled() )
@@ -301,62 +462,104 @@ public class BlockDisk
             log.debug( "read, total post combination data.length = " + data.length );
         }
 
+        if ( useChecksums )
+        {
+            if ( data.length < CHECKSUM_SIZE_BYTES
+                || ByteBuffer.wrap( data ).getInt() != checksum( data, CHECKSUM_SIZE_BYTES, data.length - CHECKSUM_SIZE_BYTES ) )
+            {
+                log.warn( "The record in blocks " + Arrays.toString( blockNumbers ) + " of [" + filepath
+                    + "] fails its checksum" );
+                throw new IOException( "The record fails its checksum" );
+            }
+            data = Arrays.copyOfRange( data, CHECKSUM_SIZE_BYTES, data.length );
+        }
+
         return elementSerializer.deSerialize( data, null );
     }
 
     /**
-     * This reads the occupied data in a block.
+     * Computes the checksum of the data of a record.
      * <p>
-     * The first four bytes of the record should tell us how long it is. The data is read into a
-     * byte array and then an object is constructed from the byte array.
+     * @param data
+     * @param offset
+     * @param length
+     * @return the checksum
+     */
+    private static int checksum( byte[] data, int offset, int length )
+    {
+        CRC32C crc = new CRC32C();
+        crc.update( data, offset, length );
+        return (int) crc.getValue();
+    }
+
+    /**
+     * This reads the occupied data in consecutive blocks with one read.
+     * <p>
+     * The first four bytes of each block tell us how much of it is occupied. The occupied data of
+     * the blocks is copied to the record.
      * <p>
-     * @return byte[]
-     * @param block
+     * @param firstBlock the first block of the extent
+     * @param count the number of blocks
+     * @param data the record being read
+     * @param offset where the data of the first block goes in the record
+     * @return the offset after the data of the last block
      * @throws IOException
      */
-    private byte[] readBlock( int block )
+    private int readExtent( int firstBlock, int count, byte[] data, int offset )
         throws IOException
     {
-        int datalen = 0;
-
-        String message = null;
-        boolean corrupted = false;
+        long position = calculateByteOffsetForBlockAsLong( firstBlock );
         long fileLength = fc.size();
 
-        long position = calculateByteOffsetForBlockAsLong( block );
-//        if ( position > fileLength )
-//        {
-//            corrupted = true;
-//            message = "Record " + position + " starts past EOF.";
-//        }
-//        else
+        // the last block of the file is only written as far as it is occupied
+        ByteBuffer extent = ByteBuffer.allocate( (int) Math.max( 0,
+            Math.min( (long) count * blockSizeBytes, fileLength - position ) ) );
+        while ( extent.hasRemaining() && fc.read( extent, position + extent.position() ) >= 0 )
         {
-            ByteBuffer datalength = ByteBuffer.allocate(HEADER_SIZE_BYTES);
-            fc.read(datalength, position);
-            datalength.flip();
-            datalen = datalength.getInt();
-            if ( position + datalen > fileLength )
-            {
-                corrupted = true;
-                message = "Record " + position + " exceeds file length.";
-            }
+            // keep reading
         }
+        extent.flip();
 
-        if ( corrupted )
+        int end = offset;
+        for ( int i = 0; i < count; i++ )
         {
-            log.warn( "\n The file is corrupt: " + "\n " + message );
-            throw new IOException( "The File Is Corrupt, need to reset" );
-        }
+            String message = null;
+            int blockStart = i * blockSizeBytes;
+            int datalen = 0;
+            if ( blockStart + HEADER_SIZE_BYTES > extent.limit() )
+            {
+                message = "Record " + ( position + blockStart ) + " starts past EOF.";
+            }
+            else
+            {
+                datalen = extent.getInt( blockStart );
+                if ( datalen < 0 || datalen > blockSizeBytes - HEADER_SIZE_BYTES )
+                {
+                    message = "Record " + ( position + blockStart ) + " has an invalid length (" + datalen + ").";
+                }
+                else if ( blockStart + HEADER_SIZE_BYTES + datalen > extent.limit() )
+                {
+                    message = "Record " + ( position + blockStart ) + " exceeds file length.";
+                }
+            }
 
-        ByteBuffer data = ByteBuffer.allocate(datalen);
-        fc.read(data, position + HEADER_SIZE_BYTES);
-        data.flip();
+            if ( message != null )
+            {
+                log.warn( "\n The file is corrupt: " + "\n " + message );
+                throw new IOException( "The File Is Corrupt, need to reset" );
+            }
+
+            extent.position( blockStart + HEADER_SIZE_BYTES );
+            extent.get( data, end, datalen );
+            end += datalen;
+        }
 
-        return data.array();
+        return end;
     }
 
     /**
-     * Add these blocks to the emptyBlock list.
+     * Add these blocks to the empty blocks. Blocks already empty or past the end of the file are
+     * ignored.
      * <p>
      * @param blocksToFree
      */
@@ -364,9 +567,18 @@ public class BlockDisk
     {
         if ( blocksToFree != null )
         {
-            for ( short i = 0; i < blocksToFree.length; i++ )
+            synchronized ( allocationLock )
             {
-                emptyBlocks.offer( Integer.valueOf( blocksToFree[i] ) );
+                int end = numberOfBlocks.get();
+                for ( int i = 0; i < blocksToFree.length; i++ )
+                {
+                    int block = blocksToFree[i];
+                    if ( block >= 0 && block < end && !emptyBlocks.get( block ) )
+                    {
+                        emptyBlocks.set( block );
+                        emptyBlockCount++;
+                    }
+                }
             }
         }
     }
@@ -454,8 +666,13 @@ public class BlockDisk
     protected synchronized void reset()
         throws IOException
     {
-        this.numberOfBlocks.set(0);
-        this.emptyBlocks.clear();
+        synchronized ( allocationLock )
+        {
+            this.numberOfBlocks.set(0);
+            this.emptyBlocks.clear();
+            this.emptyBlockCount = 0;
+            this.rover = 0;
+        }
         fc.truncate(0);
         fc.force(true);
     }
@@ -495,7 +712,10 @@ public class BlockDisk
      */
     protected int getEmptyBlocks()
     {
-        return this.emptyBlocks.size();
+        synchronized ( allocationLock )
+        {
+            return this.emptyBlockCount;
+        }
     }
 
     /**
@@ -30,9 +30,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
@@ -68,8 +70,23 @@ public class BlockDiskCache<K, V>
     /** The name of the file to store data. */
     private final String fileName;
 
-    /** The data access object */
-    private BlockDisk dataFile;
+    /** The data access objects, one per size class with the smallest blocks first. */
+    private BlockDisk[] dataFiles;
+
+    /**
+     * With more than one size class, block numbers in the key store carry the size class in their
+     * top bits, so that the classes share one key store. A single block file uses plain numbers.
+     */
+    private static final int SIZE_CLASS_SHIFT = 28;
+
+    /** The bits of a block number in the key store that number the block in its class file. */
+    private static final int BLOCK_MASK = ( 1 << SIZE_CLASS_SHIFT ) - 1;
+
+    /** The most size classes the top bits of a block number can tell apart. */
+    private static final int MAX_SIZE_CLASSES = 8;
+
+    /** A value goes to the smallest class that holds it in at most this many blocks. */
+    private static final int SIZE_CLASS_MAX_BLOCKS = 16;
 
     /** Attributes governing the behavior of the block disk cache. */
     private final BlockDiskCacheAttributes blockDiskCacheAttributes;
@@ -86,6 +103,9 @@ public class BlockDiskCache<K, V>
      */
     private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
 
+    /** The number of records dropped because they were damaged. */
+    private final AtomicInteger droppedRecords = new AtomicInteger( 0 );
+
     private ScheduledFuture<?> future;
 
     /**
@@ -128,16 +148,33 @@ public class BlockDiskCache<K, V>
 
         try
         {
-            if ( this.blockDiskCacheAttributes.getBlockSizeBytes() > 0 )
+            int[] blockSizeClasses = parseBlockSizeClasses();
+            if ( blockSizeClasses.length > 0 )
+            {
+                checkSingleBlockFile( blockSizeClasses[0] );
+                this.dataFiles = new BlockDisk[blockSizeClasses.length];
+                for ( int i = 0; i < blockSizeClasses.length; i++ )
+                {
+                    // the first class keeps the name of a single block file
+                    String classFileName = i == 0 ? fileName + ".data" : fileName + "." + i + ".data";
+                    this.dataFiles[i] = new BlockDisk( new File( rootDirectory, classFileName ),
+                                                       blockSizeClasses[i],
+                                                       getElementSerializer(),
+                                                       this.blockDiskCacheAttributes.isUseRecordChecksums() );
+                }
+            }
+            else if ( this.blockDiskCacheAttributes.getBlockSizeBytes() > 0 )
             {
-                this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
+                this.dataFiles = new BlockDisk[] { new BlockDisk( new File( rootDirectory, fileName + ".data" ),
                                                this.blockDiskCacheAttributes.getBlockSizeBytes(),
-                                               getElementSerializer() );
+                                               getElementSerializer(),
+                                               this.blockDiskCacheAttributes.isUseRecordChecksums() ) };
             }
             else
             {
-                this.dataFile = new BlockDisk( new File( rootDirectory, fileName + ".data" ),
-                                               getElementSerializer() );
+                this.dataFiles = new BlockDisk[] { new BlockDisk( new File( rootDirectory, fileName + ".data" ),
+                                               getElementSerializer(),
+                                               this.blockDiskCacheAttributes.isUseRecordChecksums() ) };
             }
 
             keyStore = new BlockDiskKeyStore<K>( this.blockDiskCacheAttributes, this );
@@ -171,7 +208,25 @@ public class BlockDiskCache<K, V>
     {
         // add this region to the persistence thread.
         // TODO we might need to stagger this a bit.
-        if ( this.blockDiskCacheAttributes.getKeyPersistenceIntervalSeconds() > 0 )
+        if ( this.blockDiskCacheAttributes.isJournalKeys() )
+        {
+            if ( this.blockDiskCacheAttributes.getKeyJournalSyncIntervalMillis() > 0 )
+            {
+                future = scheduledExecutor.scheduleWithFixedDelay(
+                        new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                keyStore.persistKeys();
+                            }
+                        },
+                        this.blockDiskCacheAttributes.getKeyJournalSyncIntervalMillis(),
+                        this.blockDiskCacheAttributes.getKeyJournalSyncIntervalMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        else if ( this.blockDiskCacheAttributes.getKeyPersistenceIntervalSeconds() > 0 )
         {
             future = scheduledExecutor.scheduleAtFixedRate(
                     new Runnable()
@@ -188,6 +243,188 @@ public class BlockDiskCache<K, V>
         }
     }
 
+    /**
+     * Parses the block sizes of the size classes.
+     * <p>
+     * @return the block sizes, smallest first, or none if a single block file is configured
+     */
+    private int[] parseBlockSizeClasses()
+    {
+        String classes = this.blockDiskCacheAttributes.getBlockSizeClasses();
+        if ( classes == null || classes.trim().length() == 0 )
+        {
+            return new int[0];
+        }
+
+        String[] parts = classes.split( "," );
+        int[] sizes = new int[parts.length];
+        try
+        {
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                sizes[i] = Integer.parseInt( parts[i].trim() );
+                if ( sizes[i] <= BlockDisk.HEADER_SIZE_BYTES )
+                {
+                    throw new NumberFormatException( "Block size too small: " + sizes[i] );
+                }
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            log.error( logCacheName + "Bad BlockSizeClasses [" + classes + "], using a single block file", e );
+            return new int[0];
+        }
+
+        Arrays.sort( sizes );
+        if ( sizes.length > MAX_SIZE_CLASSES )
+        {
+            log.error( logCacheName + "Too many BlockSizeClasses [" + classes + "], using the first "
+                + MAX_SIZE_CLASSES );
+            sizes = Arrays.copyOf( sizes, MAX_SIZE_CLASSES );
+        }
+        return sizes;
+    }
+
+    /**
+     * A data file written without size classes holds the blocks of the first class. It can only be
+     * read back if its block size is the smallest configured class.
+     * <p>
+     * @param firstClassBlockSize the block size of the first class
+     * @throws IOException if an existing single block file has another block size
+     */
+    private void checkSingleBlockFile( int firstClassBlockSize )
+        throws IOException
+    {
+        File data = new File( rootDirectory, fileName + ".data" );
+        File secondClassFile = new File( rootDirectory, fileName + ".1.data" );
+        if ( data.length() == 0 || secondClassFile.exists() )
+        {
+            return;
+        }
+
+        int blockSizeBytes = this.blockDiskCacheAttributes.getBlockSizeBytes() > 0
+            ? this.blockDiskCacheAttributes.getBlockSizeBytes() : BlockDisk.DEFAULT_BLOCK_SIZE_BYTES;
+        if ( blockSizeBytes != firstClassBlockSize )
+        {
+            throw new IOException( logCacheName + "The existing data file " + data + " has blocks of "
+                + blockSizeBytes + " bytes, but the smallest BlockSizeClasses is " + firstClassBlockSize
+                + ". Add " + blockSizeBytes + " as the smallest class or remove the files of the region." );
+        }
+    }
+
+    /**
+     * Picks the size class for a value: the smallest class that holds it in at most
+     * SIZE_CLASS_MAX_BLOCKS blocks, else the class with the largest blocks.
+     * <p>
+     * @param length the length of the serialized value
+     * @return the index of the class
+     */
+    private int sizeClassFor( int length )
+    {
+        for ( int i = 0; i < dataFiles.length - 1; i++ )
+        {
+            long chunk = dataFiles[i].getBlockSizeBytes() - BlockDisk.HEADER_SIZE_BYTES;
+            if ( length <= chunk * SIZE_CLASS_MAX_BLOCKS )
+            {
+                return i;
+            }
+        }
+        return dataFiles.length - 1;
+    }
+
+    /**
+     * Gets the block file holding the blocks of a value.
+     * <p>
+     * @param blocks the blocks of a value as kept in the key store
+     * @return the block file of its size class
+     */
+    private BlockDisk dataFileFor( int[] blocks )
+    {
+        if ( dataFiles.length == 1 || blocks.length == 0 )
+        {
+            return dataFiles[0];
+        }
+        return dataFiles[blocks[0] >>> SIZE_CLASS_SHIFT];
+    }
+
+    /**
+     * Gets the numbers of the blocks of a value in the file of its size class.
+     * <p>
+     * @param blocks the blocks of a value as kept in the key store
+     * @return the block numbers without the size class
+     */
+    private int[] blocksInClass( int[] blocks )
+    {
+        if ( dataFiles.length == 1 || blocks.length == 0 || blocks[0] >>> SIZE_CLASS_SHIFT == 0 )
+        {
+            return blocks;
+        }
+
+        int[] inClass = new int[blocks.length];
+        for ( int i = 0; i < blocks.length; i++ )
+        {
+            inClass[i] = blocks[i] & BLOCK_MASK;
+        }
+        return inClass;
+    }
+
+    /**
+     * Reads the value in the given blocks.
+     * <p>
+     * @param blocks the blocks of a value as kept in the key store
+     * @return the value
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private ICacheElement<K, V> readBlocks( int[] blocks )
+        throws IOException, ClassNotFoundException
+    {
+        return dataFileFor( blocks ).read( blocksInClass( blocks ) );
+    }
+
+    /**
+     * Writes a serialized value to the file of its size class.
+     * <p>
+     * @param data the serialized value
+     * @return the blocks of the value as kept in the key store
+     * @throws IOException
+     */
+    private int[] writeBlocks( byte[] data )
+        throws IOException
+    {
+        int sizeClass = sizeClassFor( data.length );
+        int[] blocks = dataFiles[sizeClass].writeBytes( data );
+        if ( dataFiles.length > 1 )
+        {
+            for ( int i = 0; i < blocks.length; i++ )
+            {
+                if ( blocks[i] > BLOCK_MASK )
+                {
+                    dataFiles[sizeClass].freeBlocks( blocks );
+                    throw new IOException( logCacheName + "The file of size class " + sizeClass + " is full" );
+                }
+                blocks[i] |= sizeClass << SIZE_CLASS_SHIFT;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Gets the size of the blocks of a value. With a single block file this is the configured
+     * block size, as the key store has always counted it.
+     * <p>
+     * @param blocks the blocks of a value as kept in the key store
+     * @return the size of each block in bytes
+     */
+    protected int getBlockSizeBytes( int[] blocks )
+    {
+        if ( dataFiles == null || dataFiles.length == 1 )
+        {
+            return this.blockDiskCacheAttributes.getBlockSizeBytes();
+        }
+        return dataFileFor( blocks ).getBlockSizeBytes();
+    }
+
     /**
      * We need to verify that the file on disk uses the same block size and that the file is the
      * proper size.
@@ -199,25 +436,38 @@ public class BlockDiskCache<K, V>
         boolean alright = false;
         // simply try to read a few. If it works, then the file is probably ok.
         // TODO add more.
+        List<K> damaged = new ArrayList<K>();
+        int count = 0;
 
         storageLock.readLock().lock();
 
         try
         {
             int maxToTest = 100;
-            int count = 0;
             Iterator<Map.Entry<K, int[]>> it = this.keyStore.entrySet().iterator();
             while ( it.hasNext() && count < maxToTest )
             {
                 count++;
                 Map.Entry<K, int[]> entry = it.next();
-                Object data = this.dataFile.read( entry.getValue() );
-                if ( data == null )
+                try
+                {
+                    Object data = readBlocks( entry.getValue() );
+                    if ( data == null )
+                    {
+                        throw new Exception( logCacheName + "Couldn't find data for key [" + entry.getKey() + "]" );
+                    }
+                }
+                catch ( Exception e )
                 {
-                    throw new Exception( logCacheName + "Couldn't find data for key [" + entry.getKey() + "]" );
+                    if ( !this.blockDiskCacheAttributes.isUseRecordChecksums() )
+                    {
+                        throw e;
+                    }
+                    damaged.add( entry.getKey() );
                 }
             }
-            alright = true;
+            // with checksums a damaged record costs only itself
+            alright = count == 0 || damaged.size() < count;
         }
         catch ( Exception e )
         {
@@ -229,6 +479,14 @@ public class BlockDiskCache<K, V>
             storageLock.readLock().unlock();
         }
 
+        if ( alright )
+        {
+            for ( K key : damaged )
+            {
+                dropDamagedRecord( key );
+            }
+        }
+
         return alright;
     }
 
@@ -343,7 +601,7 @@ public class BlockDiskCache<K, V>
                 int[] ded = this.keyStore.get( key );
                 if ( ded != null )
                 {
-                    object = this.dataFile.read( ded );
+                    object = readBlocks( ded );
                 }
             } finally {
                 storageLock.readLock().unlock();
@@ -353,7 +611,14 @@ public class BlockDiskCache<K, V>
         catch ( IOException ioe )
         {
             log.error( logCacheName + "Failure getting from disk--IOException, key = " + key, ioe );
-            reset();
+            if ( this.blockDiskCacheAttributes.isUseRecordChecksums() )
+            {
+                dropDamagedRecord( key );
+            }
+            else
+            {
+                reset();
+            }
         }
         catch ( Exception e )
         {
@@ -362,6 +627,30 @@ public class BlockDiskCache<K, V>
         return object;
     }
 
+    /**
+     * Forgets a key whose record is damaged and frees its blocks, leaving the other records alone.
+     * <p>
+     * @param key
+     */
+    private void dropDamagedRecord( K key )
+    {
+        storageLock.writeLock().lock();
+        try
+        {
+            int[] ded = this.keyStore.remove( key );
+            if ( ded != null )
+            {
+                freeBlocks( ded );
+                droppedRecords.incrementAndGet();
+                log.warn( logCacheName + "Dropped the damaged record of key " + key );
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
     /**
      * Writes an element to disk. The program flow is as follows:
      * <ol>
@@ -396,10 +685,11 @@ public class BlockDiskCache<K, V>
 
             if ( old != null )
             {
-                this.dataFile.freeBlocks( old );
+                freeBlocks( old );
+                keyReplaced( element.getKey() );
             }
 
-            int[] blocks = this.dataFile.write( element );
+            int[] blocks = writeBlocks( getElementSerializer().serialize( element ) );
 
             this.keyStore.put( element.getKey(), blocks );
 
@@ -423,6 +713,172 @@ public class BlockDiskCache<K, V>
         }
     }
 
+    /**
+     * Writes a batch of elements under a single acquisition of the storage lock. The elements are
+     * serialized before the lock is taken.
+     * <p>
+     * @param elements the elements to write, in put order
+     */
+    @Override
+    protected void processUpdates( List<ICacheElement<K, V>> elements )
+    {
+        if ( !isAlive() )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( logCacheName + "No longer alive; aborting put of " + elements.size() + " elements" );
+            }
+            return;
+        }
+
+        List<byte[]> data = new ArrayList<byte[]>( elements.size() );
+        for ( ICacheElement<K, V> element : elements )
+        {
+            try
+            {
+                data.add( getElementSerializer().serialize( element ) );
+            }
+            catch ( IOException e )
+            {
+                log.error( logCacheName + "Failure serializing element, key: " + element.getKey(), e );
+                data.add( null );
+            }
+        }
+
+        storageLock.writeLock().lock();
+
+        try
+        {
+            if ( getIOEngine() != null && elements.size() > 1 )
+            {
+                writeConcurrently( elements, data );
+            }
+            else
+            {
+                for ( int i = 0; i < elements.size(); i++ )
+                {
+                    ICacheElement<K, V> element = elements.get( i );
+                    if ( data.get( i ) == null )
+                    {
+                        continue;
+                    }
+
+                    int[] old = this.keyStore.get( element.getKey() );
+
+                    try
+                    {
+                        if ( old != null )
+                        {
+                            freeBlocks( old );
+                            keyReplaced( element.getKey() );
+                        }
+
+                        int[] blocks = writeBlocks( data.get( i ) );
+
+                        this.keyStore.put( element.getKey(), blocks );
+                    }
+                    catch ( IOException e )
+                    {
+                        log.error( logCacheName + "Failure updating element, key: " + element.getKey() + " old: " + Arrays.toString(old), e );
+                    }
+                }
+            }
+
+            if ( this.blockDiskCacheAttributes.isSyncWriteBatches() )
+            {
+                try
+                {
+                    for ( BlockDisk dataFile : dataFiles )
+                    {
+                        dataFile.force();
+                    }
+                }
+                catch ( IOException e )
+                {
+                    log.error( logCacheName + "Problem forcing write batch to disk.", e );
+                }
+                this.keyStore.persistKeys();
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( logCacheName + "Stored batch of " + elements.size() + " elements on disk" );
+        }
+    }
+
+    /**
+     * Writes the data of a batch on the I/O pool, so that the writes are in flight together, and
+     * then updates the keys in the order of the batch. The old blocks of a key are freed after its
+     * new ones are written. The storage write lock must be held.
+     * <p>
+     * @param elements the elements of the batch
+     * @param data the serialized elements, null for those that failed to serialize
+     */
+    private void writeConcurrently( List<ICacheElement<K, V>> elements, final List<byte[]> data )
+    {
+        List<Callable<int[]>> writes = new ArrayList<Callable<int[]>>( elements.size() );
+        for ( int i = 0; i < elements.size(); i++ )
+        {
+            final byte[] bytes = data.get( i );
+            final K key = elements.get( i ).getKey();
+            writes.add( new Callable<int[]>()
+            {
+                @Override
+                public int[] call()
+                {
+                    if ( bytes == null )
+                    {
+                        return null;
+                    }
+                    try
+                    {
+                        return writeBlocks( bytes );
+                    }
+                    catch ( IOException e )
+                    {
+                        log.error( logCacheName + "Failure updating element, key: " + key, e );
+                        return null;
+                    }
+                }
+            } );
+        }
+
+        List<int[]> written;
+        try
+        {
+            written = getIOEngine().runAll( writes, null );
+        }
+        catch ( IOException e )
+        {
+            // the writes log their own failures, this is not expected
+            log.error( logCacheName + "Failure writing a batch of " + elements.size() + " elements", e );
+            return;
+        }
+
+        for ( int i = 0; i < elements.size(); i++ )
+        {
+            int[] blocks = written.get( i );
+            if ( blocks == null )
+            {
+                continue;
+            }
+
+            K key = elements.get( i ).getKey();
+            int[] old = this.keyStore.get( key );
+            if ( old != null )
+            {
+                freeBlocks( old );
+                keyReplaced( key );
+            }
+            this.keyStore.put( key, blocks );
+        }
+    }
+
     /**
      * Returns true if the removal was successful; or false if there is nothing to remove. Current
      * implementation always result in a disk orphan.
@@ -566,7 +1022,7 @@ public class BlockDiskCache<K, V>
 		removed = ded != null;
 		if ( removed )
 		{
-		    this.dataFile.freeBlocks( ded );
+		    freeBlocks( ded );
 		}
 
 		if ( log.isDebugEnabled() )
@@ -643,6 +1099,7 @@ public class BlockDiskCache<K, V>
             // Prevents any interaction with the cache while we're shutting down.
             setAlive(false);
             this.keyStore.saveKeys();
+            this.keyStore.close();
 
             if (future != null)
             {
@@ -655,8 +1112,10 @@ public class BlockDiskCache<K, V>
                 {
                     log.debug( logCacheName + "Closing files, base filename: " + fileName );
                 }
-                dataFile.close();
-                // dataFile = null;
+                for ( BlockDisk dataFile : dataFiles )
+                {
+                    dataFile.close();
+                }
 
                 // TOD make a close
                 // keyFile.close();
@@ -707,9 +1166,12 @@ public class BlockDiskCache<K, V>
 
             this.keyStore.reset();
 
-            if ( dataFile != null )
+            if ( dataFiles != null )
             {
-                dataFile.reset();
+                for ( BlockDisk dataFile : dataFiles )
+                {
+                    dataFile.reset();
+                }
             }
         }
         catch ( IOException e )
@@ -729,7 +1191,7 @@ public class BlockDiskCache<K, V>
      */
     protected void freeBlocks( int[] blocksToFree )
     {
-        this.dataFile.freeBlocks( blocksToFree );
+        dataFileFor( blocksToFree ).freeBlocks( blocksInClass( blocksToFree ) );
     }
 
     /**
@@ -748,11 +1210,12 @@ public class BlockDiskCache<K, V>
         elems.add(new StatElement<Boolean>( "Is Alive", Boolean.valueOf(isAlive()) ) );
         elems.add(new StatElement<Integer>( "Key Map Size", Integer.valueOf(this.keyStore.size()) ) );
 
-        if (this.dataFile != null)
+        if (this.dataFiles != null && this.dataFiles.length == 1)
         {
+            BlockDisk dataFile = this.dataFiles[0];
             try
             {
-                elems.add(new StatElement<Long>( "Data File Length", Long.valueOf(this.dataFile.length()) ) );
+                elems.add(new StatElement<Long>( "Data File Length", Long.valueOf(dataFile.length()) ) );
             }
             catch ( IOException e )
             {
@@ -760,13 +1223,48 @@ public class BlockDiskCache<K, V>
             }
 
             elems.add(new StatElement<Integer>( "Block Size Bytes",
-                    Integer.valueOf(this.dataFile.getBlockSizeBytes()) ) );
+                    Integer.valueOf(dataFile.getBlockSizeBytes()) ) );
             elems.add(new StatElement<Integer>( "Number Of Blocks",
-                    Integer.valueOf(this.dataFile.getNumberOfBlocks()) ) );
+                    Integer.valueOf(dataFile.getNumberOfBlocks()) ) );
             elems.add(new StatElement<Long>( "Average Put Size Bytes",
-                    Long.valueOf(this.dataFile.getAveragePutSizeBytes()) ) );
+                    Long.valueOf(dataFile.getAveragePutSizeBytes()) ) );
             elems.add(new StatElement<Integer>( "Empty Blocks",
-                    Integer.valueOf(this.dataFile.getEmptyBlocks()) ) );
+                    Integer.valueOf(dataFile.getEmptyBlocks()) ) );
+        }
+
+        else if (this.dataFiles != null)
+        {
+            long length = 0;
+            for ( BlockDisk dataFile : this.dataFiles )
+            {
+                try
+                {
+                    length += dataFile.length();
+                }
+                catch ( IOException e )
+                {
+                    log.error( e );
+                }
+            }
+            elems.add(new StatElement<Long>( "Data File Length", Long.valueOf(length) ) );
+
+            for ( BlockDisk dataFile : this.dataFiles )
+            {
+                String sizeClass = "Size Class " + dataFile.getBlockSizeBytes() + " ";
+                int blocks = dataFile.getNumberOfBlocks();
+                int empty = dataFile.getEmptyBlocks();
+                elems.add(new StatElement<Integer>( sizeClass + "Number Of Blocks", Integer.valueOf(blocks) ) );
+                elems.add(new StatElement<Integer>( sizeClass + "Empty Blocks", Integer.valueOf(empty) ) );
+                elems.add(new StatElement<String>( sizeClass + "Utilization",
+                        String.format( "%.1f%%", Double.valueOf(blocks == 0 ? 0 : 100.0 * ( blocks - empty ) / blocks) ) ) );
+                elems.add(new StatElement<Long>( sizeClass + "Average Put Size Bytes",
+                        Long.valueOf(dataFile.getAveragePutSizeBytes()) ) );
+            }
+        }
+
+        if ( this.blockDiskCacheAttributes.isUseRecordChecksums() )
+        {
+            elems.add(new StatElement<AtomicInteger>( "Dropped Records", this.droppedRecords ) );
         }
 
         // get the stats from the super too
@@ -786,6 +1284,6 @@ public class BlockDiskCache<K, V>
     @Override
     protected String getDiskLocation()
     {
-        return dataFile.getFilePath();
+        return dataFiles[0].getFilePath();
     }
 }
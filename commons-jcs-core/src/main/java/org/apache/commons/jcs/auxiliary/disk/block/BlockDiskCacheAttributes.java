@@ -47,6 +47,15 @@ public class BlockDiskCacheAttributes
     /** The keys will be persisted at this interval.  -1 mean never. */
     private long keyPersistenceIntervalSeconds = DEFAULT_KEY_PERSISTENCE_INTERVAL_SECONDS;
 
+    /** Block sizes of the size classes, none by default. */
+    private String blockSizeClasses = null;
+
+    /** Should records carry a checksum. */
+    private static final boolean DEFAULT_USE_RECORD_CHECKSUMS = false;
+
+    /** Should records carry a CRC32C checksum, damaged records are dropped on read. */
+    private boolean useRecordChecksums = DEFAULT_USE_RECORD_CHECKSUMS;
+
     /**
      * The size of the blocks. All blocks are the same size.
      * <p>
@@ -97,6 +106,42 @@ public class BlockDiskCacheAttributes
         return keyPersistenceIntervalSeconds;
     }
 
+    /**
+     * Keep a block file per block size and put each value in the smallest class that holds it in
+     * a few blocks. BlockSizeBytes is not used then.
+     * <p>
+     * @param blockSizeClasses comma separated block sizes, for example "512,4096,65536"
+     */
+    public void setBlockSizeClasses( String blockSizeClasses )
+    {
+        this.blockSizeClasses = blockSizeClasses;
+    }
+
+    /**
+     * @return the comma separated block sizes of the size classes, or null for a single block file
+     */
+    public String getBlockSizeClasses()
+    {
+        return blockSizeClasses;
+    }
+
+    /**
+     * @param useRecordChecksums whether records carry a CRC32C checksum. A damaged record is
+     *            dropped instead of resetting the whole disk cache.
+     */
+    public void setUseRecordChecksums( boolean useRecordChecksums )
+    {
+        this.useRecordChecksums = useRecordChecksums;
+    }
+
+    /**
+     * @return whether records carry a CRC32C checksum
+     */
+    public boolean isUseRecordChecksums()
+    {
+        return useRecordChecksums;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -111,8 +156,10 @@ public class BlockDiskCacheAttributes
         str.append( "\n MaxKeySize [" + this.getMaxKeySize() + "]" );
         str.append( "\n MaxPurgatorySize [" + this.getMaxPurgatorySize() + "]" );
         str.append( "\n BlockSizeBytes [" + this.getBlockSizeBytes() + "]" );
+        str.append( "\n BlockSizeClasses [" + this.getBlockSizeClasses() + "]" );
         str.append( "\n KeyPersistenceIntervalSeconds [" + this.getKeyPersistenceIntervalSeconds() + "]" );
         str.append( "\n DiskLimitType [" + this.getDiskLimitType() + "]" );
+        str.append( "\n UseRecordChecksums [" + this.isUseRecordChecksums() + "]" );
         return str.toString();
     }
 }
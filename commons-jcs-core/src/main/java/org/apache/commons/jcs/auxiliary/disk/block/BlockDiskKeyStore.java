@@ -21,6 +21,8 @@ package org.apache.commons.jcs.auxiliary.disk.block;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,9 +38,13 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.jcs.auxiliary.disk.KeyIndexJournal;
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.auxiliary.disk.behavior.IKeyIndexCodec;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
 import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
 import org.apache.commons.jcs.utils.struct.AbstractLRUMap;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.apache.commons.jcs.utils.struct.LRUMap;
 import org.apache.commons.jcs.utils.timing.ElapsedTimer;
 import org.apache.commons.logging.Log;
@@ -83,6 +89,37 @@ public class BlockDiskKeyStore<K>
 
     private int blockSize;
 
+    /** Writes and reads the blocks of a key in the journaled key index. */
+    private static final IKeyIndexCodec<int[]> BLOCKS_CODEC = new IKeyIndexCodec<int[]>()
+    {
+        @Override
+        public void write(DataOutput out, int[] blocks) throws IOException
+        {
+            out.writeInt(blocks.length);
+            for (int block : blocks)
+            {
+                out.writeInt(block);
+            }
+        }
+
+        @Override
+        public int[] read(DataInput in) throws IOException
+        {
+            int[] blocks = new int[in.readInt()];
+            for (int i = 0; i < blocks.length; i++)
+            {
+                blocks[i] = in.readInt();
+            }
+            return blocks;
+        }
+    };
+
+    /**
+     * The journaled key index, used instead of the key file if JournalKeys is set. Changes to the
+     * keys and the rotation for a checkpoint synchronize on it.
+     */
+    private KeyIndexJournal<K, int[]> keyJournal;
+
     /**
      * Set the configuration options.
      * <p>
@@ -115,7 +152,15 @@ public class BlockDiskKeyStore<K>
             log.info(logCacheName + "Key File [" + this.keyFile.getAbsolutePath() + "]");
         }
 
-        if (keyFile.length() > 0)
+        if (cacheAttributes.isJournalKeys())
+        {
+            IElementSerializer keySerializer = blockDiskCache != null
+                    ? blockDiskCache.getElementSerializer() : new StandardSerializer();
+            this.keyJournal = new KeyIndexJournal<K, int[]>(rootDirectory, fileName, BLOCKS_CODEC,
+                    keySerializer, cacheAttributes.getKeyJournalSyncIntervalMillis());
+        }
+
+        if (keyFile.length() > 0 || keyJournal != null && keyJournal.exists())
         {
             loadKeys();
             if (!verify())
@@ -129,14 +174,31 @@ public class BlockDiskKeyStore<K>
         {
             initKeyMap();
         }
+
+        if (keyJournal != null && keyFile.exists())
+        {
+            // Move the keys of an old key file to the journaled index
+            saveKeys();
+            if (!keyFile.delete())
+            {
+                log.warn(logCacheName + "Could not delete old key file " + keyFile);
+            }
+        }
     }
 
     /**
      * Saves key file to disk. This gets the LRUMap entry set and write the
-     * entries out one by one after putting them in a wrapper.
+     * entries out one by one after putting them in a wrapper. If the keys are
+     * journaled, a checkpoint is written instead.
      */
     protected void saveKeys()
     {
+        if (keyJournal != null)
+        {
+            checkpointKeys();
+            return;
+        }
+
         try
         {
             ElapsedTimer timer = new ElapsedTimer();
@@ -187,6 +249,76 @@ public class BlockDiskKeyStore<K>
         }
     }
 
+    /**
+     * Writes a checkpoint of the journaled key index. The keys are copied and
+     * the journal rotated while changes are held off, the checkpoint is
+     * written without holding them off.
+     */
+    private void checkpointKeys()
+    {
+        try
+        {
+            HashMap<K, int[]> keys;
+            long rotation;
+            synchronized (keyJournal)
+            {
+                if (!verify())
+                {
+                    throw new IOException("Inconsistent key index");
+                }
+                keys = new HashMap<K, int[]>(keyHash);
+                rotation = keyJournal.rotate();
+            }
+            keyJournal.writeCheckpoint(keys, rotation);
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Problem writing the key index checkpoint.", e);
+        }
+    }
+
+    /**
+     * Syncs the key journal, or writes a checkpoint once enough records were
+     * journaled. Without a journal the keys are saved.
+     */
+    protected void persistKeys()
+    {
+        if (keyJournal == null
+                || keyJournal.getRecordCount() >= blockDiskCacheAttributes.getKeyJournalCheckpointRecords())
+        {
+            saveKeys();
+        }
+        else
+        {
+            try
+            {
+                keyJournal.sync();
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem syncing the key journal.", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the key journal, if any.
+     */
+    protected void close()
+    {
+        if (keyJournal != null)
+        {
+            try
+            {
+                keyJournal.close();
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem closing the key journal.", e);
+            }
+        }
+    }
+
     /**
      * Resets the file and creates a new key map.
      */
@@ -195,7 +327,21 @@ public class BlockDiskKeyStore<K>
         synchronized (keyFile)
         {
             clearMemoryMap();
-            saveKeys();
+            if (keyJournal != null)
+            {
+                try
+                {
+                    keyJournal.clear();
+                }
+                catch (IOException e)
+                {
+                    log.error(logCacheName + "Problem clearing the key journal.", e);
+                }
+            }
+            else
+            {
+                saveKeys();
+            }
         }
     }
 
@@ -260,31 +406,38 @@ public class BlockDiskKeyStore<K>
 
             HashMap<K, int[]> keys = new HashMap<K, int[]>();
 
-            synchronized (keyFile)
+            if (keyJournal != null && keyJournal.exists())
             {
-                FileInputStream fis = new FileInputStream(keyFile);
-                BufferedInputStream bis = new BufferedInputStream(fis, 65536);
-                ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null);
-                try
+                keyJournal.load(keys);
+            }
+            else
+            {
+                synchronized (keyFile)
                 {
-                    while (true)
+                    FileInputStream fis = new FileInputStream(keyFile);
+                    BufferedInputStream bis = new BufferedInputStream(fis, 65536);
+                    ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(bis, null);
+                    try
                     {
-                        @SuppressWarnings("unchecked")
-                        // Need to cast from Object
-                        BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
-                        if (descriptor != null)
+                        while (true)
                         {
-                            keys.put(descriptor.getKey(), descriptor.getBlocks());
+                            @SuppressWarnings("unchecked")
+                            // Need to cast from Object
+                            BlockDiskElementDescriptor<K> descriptor = (BlockDiskElementDescriptor<K>) ois.readObject();
+                            if (descriptor != null)
+                            {
+                                keys.put(descriptor.getKey(), descriptor.getBlocks());
+                            }
                         }
                     }
-                }
-                catch (EOFException eof)
-                {
-                    // nothing
-                }
-                finally
-                {
-                    ois.close();
+                    catch (EOFException eof)
+                    {
+                        // nothing
+                    }
+                    finally
+                    {
+                        ois.close();
+                    }
                 }
             }
 
@@ -364,7 +517,18 @@ public class BlockDiskKeyStore<K>
      */
     public void put(K key, int[] value)
     {
-        this.keyHash.put(key, value);
+        if (keyJournal != null)
+        {
+            synchronized (keyJournal)
+            {
+                this.keyHash.put(key, value);
+                journal(key, value);
+            }
+        }
+        else
+        {
+            this.keyHash.put(key, value);
+        }
     }
 
     /**
@@ -376,9 +540,51 @@ public class BlockDiskKeyStore<K>
      */
     public int[] remove(K key)
     {
+        if (keyJournal != null)
+        {
+            synchronized (keyJournal)
+            {
+                int[] value = this.keyHash.remove(key);
+                if (value != null)
+                {
+                    journal(key, null);
+                }
+                return value;
+            }
+        }
+
         return this.keyHash.remove(key);
     }
 
+    /**
+     * Journals a put or a removal of the key.
+     *
+     * @param key
+     * @param value
+     *            the blocks of a put, or null for a removal
+     */
+    private void journal(K key, int[] value)
+    {
+        if (keyJournal != null)
+        {
+            try
+            {
+                if (value != null)
+                {
+                    keyJournal.put(key, value);
+                }
+                else
+                {
+                    keyJournal.remove(key);
+                }
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem journaling key " + key, e);
+            }
+        }
+    }
+
     /**
      * Verify key store integrity
      *
@@ -424,6 +630,19 @@ public class BlockDiskKeyStore<K>
         }
     }
 
+    /**
+     * Gets the size of the blocks of a value, which depends on its size class if the cache has
+     * several.
+     *
+     * @param value
+     *            the blocks of a value
+     * @return the size of each block in bytes
+     */
+    private int blockSizeOf(int[] value)
+    {
+        return blockDiskCache != null ? blockDiskCache.getBlockSizeBytes(value) : blockSize;
+    }
+
     /**
      * Class for recycling and lru. This implements the LRU size overflow
      * callback, so we can mark the blocks as free.
@@ -461,13 +680,13 @@ public class BlockDiskKeyStore<K>
         // keep the content size in kB, so 2^31 kB is reasonable value
         private void subLengthFromCacheSize(int[] value)
         {
-            contentSize.addAndGet(value.length * blockSize / -1024 - 1);
+            contentSize.addAndGet(value.length * blockSizeOf(value) / -1024 - 1);
         }
 
         // keep the content size in kB, so 2^31 kB is reasonable value
         private void addLengthToCacheSize(int[] value)
         {
-            contentSize.addAndGet(value.length * blockSize / 1024 + 1);
+            contentSize.addAndGet(value.length * blockSizeOf(value) / 1024 + 1);
         }
 
         @Override
@@ -526,6 +745,7 @@ public class BlockDiskKeyStore<K>
         protected void processRemovedLRU(K key, int[] value)
         {
             blockDiskCache.freeBlocks(value);
+            journal(key, null);
             if (log.isDebugEnabled())
             {
                 log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
@@ -574,6 +794,7 @@ public class BlockDiskKeyStore<K>
         protected void processRemovedLRU(K key, int[] value)
         {
             blockDiskCache.freeBlocks(value);
+            journal(key, null);
             if (log.isDebugEnabled())
             {
                 log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
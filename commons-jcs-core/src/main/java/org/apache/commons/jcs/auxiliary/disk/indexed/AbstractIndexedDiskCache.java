@@ -0,0 +1,191 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes;
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.control.group.GroupId;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
+import org.apache.commons.jcs.utils.struct.LRUMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Common parts of the disk caches that hold their keys in memory, each with a descriptor of its
+ * record on disk: the expansion of hierarchical and group removals, disposal on a background
+ * thread and the key map limited by count.
+ * <p>
+ * @param <D> the type of the descriptor
+ */
+public abstract class AbstractIndexedDiskCache<K, V, D>
+    extends AbstractDiskCache<K, V>
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( AbstractIndexedDiskCache.class );
+
+    /**
+     * @param attr
+     */
+    protected AbstractIndexedDiskCache( IDiskCacheAttributes attr )
+    {
+        super( attr );
+    }
+
+    /**
+     * Returns the keys a removal covers. A String key ending in the name component delimiter
+     * covers all keys of that name hierarchy, a group key without an attribute name covers all
+     * keys of the group, any other key covers itself.
+     * <p>
+     * This does not remove via the iterator, since the map impl may not support it. The caller
+     * holds the lock that protects the keys.
+     * <p>
+     * @param key the key to remove
+     * @param keys the keys in the cache
+     * @return the keys to remove
+     */
+    protected List<K> getKeysToRemove( K key, Collection<K> keys )
+    {
+        List<K> itemsToRemove = new LinkedList<K>();
+
+        if ( key instanceof String && key.toString().endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+        {
+            // remove all keys of the same name hierarchy.
+            for ( K k : keys )
+            {
+                if ( k instanceof String && k.toString().startsWith( key.toString() ) )
+                {
+                    itemsToRemove.add( k );
+                }
+            }
+        }
+        else if ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null )
+        {
+            // remove all keys of the same group.
+            GroupId groupId = ( (GroupAttrName<?>) key ).groupId;
+            for ( K k : keys )
+            {
+                if ( k instanceof GroupAttrName && ( (GroupAttrName<?>) k ).groupId.equals( groupId ) )
+                {
+                    itemsToRemove.add( k );
+                }
+            }
+        }
+        else
+        {
+            itemsToRemove.add( key );
+        }
+
+        return itemsToRemove;
+    }
+
+    /**
+     * Dispose of the disk cache in a background thread. Joins against this thread to put a cap on
+     * the disposal time.
+     * <p>
+     * TODO make dispose window configurable.
+     */
+    @Override
+    public void processDispose()
+    {
+        ICacheEvent<String> cacheEvent = createICacheEvent( getCacheName(), "none", ICacheEventLogger.DISPOSE_EVENT );
+        try
+        {
+            Runnable disR = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    disposeInternal();
+                }
+            };
+            // shards are anonymous subclasses
+            Class<?> type = getClass().isAnonymousClass() ? getClass().getSuperclass() : getClass();
+            Thread t = new Thread( disR, type.getSimpleName() + "-DisposalThread" );
+            t.start();
+            // wait up to 60 seconds for dispose and then quit if not done.
+            try
+            {
+                t.join( 60 * 1000 );
+            }
+            catch ( InterruptedException ex )
+            {
+                log.error( "Region [" + getCacheName() + "] Interrupted while waiting for disposal thread to finish.", ex );
+            }
+        }
+        finally
+        {
+            logICacheEvent( cacheEvent );
+        }
+    }
+
+    /**
+     * Internal method that handles the disposal. Runs on the disposal thread.
+     */
+    protected abstract void disposeInternal();
+
+    /**
+     * Called when the key map drops the least recently used key because it is full. The record of
+     * the key is no longer referenced and its space may be reclaimed.
+     * <p>
+     * @param key
+     * @param value the descriptor of the record, may be null
+     */
+    protected abstract void keyEvicted( K key, D value );
+
+    /**
+     * Key map limited by the number of keys. Evicted keys are handed to keyEvicted.
+     */
+    public class LRUMapCountLimited
+        extends LRUMap<K, D>
+    {
+        /**
+         * @param maxKeySize
+         */
+        public LRUMapCountLimited( int maxKeySize )
+        {
+            super( maxKeySize );
+        }
+
+        /**
+         * This is called when the max key size is reached. The least recently used item will be
+         * passed here.
+         * <p>
+         * @param key
+         * @param value
+         */
+        @Override
+        protected void processRemovedLRU( K key, D value )
+        {
+            keyEvicted( key, value );
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Region [" + getCacheName() + "] Removing key: [" + key + "] from key store." );
+                log.debug( "Region [" + getCacheName() + "] Key store size: [" + this.size() + "]." );
+            }
+        }
+    }
+}
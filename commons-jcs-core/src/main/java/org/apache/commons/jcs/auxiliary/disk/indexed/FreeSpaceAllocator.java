@@ -0,0 +1,273 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Free space of the data file kept as extents of whole records, header included. Freed extents
+ * are coalesced with their free neighbours. The extents are kept in free lists by size class, the
+ * power of two at or below their length. An allocation takes the smallest fitting extent of its own
+ * class, or else the smallest extent of the next non-empty larger class, and returns the remainder
+ * to the free lists.
+ * <p>
+ * This is thread safe.
+ */
+class FreeSpaceAllocator
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( FreeSpaceAllocator.class );
+
+    /** Number of size classes, one per bit of a long */
+    private static final int SIZE_CLASSES = 64;
+
+    /** Free extents by position, mapped to their length */
+    private final TreeMap<Long, Long> extentsByPos = new TreeMap<Long, Long>();
+
+    /** Free extents by size class, ordered by length then position */
+    private final TreeSet<Extent>[] sizeClasses;
+
+    /** Bit i is set if size class i has extents */
+    private long nonEmptyClasses = 0;
+
+    /** Total length of the free extents */
+    private long freeBytes = 0;
+
+    /**
+     * Creates an empty allocator.
+     */
+    @SuppressWarnings("unchecked") // No generic arrays
+    FreeSpaceAllocator()
+    {
+        sizeClasses = new TreeSet[SIZE_CLASSES];
+        for ( int i = 0; i < SIZE_CLASSES; i++ )
+        {
+            sizeClasses[i] = new TreeSet<Extent>();
+        }
+    }
+
+    /**
+     * Adds an extent to the free space, merged with any free extents right before and after it.
+     * An extent overlapping free space is ignored.
+     * <p>
+     * @param pos start of the extent
+     * @param length length of the extent
+     * @return false if the extent overlapped free space
+     */
+    synchronized boolean free( long pos, long length )
+    {
+        if ( length <= 0 )
+        {
+            return true;
+        }
+
+        Map.Entry<Long, Long> before = extentsByPos.floorEntry( Long.valueOf( pos ) );
+        Map.Entry<Long, Long> after = extentsByPos.ceilingEntry( Long.valueOf( pos ) );
+        if ( before != null && before.getKey().longValue() + before.getValue().longValue() > pos
+            || after != null && after.getKey().longValue() < pos + length )
+        {
+            log.warn( "Ignoring free of [" + pos + ", " + length + "] overlapping free space" );
+            return false;
+        }
+
+        freeBytes += length;
+        if ( before != null && before.getKey().longValue() + before.getValue().longValue() == pos )
+        {
+            remove( before.getKey().longValue(), before.getValue().longValue() );
+            pos = before.getKey().longValue();
+            length += before.getValue().longValue();
+        }
+        if ( after != null && after.getKey().longValue() == pos + length )
+        {
+            remove( after.getKey().longValue(), after.getValue().longValue() );
+            length += after.getValue().longValue();
+        }
+        add( pos, length );
+        return true;
+    }
+
+    /**
+     * Takes space for a record out of the free space.
+     * <p>
+     * @param length the length needed
+     * @return the start of the space, or -1 if no free extent is large enough
+     */
+    synchronized long allocate( long length )
+    {
+        int sizeClass = sizeClassOf( length );
+        Extent extent = sizeClasses[sizeClass].ceiling( new Extent( -1, length ) );
+        if ( extent == null )
+        {
+            long larger = sizeClass + 1 < SIZE_CLASSES ? nonEmptyClasses & -1L << sizeClass + 1 : 0;
+            if ( larger == 0 )
+            {
+                return -1;
+            }
+            extent = sizeClasses[Long.numberOfTrailingZeros( larger )].first();
+        }
+
+        remove( extent.pos, extent.length );
+        if ( extent.length > length )
+        {
+            // the following extent cannot be free, or it would have been merged
+            add( extent.pos + length, extent.length - length );
+        }
+        freeBytes -= length;
+        return extent.pos;
+    }
+
+    /**
+     * Removes all the free space.
+     */
+    synchronized void clear()
+    {
+        extentsByPos.clear();
+        for ( TreeSet<Extent> sizeClass : sizeClasses )
+        {
+            sizeClass.clear();
+        }
+        nonEmptyClasses = 0;
+        freeBytes = 0;
+    }
+
+    /**
+     * @return the number of free extents
+     */
+    synchronized int getExtentCount()
+    {
+        return extentsByPos.size();
+    }
+
+    /**
+     * @return the total length of the free extents
+     */
+    synchronized long getFreeBytes()
+    {
+        return freeBytes;
+    }
+
+    /**
+     * @return the length of the largest free extent, 0 if there is none
+     */
+    synchronized long getLargestExtent()
+    {
+        if ( nonEmptyClasses == 0 )
+        {
+            return 0;
+        }
+        return sizeClasses[SIZE_CLASSES - 1 - Long.numberOfLeadingZeros( nonEmptyClasses )].last().length;
+    }
+
+    /**
+     * @param pos
+     * @param length
+     */
+    private void add( long pos, long length )
+    {
+        int sizeClass = sizeClassOf( length );
+        extentsByPos.put( Long.valueOf( pos ), Long.valueOf( length ) );
+        sizeClasses[sizeClass].add( new Extent( pos, length ) );
+        nonEmptyClasses |= 1L << sizeClass;
+    }
+
+    /**
+     * @param pos
+     * @param length
+     */
+    private void remove( long pos, long length )
+    {
+        int sizeClass = sizeClassOf( length );
+        extentsByPos.remove( Long.valueOf( pos ) );
+        TreeSet<Extent> extents = sizeClasses[sizeClass];
+        extents.remove( new Extent( pos, length ) );
+        if ( extents.isEmpty() )
+        {
+            nonEmptyClasses &= ~( 1L << sizeClass );
+        }
+    }
+
+    /**
+     * @param length a positive length
+     * @return the size class, the power of two at or below the length
+     */
+    private static int sizeClassOf( long length )
+    {
+        return SIZE_CLASSES - 1 - Long.numberOfLeadingZeros( length );
+    }
+
+    /**
+     * A free extent, ordered by length and then position.
+     */
+    private static final class Extent
+        implements Comparable<Extent>
+    {
+        /** start of the extent */
+        final long pos;
+
+        /** length of the extent */
+        final long length;
+
+        /**
+         * @param pos
+         * @param length
+         */
+        Extent( long pos, long length )
+        {
+            this.pos = pos;
+            this.length = length;
+        }
+
+        /**
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+        @Override
+        public int compareTo( Extent o )
+        {
+            if ( length != o.length )
+            {
+                return length < o.length ? -1 : 1;
+            }
+            return pos < o.pos ? -1 : pos == o.pos ? 0 : 1;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals( Object o )
+        {
+            return o instanceof Extent && compareTo( (Extent) o ) == 0;
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode()
+        {
+            return (int) ( pos ^ length );
+        }
+    }
+}
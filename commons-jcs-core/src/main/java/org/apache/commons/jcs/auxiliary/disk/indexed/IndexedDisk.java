@@ -25,9 +25,21 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.jcs.auxiliary.disk.DiskIOEngine;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.io.ByteBufferInputStream;
+import org.apache.commons.jcs.utils.zip.CRC32C;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -37,6 +49,18 @@ class IndexedDisk
     /** The size of the header that indicates the amount of data stored in an occupied block. */
     public static final byte HEADER_SIZE_BYTES = 4;
 
+    /**
+     * The number of bytes of a checksummed record between the header and the data: a marker, the
+     * checksum and a sequence number. They are counted in the length of the record.
+     */
+    public static final int CHECKSUM_FRAME_BYTES = 16;
+
+    /** Marks the start of a checksummed record, "JCSR". Removed records have the marker cleared. */
+    private static final int RECORD_MAGIC = 0x4A435352;
+
+    /** The number of bytes read at once while a scan looks for the next record. */
+    private static final int SCAN_WINDOW_BYTES = 64 * 1024;
+
     /** The serializer. */
     private final IElementSerializer elementSerializer;
 
@@ -49,6 +73,21 @@ class IndexedDisk
     /** The data file. */
     private final FileChannel fc;
 
+    /** Size of the regions of the file mapped for reading, 0 if reads are not mapped. */
+    private final int mappedChunkSize;
+
+    /**
+     * Regions of the file mapped for reading, null where nothing has been mapped yet. The array is
+     * replaced, never modified, so readers need no lock.
+     */
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    /** Whether records carry a checksum and sequence number. */
+    private final boolean useChecksums;
+
+    /** The sequence number of the last checksummed record written. Later records win in a scan. */
+    private final AtomicLong sequence = new AtomicLong( System.currentTimeMillis() << 20 );
+
     /**
      * Constructor for the Disk object
      * <p>
@@ -59,8 +98,39 @@ class IndexedDisk
     public IndexedDisk( File file, IElementSerializer elementSerializer )
         throws FileNotFoundException
     {
+        this( file, elementSerializer, 0 );
+    }
+
+    /**
+     * Constructor for the Disk object
+     * <p>
+     * @param file
+     * @param elementSerializer
+     * @param mappedChunkSize size of the regions mapped for reading, 0 to read through the channel
+     * @throws FileNotFoundException
+     */
+    public IndexedDisk( File file, IElementSerializer elementSerializer, int mappedChunkSize )
+        throws FileNotFoundException
+    {
+        this( file, elementSerializer, mappedChunkSize, false );
+    }
+
+    /**
+     * Constructor for the Disk object
+     * <p>
+     * @param file
+     * @param elementSerializer
+     * @param mappedChunkSize size of the regions mapped for reading, 0 to read through the channel
+     * @param useChecksums whether records carry a CRC32C checksum that is verified on read
+     * @throws FileNotFoundException
+     */
+    public IndexedDisk( File file, IElementSerializer elementSerializer, int mappedChunkSize, boolean useChecksums )
+        throws FileNotFoundException
+    {
+        this.useChecksums = useChecksums;
         this.filepath = file.getAbsolutePath();
         this.elementSerializer = elementSerializer;
+        this.mappedChunkSize = Math.max( 0, mappedChunkSize );
         RandomAccessFile raf = new RandomAccessFile( filepath, "rw" );
         this.fc = raf.getChannel();
     }
@@ -78,6 +148,29 @@ class IndexedDisk
      */
     protected <T extends Serializable> T readObject( IndexedDiskElementDescriptor ded )
         throws IOException, ClassNotFoundException
+    {
+        if ( mappedChunkSize > 0 )
+        {
+            ByteBuffer record = mappedRecord( ded.pos, HEADER_SIZE_BYTES + ded.len );
+            if ( record != null )
+            {
+                return readMappedObject( ded, record );
+            }
+        }
+
+        return elementSerializer.deSerialize( readBytes( ded ), null );
+    }
+
+    /**
+     * Reads the serialized data of a record without deserializing it. The length in the header
+     * of the record must match the descriptor.
+     * <p>
+     * @param ded
+     * @return the data of the record, without the header
+     * @throws IOException
+     */
+    protected byte[] readBytes( IndexedDiskElementDescriptor ded )
+        throws IOException
     {
         String message = null;
         boolean corrupted = false;
@@ -115,7 +208,216 @@ class IndexedDisk
         fc.read(data, ded.pos + HEADER_SIZE_BYTES);
         data.flip();
 
-        return elementSerializer.deSerialize( data.array(), null );
+        if ( useChecksums )
+        {
+            verifyChecksum( ded, data, 0 );
+            return Arrays.copyOfRange( data.array(), CHECKSUM_FRAME_BYTES, ded.len );
+        }
+        return data.array();
+    }
+
+    /**
+     * Verifies the marker and checksum of a checksummed record.
+     * <p>
+     * @param ded the descriptor of the record
+     * @param buffer a buffer holding the record
+     * @param offset the offset of the checksum frame in the buffer
+     * @throws IOException if the record is damaged
+     */
+    private void verifyChecksum( IndexedDiskElementDescriptor ded, ByteBuffer buffer, int offset )
+        throws IOException
+    {
+        if ( ded.len < CHECKSUM_FRAME_BYTES || buffer.getInt( offset ) != RECORD_MAGIC )
+        {
+            log.warn( "Record " + ded + " of [" + filepath + "] has no record marker" );
+            throw new IOException( "The record has no marker: " + ded );
+        }
+        int stored = buffer.getInt( offset + 4 );
+        long seq = buffer.getLong( offset + 8 );
+        int computed = checksum( ded.len, seq, buffer, offset + CHECKSUM_FRAME_BYTES, ded.len - CHECKSUM_FRAME_BYTES );
+        if ( stored != computed )
+        {
+            log.warn( "Record " + ded + " of [" + filepath + "] fails its checksum" );
+            throw new IOException( "The record fails its checksum: " + ded );
+        }
+    }
+
+    /**
+     * Computes the checksum of a record over its length, sequence number and data.
+     * <p>
+     * @param len the length of the record
+     * @param seq the sequence number of the record
+     * @param buffer a buffer holding the data
+     * @param offset the offset of the data in the buffer
+     * @param length the length of the data
+     * @return the checksum
+     */
+    private static int checksum( int len, long seq, ByteBuffer buffer, int offset, int length )
+    {
+        ByteBuffer fields = ByteBuffer.allocate( 12 );
+        fields.putInt( len ).putLong( seq ).flip();
+
+        ByteBuffer data = buffer.duplicate();
+        data.limit( offset + length );
+        data.position( offset );
+
+        CRC32C crc = new CRC32C();
+        crc.update( fields );
+        crc.update( data );
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Gets the length of the record that holds the given data, including the checksum frame.
+     * <p>
+     * @param dataLength the length of the serialized data
+     * @return the length to put in the descriptor
+     */
+    protected int getRecordLength( int dataLength )
+    {
+        return useChecksums ? dataLength + CHECKSUM_FRAME_BYTES : dataLength;
+    }
+
+    /**
+     * Makes the header and the checksum frame of a record.
+     * <p>
+     * @param data the data of the record
+     * @return a buffer ready to be written
+     */
+    private ByteBuffer header( byte[] data )
+    {
+        int len = getRecordLength( data.length );
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE_BYTES + len - data.length );
+        header.putInt( len );
+        if ( useChecksums )
+        {
+            long seq = sequence.incrementAndGet();
+            header.putInt( RECORD_MAGIC );
+            header.putInt( checksum( len, seq, ByteBuffer.wrap( data ), 0, data.length ) );
+            header.putLong( seq );
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Deserializes a record from a mapped region. The standard serializer reads straight from the
+     * mapping, other serializers get a copy of the data.
+     * <p>
+     * @param ded
+     * @param record the header and data of the record
+     * @return Serializable
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private <T extends Serializable> T readMappedObject( IndexedDiskElementDescriptor ded, ByteBuffer record )
+        throws IOException, ClassNotFoundException
+    {
+        int datalen = record.getInt( 0 );
+        if ( ded.len != datalen )
+        {
+            log.warn( "\n The file is corrupt: " + "\n Record " + ded + " does not match data length on disk ("
+                + datalen + ")" );
+            throw new IOException( "The File Is Corrupt, need to reset" );
+        }
+
+        int dataOffset = HEADER_SIZE_BYTES;
+        if ( useChecksums )
+        {
+            verifyChecksum( ded, record, HEADER_SIZE_BYTES );
+            dataOffset += CHECKSUM_FRAME_BYTES;
+        }
+
+        record.position( dataOffset );
+        if ( elementSerializer.getClass() == StandardSerializer.class )
+        {
+            return ( (StandardSerializer) elementSerializer ).deSerialize( new ByteBufferInputStream( record ), null );
+        }
+
+        byte[] data = new byte[record.remaining()];
+        record.get( data );
+        return elementSerializer.deSerialize( data, null );
+    }
+
+    /**
+     * Get a view of a region of the file from the mapped chunks. Regions that cross the boundary
+     * of a chunk or that are not within the file are not mapped.
+     * <p>
+     * @param pos the start of the region
+     * @param length the length of the region
+     * @return a buffer holding exactly the region, or null if it is not mapped
+     * @throws IOException
+     */
+    private ByteBuffer mappedRecord( long pos, int length )
+        throws IOException
+    {
+        int index = (int) ( pos / mappedChunkSize );
+        int offset = (int) ( pos % mappedChunkSize );
+        if ( length < 0 || offset + (long) length > mappedChunkSize )
+        {
+            return null;
+        }
+
+        MappedByteBuffer[] current = chunks;
+        MappedByteBuffer chunk = index < current.length ? current[index] : null;
+        if ( chunk == null || chunk.capacity() < offset + length )
+        {
+            chunk = mapChunk( index, offset + length );
+            if ( chunk == null )
+            {
+                return null;
+            }
+        }
+
+        ByteBuffer record = chunk.duplicate();
+        record.limit( offset + length );
+        record.position( offset );
+        return record.slice();
+    }
+
+    /**
+     * Map a chunk, or map it again if the file has grown since it was mapped.
+     * <p>
+     * @param index the number of the chunk
+     * @param needed the number of bytes of the chunk that must be mapped
+     * @return the chunk, or null if the file is too short
+     * @throws IOException
+     */
+    private synchronized MappedByteBuffer mapChunk( int index, int needed )
+        throws IOException
+    {
+        MappedByteBuffer[] current = chunks;
+        if ( index < current.length && current[index] != null && current[index].capacity() >= needed )
+        {
+            return current[index];
+        }
+
+        long start = (long) index * mappedChunkSize;
+        long size = Math.min( mappedChunkSize, fc.size() - start );
+        if ( size < needed )
+        {
+            return null;
+        }
+
+        MappedByteBuffer chunk = fc.map( MapMode.READ_ONLY, start, size );
+        MappedByteBuffer[] updated = Arrays.copyOf( current, Math.max( current.length, index + 1 ) );
+        updated[index] = chunk;
+        chunks = updated;
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Mapped chunk " + index + " of [" + filepath + "], " + size + " bytes" );
+        }
+        return chunk;
+    }
+
+    /**
+     * Forget the mapped chunks. This must be done before the file shrinks, as reading a mapping
+     * beyond the end of the file fails hard. The mappings are released by the garbage collector.
+     */
+    private synchronized void unmap()
+    {
+        chunks = new MappedByteBuffer[0];
     }
 
     /**
@@ -183,13 +485,13 @@ class IndexedDisk
             log.trace( fc + " -- data.length = " + data.length );
         }
 
-        if ( data.length != ded.len )
+        if ( getRecordLength( data.length ) != ded.len )
         {
             throw new IOException( "Mismatched descriptor and data lengths" );
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE_BYTES + data.length);
-        buffer.putInt(data.length);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE_BYTES + ded.len);
+        buffer.put(header(data));
         buffer.put(data);
         buffer.flip();
         int written = fc.write(buffer, pos);
@@ -198,6 +500,150 @@ class IndexedDisk
         return written == data.length;
     }
 
+    /**
+     * Writes several records. Records that follow each other in the file are written with one
+     * positional write.
+     * <p>
+     * @param deds the descriptors, in any order
+     * @param data the data of each descriptor
+     * @throws IOException
+     */
+    protected void write( final IndexedDiskElementDescriptor[] deds, byte[][] data )
+        throws IOException
+    {
+        write( deds, data, null );
+    }
+
+    /**
+     * Writes several records. Records that follow each other in the file are written with one
+     * positional write. With an engine the runs of records are written concurrently.
+     * <p>
+     * @param deds the descriptors, in any order
+     * @param data the data of each descriptor
+     * @param ioEngine runs the writes of the runs, null to write them one after another
+     * @throws IOException
+     */
+    protected void write( final IndexedDiskElementDescriptor[] deds, final byte[][] data, DiskIOEngine ioEngine )
+        throws IOException
+    {
+        final Integer[] order = new Integer[deds.length];
+        for ( int i = 0; i < order.length; i++ )
+        {
+            if ( getRecordLength( data[i].length ) != deds[i].len )
+            {
+                throw new IOException( "Mismatched descriptor and data lengths" );
+            }
+            order[i] = Integer.valueOf( i );
+        }
+        Arrays.sort( order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer i1, Integer i2 )
+            {
+                long pos1 = deds[i1.intValue()].pos;
+                long pos2 = deds[i2.intValue()].pos;
+                return pos1 < pos2 ? -1 : pos1 == pos2 ? 0 : 1;
+            }
+        } );
+
+        // the start and end of each run of records that follow each other
+        List<int[]> runs = new ArrayList<int[]>();
+        int start = 0;
+        while ( start < order.length )
+        {
+            IndexedDiskElementDescriptor first = deds[order[start].intValue()];
+            long next = first.pos + HEADER_SIZE_BYTES + first.len;
+            int end = start + 1;
+            while ( end < order.length && deds[order[end].intValue()].pos == next )
+            {
+                next += HEADER_SIZE_BYTES + deds[order[end].intValue()].len;
+                end++;
+            }
+            runs.add( new int[] { start, end } );
+            start = end;
+        }
+
+        if ( ioEngine == null || runs.size() == 1 )
+        {
+            for ( int[] run : runs )
+            {
+                writeRun( deds, data, order, run[0], run[1] );
+            }
+        }
+        else
+        {
+            List<Callable<Void>> writes = new ArrayList<Callable<Void>>( runs.size() );
+            for ( final int[] run : runs )
+            {
+                writes.add( new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                        throws IOException
+                    {
+                        writeRun( deds, data, order, run[0], run[1] );
+                        return null;
+                    }
+                } );
+            }
+            ioEngine.runAll( writes, null );
+        }
+    }
+
+    /**
+     * Writes a run of records that follow each other in the file. The records are copied into one
+     * buffer and written at the position of the run, which leaves the position of the channel
+     * alone, so runs can be written concurrently.
+     * <p>
+     * @param deds the descriptors
+     * @param data the data of each descriptor
+     * @param order the indexes of the descriptors sorted by position
+     * @param start the first index in order of the run
+     * @param end the index in order after the run
+     * @throws IOException
+     */
+    private void writeRun( IndexedDiskElementDescriptor[] deds, byte[][] data, Integer[] order, int start, int end )
+        throws IOException
+    {
+        IndexedDiskElementDescriptor first = deds[order[start].intValue()];
+        if ( end - start == 1 )
+        {
+            write( first, data[order[start].intValue()] );
+            return;
+        }
+
+        int size = 0;
+        for ( int i = start; i < end; i++ )
+        {
+            size += HEADER_SIZE_BYTES + deds[order[i].intValue()].len;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        for ( int i = start; i < end; i++ )
+        {
+            byte[] record = data[order[i].intValue()];
+            buffer.put( header( record ) );
+            buffer.put( record );
+        }
+        buffer.flip();
+
+        while ( buffer.hasRemaining() )
+        {
+            fc.write( buffer, first.pos + buffer.position() );
+        }
+    }
+
+    /**
+     * Forces the writes to the device.
+     * <p>
+     * @throws IOException
+     */
+    protected void force()
+        throws IOException
+    {
+        fc.force( false );
+    }
+
     /**
      * Serializes the object and write it out to the given position.
      * <p>
@@ -211,10 +657,144 @@ class IndexedDisk
         throws IOException
     {
         byte[] data = elementSerializer.serialize( obj );
-        write( new IndexedDiskElementDescriptor( pos, data.length ), data );
+        write( new IndexedDiskElementDescriptor( pos, getRecordLength( data.length ) ), data );
         return true;
     }
 
+    /**
+     * Clears the marker of a checksummed record that was removed, so that a scan of the file does
+     * not bring it back. Does nothing without checksums.
+     * <p>
+     * @param ded the descriptor of the removed record
+     * @throws IOException
+     */
+    protected void markFree( IndexedDiskElementDescriptor ded )
+        throws IOException
+    {
+        if ( useChecksums && ded.len >= CHECKSUM_FRAME_BYTES )
+        {
+            fc.write( ByteBuffer.allocate( 4 ), ded.pos + HEADER_SIZE_BYTES );
+        }
+    }
+
+    /**
+     * Makes later records win over the records found by a scan.
+     * <p>
+     * @param seq the highest sequence number found
+     */
+    protected void advanceSequence( long seq )
+    {
+        long current = sequence.get();
+        while ( current < seq && !sequence.compareAndSet( current, seq ) )
+        {
+            current = sequence.get();
+        }
+    }
+
+    /**
+     * Receives the intact records found by a scan.
+     */
+    interface RecordHandler
+    {
+        /**
+         * @param ded the descriptor of the record
+         * @param seq the sequence number of the record
+         * @param data the data of the record, without the checksum frame
+         */
+        void handle( IndexedDiskElementDescriptor ded, long seq, byte[] data );
+    }
+
+    /**
+     * Finds the intact checksummed records starting in a range of the file. Damaged records are
+     * skipped by looking for the next record marker, so one bad record costs only itself. Ranges
+     * can be scanned concurrently.
+     * <p>
+     * @param start the start of the range
+     * @param end the end of the range, exclusive
+     * @param handler receives the records
+     * @return the number of damaged records skipped
+     * @throws IOException
+     */
+    protected int scan( long start, long end, RecordHandler handler )
+        throws IOException
+    {
+        if ( !useChecksums )
+        {
+            throw new IOException( "Only files with checksummed records can be scanned" );
+        }
+
+        long fileLength = fc.size();
+        ByteBuffer window = ByteBuffer.allocate( SCAN_WINDOW_BYTES );
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE_BYTES );
+        int skipped = 0;
+
+        long pos = findMarker( start, Math.min( end, fileLength ), fileLength, window );
+        while ( pos >= 0 )
+        {
+            header.clear();
+            fc.read( header, pos );
+            int len = header.getInt( 0 );
+            long next = pos + 1;
+            if ( len >= CHECKSUM_FRAME_BYTES && pos + HEADER_SIZE_BYTES + len <= fileLength )
+            {
+                IndexedDiskElementDescriptor ded = new IndexedDiskElementDescriptor( pos, len );
+                ByteBuffer record = ByteBuffer.allocate( len );
+                fc.read( record, pos + HEADER_SIZE_BYTES );
+                try
+                {
+                    verifyChecksum( ded, record, 0 );
+                    handler.handle( ded, record.getLong( 8 ),
+                                    Arrays.copyOfRange( record.array(), CHECKSUM_FRAME_BYTES, len ) );
+                    next = pos + HEADER_SIZE_BYTES + len;
+                }
+                catch ( IOException e )
+                {
+                    skipped++;
+                }
+            }
+            else
+            {
+                skipped++;
+            }
+            pos = next < end ? findMarker( next, Math.min( end, fileLength ), fileLength, window ) : -1;
+        }
+        return skipped;
+    }
+
+    /**
+     * Finds the next position where a record with an intact marker could start.
+     * <p>
+     * @param from the first position to try
+     * @param end the end of the range to search, exclusive
+     * @param fileLength the length of the file
+     * @param window a buffer for reading
+     * @return the position, or -1 if there is none in the range
+     * @throws IOException
+     */
+    private long findMarker( long from, long end, long fileLength, ByteBuffer window )
+        throws IOException
+    {
+        long pos = from;
+        while ( pos < end && pos + HEADER_SIZE_BYTES + CHECKSUM_FRAME_BYTES <= fileLength )
+        {
+            window.clear();
+            int read = fc.read( window, pos + HEADER_SIZE_BYTES );
+            if ( read < 4 )
+            {
+                return -1;
+            }
+            for ( int i = 0; i + 4 <= read && pos + i < end; i++ )
+            {
+                if ( window.getInt( i ) == RECORD_MAGIC )
+                {
+                    return pos + i;
+                }
+            }
+            pos += read - 3;
+        }
+        return -1;
+    }
+
     /**
      * Returns the raf length.
      * <p>
@@ -235,6 +815,7 @@ class IndexedDisk
     protected void close()
         throws IOException
     {
+        unmap();
         fc.close();
     }
 
@@ -250,6 +831,7 @@ class IndexedDisk
         {
             log.debug( "Resetting Indexed File [" + filepath + "]" );
         }
+        unmap();
         fc.truncate(0);
         fc.force(true);
     }
@@ -267,6 +849,7 @@ class IndexedDisk
         {
             log.info( "Truncating file [" + filepath + "] to " + length );
         }
+        unmap();
         fc.truncate( length );
     }
 
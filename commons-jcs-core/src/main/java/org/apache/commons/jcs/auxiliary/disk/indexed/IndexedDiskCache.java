@@ -19,32 +19,48 @@ package org.apache.commons.jcs.auxiliary.disk.indexed;
  * under the License.
  */
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.auxiliary.disk.KeyIndexJournal;
+import org.apache.commons.jcs.auxiliary.disk.behavior.IKeyIndexCodec;
 import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
-import org.apache.commons.jcs.engine.CacheConstants;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.IElementSerializer;
-import org.apache.commons.jcs.engine.control.group.GroupAttrName;
-import org.apache.commons.jcs.engine.control.group.GroupId;
+import org.apache.commons.jcs.engine.behavior.IRequireScheduler;
 import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
 import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
 import org.apache.commons.jcs.engine.stats.StatElement;
@@ -52,7 +68,7 @@ import org.apache.commons.jcs.engine.stats.Stats;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
 import org.apache.commons.jcs.utils.struct.AbstractLRUMap;
-import org.apache.commons.jcs.utils.struct.LRUMap;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.jcs.utils.timing.ElapsedTimer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -62,7 +78,7 @@ import org.apache.commons.logging.LogFactory;
  * stored in memory is configurable. The disk cache tries to recycle spots on disk to limit file
  * expansion.
  */
-public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
+public class IndexedDiskCache<K, V> extends AbstractIndexedDiskCache<K, V, IndexedDiskElementDescriptor> implements IRequireScheduler
 {
     /** The logger */
     private static final Log log = LogFactory.getLog(IndexedDiskCache.class);
@@ -82,6 +98,29 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** Map containing the keys and disk offsets. */
     private Map<K, IndexedDiskElementDescriptor> keyHash;
 
+    /** Writes and reads the descriptors in the journaled key index. */
+    private static final IKeyIndexCodec<IndexedDiskElementDescriptor> DESCRIPTOR_CODEC = new IKeyIndexCodec<IndexedDiskElementDescriptor>()
+    {
+        @Override
+        public void write(DataOutput out, IndexedDiskElementDescriptor ded) throws IOException
+        {
+            out.writeLong(ded.pos);
+            out.writeInt(ded.len);
+        }
+
+        @Override
+        public IndexedDiskElementDescriptor read(DataInput in) throws IOException
+        {
+            return new IndexedDiskElementDescriptor(in.readLong(), in.readInt());
+        }
+    };
+
+    /** The journaled key index, used instead of the key file if JournalKeys is set. */
+    private KeyIndexJournal<K, IndexedDiskElementDescriptor> keyJournal;
+
+    /** The scheduled sync and checkpoint of the key journal. */
+    private ScheduledFuture<?> keyJournalFuture;
+
     /** The maximum number of keys that we will keep in memory. */
     private final int maxKeySize;
 
@@ -119,6 +158,9 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** RECYLCE BIN -- array of empty spots */
     private ConcurrentSkipListSet<IndexedDiskElementDescriptor> recycle;
 
+    /** Coalesced free space in size class free lists, replaces the recycle set if configured. */
+    private FreeSpaceAllocator freeSpace;
+
     /** User configurable parameters */
     private final IndexedDiskCacheAttributes cattr;
 
@@ -137,11 +179,43 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     /** simple stat */
     private AtomicInteger hitCount = new AtomicInteger(0);
 
+    /** The number of records dropped because they were damaged. */
+    private final AtomicInteger droppedRecords = new AtomicInteger(0);
+
+    /** The number of keys rebuilt from the data file at startup. */
+    private int recoveredRecords = 0;
+
+    /** How long rebuilding the keys took, -1 if they were loaded from the key file. */
+    private long recoveryMillis = -1;
+
     /**
-     * Use this lock to synchronize reads and writes to the underlying storage mechanism.
+     * Use this lock to synchronize reads and writes to the underlying storage mechanism. Gets,
+     * puts and removes share the read lock and lock their key stripe. The write lock is taken to
+     * move records, to reset and to snapshot the keys.
      */
     protected ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
 
+    /** The smallest part of the data file worth a thread of its own when the keys are rebuilt. */
+    private static final long MIN_RECOVERY_RANGE_BYTES = 1024 * 1024;
+
+    /** The number of key lock stripes. */
+    private static final int KEY_LOCK_STRIPES = 64;
+
+    /** Locks on the keys, picked by key hash. Readers of a key share one, writers exclude all. */
+    private final ReentrantReadWriteLock[] keyLocks = new ReentrantReadWriteLock[KEY_LOCK_STRIPES];
+
+    /** Serializes the allocation of space: the recycle bin and the end of the data file. */
+    private final Object allocationLock = new Object();
+
+    /** End of the space handed out at the end of the data file, some of it may not be written yet. */
+    private long dataFileEnd = 0;
+
+    /**
+     * Slots of keys dropped by the LRU. A put of the key may still be writing to the slot, so it
+     * is only freed under the lock of its key.
+     */
+    private final ConcurrentLinkedQueue<EvictedSlot> evictedSlots = new ConcurrentLinkedQueue<EvictedSlot>();
+
     /**
      * Constructor for the DiskCache object.
      * <p>
@@ -175,15 +249,19 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         this.diskLimitType = cattr.getDiskLimitType();
         // Make a clean file name
         this.fileName = getCacheName().replaceAll("[^a-zA-Z0-9-_\\.]", "_");
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++)
+        {
+            keyLocks[i] = new ReentrantReadWriteLock();
+        }
 
         try
         {
             initializeFileSystem(cattr);
 
-            initializeKeysAndData(cattr);
-
             initializeRecycleBin();
 
+            initializeKeysAndData(cattr);
+
             // Initialization finished successfully, so set alive to true.
             setAlive(true);
             if (log.isInfoEnabled())
@@ -206,6 +284,35 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * @return the size of the regions of the data file mapped for reading, 0 if reads are not mapped
+     */
+    private int getMappedChunkSize()
+    {
+        return cattr.isUseMemoryMappedReads() ? cattr.getMappedChunkSizeBytes() : 0;
+    }
+
+    /**
+     * Schedules the sync and checkpoint of the key journal.
+     *
+     * @see org.apache.commons.jcs.engine.behavior.IRequireScheduler#setScheduledExecutorService(java.util.concurrent.ScheduledExecutorService)
+     */
+    @Override
+    public void setScheduledExecutorService(ScheduledExecutorService scheduledExecutor)
+    {
+        if (keyJournal != null && cattr.getKeyJournalSyncIntervalMillis() > 0)
+        {
+            keyJournalFuture = scheduledExecutor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    persistKeyJournal();
+                }
+            }, cattr.getKeyJournalSyncIntervalMillis(), cattr.getKeyJournalSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
     /**
      * Tries to create the root directory if it does not already exist.
      * <p>
@@ -232,8 +339,15 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
      */
     private void initializeKeysAndData(IndexedDiskCacheAttributes cattr) throws IOException
     {
-        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer());
-        this.keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer());
+        this.dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer(), getMappedChunkSize(),
+            cattr.isUseRecordChecksums());
+        this.keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer(), 0,
+            cattr.isUseRecordChecksums());
+        if (cattr.isJournalKeys())
+        {
+            this.keyJournal = new KeyIndexJournal<K, IndexedDiskElementDescriptor>(rafDir, fileName, DESCRIPTOR_CODEC,
+                getElementSerializer(), cattr.getKeyJournalSyncIntervalMillis());
+        }
 
         if (cattr.isClearDiskOnStartup())
         {
@@ -243,18 +357,36 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             }
             initializeEmptyStore();
         }
-        else if (keyFile.length() > 0)
+        else if (keyFile.length() > 0 || keyJournal != null && keyJournal.exists())
         {
             // If the key file has contents, try to initialize the keys
             // from it. In no keys are loaded reset the data file.
             initializeStoreFromPersistedData();
         }
+        else if (cattr.isUseRecordChecksums() && dataFile.length() > 0)
+        {
+            // The keys were not saved at shutdown, rebuild them from the records.
+            recoverKeysFromData();
+        }
         else
         {
             // Otherwise start with a new empty map for the keys, and reset
             // the data file if it has contents.
             initializeEmptyStore();
         }
+
+        if (keyJournal != null && keyFile.length() > 0)
+        {
+            // Move the keys of an old key file to the journaled index
+            checkpointKeys();
+            keyFile.reset();
+        }
+        else if (cattr.isUseRecordChecksums() && keyFile.length() > 0)
+        {
+            // The key file is stale as soon as the data file changes. It is written again at
+            // shutdown, if there is no key file at startup the keys are rebuilt.
+            keyFile.reset();
+        }
     }
 
     /**
@@ -267,6 +399,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     {
         initializeKeyMap();
 
+        if (keyJournal != null)
+        {
+            keyJournal.clear();
+        }
+
         if (dataFile.length() > 0)
         {
             dataFile.reset();
@@ -286,16 +423,42 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
         if (keyHash.isEmpty())
         {
-            dataFile.reset();
+            if (keyJournal != null)
+            {
+                keyJournal.clear();
+            }
+            if (cattr.isUseRecordChecksums() && dataFile.length() > 0)
+            {
+                recoverKeysFromData();
+            }
+            else
+            {
+                dataFile.reset();
+            }
         }
         else
         {
             boolean isOk = checkKeyDataConsistency(false);
-            if (!isOk)
+            if (!isOk && cattr.isUseRecordChecksums())
+            {
+                keyHash.clear();
+                keyFile.reset();
+                if (keyJournal != null)
+                {
+                    keyJournal.clear();
+                }
+                log.warn(logCacheName + "The keys do not match the data file.  Rebuilding them from the data file.");
+                recoverKeysFromData();
+            }
+            else if (!isOk)
             {
                 keyHash.clear();
                 keyFile.reset();
                 dataFile.reset();
+                if (keyJournal != null)
+                {
+                    keyJournal.clear();
+                }
                 log.warn(logCacheName + "Corruption detected.  Reseting data and keys files.");
             }
             else
@@ -310,7 +473,8 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
     /**
      * Loads the keys from the .key file. The keys are stored in a HashMap on disk. This is
-     * converted into a LRUMap.
+     * converted into a LRUMap. If the keys are journaled and there is a journaled index, the keys
+     * are replayed from it instead.
      */
     protected void loadKeys()
     {
@@ -319,6 +483,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             log.debug(logCacheName + "Loading keys for " + keyFile.toString());
         }
 
+        int evicted = 0;
         storageLock.writeLock().lock();
 
         try
@@ -326,8 +491,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             // create a key map to use.
             initializeKeyMap();
 
-            HashMap<K, IndexedDiskElementDescriptor> keys = keyFile.readObject(
-                new IndexedDiskElementDescriptor(0, (int) keyFile.length() - IndexedDisk.HEADER_SIZE_BYTES));
+            HashMap<K, IndexedDiskElementDescriptor> keys;
+            if (keyJournal != null && keyJournal.exists())
+            {
+                keys = new HashMap<K, IndexedDiskElementDescriptor>();
+                keyJournal.load(keys);
+            }
+            else
+            {
+                keys = keyFile.readObject(
+                    new IndexedDiskElementDescriptor(0, (int) keyFile.length() - IndexedDisk.HEADER_SIZE_BYTES));
+            }
 
             if (keys != null)
             {
@@ -337,6 +511,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 }
 
                 keyHash.putAll(keys);
+                evicted = freeEvictedSlots();
 
                 if (log.isInfoEnabled())
                 {
@@ -358,6 +533,216 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         {
             storageLock.writeLock().unlock();
         }
+
+        for (int i = 0; i < evicted; i++)
+        {
+            doOptimizeRealTime();
+        }
+    }
+
+    /**
+     * Rebuilds the keys from the checksummed records of the data file. The file is split into
+     * ranges scanned in parallel. Damaged records are skipped. Of several records of a key the one
+     * written last wins, the others are marked free. The space between the records kept goes to
+     * the recycle bin.
+     * <p>
+     *
+     * @throws IOException
+     */
+    private void recoverKeysFromData() throws IOException
+    {
+        ElapsedTimer timer = new ElapsedTimer();
+        final long length = dataFile.length();
+        final ConcurrentHashMap<K, RecoveredRecord> found = new ConcurrentHashMap<K, RecoveredRecord>();
+        final ConcurrentLinkedQueue<IndexedDiskElementDescriptor> superseded =
+            new ConcurrentLinkedQueue<IndexedDiskElementDescriptor>();
+        final AtomicInteger unreadable = new AtomicInteger(0);
+        final IndexedDisk.RecordHandler handler = new IndexedDisk.RecordHandler()
+        {
+            @Override
+            public void handle(IndexedDiskElementDescriptor ded, long seq, byte[] data)
+            {
+                ICacheElement<K, V> ce;
+                try
+                {
+                    ce = getElementSerializer().deSerialize(data, null);
+                }
+                catch (Exception e)
+                {
+                    unreadable.incrementAndGet();
+                    return;
+                }
+
+                RecoveredRecord record = new RecoveredRecord(ce.getKey(), ded, seq);
+                while (true)
+                {
+                    RecoveredRecord previous = found.putIfAbsent(record.key, record);
+                    if (previous == null)
+                    {
+                        return;
+                    }
+                    if (previous.seq >= seq)
+                    {
+                        superseded.add(ded);
+                        return;
+                    }
+                    if (found.replace(record.key, previous, record))
+                    {
+                        superseded.add(previous.ded);
+                        return;
+                    }
+                }
+            }
+        };
+
+        int threads = (int) Math.max(1, Math.min(cattr.getRecoveryThreads(), length / MIN_RECOVERY_RANGE_BYTES + 1));
+        ExecutorService scanners = Executors.newFixedThreadPool(threads,
+            new DaemonThreadFactory("JCS-IndexedDiskCache-Recovery-" + fileName + "-"));
+        int damaged = 0;
+        try
+        {
+            List<Future<Integer>> scans = new ArrayList<Future<Integer>>(threads);
+            for (int i = 0; i < threads; i++)
+            {
+                final long start = length * i / threads;
+                final long end = length * (i + 1) / threads;
+                scans.add(scanners.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws IOException
+                    {
+                        return Integer.valueOf(dataFile.scan(start, end, handler));
+                    }
+                }));
+            }
+            for (Future<Integer> scan : scans)
+            {
+                damaged += scan.get().intValue();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(logCacheName + "Interrupted while scanning the data file");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(logCacheName + "Failure scanning the data file: " + e.getCause());
+        }
+        finally
+        {
+            scanners.shutdownNow();
+        }
+
+        List<RecoveredRecord> records = new ArrayList<RecoveredRecord>(found.values());
+        int evicted = 0;
+        storageLock.writeLock().lock();
+        try
+        {
+            initializeKeyMap();
+            initializeRecycleBin();
+
+            for (IndexedDiskElementDescriptor ded : superseded)
+            {
+                dataFile.markFree(ded);
+            }
+
+            // the space around the records kept is free
+            Collections.sort(records, new Comparator<RecoveredRecord>()
+            {
+                @Override
+                public int compare(RecoveredRecord r1, RecoveredRecord r2)
+                {
+                    return r1.ded.pos < r2.ded.pos ? -1 : r1.ded.pos == r2.ded.pos ? 0 : 1;
+                }
+            });
+            long next = 0;
+            long maxSeq = 0;
+            for (RecoveredRecord record : records)
+            {
+                freeGap(next, record.ded.pos);
+                next = record.ded.pos + IndexedDisk.HEADER_SIZE_BYTES + record.ded.len;
+                maxSeq = Math.max(maxSeq, record.seq);
+            }
+            if (next < length)
+            {
+                dataFile.truncate(next);
+            }
+            dataFile.advanceSequence(maxSeq);
+
+            // the most recently written keys are the last dropped by the LRU
+            Collections.sort(records, new Comparator<RecoveredRecord>()
+            {
+                @Override
+                public int compare(RecoveredRecord r1, RecoveredRecord r2)
+                {
+                    return r1.seq < r2.seq ? -1 : r1.seq == r2.seq ? 0 : 1;
+                }
+            });
+            for (RecoveredRecord record : records)
+            {
+                keyHash.put(record.key, record.ded);
+            }
+            evicted = freeEvictedSlots();
+
+            recoveredRecords = keyHash.size();
+            recoveryMillis = timer.getElapsedTime();
+            synchronized (this)
+            {
+                startupSize = keyHash.size();
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        if (keyJournal != null)
+        {
+            checkpointKeys();
+        }
+
+        if (log.isInfoEnabled())
+        {
+            log.info(logCacheName + "Rebuilt " + recoveredRecords + " keys from [" + fileName + "] in "
+                + recoveryMillis + " ms with " + threads + " threads; " + damaged + " damaged and "
+                + unreadable.get() + " unreadable records dropped, " + superseded.size() + " superseded.");
+        }
+
+        for (int i = 0; i < evicted; i++)
+        {
+            doOptimizeRealTime();
+        }
+    }
+
+    /**
+     * Puts the space between two records found by a scan in the recycle bin.
+     * <p>
+     *
+     * @param start
+     *            the end of the previous record
+     * @param end
+     *            the start of the next record
+     */
+    private void freeGap(long start, long end)
+    {
+        long size = end - start;
+        if (size <= IndexedDisk.HEADER_SIZE_BYTES)
+        {
+            return;
+        }
+        synchronized (allocationLock)
+        {
+            this.bytesFree.addAndGet(size);
+            if (freeSpace != null)
+            {
+                freeSpace.free(start, size);
+            }
+            else
+            {
+                recycle.add(new IndexedDiskElementDescriptor(start, (int) (size - IndexedDisk.HEADER_SIZE_BYTES)));
+            }
+        }
     }
 
     /**
@@ -453,10 +838,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Saves key file to disk. This converts the LRUMap to a HashMap for deserialization.
+     * Saves key file to disk. This converts the LRUMap to a HashMap for deserialization. If the
+     * keys are journaled, a checkpoint is written instead.
      */
     protected void saveKeys()
     {
+        if (keyJournal != null)
+        {
+            checkpointKeys();
+            return;
+        }
+
         try
         {
             if (log.isInfoEnabled())
@@ -485,6 +877,111 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * Writes a checkpoint of the journaled key index. The keys are copied and the journal rotated
+     * under the write lock, the checkpoint is written without it. Nothing is written while the
+     * file is optimized, since the positions are in flux.
+     */
+    protected void checkpointKeys()
+    {
+        HashMap<K, IndexedDiskElementDescriptor> keys;
+        long rotation;
+
+        storageLock.writeLock().lock();
+        try
+        {
+            if (queueInput)
+            {
+                return;
+            }
+            keys = new HashMap<K, IndexedDiskElementDescriptor>(keyHash);
+            rotation = keyJournal.rotate();
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Problem rotating the key journal.", e);
+            return;
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        try
+        {
+            keyJournal.writeCheckpoint(keys, rotation);
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Problem writing the key index checkpoint.", e);
+        }
+    }
+
+    /**
+     * Syncs the key journal, or writes a checkpoint once enough records were journaled.
+     */
+    protected void persistKeyJournal()
+    {
+        if (keyJournal.getRecordCount() >= cattr.getKeyJournalCheckpointRecords())
+        {
+            checkpointKeys();
+        }
+        else
+        {
+            try
+            {
+                keyJournal.sync();
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem syncing the key journal.", e);
+            }
+        }
+    }
+
+    /**
+     * Journals a put of the key. Changes are not journaled while the file is optimized, the
+     * journal is cleared then and a checkpoint written afterwards. This must be called under the
+     * lock of the key.
+     *
+     * @param key
+     * @param ded
+     */
+    private void journalPut(K key, IndexedDiskElementDescriptor ded)
+    {
+        if (keyJournal != null && !queueInput)
+        {
+            try
+            {
+                keyJournal.put(key, ded);
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem journaling key " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Journals a removal of the key. This must be called under the lock of the key.
+     *
+     * @param key
+     */
+    private void journalRemove(K key)
+    {
+        if (keyJournal != null && !queueInput)
+        {
+            try
+            {
+                keyJournal.remove(key);
+            }
+            catch (IOException e)
+            {
+                log.error(logCacheName + "Problem journaling removal of key " + key, e);
+            }
+        }
+    }
+
     /**
      * Update the disk cache. Called from the Queue. Makes sure the Item has not been retrieved from
      * purgatory while in queue for disk. Remove items from purgatory when they go to disk.
@@ -512,85 +1009,392 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         // old element with same key
         IndexedDiskElementDescriptor old = null;
 
+        int evicted = 0;
         try
         {
             byte[] data = getElementSerializer().serialize(ce);
 
-            // make sure this only locks for one particular cache region
-            storageLock.writeLock().lock();
+            // only the key is locked, other keys can be read and written meanwhile
+            storageLock.readLock().lock();
             try
             {
-                old = keyHash.get(ce.getKey());
-
-                // Item with the same key already exists in file.
-                // Try to reuse the location if possible.
-                if (old != null && data.length <= old.len)
+                Lock keyLock = keyLock(ce.getKey()).writeLock();
+                keyLock.lock();
+                try
                 {
-                    // Reuse the old ded. The defrag relies on ded updates by reference, not
-                    // replacement.
-                    ded = old;
-                    ded.len = data.length;
+                    old = keyHash.get(ce.getKey());
+                    if (old != null)
+                    {
+                        keyReplaced(ce.getKey());
+                    }
+                    ded = place(ce.getKey(), old, dataFile.getRecordLength(data.length));
+                    dataFile.write(ded, data);
+                    journalPut(ce.getKey(), ded);
                 }
-                else
+                finally
                 {
-                    // we need this to compare in the recycle bin
-                    ded = new IndexedDiskElementDescriptor(dataFile.length(), data.length);
+                    keyLock.unlock();
+                }
 
-                    if (doRecycle)
+                evicted = freeEvictedSlots();
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            if (log.isDebugEnabled())
+            {
+                log.debug(logCacheName + "Put to file: " + fileName + ", key: " + ce.getKey() + ", position: " + ded.pos
+                    + ", size: " + ded.len);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Failure updating element, key: " + ce.getKey() + " old: " + old, e);
+        }
+
+        for (int i = 0; i < evicted; i++)
+        {
+            doOptimizeRealTime();
+        }
+    }
+
+    /**
+     * Writes a batch of elements under one acquisition of the locks of their keys. Records
+     * appended one after the other are written with one positional write. If configured, the data
+     * file and the key journal are forced to the device once for the batch.
+     * <p>
+     *
+     * @param elements
+     *            the elements to put to disk
+     */
+    @Override
+    protected void processUpdates(List<ICacheElement<K, V>> elements)
+    {
+        if (!isAlive())
+        {
+            log.error(logCacheName + "No longer alive; aborting put of " + elements.size() + " elements");
+            return;
+        }
+
+        // a later element of a key replaces an earlier one
+        Map<K, ICacheElement<K, V>> latest = new LinkedHashMap<K, ICacheElement<K, V>>();
+        for (ICacheElement<K, V> ce : elements)
+        {
+            if (latest.put(ce.getKey(), ce) != null)
+            {
+                keyReplaced(ce.getKey());
+            }
+        }
+        List<K> keys = new ArrayList<K>(latest.keySet());
+        byte[][] data = new byte[keys.size()][];
+        IndexedDiskElementDescriptor[] deds = new IndexedDiskElementDescriptor[keys.size()];
+
+        int evicted = 0;
+        try
+        {
+            int i = 0;
+            for (ICacheElement<K, V> ce : latest.values())
+            {
+                data[i++] = getElementSerializer().serialize(ce);
+            }
+
+            storageLock.readLock().lock();
+            try
+            {
+                List<Lock> keyLocks = lockKeys(keys);
+                try
+                {
+                    for (i = 0; i < deds.length; i++)
                     {
-                        IndexedDiskElementDescriptor rep = recycle.ceiling(ded);
-                        if (rep != null)
+                        IndexedDiskElementDescriptor old = keyHash.get(keys.get(i));
+                        if (old != null)
                         {
-                            // remove element from recycle bin
-                            recycle.remove(rep);
-                            ded = rep;
-                            ded.len = data.length;
-                            recycleCnt++;
-                            this.adjustBytesFree(ded, false);
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug(logCacheName + "using recycled ded " + ded.pos + " rep.len = " + rep.len + " ded.len = "
-                                    + ded.len);
-                            }
+                            keyReplaced(keys.get(i));
                         }
+                        int length = dataFile.getRecordLength(data[i].length);
+                        deds[i] = place(keys.get(i), old, length);
                     }
 
-                    // Put it in the map
-                    keyHash.put(ce.getKey(), ded);
+                    dataFile.write(deds, data, getIOEngine());
+
+                    for (i = 0; i < deds.length; i++)
+                    {
+                        journalPut(keys.get(i), deds[i]);
+                    }
 
-                    if (queueInput)
+                    if (cattr.isSyncWriteBatches())
                     {
-                        queuedPutList.add(ded);
-                        if (log.isDebugEnabled())
+                        dataFile.force();
+                        if (keyJournal != null)
                         {
-                            log.debug(logCacheName + "added to queued put list." + queuedPutList.size());
+                            keyJournal.sync();
                         }
                     }
+                }
+                finally
+                {
+                    for (Lock keyLock : keyLocks)
+                    {
+                        keyLock.unlock();
+                    }
+                }
 
-                    // add the old slot to the recycle bin
-                    if (old != null)
+                evicted = freeEvictedSlots();
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            if (log.isDebugEnabled())
+            {
+                log.debug(logCacheName + "Put batch to file: " + fileName + ", elements: " + deds.length);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Failure updating a batch of " + deds.length + " elements", e);
+        }
+
+        for (int i = 0; i < evicted; i++)
+        {
+            doOptimizeRealTime();
+        }
+    }
+
+    /**
+     * Finds the slot for a new value of a key. The old slot of the key is reused if the value
+     * fits, else space is allocated, the key mapped to it and the old slot recycled. This must be
+     * called under the lock of the key.
+     * <p>
+     *
+     * @param key
+     * @param old
+     *            the current descriptor of the key, or null
+     * @param length
+     *            the length of the record holding the serialized value
+     * @return the descriptor to write the value to
+     * @throws IOException
+     */
+    private IndexedDiskElementDescriptor place(K key, IndexedDiskElementDescriptor old, int length) throws IOException
+    {
+        // Item with the same key already exists in file.
+        // Try to reuse the location if possible.
+        if (old != null && length <= old.len)
+        {
+            // Reuse the old ded. The defrag relies on ded updates by reference, not
+            // replacement.
+            int tail = old.len - length;
+            old.len = length;
+            if (tail > 0)
+            {
+                freeTail(old, tail);
+            }
+            return old;
+        }
+
+        IndexedDiskElementDescriptor ded = allocate(length);
+
+        // Put it in the map
+        keyHash.put(key, ded);
+
+        if (queueInput)
+        {
+            queuedPutList.add(ded);
+            if (log.isDebugEnabled())
+            {
+                log.debug(logCacheName + "added to queued put list." + queuedPutList.size());
+            }
+        }
+
+        // add the old slot to the recycle bin
+        if (old != null)
+        {
+            addToRecycleBin(old);
+        }
+        return ded;
+    }
+
+    /**
+     * Hands out space for a record: a spot from the recycle bin if one fits, else space at the end
+     * of the data file.
+     * <p>
+     *
+     * @param length
+     *            the length of the serialized element
+     * @return the descriptor of the space
+     * @throws IOException
+     */
+    private IndexedDiskElementDescriptor allocate(int length) throws IOException
+    {
+        synchronized (allocationLock)
+        {
+            // the file length does not include space handed out but not written yet
+            long end = Math.max(dataFileEnd, dataFile.length());
+
+            if (doRecycle && freeSpace != null)
+            {
+                long pos = freeSpace.allocate(IndexedDisk.HEADER_SIZE_BYTES + length);
+                if (pos >= 0)
+                {
+                    IndexedDiskElementDescriptor ded = new IndexedDiskElementDescriptor(pos, length);
+                    recycleCnt++;
+                    this.adjustBytesFree(ded, false);
+                    if (log.isDebugEnabled())
                     {
-                        addToRecycleBin(old);
+                        log.debug(logCacheName + "using free space at " + ded.pos + " ded.len = " + ded.len);
                     }
+                    return ded;
                 }
+            }
+            else if (doRecycle)
+            {
+                // we need this to compare in the recycle bin
+                IndexedDiskElementDescriptor rep = recycle.ceiling(new IndexedDiskElementDescriptor(end, length));
+                if (rep != null)
+                {
+                    // remove element from recycle bin
+                    recycle.remove(rep);
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug(logCacheName + "using recycled ded " + rep.pos + " rep.len = " + rep.len + " ded.len = "
+                            + length);
+                    }
+                    rep.len = length;
+                    recycleCnt++;
+                    this.adjustBytesFree(rep, false);
+                    return rep;
+                }
+            }
+
+            dataFileEnd = end + IndexedDisk.HEADER_SIZE_BYTES + length;
+            return new IndexedDiskElementDescriptor(end, length);
+        }
+    }
+
+    /**
+     * Frees the end of a slot reused for a smaller element of the same key. Only the size class
+     * recycle bin can hand out such a piece, else it is left until the next optimization.
+     * <p>
+     *
+     * @param ded
+     *            the descriptor of the smaller element
+     * @param tail
+     *            the number of bytes no longer used
+     */
+    private void freeTail(IndexedDiskElementDescriptor ded, int tail)
+    {
+        synchronized (allocationLock)
+        {
+            if (freeSpace != null && doRecycle)
+            {
+                freeSpace.free(ded.pos + IndexedDisk.HEADER_SIZE_BYTES + ded.len, tail);
+                this.bytesFree.addAndGet(tail);
+            }
+        }
+    }
 
-                dataFile.write(ded, data);
+    /**
+     * Frees the slots of the keys dropped by the LRU, each under the lock of its key so that no
+     * put of the key is still writing to it. A slot still mapped is left to the thread whose put
+     * dropped it. This must be called under the storage lock, holding no key lock.
+     * <p>
+     *
+     * @return the number of slots freed
+     */
+    private int freeEvictedSlots()
+    {
+        int freed = 0;
+        for (EvictedSlot slot : evictedSlots)
+        {
+            Lock keyLock = keyLock(slot.key).writeLock();
+            keyLock.lock();
+            try
+            {
+                IndexedDiskElementDescriptor current = getQuiet(slot.key);
+                if (current != slot.ded && evictedSlots.remove(slot))
+                {
+                    addToRecycleBin(slot.ded);
+                    if (current == null)
+                    {
+                        journalRemove(slot.key);
+                    }
+                    freed++;
+                }
             }
             finally
             {
-                storageLock.writeLock().unlock();
+                keyLock.unlock();
             }
+        }
+        return freed;
+    }
+
+    /**
+     * Looks up a descriptor without changing the LRU order.
+     * <p>
+     *
+     * @param key
+     * @return the descriptor or null
+     */
+    private IndexedDiskElementDescriptor getQuiet(K key)
+    {
+        Map<K, IndexedDiskElementDescriptor> keys = keyHash;
+        if (keys instanceof AbstractLRUMap)
+        {
+            return ((AbstractLRUMap<K, IndexedDiskElementDescriptor>) keys).getQuiet(key);
+        }
+        return keys.get(key);
+    }
+
+    /**
+     * @param key
+     * @return the lock stripe of the key
+     */
+    private ReentrantReadWriteLock keyLock(Object key)
+    {
+        return keyLocks[keyStripe(key)];
+    }
+
+    /**
+     * @param key
+     * @return the number of the lock stripe of the key
+     */
+    private static int keyStripe(Object key)
+    {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % KEY_LOCK_STRIPES;
+    }
 
-            if (log.isDebugEnabled())
-            {
-                log.debug(logCacheName + "Put to file: " + fileName + ", key: " + ce.getKey() + ", position: " + ded.pos
-                    + ", size: " + ded.len);
-            }
+    /**
+     * Takes the write locks of several keys, in stripe order so that two batches cannot deadlock.
+     * <p>
+     *
+     * @param keys
+     * @return the locks taken, to be unlocked by the caller
+     */
+    private List<Lock> lockKeys(Collection<K> keys)
+    {
+        boolean[] stripes = new boolean[KEY_LOCK_STRIPES];
+        for (K key : keys)
+        {
+            stripes[keyStripe(key)] = true;
         }
-        catch (IOException e)
+
+        List<Lock> locks = new ArrayList<Lock>();
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++)
         {
-            log.error(logCacheName + "Failure updating element, key: " + ce.getKey() + " old: " + old, e);
+            if (stripes[i])
+            {
+                Lock lock = keyLocks[i].writeLock();
+                lock.lock();
+                locks.add(lock);
+            }
         }
+        return locks;
     }
 
     /**
@@ -621,7 +1425,16 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             storageLock.readLock().lock();
             try
             {
-                object = readElement(key);
+                Lock keyLock = keyLock(key).readLock();
+                keyLock.lock();
+                try
+                {
+                    object = readElement(key);
+                }
+                finally
+                {
+                    keyLock.unlock();
+                }
             }
             finally
             {
@@ -636,11 +1449,52 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         catch (IOException ioe)
         {
             log.error(logCacheName + "Failure getting from disk, key = " + key, ioe);
-            reset();
+            if (cattr.isUseRecordChecksums())
+            {
+                dropDamagedRecord(key);
+            }
+            else
+            {
+                reset();
+            }
         }
         return object;
     }
 
+    /**
+     * Forgets a key whose record is damaged, leaving the other records alone. The slot is not
+     * recycled, the next optimization reclaims it.
+     * <p>
+     *
+     * @param key
+     */
+    private void dropDamagedRecord(K key)
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            Lock keyLock = keyLock(key).writeLock();
+            keyLock.lock();
+            try
+            {
+                if (keyHash.remove(key) != null)
+                {
+                    journalRemove(key);
+                    droppedRecords.incrementAndGet();
+                    log.warn(logCacheName + "Dropped the damaged record of key " + key);
+                }
+            }
+            finally
+            {
+                keyLock.unlock();
+            }
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
     /**
      * Gets matching items from the cache.
      * <p>
@@ -701,7 +1555,6 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             {
                 ICacheElement<K, V> readObject = dataFile.readObject(ded);
                 object = readObject;
-                // TODO consider checking key equality and throwing if there is a failure
             }
             catch (IOException e)
             {
@@ -713,6 +1566,12 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 log.error(logCacheName + "Exception, Problem reading object from file", e);
                 throw new IOException(logCacheName + "Problem reading object from disk. " + e.getMessage());
             }
+
+            if (cattr.isUseRecordChecksums() && object != null && !key.equals(object.getKey()))
+            {
+                throw new IOException(logCacheName + "The record at " + ded.pos + " holds key " + object.getKey()
+                    + " instead of " + key);
+            }
         }
 
         return object;
@@ -767,26 +1626,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
         boolean reset = false;
         boolean removed = false;
+        storageLock.readLock().lock();
         try
         {
-            storageLock.writeLock().lock();
-
-            if (key instanceof String && key.toString().endsWith(CacheConstants.NAME_COMPONENT_DELIMITER))
-            {
-                removed = performPartialKeyRemoval((String) key);
-            }
-            else if (key instanceof GroupAttrName && ((GroupAttrName<?>) key).attrName == null)
-            {
-                removed = performGroupRemoval(((GroupAttrName<?>) key).groupId);
-            }
-            else
+            for (K fullKey : getKeysToRemove(key, keyHash.keySet()))
             {
-                removed = performSingleKeyRemoval(key);
+                removed |= performSingleKeyRemoval(fullKey);
             }
         }
         finally
         {
-            storageLock.writeLock().unlock();
+            storageLock.readLock().unlock();
         }
 
         if (reset)
@@ -805,99 +1655,35 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Iterates over the keyset. Builds a list of matches. Removes all the keys in the list. Does
-     * not remove via the iterator, since the map impl may not support it.
-     * <p>
-     * This operates under a lock obtained in doRemove().
-     * <p>
-     *
-     * @param key
-     * @return true if there was a match
-     */
-    private boolean performPartialKeyRemoval(String key)
-    {
-        boolean removed = false;
-
-        // remove all keys of the same name hierarchy.
-        List<K> itemsToRemove = new LinkedList<K>();
-
-        for (K k : keyHash.keySet())
-        {
-            if (k instanceof String && k.toString().startsWith(key))
-            {
-                itemsToRemove.add(k);
-            }
-        }
-
-        // remove matches.
-        for (K fullKey : itemsToRemove)
-        {
-            // Don't add to recycle bin here
-            // https://issues.apache.org/jira/browse/JCS-67
-            performSingleKeyRemoval(fullKey);
-            removed = true;
-            // TODO this needs to update the remove count separately
-        }
-
-        return removed;
-    }
-
-    /**
-     * Remove all elements from the group. This does not use the iterator to remove. It builds a
-     * list of group elements and then removes them one by one.
+     * Removes an individual key from the cache.
      * <p>
-     * This operates under a lock obtained in doRemove().
+     * This operates under a lock obtained in doRemove() and locks the key.
      * <p>
      *
      * @param key
-     * @return true if an element was removed
+     * @return true if an item was removed.
      */
-    private boolean performGroupRemoval(GroupId key)
+    private boolean performSingleKeyRemoval(K key)
     {
-        boolean removed = false;
-
-        // remove all keys of the same name group.
-        List<K> itemsToRemove = new LinkedList<K>();
-
-        // remove all keys of the same name hierarchy.
-        for (K k : keyHash.keySet())
+        boolean removed;
+        Lock keyLock = keyLock(key).writeLock();
+        keyLock.lock();
+        try
         {
-            if (k instanceof GroupAttrName && ((GroupAttrName<?>) k).groupId.equals(key))
+            // remove single item.
+            IndexedDiskElementDescriptor ded = keyHash.remove(key);
+            removed = ded != null;
+            addToRecycleBin(ded);
+            if (removed)
             {
-                itemsToRemove.add(k);
+                journalRemove(key);
             }
         }
-
-        // remove matches.
-        for (K fullKey : itemsToRemove)
+        finally
         {
-            // Don't add to recycle bin here
-            // https://issues.apache.org/jira/browse/JCS-67
-            performSingleKeyRemoval(fullKey);
-            removed = true;
-            // TODO this needs to update the remove count separately
+            keyLock.unlock();
         }
 
-        return removed;
-    }
-
-    /**
-     * Removes an individual key from the cache.
-     * <p>
-     * This operates under a lock obtained in doRemove().
-     * <p>
-     *
-     * @param key
-     * @return true if an item was removed.
-     */
-    private boolean performSingleKeyRemoval(K key)
-    {
-        boolean removed;
-        // remove single item.
-        IndexedDiskElementDescriptor ded = keyHash.remove(key);
-        removed = ded != null;
-        addToRecycleBin(ded);
-
         if (log.isDebugEnabled())
         {
             log.debug(logCacheName + "Disk removal: Removed from key hash, key [" + key + "] removed = " + removed);
@@ -960,12 +1746,20 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 log.debug("Could not delete file " + keyFileTemp);
             }
 
-            dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer());
-            keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer());
+            dataFile = new IndexedDisk(new File(rafDir, fileName + ".data"), getElementSerializer(), getMappedChunkSize(),
+            cattr.isUseRecordChecksums());
+            keyFile = new IndexedDisk(new File(rafDir, fileName + ".key"), getElementSerializer(), 0,
+            cattr.isUseRecordChecksums());
 
             initializeRecycleBin();
 
             initializeKeyMap();
+            evictedSlots.clear();
+
+            if (keyJournal != null)
+            {
+                keyJournal.clear();
+            }
         }
         catch (IOException e)
         {
@@ -983,7 +1777,13 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
      */
     private void initializeRecycleBin()
     {
-        recycle = new ConcurrentSkipListSet<IndexedDiskElementDescriptor>();
+        synchronized (allocationLock)
+        {
+            recycle = new ConcurrentSkipListSet<IndexedDiskElementDescriptor>();
+            freeSpace = cattr.isUseSizeClassRecycleBin() ? new FreeSpaceAllocator() : null;
+            // the file may have been truncated or replaced
+            dataFileEnd = 0;
+        }
     }
 
     /**
@@ -1011,8 +1811,7 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         else
         {
             // If no max size, use a plain map for memory and processing efficiency.
-            keyHash = new HashMap<K, IndexedDiskElementDescriptor>();
-            // keyHash = Collections.synchronizedMap( new HashMap() );
+            keyHash = new ConcurrentHashMap<K, IndexedDiskElementDescriptor>();
             if (log.isInfoEnabled())
             {
                 log.info(logCacheName + "Set maxKeySize to unlimited'");
@@ -1020,47 +1819,10 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
-    /**
-     * Dispose of the disk cache in a background thread. Joins against this thread to put a cap on
-     * the disposal time.
-     * <p>
-     * TODO make dispose window configurable.
-     */
-    @Override
-    public void processDispose()
-    {
-        ICacheEvent<String> cacheEvent = createICacheEvent(getCacheName(), "none", ICacheEventLogger.DISPOSE_EVENT);
-        try
-        {
-            Runnable disR = new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    disposeInternal();
-                }
-            };
-            Thread t = new Thread(disR, "IndexedDiskCache-DisposalThread");
-            t.start();
-            // wait up to 60 seconds for dispose and then quit if not done.
-            try
-            {
-                t.join(60 * 1000);
-            }
-            catch (InterruptedException ex)
-            {
-                log.error(logCacheName + "Interrupted while waiting for disposal thread to finish.", ex);
-            }
-        }
-        finally
-        {
-            logICacheEvent(cacheEvent);
-        }
-    }
-
     /**
      * Internal method that handles the disposal.
      */
+    @Override
     protected void disposeInternal()
     {
         if (!isAlive())
@@ -1072,6 +1834,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         // Prevents any interaction with the cache while we're shutting down.
         setAlive(false);
 
+        if (keyJournalFuture != null)
+        {
+            keyJournalFuture.cancel(false);
+        }
+
         Thread optimizationThread = currentOptimizationThread;
         if (isRealTimeOptimizationEnabled && optimizationThread != null)
         {
@@ -1106,6 +1873,10 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             dataFile = null;
             keyFile.close();
             keyFile = null;
+            if (keyJournal != null)
+            {
+                keyJournal.close();
+            }
         }
         catch (IOException e)
         {
@@ -1134,13 +1905,27 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         // reuse the spot
         if (ded != null)
         {
-            storageLock.readLock().lock();
+            if (cattr.isUseRecordChecksums())
+            {
+                try
+                {
+                    dataFile.markFree(ded);
+                }
+                catch (IOException e)
+                {
+                    log.error(logCacheName + "Failure marking the record at " + ded.pos + " free", e);
+                }
+            }
 
-            try
+            synchronized (allocationLock)
             {
                 this.adjustBytesFree(ded, true);
 
-                if (doRecycle)
+                if (doRecycle && freeSpace != null)
+                {
+                    freeSpace.free(ded.pos, IndexedDisk.HEADER_SIZE_BYTES + ded.len);
+                }
+                else if (doRecycle)
                 {
                     recycle.add(ded);
                     if (log.isDebugEnabled())
@@ -1150,10 +1935,6 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
 
                 }
             }
-            finally
-            {
-                storageLock.readLock().unlock();
-            }
         }
     }
 
@@ -1245,6 +2026,15 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             // shut off recycle while we're optimizing,
             doRecycle = false;
             defragList = createPositionSortedDescriptorList();
+            if (keyJournal != null)
+            {
+                // the positions are about to move, a checkpoint is written afterwards
+                keyJournal.clear();
+            }
+        }
+        catch (IOException e)
+        {
+            log.error(logCacheName + "Problem clearing the key journal.", e);
         }
         finally
         {
@@ -1293,6 +2083,11 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
             storageLock.writeLock().unlock();
         }
 
+        if (keyJournal != null)
+        {
+            checkpointKeys();
+        }
+
         if (log.isInfoEnabled())
         {
             log.info(logCacheName + "Finished #" + timesOptimized + " Optimization took " + timer.getElapsedTimeString());
@@ -1397,14 +2192,65 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Returns the size of the recycle bin in number of elements.
+     * Returns the size of the recycle bin in number of elements. With the size class recycle bin
+     * this is the number of free extents, after coalescing.
      * <p>
      *
      * @return The number of items in the bin.
      */
     protected int getRecyleBinSize()
     {
-        return this.recycle.size();
+        FreeSpaceAllocator allocator = this.freeSpace;
+        return allocator != null ? allocator.getExtentCount() : this.recycle.size();
+    }
+
+    /**
+     * Returns the length of the largest reusable spot, header included.
+     * <p>
+     *
+     * @return The length of the largest spot in the recycle bin, 0 if it is empty.
+     */
+    protected long getLargestFreeExtent()
+    {
+        FreeSpaceAllocator allocator = this.freeSpace;
+        if (allocator != null)
+        {
+            return allocator.getLargestExtent();
+        }
+        IndexedDiskElementDescriptor largest = null;
+        try
+        {
+            largest = this.recycle.last();
+        }
+        catch (NoSuchElementException e)
+        {
+            return 0;
+        }
+        return largest.len + IndexedDisk.HEADER_SIZE_BYTES;
+    }
+
+    /**
+     * Returns how fragmented the reusable space is: the share of it outside the largest spot.
+     * <p>
+     *
+     * @return A fraction between 0, all in one spot, and close to 1, in many small spots.
+     */
+    protected double getFragmentation()
+    {
+        long total = 0;
+        FreeSpaceAllocator allocator = this.freeSpace;
+        if (allocator != null)
+        {
+            total = allocator.getFreeBytes();
+        }
+        else
+        {
+            for (IndexedDiskElementDescriptor ded : this.recycle)
+            {
+                total += ded.len + IndexedDisk.HEADER_SIZE_BYTES;
+            }
+        }
+        return total == 0 ? 0 : 1 - (double) getLargestFreeExtent() / total;
     }
 
     /**
@@ -1562,8 +2408,16 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         elems.add(new StatElement<Integer>("Optimize Operation Count", Integer.valueOf(this.removeCount)));
         elems.add(new StatElement<Integer>("Times Optimized", Integer.valueOf(this.timesOptimized)));
         elems.add(new StatElement<Integer>("Recycle Count", Integer.valueOf(this.recycleCnt)));
-        elems.add(new StatElement<Integer>("Recycle Bin Size", Integer.valueOf(this.recycle.size())));
+        elems.add(new StatElement<Integer>("Recycle Bin Size", Integer.valueOf(getRecyleBinSize())));
+        elems.add(new StatElement<Long>("Largest Free Extent", Long.valueOf(getLargestFreeExtent())));
+        elems.add(new StatElement<String>("Fragmentation", String.format("%.1f%%", Double.valueOf(getFragmentation() * 100))));
         elems.add(new StatElement<Integer>("Startup Size", Integer.valueOf(this.startupSize)));
+        if (cattr.isUseRecordChecksums())
+        {
+            elems.add(new StatElement<AtomicInteger>("Dropped Records", this.droppedRecords));
+            elems.add(new StatElement<Integer>("Recovered Records", Integer.valueOf(this.recoveredRecords)));
+            elems.add(new StatElement<Long>("Recovery Millis", Long.valueOf(this.recoveryMillis)));
+        }
 
         // get the stats from the super too
         IStats sStats = super.getStatistics();
@@ -1630,6 +2484,55 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
         }
     }
 
+    /**
+     * A record found by a scan of the data file.
+     */
+    private final class RecoveredRecord
+    {
+        /** the key of the record */
+        final K key;
+
+        /** where it is */
+        final IndexedDiskElementDescriptor ded;
+
+        /** its sequence number, the highest wins */
+        final long seq;
+
+        /**
+         * @param key
+         * @param ded
+         * @param seq
+         */
+        RecoveredRecord(K key, IndexedDiskElementDescriptor ded, long seq)
+        {
+            this.key = key;
+            this.ded = ded;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * The slot of a key dropped by the LRU, waiting to be freed.
+     */
+    private final class EvictedSlot
+    {
+        /** the dropped key */
+        final K key;
+
+        /** its slot */
+        final IndexedDiskElementDescriptor ded;
+
+        /**
+         * @param key
+         * @param ded
+         */
+        EvictedSlot(K key, IndexedDiskElementDescriptor ded)
+        {
+            this.key = key;
+            this.ded = ded;
+        }
+    }
+
     /**
      * Class for recycling and lru. This implements the LRU overflow callback, so we can add items
      * to the recycle bin. This class counts the size element to decide, when to throw away an element
@@ -1735,15 +2638,17 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
                 subLengthFromCacheSize(value);
             }
 
-            addToRecycleBin(value);
+            if (value != null)
+            {
+                // freed once the put that dropped the key is done
+                evictedSlots.add(new EvictedSlot(key, value));
+            }
 
             if (log.isDebugEnabled())
             {
                 log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
                 log.debug(logCacheName + "Key store size: [" + this.size() + "].");
             }
-
-            doOptimizeRealTime();
         }
 
         @Override
@@ -1754,37 +2659,20 @@ public class IndexedDiskCache<K, V> extends AbstractDiskCache<K, V>
     }
 
     /**
-     * Class for recycling and lru. This implements the LRU overflow callback, so we can add items
-     * to the recycle bin. This class counts the elements to decide, when to throw away an element
+     * This is called when the max key size of the count limited key map is reached. The slot of
+     * the evicted key goes to the recycle bin once the put that dropped the key is done.
+     * <p>
+     *
+     * @param key
+     * @param value
      */
-
-    public class LRUMapCountLimited extends LRUMap<K, IndexedDiskElementDescriptor>
-    // implements Serializable
+    @Override
+    protected void keyEvicted(K key, IndexedDiskElementDescriptor value)
     {
-        public LRUMapCountLimited(int maxKeySize)
-        {
-            super(maxKeySize);
-        }
-
-        /**
-         * This is called when the may key size is reached. The least recently used item will be
-         * passed here. We will store the position and size of the spot on disk in the recycle bin.
-         * <p>
-         *
-         * @param key
-         * @param value
-         */
-        @Override
-        protected void processRemovedLRU(K key, IndexedDiskElementDescriptor value)
+        if (value != null)
         {
-            addToRecycleBin(value);
-            if (log.isDebugEnabled())
-            {
-                log.debug(logCacheName + "Removing key: [" + key + "] from key store.");
-                log.debug(logCacheName + "Key store size: [" + this.size() + "].");
-            }
-
-            doOptimizeRealTime();
+            // freed once the put that dropped the key is done
+            evictedSlots.add(new EvictedSlot(key, value));
         }
     }
 }
@@ -51,6 +51,36 @@ public class IndexedDiskCacheAttributes
     /** Should we clear the disk on startup. If true the contents of disk are cleared. */
     private boolean clearDiskOnStartup = DEFAULT_CLEAR_DISK_ON_STARTUP;
 
+    /** Should reads use a memory mapping of the data file. */
+    public static final boolean DEFAULT_USE_MEMORY_MAPPED_READS = false;
+
+    /** Should reads use a memory mapping of the data file instead of channel reads. */
+    private boolean useMemoryMappedReads = DEFAULT_USE_MEMORY_MAPPED_READS;
+
+    /** Default size of the regions of the data file mapped at once. */
+    public static final int DEFAULT_MAPPED_CHUNK_SIZE_BYTES = 64 * 1024 * 1024;
+
+    /** Size of the regions of the data file mapped at once. */
+    private int mappedChunkSizeBytes = DEFAULT_MAPPED_CHUNK_SIZE_BYTES;
+
+    /** Should the recycle bin use size class free lists. */
+    public static final boolean DEFAULT_USE_SIZE_CLASS_RECYCLE_BIN = false;
+
+    /** Should the recycle bin coalesce free space and keep it in size class free lists. */
+    private boolean useSizeClassRecycleBin = DEFAULT_USE_SIZE_CLASS_RECYCLE_BIN;
+
+    /** Should records carry a checksum. */
+    public static final boolean DEFAULT_USE_RECORD_CHECKSUMS = false;
+
+    /** Should records carry a CRC32C checksum, verified on read and used to rebuild the keys. */
+    private boolean useRecordChecksums = DEFAULT_USE_RECORD_CHECKSUMS;
+
+    /** Default number of threads scanning the data file when the keys are rebuilt. */
+    public static final int DEFAULT_RECOVERY_THREADS = 4;
+
+    /** The number of threads scanning the data file when the keys are rebuilt. */
+    private int recoveryThreads = DEFAULT_RECOVERY_THREADS;
+
     /**
      * Constructor for the DiskCacheAttributes object
      */
@@ -132,6 +162,89 @@ public class IndexedDiskCacheAttributes
         return clearDiskOnStartup;
     }
 
+    /**
+     * @param useMemoryMappedReads whether reads should use a memory mapping of the data file
+     */
+    public void setUseMemoryMappedReads( boolean useMemoryMappedReads )
+    {
+        this.useMemoryMappedReads = useMemoryMappedReads;
+    }
+
+    /**
+     * @return whether reads use a memory mapping of the data file
+     */
+    public boolean isUseMemoryMappedReads()
+    {
+        return useMemoryMappedReads;
+    }
+
+    /**
+     * @param mappedChunkSizeBytes the size of the regions of the data file mapped at once
+     */
+    public void setMappedChunkSizeBytes( int mappedChunkSizeBytes )
+    {
+        this.mappedChunkSizeBytes = mappedChunkSizeBytes;
+    }
+
+    /**
+     * @return the size of the regions of the data file mapped at once
+     */
+    public int getMappedChunkSizeBytes()
+    {
+        return mappedChunkSizeBytes;
+    }
+
+    /**
+     * @param useSizeClassRecycleBin whether the recycle bin coalesces free space and keeps it in
+     *            size class free lists
+     */
+    public void setUseSizeClassRecycleBin( boolean useSizeClassRecycleBin )
+    {
+        this.useSizeClassRecycleBin = useSizeClassRecycleBin;
+    }
+
+    /**
+     * @return whether the recycle bin coalesces free space and keeps it in size class free lists
+     */
+    public boolean isUseSizeClassRecycleBin()
+    {
+        return useSizeClassRecycleBin;
+    }
+
+    /**
+     * @param useRecordChecksums whether records carry a CRC32C checksum. Damaged records are
+     *            dropped one by one and the keys are rebuilt from the data file if there is no
+     *            key file written at shutdown.
+     */
+    public void setUseRecordChecksums( boolean useRecordChecksums )
+    {
+        this.useRecordChecksums = useRecordChecksums;
+    }
+
+    /**
+     * @return whether records carry a CRC32C checksum
+     */
+    public boolean isUseRecordChecksums()
+    {
+        return useRecordChecksums;
+    }
+
+    /**
+     * @param recoveryThreads the number of threads scanning the data file when the keys are rebuilt
+     */
+    public void setRecoveryThreads( int recoveryThreads )
+    {
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    /**
+     * @return the number of threads scanning the data file when the keys are rebuilt
+     */
+    public int getRecoveryThreads()
+    {
+        return recoveryThreads;
+    }
+
     /**
      * Write out the values for debugging purposes.
      * <p>
@@ -149,6 +262,11 @@ public class IndexedDiskCacheAttributes
         str.append( "\n shutdownSpoolTimeLimit  = " + super.getShutdownSpoolTimeLimit() );
         str.append( "\n optimizeOnShutdown  = " + optimizeOnShutdown );
         str.append( "\n clearDiskOnStartup  = " + clearDiskOnStartup );
+        str.append( "\n useMemoryMappedReads  = " + useMemoryMappedReads );
+        str.append( "\n mappedChunkSizeBytes  = " + mappedChunkSizeBytes );
+        str.append( "\n useSizeClassRecycleBin  = " + useSizeClassRecycleBin );
+        str.append( "\n useRecordChecksums  = " + useRecordChecksums );
+        str.append( "\n recoveryThreads  = " + recoveryThreads );
         return str.toString();
     }
 }
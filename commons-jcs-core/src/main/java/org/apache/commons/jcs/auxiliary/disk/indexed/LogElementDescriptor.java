@@ -0,0 +1,88 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Locates a record in one of the segment files of the log structured disk cache. The segment and
+ * position are changed in place when compaction moves the record.
+ */
+public class LogElementDescriptor
+    extends IndexedDiskElementDescriptor
+{
+    /** Don't change */
+    private static final long serialVersionUID = 4617355140196264173L;
+
+    /** Segment number of a descriptor that is no longer referenced by the index. */
+    static final int NO_SEGMENT = -1;
+
+    /** Number of the segment file holding the record. */
+    int segment;
+
+    /**
+     * Constructs a usable log element descriptor.
+     * <p>
+     * @param segment
+     * @param pos
+     * @param len
+     */
+    public LogElementDescriptor( int segment, long pos, int len )
+    {
+        super( pos, len );
+        this.segment = segment;
+    }
+
+    /**
+     * @return debug string
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "[LED: " );
+        buf.append( " segment = " + segment );
+        buf.append( " pos = " + pos );
+        buf.append( " len = " + len );
+        buf.append( "]" );
+        return buf.toString();
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return super.hashCode() ^ segment;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( o instanceof LogElementDescriptor )
+        {
+            return segment == ( (LogElementDescriptor) o ).segment && super.equals( o );
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,1124 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.behavior.IRequireScheduler;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.Stats;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Log structured variant of the indexed disk cache. Records are only ever appended to the active
+ * segment file. When it reaches the segment size it is sealed and a new segment is started. Updates
+ * and removals leave dead records behind in the sealed segments.
+ * <p>
+ * Sealed segments whose ratio of live bytes falls below the configured ratio are compacted in the
+ * background: the live records are copied to the active segment one by one, and the descriptor of
+ * each record is switched to its new position under a short write lock. The segment file is
+ * deleted once all its records have moved. Gets and puts are never blocked for a whole compaction.
+ * <p>
+ * Appends to the active segment are serialized by their own lock. The storage write lock is only
+ * held to publish the new descriptor, so gets are not blocked while a record is written.
+ * <p>
+ * Like the indexed disk cache, the keys are held in memory and saved to a key file on shutdown.
+ */
+public class LogStructuredDiskCache<K, V>
+    extends AbstractIndexedDiskCache<K, V, LogElementDescriptor>
+    implements IRequireScheduler
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( LogStructuredDiskCache.class );
+
+    /** Extension of the segment files. */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** Cache name used in log messages */
+    private final String logCacheName;
+
+    /** The base name of the key and segment files */
+    private final String fileName;
+
+    /** The directory of the key and segment files */
+    private final File rootDirectory;
+
+    /** User configurable parameters */
+    private final LogStructuredDiskCacheAttributes cattr;
+
+    /** The key file, written on shutdown. */
+    private IndexedDisk keyFile;
+
+    /** Map containing the keys and their position in the segments. */
+    private Map<K, LogElementDescriptor> keyHash;
+
+    /** The segments by number. Guarded by the storage lock. */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    /** The segment appended to. Changed under the append lock and the storage write lock. */
+    private Segment active;
+
+    /**
+     * Use this lock to synchronize reads and writes to the underlying storage mechanism. Reads
+     * hold the read lock while they read the record, so a segment is only closed and deleted under
+     * the write lock.
+     */
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+
+    /**
+     * Serializes appends to the active segment and the descriptor updates that follow them. Taken
+     * before the storage lock. Changes of the active segment hold both.
+     */
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    /** Only one compaction runs at a time. */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    /** The scheduled compaction. */
+    private ScheduledFuture<?> future;
+
+    /** simple stat */
+    private final AtomicInteger hitCount = new AtomicInteger( 0 );
+
+    /** Bytes of records written for puts. */
+    private final AtomicLong userBytesWritten = new AtomicLong( 0 );
+
+    /** Bytes of records written for puts and compaction. */
+    private final AtomicLong bytesWritten = new AtomicLong( 0 );
+
+    /** Number of segments compacted and deleted. */
+    private final AtomicInteger segmentsCompacted = new AtomicInteger( 0 );
+
+    /** Bytes of live records moved by compaction. */
+    private final AtomicLong bytesCompacted = new AtomicLong( 0 );
+
+    /** Time spent compacting. */
+    private final AtomicLong compactionNanos = new AtomicLong( 0 );
+
+    /**
+     * Constructor for the LogStructuredDiskCache object.
+     * <p>
+     * @param cacheAttributes
+     */
+    public LogStructuredDiskCache( LogStructuredDiskCacheAttributes cacheAttributes )
+    {
+        this( cacheAttributes, null );
+    }
+
+    /**
+     * Constructor for the LogStructuredDiskCache object.
+     * <p>
+     * @param cattr
+     * @param elementSerializer used if supplied, the super's super will not set a null
+     */
+    public LogStructuredDiskCache( LogStructuredDiskCacheAttributes cattr, IElementSerializer elementSerializer )
+    {
+        super( cattr );
+        setElementSerializer( elementSerializer );
+
+        this.cattr = cattr;
+        this.logCacheName = "Region [" + getCacheName() + "] ";
+        // Make a clean file name
+        this.fileName = getCacheName().replaceAll( "[^a-zA-Z0-9-_\\.]", "_" );
+        this.rootDirectory = cattr.getDiskPath();
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( logCacheName + "Cache file root directory: [" + rootDirectory + "]" );
+        }
+
+        try
+        {
+            keyFile = new IndexedDisk( new File( rootDirectory, fileName + ".key" ), getElementSerializer() );
+            initializeKeyMap();
+
+            if ( cattr.isClearDiskOnStartup() )
+            {
+                if ( log.isInfoEnabled() )
+                {
+                    log.info( logCacheName + "ClearDiskOnStartup is set to true.  Ignoring any persisted data." );
+                }
+                reset();
+            }
+            else if ( keyFile.length() == 0 || !loadKeysAndSegments() )
+            {
+                reset();
+            }
+
+            // Initialization finished successfully, so set alive to true.
+            setAlive( true );
+            if ( log.isInfoEnabled() )
+            {
+                log.info( logCacheName + "Log Structured Disk Cache is alive." );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure initializing for fileName: " + fileName + " and root directory: "
+                + rootDirectory, e );
+        }
+    }
+
+    /**
+     * Schedules the background compaction.
+     * <p>
+     * @see org.apache.commons.jcs.engine.behavior.IRequireScheduler#setScheduledExecutorService(java.util.concurrent.ScheduledExecutorService)
+     */
+    @Override
+    public void setScheduledExecutorService( ScheduledExecutorService scheduledExecutor )
+    {
+        if ( cattr.getCompactionIntervalSeconds() > 0 )
+        {
+            future = scheduledExecutor.scheduleWithFixedDelay(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            compact();
+                        }
+                    },
+                    cattr.getCompactionIntervalSeconds(),
+                    cattr.getCompactionIntervalSeconds(),
+                    TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * Loads the keys from the key file and opens the segments they point to. Segment files no key
+     * points to are deleted and a new active segment is started after the last one.
+     * <p>
+     * @return false if the keys could not be loaded or do not match the segments
+     */
+    private boolean loadKeysAndSegments()
+    {
+        storageLock.writeLock().lock();
+        try
+        {
+            HashMap<K, LogElementDescriptor> keys = keyFile.readObject(
+                new IndexedDiskElementDescriptor( 0, (int) keyFile.length() - IndexedDisk.HEADER_SIZE_BYTES ) );
+            if ( keys == null || keys.isEmpty() )
+            {
+                return false;
+            }
+
+            int last = -1;
+            for ( Map.Entry<K, LogElementDescriptor> e : keys.entrySet() )
+            {
+                LogElementDescriptor ded = e.getValue();
+                Segment segment = segments.get( Integer.valueOf( ded.segment ) );
+                if ( segment == null )
+                {
+                    File file = getSegmentFile( ded.segment );
+                    if ( !file.exists() )
+                    {
+                        log.warn( logCacheName + "Segment file [" + file + "] is missing." );
+                        return false;
+                    }
+                    segment = openSegment( ded.segment );
+                }
+
+                if ( ded.pos + IndexedDisk.HEADER_SIZE_BYTES + ded.len > segment.disk.length() )
+                {
+                    log.warn( logCacheName + "The segment file is corrupted! " + ded );
+                    return false;
+                }
+
+                segment.liveBytes.addAndGet( IndexedDisk.HEADER_SIZE_BYTES + ded.len );
+                last = Math.max( last, ded.segment );
+            }
+
+            for ( int number : listSegmentNumbers() )
+            {
+                if ( !segments.containsKey( Integer.valueOf( number ) ) )
+                {
+                    deleteSegmentFile( number );
+                }
+            }
+
+            active = openSegment( last + 1 );
+            keyHash.putAll( keys );
+
+            if ( log.isInfoEnabled() )
+            {
+                log.info( logCacheName + "Loaded keys from [" + fileName + "], key count: " + keyHash.size()
+                    + ", segment count: " + segments.size() );
+            }
+            return true;
+        }
+        catch ( Exception e )
+        {
+            log.error( logCacheName + "Problem loading keys for file " + fileName, e );
+            return false;
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the keys to the key file.
+     */
+    protected void saveKeys()
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            if ( log.isInfoEnabled() )
+            {
+                log.info( logCacheName + "Saving keys to: " + fileName + ", key count: " + keyHash.size() );
+            }
+
+            keyFile.reset();
+
+            HashMap<K, LogElementDescriptor> keys = new HashMap<K, LogElementDescriptor>();
+            keys.putAll( keyHash );
+
+            if ( keys.size() > 0 )
+            {
+                keyFile.writeObject( keys, 0 );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Problem storing keys.", e );
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the element to the active segment.
+     * <p>
+     * @param ce The ICacheElement&lt;K, V&gt; to put to disk.
+     */
+    @Override
+    protected void processUpdate( ICacheElement<K, V> ce )
+    {
+        if ( !isAlive() )
+        {
+            log.error( logCacheName + "No longer alive; aborting put of key = " + ce.getKey() );
+            return;
+        }
+
+        try
+        {
+            byte[] data = getElementSerializer().serialize( ce );
+
+            appendLock.lock();
+            try
+            {
+                LogElementDescriptor ded = append( data );
+
+                LogElementDescriptor old;
+                storageLock.writeLock().lock();
+                try
+                {
+                    old = keyHash.put( ce.getKey(), ded );
+                    release( old );
+                }
+                finally
+                {
+                    storageLock.writeLock().unlock();
+                }
+                if ( old != null )
+                {
+                    keyReplaced( ce.getKey() );
+                }
+                userBytesWritten.addAndGet( IndexedDisk.HEADER_SIZE_BYTES + ded.len );
+
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( logCacheName + "Put to file: " + fileName + ", key: " + ce.getKey() + ", " + ded );
+                }
+            }
+            finally
+            {
+                appendLock.unlock();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure updating element, key: " + ce.getKey(), e );
+        }
+    }
+
+    /**
+     * Writes a record at the end of the active segment, starting a new segment first if the record
+     * does not fit. This must be called under the append lock. The record is written without the
+     * storage lock, since no descriptor points to it yet; only a new segment is added under the
+     * write lock.
+     * <p>
+     * @param data the serialized data
+     * @return the descriptor of the new record
+     * @throws IOException
+     */
+    private LogElementDescriptor append( byte[] data )
+        throws IOException
+    {
+        int recordLength = IndexedDisk.HEADER_SIZE_BYTES + data.length;
+        long pos = active.disk.length();
+        if ( pos > 0 && pos + recordLength > cattr.getSegmentSizeBytes() )
+        {
+            storageLock.writeLock().lock();
+            try
+            {
+                active = openSegment( active.number + 1 );
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+            }
+            pos = 0;
+        }
+
+        LogElementDescriptor ded = new LogElementDescriptor( active.number, pos, data.length );
+        active.disk.write( ded, data );
+        active.liveBytes.addAndGet( recordLength );
+        bytesWritten.addAndGet( recordLength );
+        return ded;
+    }
+
+    /**
+     * Marks the record of a descriptor that is no longer in the key map as dead. This must be
+     * called under the write lock.
+     * <p>
+     * @param ded may be null
+     */
+    private void release( LogElementDescriptor ded )
+    {
+        if ( ded != null )
+        {
+            Segment segment = segments.get( Integer.valueOf( ded.segment ) );
+            if ( segment != null )
+            {
+                segment.liveBytes.addAndGet( -( IndexedDisk.HEADER_SIZE_BYTES + ded.len ) );
+            }
+            ded.segment = LogElementDescriptor.NO_SEGMENT;
+        }
+    }
+
+    /**
+     * Gets the key, then goes to the segment to get the object.
+     * <p>
+     * @param key
+     * @return ICacheElement&lt;K, V&gt; or null
+     * @see AbstractDiskCache#doGet
+     */
+    @Override
+    protected ICacheElement<K, V> processGet( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.error( logCacheName + "No longer alive so returning null for key = " + key );
+            return null;
+        }
+
+        ICacheElement<K, V> object = null;
+        try
+        {
+            storageLock.readLock().lock();
+            try
+            {
+                LogElementDescriptor ded = keyHash.get( key );
+                if ( ded != null )
+                {
+                    object = segments.get( Integer.valueOf( ded.segment ) ).disk.readObject( ded );
+                }
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            if ( object != null )
+            {
+                hitCount.incrementAndGet();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure getting from disk, key = " + key, e );
+            reset();
+        }
+        catch ( Exception e )
+        {
+            log.error( logCacheName + "Failure getting from disk, key = " + key, e );
+            reset();
+        }
+        return object;
+    }
+
+    /**
+     * Gets matching items from the cache.
+     * <p>
+     * @param pattern
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache matching keys
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> processGetMatching( String pattern )
+    {
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        Set<K> matchingKeys = getKeyMatcher().getMatchingKeysFromArray( pattern, getKeySet() );
+
+        for ( K key : matchingKeys )
+        {
+            ICacheElement<K, V> element = processGet( key );
+            if ( element != null )
+            {
+                elements.put( key, element );
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Return the keys in this cache.
+     * <p>
+     * @see org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache#getKeySet()
+     */
+    @Override
+    public Set<K> getKeySet()
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            return new HashSet<K>( keyHash.keySet() );
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the key from the key map. The record stays in its segment until the segment is
+     * compacted.
+     * <p>
+     * @param key
+     * @return true if at least one item was removed.
+     */
+    @Override
+    protected boolean processRemove( K key )
+    {
+        if ( !isAlive() )
+        {
+            log.error( logCacheName + "No longer alive so returning false for key = " + key );
+            return false;
+        }
+
+        if ( key == null )
+        {
+            return false;
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            boolean removed = false;
+            for ( K fullKey : getKeysToRemove( key, keyHash.keySet() ) )
+            {
+                LogElementDescriptor ded = keyHash.remove( fullKey );
+                if ( ded != null )
+                {
+                    release( ded );
+                    removed = true;
+                }
+            }
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( logCacheName + "Disk removal: Removed from key hash, key [" + key + "] removed = " + removed );
+            }
+            return removed;
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all the items from the disk cache by resetting everything.
+     */
+    @Override
+    public void processRemoveAll()
+    {
+        ICacheEvent<String> cacheEvent = createICacheEvent( getCacheName(), "all", ICacheEventLogger.REMOVEALL_EVENT );
+        try
+        {
+            reset();
+        }
+        finally
+        {
+            logICacheEvent( cacheEvent );
+        }
+    }
+
+    /**
+     * Reset effectively clears the disk cache, deleting all segments and the keys.
+     * <p>
+     * It can be used to handle errors by last resort, force content update, or removeall.
+     */
+    private void reset()
+    {
+        if ( log.isWarnEnabled() )
+        {
+            log.warn( logCacheName + "Resetting cache" );
+        }
+
+        appendLock.lock();
+        storageLock.writeLock().lock();
+        try
+        {
+            for ( Segment segment : segments.values() )
+            {
+                segment.disk.close();
+            }
+            segments.clear();
+
+            for ( int number : listSegmentNumbers() )
+            {
+                deleteSegmentFile( number );
+            }
+
+            keyFile.reset();
+            for ( LogElementDescriptor ded : keyHash.values() )
+            {
+                ded.segment = LogElementDescriptor.NO_SEGMENT;
+            }
+            initializeKeyMap();
+            active = openSegment( 0 );
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure resetting state", e );
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Create the map for keys that contain the position in the segments.
+     */
+    private void initializeKeyMap()
+    {
+        if ( cattr.getMaxKeySize() >= 0 )
+        {
+            keyHash = new LRUMapCountLimited( cattr.getMaxKeySize() );
+        }
+        else
+        {
+            keyHash = new HashMap<K, LogElementDescriptor>();
+        }
+    }
+
+    /**
+     * Compacts the sealed segments whose ratio of live bytes is below the configured ratio. Only
+     * one compaction runs at a time, if another one is running this returns immediately.
+     * <p>
+     * @return the number of segments compacted
+     */
+    public int compact()
+    {
+        if ( !isAlive() || !compactionLock.tryLock() )
+        {
+            return 0;
+        }
+
+        try
+        {
+            List<Segment> candidates = new ArrayList<Segment>();
+            storageLock.readLock().lock();
+            try
+            {
+                for ( Segment segment : segments.values() )
+                {
+                    if ( segment != active && segment.getLiveRatio() < cattr.getCompactionLiveRatio() )
+                    {
+                        candidates.add( segment );
+                    }
+                }
+            }
+            finally
+            {
+                storageLock.readLock().unlock();
+            }
+
+            int compacted = 0;
+            for ( Segment segment : candidates )
+            {
+                if ( !isAlive() )
+                {
+                    break;
+                }
+                compactSegment( segment );
+                compacted++;
+            }
+            return compacted;
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure compacting segments", e );
+            return 0;
+        }
+        finally
+        {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the live records of a sealed segment to the active segment and deletes it. The data of
+     * each record is read without a lock, since nothing writes to a sealed segment. The record is
+     * then appended under the append lock, and its descriptor is switched under the write lock,
+     * unless the key was updated or removed in the meantime. In that case the copy is dead.
+     * <p>
+     * @param segment a sealed segment
+     * @throws IOException
+     */
+    private void compactSegment( Segment segment )
+        throws IOException
+    {
+        long start = System.nanoTime();
+        List<LogElementDescriptor> live = new ArrayList<LogElementDescriptor>();
+        storageLock.readLock().lock();
+        try
+        {
+            for ( Map.Entry<K, LogElementDescriptor> e : keyHash.entrySet() )
+            {
+                if ( e.getValue().segment == segment.number )
+                {
+                    live.add( e.getValue() );
+                }
+            }
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+
+        long moved = 0;
+        for ( LogElementDescriptor ded : live )
+        {
+            byte[] data = segment.disk.readBytes( ded );
+
+            appendLock.lock();
+            try
+            {
+                LogElementDescriptor copy = append( data );
+
+                storageLock.writeLock().lock();
+                try
+                {
+                    if ( ded.segment == segment.number )
+                    {
+                        ded.segment = copy.segment;
+                        ded.pos = copy.pos;
+                        segment.liveBytes.addAndGet( -( IndexedDisk.HEADER_SIZE_BYTES + ded.len ) );
+                        moved += IndexedDisk.HEADER_SIZE_BYTES + ded.len;
+                    }
+                    else
+                    {
+                        release( copy );
+                    }
+                }
+                finally
+                {
+                    storageLock.writeLock().unlock();
+                }
+            }
+            finally
+            {
+                appendLock.unlock();
+            }
+        }
+
+        storageLock.writeLock().lock();
+        try
+        {
+            // a reset may have replaced the segments in the meantime
+            if ( segments.get( Integer.valueOf( segment.number ) ) == segment )
+            {
+                segments.remove( Integer.valueOf( segment.number ) );
+                segment.disk.close();
+                deleteSegmentFile( segment.number );
+            }
+        }
+        finally
+        {
+            storageLock.writeLock().unlock();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        segmentsCompacted.incrementAndGet();
+        bytesCompacted.addAndGet( moved );
+        compactionNanos.addAndGet( elapsed );
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( logCacheName + "Compacted segment " + segment.number + ", moved " + live.size() + " records ("
+                + moved + " bytes) in " + TimeUnit.NANOSECONDS.toMillis( elapsed ) + " ms" );
+        }
+    }
+
+    /**
+     * Opens a segment file and adds it to the segments. This must be called under the write lock.
+     * <p>
+     * @param number
+     * @return the segment
+     * @throws IOException
+     */
+    private Segment openSegment( int number )
+        throws IOException
+    {
+        int mappedChunkSize = cattr.isUseMemoryMappedReads() ? cattr.getMappedChunkSizeBytes() : 0;
+        Segment segment = new Segment( number,
+            new IndexedDisk( getSegmentFile( number ), getElementSerializer(), mappedChunkSize ) );
+        segments.put( Integer.valueOf( number ), segment );
+        return segment;
+    }
+
+    /**
+     * @param number
+     * @return the file of the segment
+     */
+    private File getSegmentFile( int number )
+    {
+        return new File( rootDirectory, fileName + "." + number + SEGMENT_SUFFIX );
+    }
+
+    /**
+     * @param number
+     */
+    private void deleteSegmentFile( int number )
+    {
+        File file = getSegmentFile( number );
+        if ( !file.delete() && log.isDebugEnabled() )
+        {
+            log.debug( logCacheName + "Could not delete file " + file );
+        }
+    }
+
+    /**
+     * @return the numbers of the segment files of this region found on disk
+     */
+    private List<Integer> listSegmentNumbers()
+    {
+        final String prefix = fileName + ".";
+        List<Integer> numbers = new ArrayList<Integer>();
+        String[] names = rootDirectory.list( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( File dir, String name )
+            {
+                return name.startsWith( prefix ) && name.endsWith( SEGMENT_SUFFIX );
+            }
+        } );
+
+        if ( names != null )
+        {
+            for ( String name : names )
+            {
+                try
+                {
+                    numbers.add( Integer.valueOf( name.substring( prefix.length(), name.length() - SEGMENT_SUFFIX.length() ) ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    // the segment of another region
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Internal method that handles the disposal. Waits for a running compaction to finish.
+     */
+    @Override
+    protected void disposeInternal()
+    {
+        if ( !isAlive() )
+        {
+            log.error( logCacheName + "Not alive and dispose was called, filename: " + fileName );
+            return;
+        }
+
+        // Prevents any interaction with the cache while we're shutting down.
+        setAlive( false );
+
+        if ( future != null )
+        {
+            future.cancel( false );
+        }
+
+        compactionLock.lock();
+        try
+        {
+            saveKeys();
+
+            appendLock.lock();
+            storageLock.writeLock().lock();
+            try
+            {
+                for ( Segment segment : segments.values() )
+                {
+                    segment.disk.close();
+                }
+                keyFile.close();
+            }
+            finally
+            {
+                storageLock.writeLock().unlock();
+                appendLock.unlock();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure closing files in dispose, filename: " + fileName, e );
+        }
+        finally
+        {
+            compactionLock.unlock();
+        }
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( logCacheName + "Shutdown complete." );
+        }
+    }
+
+    /**
+     * Returns the current cache size.
+     * <p>
+     * @return The size value
+     */
+    @Override
+    public int getSize()
+    {
+        return keyHash.size();
+    }
+
+    /**
+     * This is exposed for testing.
+     * <p>
+     * @return the number of segment files
+     */
+    protected int getSegmentCount()
+    {
+        storageLock.readLock().lock();
+        try
+        {
+            return segments.size();
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This is exposed for testing.
+     * <p>
+     * @return the number of segments compacted so far
+     */
+    protected int getSegmentsCompacted()
+    {
+        return segmentsCompacted.get();
+    }
+
+    /**
+     * @return Returns the AuxiliaryCacheAttributes.
+     */
+    @Override
+    public AuxiliaryCacheAttributes getAuxiliaryCacheAttributes()
+    {
+        return this.cattr;
+    }
+
+    /**
+     * Returns info about the disk cache, including compaction throughput and write amplification,
+     * the ratio of all bytes written to the bytes written for puts.
+     * <p>
+     * @see org.apache.commons.jcs.auxiliary.AuxiliaryCache#getStatistics()
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Log Structured Disk Cache" );
+
+        ArrayList<IStatElement<?>> elems = new ArrayList<IStatElement<?>>();
+
+        long totalBytes = 0;
+        long liveBytes = 0;
+        int segmentCount;
+        storageLock.readLock().lock();
+        try
+        {
+            segmentCount = segments.size();
+            for ( Segment segment : segments.values() )
+            {
+                totalBytes += segment.length();
+                liveBytes += segment.liveBytes.get();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( e );
+            segmentCount = -1;
+        }
+        finally
+        {
+            storageLock.readLock().unlock();
+        }
+
+        long userBytes = userBytesWritten.get();
+        long nanos = compactionNanos.get();
+
+        elems.add( new StatElement<Boolean>( "Is Alive", Boolean.valueOf( isAlive() ) ) );
+        elems.add( new StatElement<Integer>( "Key Map Size", Integer.valueOf( this.keyHash != null ? this.keyHash.size() : -1 ) ) );
+        elems.add( new StatElement<Integer>( "Max Key Size", Integer.valueOf( cattr.getMaxKeySize() ) ) );
+        elems.add( new StatElement<AtomicInteger>( "Hit Count", this.hitCount ) );
+        elems.add( new StatElement<Integer>( "Segment Count", Integer.valueOf( segmentCount ) ) );
+        elems.add( new StatElement<Long>( "Segment Bytes", Long.valueOf( totalBytes ) ) );
+        elems.add( new StatElement<Long>( "Live Bytes", Long.valueOf( liveBytes ) ) );
+        elems.add( new StatElement<AtomicLong>( "User Bytes Written", this.userBytesWritten ) );
+        elems.add( new StatElement<AtomicLong>( "Bytes Written", this.bytesWritten ) );
+        elems.add( new StatElement<Double>( "Write Amplification",
+            Double.valueOf( userBytes > 0 ? (double) bytesWritten.get() / userBytes : 1.0 ) ) );
+        elems.add( new StatElement<AtomicInteger>( "Segments Compacted", this.segmentsCompacted ) );
+        elems.add( new StatElement<AtomicLong>( "Bytes Compacted", this.bytesCompacted ) );
+        elems.add( new StatElement<Long>( "Compaction Millis", Long.valueOf( TimeUnit.NANOSECONDS.toMillis( nanos ) ) ) );
+        elems.add( new StatElement<Long>( "Compaction Bytes Per Second",
+            Long.valueOf( nanos > 0 ? bytesCompacted.get() * TimeUnit.SECONDS.toNanos( 1 ) / nanos : 0 ) ) );
+
+        // get the stats from the super too
+        IStats sStats = super.getStatistics();
+        elems.addAll( sStats.getStatElements() );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * This is used by the event logging.
+     * <p>
+     * @return the location of the disk, either path or ip.
+     */
+    @Override
+    protected String getDiskLocation()
+    {
+        return new File( rootDirectory, fileName ).getAbsolutePath();
+    }
+
+    /**
+     * A segment file and the number of bytes of live records in it.
+     */
+    private static final class Segment
+    {
+        /** The number of the segment, increasing in the order the segments were started. */
+        final int number;
+
+        /** The file access. */
+        final IndexedDisk disk;
+
+        /** Bytes of the records the key map points to, including headers. */
+        final AtomicLong liveBytes = new AtomicLong( 0 );
+
+        /**
+         * @param number
+         * @param disk
+         */
+        Segment( int number, IndexedDisk disk )
+        {
+            this.number = number;
+            this.disk = disk;
+        }
+
+        /**
+         * @return the length of the segment file
+         * @throws IOException
+         */
+        long length()
+            throws IOException
+        {
+            return disk.length();
+        }
+
+        /**
+         * @return the ratio of live bytes to the length of the segment, 1 for an empty segment
+         * @throws IOException
+         */
+        double getLiveRatio()
+            throws IOException
+        {
+            long length = disk.length();
+            return length > 0 ? (double) liveBytes.get() / length : 1.0;
+        }
+    }
+
+    /**
+     * Marks the record of a key evicted from the key map as dead in its segment. The key map is
+     * only changed under the write lock.
+     * <p>
+     * @param key
+     * @param value
+     */
+    @Override
+    protected void keyEvicted( K key, LogElementDescriptor value )
+    {
+        release( value );
+    }
+}
@@ -0,0 +1,121 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Configuration class for the log structured variant of the Indexed Disk Cache.
+ * <p>
+ * MaxKeySize always counts keys. The optimization settings of the Indexed Disk Cache do not apply,
+ * segments are compacted in the background instead.
+ */
+public class LogStructuredDiskCacheAttributes
+    extends IndexedDiskCacheAttributes
+{
+    /** Don't change. */
+    private static final long serialVersionUID = 2968418270471542207L;
+
+    /** Default size at which the active segment is sealed and a new one is started. */
+    public static final int DEFAULT_SEGMENT_SIZE_BYTES = 16 * 1024 * 1024;
+
+    /** Size at which the active segment is sealed and a new one is started. */
+    private int segmentSizeBytes = DEFAULT_SEGMENT_SIZE_BYTES;
+
+    /** Default ratio of live bytes below which a sealed segment is compacted. */
+    public static final double DEFAULT_COMPACTION_LIVE_RATIO = 0.5;
+
+    /** Ratio of live bytes below which a sealed segment is compacted. */
+    private double compactionLiveRatio = DEFAULT_COMPACTION_LIVE_RATIO;
+
+    /** Default number of seconds between compaction runs. */
+    public static final int DEFAULT_COMPACTION_INTERVAL_SECONDS = 60;
+
+    /** Number of seconds between compaction runs, 0 or less turns background compaction off. */
+    private int compactionIntervalSeconds = DEFAULT_COMPACTION_INTERVAL_SECONDS;
+
+    /**
+     * @param segmentSizeBytes the size at which the active segment is sealed
+     */
+    public void setSegmentSizeBytes( int segmentSizeBytes )
+    {
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    /**
+     * @return the size at which the active segment is sealed
+     */
+    public int getSegmentSizeBytes()
+    {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * @param compactionLiveRatio the ratio of live bytes below which a sealed segment is compacted
+     */
+    public void setCompactionLiveRatio( double compactionLiveRatio )
+    {
+        this.compactionLiveRatio = compactionLiveRatio;
+    }
+
+    /**
+     * @return the ratio of live bytes below which a sealed segment is compacted
+     */
+    public double getCompactionLiveRatio()
+    {
+        return compactionLiveRatio;
+    }
+
+    /**
+     * @param compactionIntervalSeconds the number of seconds between compaction runs
+     */
+    public void setCompactionIntervalSeconds( int compactionIntervalSeconds )
+    {
+        this.compactionIntervalSeconds = compactionIntervalSeconds;
+    }
+
+    /**
+     * @return the number of seconds between compaction runs
+     */
+    public int getCompactionIntervalSeconds()
+    {
+        return compactionIntervalSeconds;
+    }
+
+    /**
+     * Write out the values for debugging purposes.
+     * <p>
+     * @return String
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        str.append( "LogStructuredDiskCacheAttributes " );
+        str.append( "\n diskPath = " + super.getDiskPath() );
+        str.append( "\n maxPurgatorySize   = " + super.getMaxPurgatorySize() );
+        str.append( "\n maxKeySize  = " + super.getMaxKeySize() );
+        str.append( "\n shutdownSpoolTimeLimit  = " + super.getShutdownSpoolTimeLimit() );
+        str.append( "\n clearDiskOnStartup  = " + super.isClearDiskOnStartup() );
+        str.append( "\n useMemoryMappedReads  = " + super.isUseMemoryMappedReads() );
+        str.append( "\n segmentSizeBytes  = " + segmentSizeBytes );
+        str.append( "\n compactionLiveRatio  = " + compactionLiveRatio );
+        str.append( "\n compactionIntervalSeconds  = " + compactionIntervalSeconds );
+        return str.toString();
+    }
+}
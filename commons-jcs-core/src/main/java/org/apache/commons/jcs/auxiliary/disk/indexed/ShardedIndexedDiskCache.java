@@ -0,0 +1,590 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.behavior.IRequireScheduler;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEvent;
+import org.apache.commons.jcs.engine.logging.behavior.ICacheEventLogger;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.Stats;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Spreads a region over several indexed disk caches by key hash. Each shard has its own data and
+ * key file, channel, locks and recycle bin, so reads and writes of different shards run in
+ * parallel on devices that can serve several requests at once.
+ * <p>
+ * The shards are only used through their process methods; this cache keeps the purgatory and the
+ * event queue of the region. Batched puts are split by shard and written in parallel. Loading on
+ * startup, remove all and the optimization on shutdown also run on all shards at once.
+ */
+public class ShardedIndexedDiskCache<K, V>
+    extends AbstractDiskCache<K, V>
+    implements IRequireScheduler
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( ShardedIndexedDiskCache.class );
+
+    /** Names of the shard statistics that are summed up for the region. */
+    private static final String[] SUMMED_STATS = { "Key Map Size", "Data File Length", "Max Key Size",
+        "Hit Count", "Bytes Free", "Optimize Operation Count", "Times Optimized", "Recycle Count",
+        "Recycle Bin Size", "Startup Size" };
+
+    /** Cache name used in log messages */
+    protected final String logCacheName;
+
+    /** The name of the region's directory */
+    private final String fileName;
+
+    /** The configuration */
+    private final ShardedIndexedDiskCacheAttributes cattr;
+
+    /** The shards, by shard number */
+    private final List<IndexedDiskCache<K, V>> shards;
+
+    /** Runs the work of several shards at once */
+    private final ExecutorService shardExecutor;
+
+    /**
+     * Constructor for the sharded disk cache.
+     * <p>
+     * @param cacheAttributes
+     */
+    public ShardedIndexedDiskCache( ShardedIndexedDiskCacheAttributes cacheAttributes )
+    {
+        this( cacheAttributes, null );
+    }
+
+    /**
+     * Creates and loads the shards in parallel.
+     * <p>
+     * @param cattr
+     * @param elementSerializer used if supplied, the super's super will not set a null
+     */
+    public ShardedIndexedDiskCache( ShardedIndexedDiskCacheAttributes cattr, IElementSerializer elementSerializer )
+    {
+        super( cattr );
+
+        setElementSerializer( elementSerializer );
+
+        this.cattr = cattr;
+        this.logCacheName = "Region [" + getCacheName() + "] ";
+        // Make a clean file name
+        this.fileName = getCacheName().replaceAll( "[^a-zA-Z0-9-_\\.]", "_" );
+
+        final int shardCount = Math.max( 1, cattr.getShardCount() );
+        this.shardExecutor = Executors.newFixedThreadPool( shardCount,
+            new DaemonThreadFactory( "JCS-ShardedIndexedDiskCache-" + fileName + "-" ) );
+
+        List<Future<IndexedDiskCache<K, V>>> futures = new ArrayList<Future<IndexedDiskCache<K, V>>>( shardCount );
+        for ( int i = 0; i < shardCount; i++ )
+        {
+            final IndexedDiskCacheAttributes shardAttributes = createShardAttributes( i, shardCount );
+            futures.add( shardExecutor.submit( new Callable<IndexedDiskCache<K, V>>()
+            {
+                @Override
+                public IndexedDiskCache<K, V> call()
+                {
+                    return new IndexedDiskCache<K, V>( shardAttributes, getElementSerializer() )
+                    {
+                        @Override
+                        protected void keyReplaced( K key )
+                        {
+                            // the region keeps the key filter
+                            ShardedIndexedDiskCache.this.keyReplaced( key );
+                        }
+                    };
+                }
+            } ) );
+        }
+
+        this.shards = new ArrayList<IndexedDiskCache<K, V>>( shardCount );
+        boolean alive = true;
+        for ( Future<IndexedDiskCache<K, V>> future : futures )
+        {
+            try
+            {
+                IndexedDiskCache<K, V> shard = future.get();
+                shards.add( shard );
+                alive &= shard.isAlive();
+            }
+            catch ( InterruptedException e )
+            {
+                log.error( logCacheName + "Interrupted while loading the shards.", e );
+                alive = false;
+            }
+            catch ( ExecutionException e )
+            {
+                log.error( logCacheName + "Failure loading a shard.", e.getCause() );
+                alive = false;
+            }
+        }
+
+        setAlive( alive && shards.size() == shardCount );
+        if ( log.isInfoEnabled() )
+        {
+            log.info( logCacheName + "Sharded Indexed Disk Cache with " + shards.size() + " shards is "
+                + ( isAlive() ? "alive." : "not alive." ) );
+        }
+    }
+
+    /**
+     * The shard attributes are a copy of the region attributes with a directory of their own and
+     * their part of MaxKeySize.
+     * <p>
+     * @param shard the shard number
+     * @param shardCount the number of shards
+     * @return the attributes of the shard
+     */
+    private IndexedDiskCacheAttributes createShardAttributes( int shard, int shardCount )
+    {
+        IndexedDiskCacheAttributes shardAttributes = (IndexedDiskCacheAttributes) cattr.clone();
+        shardAttributes.setDiskPath( new File( cattr.getDiskPath(), fileName + "-shard" + shard ) );
+        if ( cattr.getMaxKeySize() > 0 )
+        {
+            shardAttributes.setMaxKeySize( Math.max( 1, ( cattr.getMaxKeySize() + shardCount - 1 ) / shardCount ) );
+        }
+        // the region keeps the key filter, the shards are never asked directly
+        shardAttributes.setUseKeyFilter( false );
+        // the region queues the events, the queue of a shard is never used and must not start a thread
+        shardAttributes.setEventQueueType( ICacheEventQueue.QueueType.SINGLE );
+        return shardAttributes;
+    }
+
+    /**
+     * Schedules the key journal of every shard.
+     * <p>
+     * @see org.apache.commons.jcs.engine.behavior.IRequireScheduler#setScheduledExecutorService(java.util.concurrent.ScheduledExecutorService)
+     */
+    @Override
+    public void setScheduledExecutorService( ScheduledExecutorService scheduledExecutor )
+    {
+        for ( IndexedDiskCache<K, V> shard : shards )
+        {
+            shard.setScheduledExecutorService( scheduledExecutor );
+        }
+    }
+
+    /**
+     * The shard is picked from other bits of the hash than the key lock stripe of the shard, so
+     * that every shard uses all its stripes.
+     * <p>
+     * @param key
+     * @return the shard holding the key
+     */
+    protected IndexedDiskCache<K, V> getShard( K key )
+    {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x9E3779B9;
+        return shards.get( ( h >>> 16 ) % shards.size() );
+    }
+
+    /**
+     * Runs a task on every shard in parallel and waits for all of them.
+     * <p>
+     * @param task
+     * @throws IOException if the task failed on a shard
+     */
+    private void runOnShards( final ShardTask task )
+        throws IOException
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( shards.size() );
+        for ( final IndexedDiskCache<K, V> shard : shards )
+        {
+            futures.add( shardExecutor.submit( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws IOException
+                {
+                    task.run( shard );
+                    return null;
+                }
+            } ) );
+        }
+        waitFor( futures );
+    }
+
+    /**
+     * Waits for the work of all shards, even if one of them failed.
+     * <p>
+     * @param futures
+     * @throws IOException the first failure
+     */
+    private void waitFor( List<Future<Void>> futures )
+        throws IOException
+    {
+        IOException failure = null;
+        for ( Future<Void> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : new IOException( "Interrupted while waiting for the shards" );
+            }
+            catch ( ExecutionException e )
+            {
+                if ( failure == null )
+                {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException( e.getCause().toString() );
+                }
+            }
+        }
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Update the disk cache. Called from the Queue. Makes sure the Item has not been retrieved from
+     * purgatory while in queue for disk. Remove items from purgatory when they go to disk.
+     * <p>
+     * @param ce The ICacheElement&lt;K, V&gt; to put to disk.
+     */
+    @Override
+    protected void processUpdate( ICacheElement<K, V> ce )
+    {
+        getShard( ce.getKey() ).processUpdate( ce );
+    }
+
+    /**
+     * Splits the batch by shard and writes the parts in parallel.
+     * <p>
+     * @param elements the elements to write, in put order
+     */
+    @Override
+    protected void processUpdates( List<ICacheElement<K, V>> elements )
+    {
+        final Map<IndexedDiskCache<K, V>, List<ICacheElement<K, V>>> parts =
+            new LinkedHashMap<IndexedDiskCache<K, V>, List<ICacheElement<K, V>>>();
+        for ( ICacheElement<K, V> element : elements )
+        {
+            IndexedDiskCache<K, V> shard = getShard( element.getKey() );
+            List<ICacheElement<K, V>> part = parts.get( shard );
+            if ( part == null )
+            {
+                part = new ArrayList<ICacheElement<K, V>>();
+                parts.put( shard, part );
+            }
+            part.add( element );
+        }
+
+        if ( parts.size() == 1 )
+        {
+            Map.Entry<IndexedDiskCache<K, V>, List<ICacheElement<K, V>>> part = parts.entrySet().iterator().next();
+            part.getKey().processUpdates( part.getValue() );
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( parts.size() );
+        for ( final Map.Entry<IndexedDiskCache<K, V>, List<ICacheElement<K, V>>> part : parts.entrySet() )
+        {
+            futures.add( shardExecutor.submit( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    part.getKey().processUpdates( part.getValue() );
+                    return null;
+                }
+            } ) );
+        }
+
+        try
+        {
+            waitFor( futures );
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure writing a batch of " + elements.size() + " elements", e );
+        }
+    }
+
+    /**
+     * Gets the key from the shard it hashes to.
+     * <p>
+     * @param key
+     * @return ICacheElement&lt;K, V&gt; or null
+     */
+    @Override
+    protected ICacheElement<K, V> processGet( K key )
+    {
+        return getShard( key ).processGet( key );
+    }
+
+    /**
+     * Gets matching items from every shard.
+     * <p>
+     * @param pattern
+     * @return a map of K key to ICacheElement&lt;K, V&gt; element, or an empty map if there is no
+     *         data in cache for any of these keys
+     */
+    @Override
+    public Map<K, ICacheElement<K, V>> processGetMatching( String pattern )
+    {
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        for ( IndexedDiskCache<K, V> shard : shards )
+        {
+            elements.putAll( shard.processGetMatching( pattern ) );
+        }
+        return elements;
+    }
+
+    /**
+     * Return the keys of all shards.
+     * <p>
+     * @return a set of the keys of the region
+     */
+    @Override
+    public Set<K> getKeySet()
+        throws IOException
+    {
+        HashSet<K> keys = new HashSet<K>();
+        for ( IndexedDiskCache<K, V> shard : shards )
+        {
+            keys.addAll( shard.getKeySet() );
+        }
+        return keys;
+    }
+
+    /**
+     * Removes the key from its shard. Group and partial key removals go to every shard.
+     * <p>
+     * @param key
+     * @return true if at least one item was removed.
+     */
+    @Override
+    protected boolean processRemove( K key )
+    {
+        if ( !isMultiKeyRemoval( key ) )
+        {
+            return getShard( key ).processRemove( key );
+        }
+
+        boolean removed = false;
+        for ( IndexedDiskCache<K, V> shard : shards )
+        {
+            removed |= shard.processRemove( key );
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the items of every shard, in parallel.
+     */
+    @Override
+    public void processRemoveAll()
+    {
+        try
+        {
+            runOnShards( new ShardTask()
+            {
+                @Override
+                void run( IndexedDiskCache<K, V> shard )
+                {
+                    shard.processRemoveAll();
+                }
+            } );
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure removing all elements", e );
+        }
+    }
+
+    /**
+     * Disposes of the shards in parallel, each with its own optimization on shutdown.
+     */
+    @Override
+    public void processDispose()
+    {
+        ICacheEvent<String> cacheEvent = createICacheEvent( getCacheName(), "none", ICacheEventLogger.DISPOSE_EVENT );
+        try
+        {
+            setAlive( false );
+            runOnShards( new ShardTask()
+            {
+                @Override
+                void run( IndexedDiskCache<K, V> shard )
+                    throws IOException
+                {
+                    shard.dispose();
+                }
+            } );
+
+            if ( log.isInfoEnabled() )
+            {
+                log.info( logCacheName + "Shutdown complete." );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( logCacheName + "Failure disposing the shards", e );
+        }
+        finally
+        {
+            shardExecutor.shutdown();
+            logICacheEvent( cacheEvent );
+        }
+    }
+
+    /**
+     * Returns the number of keys of all shards.
+     * <p>
+     * @return The size value
+     */
+    @Override
+    public int getSize()
+    {
+        int size = 0;
+        for ( IndexedDiskCache<K, V> shard : shards )
+        {
+            size += shard.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * This is exposed for testing.
+     * <p>
+     * @return the shards, by shard number
+     */
+    protected List<IndexedDiskCache<K, V>> getShards()
+    {
+        return shards;
+    }
+
+    /**
+     * @return Returns the AuxiliaryCacheAttributes.
+     */
+    @Override
+    public AuxiliaryCacheAttributes getAuxiliaryCacheAttributes()
+    {
+        return this.cattr;
+    }
+
+    /**
+     * Returns info about the disk cache. The counters of the shards are summed up, and the key
+     * count and data file length of every shard are listed to show how even the spread is.
+     * <p>
+     * @see org.apache.commons.jcs.auxiliary.AuxiliaryCache#getStatistics()
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Sharded Indexed Disk Cache" );
+
+        Map<String, Long> sums = new LinkedHashMap<String, Long>();
+        for ( String name : SUMMED_STATS )
+        {
+            sums.put( name, Long.valueOf( 0 ) );
+        }
+
+        ArrayList<IStatElement<?>> shardElems = new ArrayList<IStatElement<?>>();
+        for ( int i = 0; i < shards.size(); i++ )
+        {
+            Map<String, Number> shardValues = new HashMap<String, Number>();
+            for ( IStatElement<?> elem : shards.get( i ).getStatistics().getStatElements() )
+            {
+                if ( sums.containsKey( elem.getName() ) && elem.getData() instanceof Number )
+                {
+                    Number value = (Number) elem.getData();
+                    shardValues.put( elem.getName(), value );
+                    sums.put( elem.getName(), Long.valueOf( sums.get( elem.getName() ).longValue() + value.longValue() ) );
+                }
+            }
+            shardElems.add( new StatElement<String>( "Shard " + i, shardValues.get( "Key Map Size" ) + " keys, "
+                + shardValues.get( "Data File Length" ) + " bytes" ) );
+        }
+
+        ArrayList<IStatElement<?>> elems = new ArrayList<IStatElement<?>>();
+        elems.add( new StatElement<Boolean>( "Is Alive", Boolean.valueOf( isAlive() ) ) );
+        elems.add( new StatElement<Integer>( "Shard Count", Integer.valueOf( shards.size() ) ) );
+        for ( Map.Entry<String, Long> sum : sums.entrySet() )
+        {
+            elems.add( new StatElement<Long>( sum.getKey(), sum.getValue() ) );
+        }
+        elems.addAll( shardElems );
+
+        // get the stats from the super too
+        IStats sStats = super.getStatistics();
+        elems.addAll( sStats.getStatElements() );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * This is used by the event logging.
+     * <p>
+     * @return the location of the disk, either path or ip.
+     */
+    @Override
+    protected String getDiskLocation()
+    {
+        return cattr.getDiskPath().getAbsolutePath();
+    }
+
+    /**
+     * Work done on every shard.
+     */
+    private abstract class ShardTask
+    {
+        /**
+         * @param shard
+         * @throws IOException
+         */
+        abstract void run( IndexedDiskCache<K, V> shard )
+            throws IOException;
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+/**
+ * Configuration class for the sharded variant of the Indexed Disk Cache.
+ * <p>
+ * Each shard is an Indexed Disk Cache of its own, in a sub directory of the disk path. The other
+ * settings apply to every shard, except MaxKeySize, which is split between the shards.
+ */
+public class ShardedIndexedDiskCacheAttributes
+    extends IndexedDiskCacheAttributes
+{
+    /** Don't change. */
+    private static final long serialVersionUID = -6021869930415740412L;
+
+    /** Default number of shards. */
+    public static final int DEFAULT_SHARD_COUNT = 4;
+
+    /** Number of data files the region is spread over. */
+    private int shardCount = DEFAULT_SHARD_COUNT;
+
+    /**
+     * @param shardCount the number of data files the region is spread over
+     */
+    public void setShardCount( int shardCount )
+    {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * @return the number of data files the region is spread over
+     */
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+
+    /**
+     * Write out the values for debugging purposes.
+     * <p>
+     * @return String
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder();
+        str.append( "ShardedIndexedDiskCacheAttributes " );
+        str.append( "\n diskPath = " + super.getDiskPath() );
+        str.append( "\n maxPurgatorySize   = " + super.getMaxPurgatorySize() );
+        str.append( "\n maxKeySize  = " + super.getMaxKeySize() );
+        str.append( "\n optimizeAtRemoveCount  = " + super.getOptimizeAtRemoveCount() );
+        str.append( "\n shutdownSpoolTimeLimit  = " + super.getShutdownSpoolTimeLimit() );
+        str.append( "\n optimizeOnShutdown  = " + super.isOptimizeOnShutdown() );
+        str.append( "\n clearDiskOnStartup  = " + super.isClearDiskOnStartup() );
+        str.append( "\n shardCount  = " + shardCount );
+        return str.toString();
+    }
+}
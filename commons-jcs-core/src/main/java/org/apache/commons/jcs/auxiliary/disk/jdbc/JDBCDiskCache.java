@@ -46,6 +46,8 @@ import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs.utils.struct.CountingBloomFilter;
+import org.apache.commons.jcs.utils.timing.Clock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -237,6 +239,7 @@ public class JDBCDiskCache<K, V>
         // update if it exists.
         if ( exists )
         {
+            keyReplaced( ce.getKey() );
             updateRow( ce, con, element );
         }
     }
@@ -277,7 +280,7 @@ public class JDBCDiskCache<K, V>
             Timestamp createTime = new Timestamp( ce.getElementAttributes().getCreateTime() );
             psInsert.setTimestamp( 6, createTime );
 
-            long now = System.currentTimeMillis() / 1000;
+            long now = Clock.currentTimeMillis() / 1000;
             psInsert.setLong( 7, now );
 
             long expireTime = now + ce.getElementAttributes().getMaxLife();
@@ -343,7 +346,7 @@ public class JDBCDiskCache<K, V>
             Timestamp createTime = new Timestamp( ce.getElementAttributes().getCreateTime() );
             psUpdate.setTimestamp( 2, createTime );
 
-            long now = System.currentTimeMillis() / 1000;
+            long now = Clock.currentTimeMillis() / 1000;
             psUpdate.setLong( 3, now );
 
             long expireTime = now + ce.getElementAttributes().getMaxLife();
@@ -686,6 +689,8 @@ public class JDBCDiskCache<K, V>
     @Override
     protected boolean processRemove( K key )
     {
+        boolean removed = false;
+
         // remove single item.
         String sql = "delete from " + getJdbcDiskCacheAttributes().getTableName()
             + " where REGION = ? and CACHE_KEY = ?";
@@ -715,7 +720,7 @@ public class JDBCDiskCache<K, V>
                     psSelect.setString( 2, key.toString() );
                 }
 
-                psSelect.executeUpdate();
+                removed = psSelect.executeUpdate() > 0;
 
                 setAlive(true);
             }
@@ -745,7 +750,7 @@ public class JDBCDiskCache<K, V>
             log.error( "Problem updating cache.", e );
             reset();
         }
-        return false;
+        return removed;
     }
 
     /**
@@ -819,7 +824,7 @@ public class JDBCDiskCache<K, V>
         {
             getTableState().setState( TableState.DELETE_RUNNING );
 
-            long now = System.currentTimeMillis() / 1000;
+            long now = Clock.currentTimeMillis() / 1000;
 
             // This is to slow when we push over a million records
             // String sql = "delete from " +
@@ -999,6 +1004,69 @@ public class JDBCDiskCache<K, V>
         // return null;
     }
 
+    /**
+     * The table only holds the string form of the keys, so the key filter hashes that.
+     * <p>
+     * @param key
+     * @return the hash code of the string form of the key
+     */
+    @Override
+    protected int getKeyFilterHash( K key )
+    {
+        return key.toString().hashCode();
+    }
+
+    /**
+     * Adds the keys of the region in the table to the key filter.
+     * <p>
+     * @param filter the key filter
+     * @throws IOException if the keys could not be read
+     */
+    @Override
+    protected void loadKeyFilter( CountingBloomFilter filter )
+        throws IOException
+    {
+        String selectString = "select CACHE_KEY from " + getJdbcDiskCacheAttributes().getTableName()
+            + " where REGION = ?";
+
+        try
+        {
+            Connection con = getDataSource().getConnection();
+            try
+            {
+                PreparedStatement psSelect = con.prepareStatement( selectString );
+                try
+                {
+                    psSelect.setString( 1, this.getCacheName() );
+                    ResultSet rs = psSelect.executeQuery();
+                    try
+                    {
+                        while ( rs.next() )
+                        {
+                            filter.add( rs.getString( 1 ).hashCode() );
+                        }
+                    }
+                    finally
+                    {
+                        rs.close();
+                    }
+                }
+                finally
+                {
+                    psSelect.close();
+                }
+            }
+            finally
+            {
+                con.close();
+            }
+        }
+        catch ( SQLException e )
+        {
+            throw new IOException( "Problem loading the keys of region " + getCacheName(), e );
+        }
+    }
+
     /**
      * @param elementSerializer The elementSerializer to set.
      */
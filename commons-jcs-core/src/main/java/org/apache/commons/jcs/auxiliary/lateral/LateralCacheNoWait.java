@@ -85,8 +85,7 @@ public class LateralCacheNoWait<K, V>
 
         CacheEventQueueFactory<K, V> fact = new CacheEventQueueFactory<K, V>();
         this.eventQueue = fact.createCacheEventQueue( new CacheAdaptor<K, V>( cache ), CacheInfo.listenerId, cache
-            .getCacheName(), cache.getAuxiliaryCacheAttributes().getEventQueuePoolName(), cache
-            .getAuxiliaryCacheAttributes().getEventQueueType() );
+            .getCacheName(), cache.getAuxiliaryCacheAttributes() );
 
         // need each no wait to handle each of its real updates and removes,
         // since there may
@@ -362,8 +361,7 @@ public class LateralCacheNoWait<K, V>
         }
         CacheEventQueueFactory<K, V> fact = new CacheEventQueueFactory<K, V>();
         this.eventQueue = fact.createCacheEventQueue( new CacheAdaptor<K, V>( cache ), CacheInfo.listenerId, cache
-            .getCacheName(), cache.getAuxiliaryCacheAttributes().getEventQueuePoolName(), cache
-            .getAuxiliaryCacheAttributes().getEventQueueType() );
+            .getCacheName(), cache.getAuxiliaryCacheAttributes() );
     }
 
     /**
@@ -118,8 +118,7 @@ public class RemoteCacheNoWait<K, V>
             new CacheAdaptor<K, V>( client ),
             client.getListenerId(),
             client.getCacheName(),
-            client.getAuxiliaryCacheAttributes().getEventQueuePoolName(),
-            client.getAuxiliaryCacheAttributes().getEventQueueType() );
+            client.getAuxiliaryCacheAttributes() );
         return ceq;
     }
 
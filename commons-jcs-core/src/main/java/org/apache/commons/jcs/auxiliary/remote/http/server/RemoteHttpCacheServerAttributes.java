@@ -90,6 +90,9 @@ public class RemoteHttpCacheServerAttributes
         buf.append( "\n localClusterConsistency = [" + this.isLocalClusterConsistency() + "]" );
         buf.append( "\n eventQueueType = [" + this.getEventQueueType() + "]" );
         buf.append( "\n eventQueuePoolName = [" + this.getEventQueuePoolName() + "]" );
+        buf.append( "\n eventQueueCapacity = [" + this.getEventQueueCapacity() + "]" );
+        buf.append( "\n eventQueueWaitStrategy = [" + this.getEventQueueWaitStrategy() + "]" );
+        buf.append( "\n eventQueueOverflowPolicy = [" + this.getEventQueueOverflowPolicy() + "]" );
         return buf.toString();
     }
 }
@@ -1460,8 +1460,8 @@ public class RemoteCacheServer<K, V>
             }
 
             CacheEventQueueFactory<KK, VV> fact = new CacheEventQueueFactory<KK, VV>();
-            ICacheEventQueue<KK, VV> q = fact.createCacheEventQueue( listener, id, cacheName, remoteCacheServerAttributes
-                .getEventQueuePoolName(), remoteCacheServerAttributes.getEventQueueType() );
+            ICacheEventQueue<KK, VV> q = fact.createCacheEventQueue( listener, id, cacheName,
+                                                                     remoteCacheServerAttributes );
 
             eventQMap.put(Long.valueOf(listener.getListenerId()), q);
 
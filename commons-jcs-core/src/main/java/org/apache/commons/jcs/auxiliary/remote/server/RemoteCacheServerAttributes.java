@@ -206,6 +206,9 @@ public class RemoteCacheServerAttributes
         buf.append( "\n registryKeepAliveDelayMillis = [" + this.getRegistryKeepAliveDelayMillis() + "]" );
         buf.append( "\n eventQueueType = [" + this.getEventQueueType() + "]" );
         buf.append( "\n eventQueuePoolName = [" + this.getEventQueuePoolName() + "]" );
+        buf.append( "\n eventQueueCapacity = [" + this.getEventQueueCapacity() + "]" );
+        buf.append( "\n eventQueueWaitStrategy = [" + this.getEventQueueWaitStrategy() + "]" );
+        buf.append( "\n eventQueueOverflowPolicy = [" + this.getEventQueueOverflowPolicy() + "]" );
         return buf.toString();
     }
 }
@@ -145,6 +145,30 @@ public abstract class AbstractCacheEventQueue<K, V>
         return cacheName;
     }
 
+    /**
+     * @return the listener events are delivered to
+     */
+    protected ICacheListener<K, V> getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @return the number of failures after which an event is dropped
+     */
+    protected int getMaxFailure()
+    {
+        return maxFailure;
+    }
+
+    /**
+     * @return milliseconds to wait before retrying a failed event
+     */
+    protected int getWaitBeforeRetry()
+    {
+        return waitBeforeRetry;
+    }
+
     /**
      * Initializes the queue.
      * <p>
@@ -19,6 +19,8 @@ package org.apache.commons.jcs.engine;
  * under the License.
  */
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
 import org.apache.commons.jcs.utils.threadpool.PoolConfiguration;
 import org.apache.commons.jcs.utils.threadpool.PoolConfiguration.WhenBlockedPolicy;
@@ -80,6 +82,12 @@ public class CacheEventQueue<K, V>
         pool = ThreadPoolManager.getInstance().createPool(
         		new PoolConfiguration(false, 0, 1, 0, getWaitToDieMillis(), WhenBlockedPolicy.RUN, 0),
         		"CacheEventQueue.QProcessor-" + getCacheName());
+
+        if (pool instanceof ThreadPoolExecutor)
+        {
+            // the pool is not shared, so its queue holds exactly the events of this queue
+            queue = ((ThreadPoolExecutor) pool).getQueue();
+        }
     }
 
     /**
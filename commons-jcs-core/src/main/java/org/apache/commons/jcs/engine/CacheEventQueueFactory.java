@@ -19,6 +19,7 @@ package org.apache.commons.jcs.engine;
  * under the License.
  */
 
+import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheListener;
 import org.apache.commons.logging.Log;
@@ -42,7 +43,7 @@ public class CacheEventQueueFactory<K, V>
      * @param listenerId
      * @param cacheName
      * @param threadPoolName
-     * @param poolType - SINGLE, POOLED
+     * @param poolType - SINGLE, POOLED, RING
      * @return ICacheEventQueue
      */
     public ICacheEventQueue<K, V> createCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
@@ -52,7 +53,25 @@ public class CacheEventQueueFactory<K, V>
     }
 
     /**
-     * Fully configured event queue.
+     * Creates the event queue described by the event queue settings of an auxiliary.
+     * <p>
+     * @param listener
+     * @param listenerId
+     * @param cacheName
+     * @param attributes the auxiliary's attributes
+     * @return ICacheEventQueue
+     */
+    public ICacheEventQueue<K, V> createCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
+                                                   AuxiliaryCacheAttributes attributes )
+    {
+        return createCacheEventQueue( listener, listenerId, cacheName, 10, 500, attributes.getEventQueuePoolName(),
+                                      attributes.getEventQueueType(), attributes.getEventQueueCapacity(),
+                                      attributes.getEventQueueWaitStrategy(),
+                                      attributes.getEventQueueOverflowPolicy() );
+    }
+
+    /**
+     * Fully configured event queue. A RING queue gets the default capacity and blocks.
      * <p>
      * @param listener
      * @param listenerId
@@ -60,12 +79,37 @@ public class CacheEventQueueFactory<K, V>
      * @param maxFailure
      * @param waitBeforeRetry
      * @param threadPoolName null is OK, if not a pooled event queue this is ignored
-     * @param poolType single or pooled
+     * @param poolType single, pooled or ring
      * @return ICacheEventQueue
      */
     public ICacheEventQueue<K, V> createCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
                                                    int maxFailure, int waitBeforeRetry, String threadPoolName,
                                                    ICacheEventQueue.QueueType poolType )
+    {
+        return createCacheEventQueue( listener, listenerId, cacheName, maxFailure, waitBeforeRetry, threadPoolName,
+                                      poolType, RingBufferCacheEventQueue.DEFAULT_CAPACITY, null, null );
+    }
+
+    /**
+     * Fully configured event queue, including the ring settings.
+     * <p>
+     * @param listener
+     * @param listenerId
+     * @param cacheName
+     * @param maxFailure
+     * @param waitBeforeRetry
+     * @param threadPoolName null is OK, if not a pooled event queue this is ignored
+     * @param poolType single, pooled or ring
+     * @param capacity number of slots, ignored if not a ring event queue
+     * @param waitStrategy null is OK, ignored if not a ring event queue
+     * @param overflowPolicy null is OK, ignored if not a ring event queue
+     * @return ICacheEventQueue
+     */
+    public ICacheEventQueue<K, V> createCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
+                                                   int maxFailure, int waitBeforeRetry, String threadPoolName,
+                                                   ICacheEventQueue.QueueType poolType, int capacity,
+                                                   ICacheEventQueue.WaitStrategy waitStrategy,
+                                                   ICacheEventQueue.OverflowPolicy overflowPolicy )
     {
         if ( log.isDebugEnabled() )
         {
@@ -82,6 +126,11 @@ public class CacheEventQueueFactory<K, V>
             eventQueue = new PooledCacheEventQueue<K, V>( listener, listenerId, cacheName, maxFailure, waitBeforeRetry,
                                                     threadPoolName );
         }
+        else if ( ICacheEventQueue.QueueType.RING == poolType )
+        {
+            eventQueue = new RingBufferCacheEventQueue<K, V>( listener, listenerId, cacheName, maxFailure,
+                                                              waitBeforeRetry, capacity, waitStrategy, overflowPolicy );
+        }
 
         return eventQueue;
     }
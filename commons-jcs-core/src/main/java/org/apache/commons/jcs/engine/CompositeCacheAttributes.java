@@ -64,6 +64,39 @@ public class CompositeCacheAttributes
     /** Default number to send to disk at a time when memory fills. */
     private static final int DEFAULT_CHUNK_SIZE = 2;
 
+    /** default key lock setting */
+    private static final boolean DEFAULT_USE_KEY_LOCKS = false;
+
+    /** default access buffer size, disabled */
+    private static final int DEFAULT_ACCESS_BUFFER_SIZE = 0;
+
+    /** default off heap max bytes */
+    private static final long DEFAULT_OFF_HEAP_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** default off heap block size */
+    private static final int DEFAULT_OFF_HEAP_BLOCK_SIZE_BYTES = 256;
+
+    /** default max memory bytes, no limit */
+    private static final long DEFAULT_MAX_MEMORY_BYTES = 0;
+
+    /** default memory weigher name */
+    private static final String DEFAULT_MEMORY_WEIGHER_NAME = "org.apache.commons.jcs.engine.memory.util.ElementSizeWeigher";
+
+    /** default refresh ahead percent */
+    private static final int DEFAULT_REFRESH_AHEAD_PERCENT = 0;
+
+    /** default use parallel auxiliaries */
+    private static final boolean DEFAULT_USE_PARALLEL_AUXILIARIES = false;
+
+    /** default auxiliary timeout millis */
+    private static final long DEFAULT_AUXILIARY_TIMEOUT_MILLIS = 5000;
+
+    /** default warm start key count */
+    private static final int DEFAULT_WARM_START_KEY_COUNT = 0;
+
+    /** default warm start keys per second */
+    private static final int DEFAULT_WARM_START_KEYS_PER_SECOND = 1000;
+
     /** allow lateral caches */
     private boolean useLateral = DEFAULT_USE_LATERAL;
 
@@ -100,6 +133,39 @@ public class CompositeCacheAttributes
     /** How many to spool to disk at a time. */
     private int spoolChunkSize = DEFAULT_CHUNK_SIZE;
 
+    /** Whether the region is locked per key rather than as a whole. */
+    private boolean useKeyLocks = DEFAULT_USE_KEY_LOCKS;
+
+    /** Size of each access buffer stripe, 0 to reorder on every get. */
+    private int accessBufferSize = DEFAULT_ACCESS_BUFFER_SIZE;
+
+    /** Maximum number of bytes the off heap memory cache may allocate */
+    private long offHeapMaxBytes = DEFAULT_OFF_HEAP_MAX_BYTES;
+
+    /** Size of the blocks the off heap memory is divided into */
+    private int offHeapBlockSizeBytes = DEFAULT_OFF_HEAP_BLOCK_SIZE_BYTES;
+
+    /** Maximum total weight of the elements in memory, 0 for no limit. */
+    private long maxMemoryBytes = DEFAULT_MAX_MEMORY_BYTES;
+
+    /** Class name of the weigher used with MaxMemoryBytes */
+    private String memoryWeigherName = DEFAULT_MEMORY_WEIGHER_NAME;
+
+    /** Percentage of the max life at the end of which a hit refreshes the element, 0 to disable */
+    private int refreshAheadPercent = DEFAULT_REFRESH_AHEAD_PERCENT;
+
+    /** Call the remote and lateral auxiliaries concurrently */
+    private boolean useParallelAuxiliaries = DEFAULT_USE_PARALLEL_AUXILIARIES;
+
+    /** How long to wait for a concurrent auxiliary call */
+    private long auxiliaryTimeoutMillis = DEFAULT_AUXILIARY_TIMEOUT_MILLIS;
+
+    /** How many of the hottest keys to remember for the next start */
+    private int warmStartKeyCount = DEFAULT_WARM_START_KEY_COUNT;
+
+    /** How many remembered keys to load per second */
+    private int warmStartKeysPerSecond = DEFAULT_WARM_START_KEYS_PER_SECOND;
+
     /**
      * Constructor for the CompositeCacheAttributes object
      */
@@ -402,6 +468,263 @@ public class CompositeCacheAttributes
         return diskUsagePattern;
     }
 
+    /**
+     * If true, memory hits are served without taking the region lock.
+     * <p>
+     * @param useKeyLocks
+     */
+    @Override
+    public void setUseKeyLocks( boolean useKeyLocks )
+    {
+        this.useKeyLocks = useKeyLocks;
+    }
+
+    /**
+     * @return Returns the useKeyLocks.
+     */
+    @Override
+    public boolean isUseKeyLocks()
+    {
+        return useKeyLocks;
+    }
+
+    /**
+     * Memory caches based on a double linked list can record hits in striped, lossy ring buffers
+     * and reorder the list in batches. This sets the capacity of each stripe. 0 disables the
+     * buffers, the list is then reordered under the lock on every hit.
+     * <p>
+     * @param accessBufferSize
+     */
+    @Override
+    public void setAccessBufferSize( int accessBufferSize )
+    {
+        this.accessBufferSize = accessBufferSize;
+    }
+
+    /**
+     * Capacity of each access buffer stripe of the double linked list memory caches. 0 means the
+     * list is reordered on every hit.
+     * <p>
+     * @return the accessBufferSize setting
+     */
+    @Override
+    public int getAccessBufferSize()
+    {
+        return accessBufferSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of direct memory the off heap memory cache may allocate
+     * for the serialized elements of this region.
+     * <p>
+     * @param offHeapMaxBytes
+     */
+    @Override
+    public void setOffHeapMaxBytes( long offHeapMaxBytes )
+    {
+        this.offHeapMaxBytes = offHeapMaxBytes;
+    }
+
+    /**
+     * Gets the maximum number of bytes of direct memory the off heap memory cache may allocate.
+     * <p>
+     * @return the offHeapMaxBytes setting
+     */
+    @Override
+    public long getOffHeapMaxBytes()
+    {
+        return offHeapMaxBytes;
+    }
+
+    /**
+     * Sets the size of the blocks the off heap memory is divided into. A serialized element
+     * occupies as many blocks as it needs, so smaller blocks waste less memory but need more
+     * bookkeeping.
+     * <p>
+     * @param offHeapBlockSizeBytes
+     */
+    @Override
+    public void setOffHeapBlockSizeBytes( int offHeapBlockSizeBytes )
+    {
+        this.offHeapBlockSizeBytes = offHeapBlockSizeBytes;
+    }
+
+    /**
+     * Gets the size of the blocks the off heap memory is divided into.
+     * <p>
+     * @return the offHeapBlockSizeBytes setting
+     */
+    @Override
+    public int getOffHeapBlockSizeBytes()
+    {
+        return offHeapBlockSizeBytes;
+    }
+
+    /**
+     * Sets the maximum total weight, usually the size in bytes, of the elements the memory cache
+     * may hold. If the limit is exceeded, elements are spooled until the region fits again. 0
+     * disables the limit, so only MaxObjects applies.
+     * <p>
+     * @param maxMemoryBytes
+     */
+    @Override
+    public void setMaxMemoryBytes( long maxMemoryBytes )
+    {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Gets the maximum total weight of the elements the memory cache may hold. 0 means no limit.
+     * <p>
+     * @return the maxMemoryBytes setting
+     */
+    @Override
+    public long getMaxMemoryBytes()
+    {
+        return maxMemoryBytes;
+    }
+
+    /**
+     * Sets the class name of the IElementWeigher that computes the weight of an element when
+     * MaxMemoryBytes is set.
+     * <p>
+     * @param memoryWeigherName
+     */
+    @Override
+    public void setMemoryWeigherName( String memoryWeigherName )
+    {
+        this.memoryWeigherName = memoryWeigherName;
+    }
+
+    /**
+     * Gets the class name of the IElementWeigher that computes the weight of an element.
+     * <p>
+     * @return the memoryWeigherName setting
+     */
+    @Override
+    public String getMemoryWeigherName()
+    {
+        return memoryWeigherName;
+    }
+
+    /**
+     * Hits on an element in the last refreshAheadPercent percent of its max life return the
+     * current value and reload the element in the background through the cache loader of the
+     * region. 0 disables refresh-ahead.
+     * <p>
+     * @param refreshAheadPercent
+     */
+    @Override
+    public void setRefreshAheadPercent( int refreshAheadPercent )
+    {
+        this.refreshAheadPercent = refreshAheadPercent;
+    }
+
+    /**
+     * Gets the percentage of the max life in which hits refresh the element. 0 means disabled.
+     * <p>
+     * @return the refreshAheadPercent setting
+     */
+    @Override
+    public int getRefreshAheadPercent()
+    {
+        return refreshAheadPercent;
+    }
+
+    /**
+     * If true, updates and multiple gets that go remote or lateral call those auxiliaries
+     * concurrently on a thread pool, while the disk auxiliaries are called on the calling
+     * thread. Each call is waited for at most AuxiliaryTimeoutMillis.
+     * <p>
+     * @param useParallelAuxiliaries
+     */
+    @Override
+    public void setUseParallelAuxiliaries( boolean useParallelAuxiliaries )
+    {
+        this.useParallelAuxiliaries = useParallelAuxiliaries;
+    }
+
+    /**
+     * Whether the remote and lateral auxiliaries are called concurrently.
+     * <p>
+     * @return the useParallelAuxiliaries setting
+     */
+    @Override
+    public boolean isUseParallelAuxiliaries()
+    {
+        return useParallelAuxiliaries;
+    }
+
+    /**
+     * Sets how long to wait for each concurrent auxiliary call when UseParallelAuxiliaries is
+     * set. A call that takes longer is left running and its result is ignored.
+     * <p>
+     * @param auxiliaryTimeoutMillis
+     */
+    @Override
+    public void setAuxiliaryTimeoutMillis( long auxiliaryTimeoutMillis )
+    {
+        this.auxiliaryTimeoutMillis = auxiliaryTimeoutMillis;
+    }
+
+    /**
+     * Gets how long to wait for each concurrent auxiliary call.
+     * <p>
+     * @return the auxiliaryTimeoutMillis setting
+     */
+    @Override
+    public long getAuxiliaryTimeoutMillis()
+    {
+        return auxiliaryTimeoutMillis;
+    }
+
+    /**
+     * Sets how many of the hottest memory keys are written next to the disk cache files when the
+     * region is disposed. On the next start these keys are loaded from disk into memory in the
+     * background. 0 disables the warm start.
+     * <p>
+     * @param warmStartKeyCount
+     */
+    @Override
+    public void setWarmStartKeyCount( int warmStartKeyCount )
+    {
+        this.warmStartKeyCount = warmStartKeyCount;
+    }
+
+    /**
+     * Gets how many keys are remembered for the warm start. 0 means disabled.
+     * <p>
+     * @return the warmStartKeyCount setting
+     */
+    @Override
+    public int getWarmStartKeyCount()
+    {
+        return warmStartKeyCount;
+    }
+
+    /**
+     * Sets how many keys per second the warm start loads from disk. 0 or less loads them as fast
+     * as the warm start thread pool allows.
+     * <p>
+     * @param warmStartKeysPerSecond
+     */
+    @Override
+    public void setWarmStartKeysPerSecond( int warmStartKeysPerSecond )
+    {
+        this.warmStartKeysPerSecond = warmStartKeysPerSecond;
+    }
+
+    /**
+     * Gets how many keys per second the warm start loads from disk.
+     * <p>
+     * @return the warmStartKeysPerSecond setting
+     */
+    @Override
+    public int getWarmStartKeysPerSecond()
+    {
+        return warmStartKeysPerSecond;
+    }
+
     /**
      * Dumps the core attributes.
      * <p>
@@ -420,6 +743,17 @@ public class CompositeCacheAttributes
         dump.append( ", maxSpoolPerRun = " ).append( maxSpoolPerRun );
         dump.append( ", diskUsagePattern = " ).append( diskUsagePattern );
         dump.append( ", spoolChunkSize = " ).append( spoolChunkSize );
+        dump.append( ", useKeyLocks = " ).append( useKeyLocks );
+        dump.append( ", accessBufferSize = " ).append( accessBufferSize );
+        dump.append( ", offHeapMaxBytes = " ).append( offHeapMaxBytes );
+        dump.append( ", offHeapBlockSizeBytes = " ).append( offHeapBlockSizeBytes );
+        dump.append( ", maxMemoryBytes = " ).append( maxMemoryBytes );
+        dump.append( ", memoryWeigherName = " ).append( memoryWeigherName );
+        dump.append( ", refreshAheadPercent = " ).append( refreshAheadPercent );
+        dump.append( ", useParallelAuxiliaries = " ).append( useParallelAuxiliaries );
+        dump.append( ", auxiliaryTimeoutMillis = " ).append( auxiliaryTimeoutMillis );
+        dump.append( ", warmStartKeyCount = " ).append( warmStartKeyCount );
+        dump.append( ", warmStartKeysPerSecond = " ).append( warmStartKeysPerSecond );
         dump.append( " ]" );
 
         return dump.toString();
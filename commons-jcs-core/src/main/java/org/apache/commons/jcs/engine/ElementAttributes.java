@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEventHandler;
+import org.apache.commons.jcs.utils.timing.Clock;
 
 /**
  * This it the element attribute descriptor class. Each element in the cache has an ElementAttribute
@@ -92,7 +93,7 @@ public class ElementAttributes
      */
     public ElementAttributes()
     {
-        this.createTime = System.currentTimeMillis();
+        this.createTime = Clock.currentTimeMillis();
         this.lastAccessTime = this.createTime;
     }
 
@@ -201,7 +202,7 @@ public class ElementAttributes
      */
     public void setCreateTime()
     {
-        createTime = System.currentTimeMillis();
+        createTime = Clock.currentTimeMillis();
     }
 
     /**
@@ -224,7 +225,7 @@ public class ElementAttributes
     @Override
     public long getTimeToLiveSeconds()
     {
-        final long now = System.currentTimeMillis();
+        final long now = Clock.currentTimeMillis();
         final long timeFactorForMilliseconds = getTimeFactorForMilliseconds();
         return ( this.getCreateTime() + this.getMaxLife() * timeFactorForMilliseconds - now ) / 1000;
     }
@@ -246,11 +247,14 @@ public class ElementAttributes
     @Override
     public void setLastAccessTimeNow()
     {
-        this.lastAccessTime = System.currentTimeMillis();
+        this.lastAccessTime = Clock.currentTimeMillis();
     }
 
     /**
-     * only for use from test code
+     * Set the last access time explicitly. Used by test code and by caches that restore an
+     * element from a serialized copy.
+     *
+     * @param time the last access time in milliseconds
      */
     public void setLastAccessTime(long time)
     {
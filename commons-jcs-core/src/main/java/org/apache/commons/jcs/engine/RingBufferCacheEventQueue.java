@@ -0,0 +1,654 @@
+package org.apache.commons.jcs.engine;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheListener;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.Stats;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An event queue backed by a bounded, preallocated ring buffer.
+ * <p>
+ * Producers write the event type and its payload into the next free slot; no event object is
+ * allocated per put, remove or remove all. A single consumer thread drains everything that is
+ * queued in one batch and hands the events to the listener in order. How the consumer waits on an
+ * empty ring is set by the {@link WaitStrategy}. What happens when the ring is full is set by the
+ * {@link OverflowPolicy}: the producer can wait, the oldest queued put can be dropped, or a queued
+ * put for the same key can be replaced by the new one.
+ * <p>
+ * Removes, remove alls and disposes are never dropped or reordered.
+ */
+public class RingBufferCacheEventQueue<K, V>
+    extends AbstractCacheEventQueue<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( RingBufferCacheEventQueue.class );
+
+    /** The type of event queue */
+    private static final QueueType queueType = QueueType.RING;
+
+    /** Default number of slots in the ring. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** How long the SLEEPING strategy parks between looks at an empty ring. */
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos( 100 );
+
+    /** Slot holds an ICacheElement to put. */
+    private static final byte PUT = 1;
+
+    /** Slot holds a key to remove. */
+    private static final byte REMOVE = 2;
+
+    /** Slot holds a remove all. */
+    private static final byte REMOVE_ALL = 3;
+
+    /** Slot holds a dispose. */
+    private static final byte DISPOSE = 4;
+
+    /** Slot holds any other AbstractCacheEvent. */
+    private static final byte EVENT = 5;
+
+    /** Event type of each slot. */
+    private final byte[] types;
+
+    /** Payload of each slot: the element, the key or the event. */
+    private final Object[] payloads;
+
+    /** Capacity - 1. The capacity is a power of two. */
+    private final int mask;
+
+    /** Sequence of the next slot to drain. Guarded by lock. */
+    private long head = 0;
+
+    /** Sequence of the next slot to fill. Guarded by lock. */
+    private long tail = 0;
+
+    /** Guards the slots and sequences. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when an event is published and the consumer is blocked. */
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Signalled when the consumer frees slots. */
+    private final Condition notFull = lock.newCondition();
+
+    /** Whether the consumer is parked on notEmpty. Guarded by lock. */
+    private boolean consumerWaiting = false;
+
+    /** Number of producers parked on notFull. Guarded by lock. */
+    private int producersWaiting = 0;
+
+    /** Event types of the batch being dispatched. Used only by the consumer. */
+    private final byte[] batchTypes;
+
+    /** Payloads of the batch being dispatched. Used only by the consumer. */
+    private final Object[] batchPayloads;
+
+    /** Events queued or drained but not yet handed to the listener. */
+    private final AtomicInteger pending = new AtomicInteger( 0 );
+
+    /** How the consumer waits for events. */
+    private final WaitStrategy waitStrategy;
+
+    /** What to do when the ring is full. */
+    private final OverflowPolicy overflowPolicy;
+
+    /** The consumer thread. */
+    private final Thread consumer;
+
+    /** Number of batches drained. */
+    private final AtomicLong batches = new AtomicLong( 0 );
+
+    /** Number of puts dropped by DROP_OLDEST. */
+    private final AtomicLong droppedEvents = new AtomicLong( 0 );
+
+    /** Number of puts replaced by COALESCE. */
+    private final AtomicLong coalescedEvents = new AtomicLong( 0 );
+
+    /** Number of times a producer had to wait for a free slot. */
+    private final AtomicLong blockedPuts = new AtomicLong( 0 );
+
+    /**
+     * Constructs a queue with the default capacity, a blocking consumer and blocking producers.
+     * <p>
+     * @param listener
+     * @param listenerId
+     * @param cacheName
+     * @param maxFailure
+     * @param waitBeforeRetry
+     */
+    public RingBufferCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
+                                      int maxFailure, int waitBeforeRetry )
+    {
+        this( listener, listenerId, cacheName, maxFailure, waitBeforeRetry, DEFAULT_CAPACITY, null, null );
+    }
+
+    /**
+     * Constructs the queue and starts its consumer thread.
+     * <p>
+     * @param listener
+     * @param listenerId
+     * @param cacheName
+     * @param maxFailure
+     * @param waitBeforeRetry
+     * @param capacity number of slots, rounded up to a power of two; the default if not positive
+     * @param waitStrategy how the consumer waits on an empty ring; BLOCKING if null
+     * @param overflowPolicy what to do when the ring is full; BLOCK if null
+     */
+    public RingBufferCacheEventQueue( ICacheListener<K, V> listener, long listenerId, String cacheName,
+                                      int maxFailure, int waitBeforeRetry, int capacity,
+                                      WaitStrategy waitStrategy, OverflowPolicy overflowPolicy )
+    {
+        initialize( listener, listenerId, cacheName, maxFailure, waitBeforeRetry );
+
+        int size = 1;
+        int requested = capacity <= 0 ? DEFAULT_CAPACITY : Math.min( capacity, 1 << 30 );
+        while ( size < requested )
+        {
+            size <<= 1;
+        }
+
+        this.types = new byte[size];
+        this.payloads = new Object[size];
+        this.batchTypes = new byte[size];
+        this.batchPayloads = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy == null ? WaitStrategy.BLOCKING : waitStrategy;
+        this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy;
+
+        this.consumer = new DaemonThreadFactory( "JCS-RingBufferCacheEventQueue-" + cacheName + "-" )
+            .newThread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    consume();
+                }
+            } );
+        this.consumer.start();
+    }
+
+    /**
+     * @return the queue type
+     */
+    @Override
+    public QueueType getQueueType()
+    {
+        return queueType;
+    }
+
+    /**
+     * @return the number of slots in the ring
+     */
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * @return the wait strategy of the consumer
+     */
+    public WaitStrategy getWaitStrategy()
+    {
+        return waitStrategy;
+    }
+
+    /**
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    /**
+     * Queues the element without allocating an event.
+     * <p>
+     * @param ce
+     */
+    @Override
+    public void addPutEvent( ICacheElement<K, V> ce )
+    {
+        publish( PUT, ce );
+    }
+
+    /**
+     * Queues the key without allocating an event.
+     * <p>
+     * @param key
+     */
+    @Override
+    public void addRemoveEvent( K key )
+    {
+        publish( REMOVE, key );
+    }
+
+    /**
+     * Queues a remove all.
+     */
+    @Override
+    public void addRemoveAllEvent()
+    {
+        publish( REMOVE_ALL, null );
+    }
+
+    /**
+     * Queues a dispose.
+     */
+    @Override
+    public void addDisposeEvent()
+    {
+        publish( DISPOSE, null );
+    }
+
+    /**
+     * Adds an event to the queue.
+     * <p>
+     * @param event
+     */
+    @Override
+    protected void put( AbstractCacheEvent event )
+    {
+        publish( EVENT, event );
+    }
+
+    /**
+     * Writes an event into the next free slot, applying the overflow policy if the ring is full.
+     * Events published after the queue is destroyed are discarded.
+     * <p>
+     * @param type
+     * @param payload
+     */
+    private void publish( byte type, Object payload )
+    {
+        lock.lock();
+        try
+        {
+            while ( tail - head > mask )
+            {
+                if ( !isWorking() )
+                {
+                    return;
+                }
+                if ( overflowPolicy == OverflowPolicy.DROP_OLDEST && types[(int) ( head & mask )] == PUT )
+                {
+                    payloads[(int) ( head & mask )] = null;
+                    head++;
+                    pending.decrementAndGet();
+                    droppedEvents.incrementAndGet();
+                    break;
+                }
+                if ( overflowPolicy == OverflowPolicy.COALESCE && type == PUT && coalesce( payload ) )
+                {
+                    coalescedEvents.incrementAndGet();
+                    return;
+                }
+
+                blockedPuts.incrementAndGet();
+                producersWaiting++;
+                try
+                {
+                    notFull.awaitUninterruptibly();
+                }
+                finally
+                {
+                    producersWaiting--;
+                }
+            }
+
+            if ( !isWorking() )
+            {
+                return;
+            }
+
+            int slot = (int) ( tail & mask );
+            types[slot] = type;
+            payloads[slot] = payload;
+            tail++;
+            pending.incrementAndGet();
+
+            if ( consumerWaiting )
+            {
+                notEmpty.signal();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the newest queued put for the same key with the given element. The search stops at
+     * any other event for the key or at any event that is not a put or remove, so the listener still
+     * sees the same final state in the same order. Called with the lock held.
+     * <p>
+     * @param payload the element to put
+     * @return true if a queued put was replaced
+     */
+    private boolean coalesce( Object payload )
+    {
+        Object key = ( (ICacheElement<?, ?>) payload ).getKey();
+        for ( long seq = tail - 1; seq >= head; seq-- )
+        {
+            int slot = (int) ( seq & mask );
+            if ( types[slot] == PUT )
+            {
+                if ( key.equals( ( (ICacheElement<?, ?>) payloads[slot] ).getKey() ) )
+                {
+                    payloads[slot] = payload;
+                    return true;
+                }
+            }
+            else if ( types[slot] != REMOVE || key.equals( payloads[slot] ) )
+            {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Body of the consumer thread. Drains all queued events in one batch and dispatches them until
+     * the queue is destroyed.
+     */
+    private void consume()
+    {
+        while ( isWorking() )
+        {
+            int count = drain();
+            if ( count == 0 )
+            {
+                continue;
+            }
+            batches.incrementAndGet();
+
+            for ( int i = 0; i < count; i++ )
+            {
+                Object payload = batchPayloads[i];
+                batchPayloads[i] = null;
+                pending.decrementAndGet();
+                if ( isWorking() )
+                {
+                    dispatch( batchTypes[i], payload );
+                }
+            }
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Consumer stopped: " + this );
+        }
+    }
+
+    /**
+     * Waits for events according to the wait strategy, then moves all queued events into the batch
+     * arrays.
+     * <p>
+     * @return the number of events drained, 0 if the queue was destroyed while waiting
+     */
+    private int drain()
+    {
+        lock.lock();
+        try
+        {
+            while ( head == tail )
+            {
+                if ( !isWorking() )
+                {
+                    return 0;
+                }
+                if ( waitStrategy == WaitStrategy.BLOCKING )
+                {
+                    consumerWaiting = true;
+                    try
+                    {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    finally
+                    {
+                        consumerWaiting = false;
+                    }
+                }
+                else
+                {
+                    lock.unlock();
+                    try
+                    {
+                        if ( waitStrategy == WaitStrategy.SLEEPING )
+                        {
+                            LockSupport.parkNanos( SLEEP_NANOS );
+                        }
+                        else
+                        {
+                            Thread.yield();
+                        }
+                    }
+                    finally
+                    {
+                        lock.lock();
+                    }
+                }
+            }
+
+            int count = (int) ( tail - head );
+            for ( int i = 0; i < count; i++ )
+            {
+                int slot = (int) ( ( head + i ) & mask );
+                batchTypes[i] = types[slot];
+                batchPayloads[i] = payloads[slot];
+                payloads[slot] = null;
+            }
+            head = tail;
+
+            if ( producersWaiting > 0 )
+            {
+                notFull.signalAll();
+            }
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands one event to the listener, retrying failures like the other queues do. The queue is
+     * destroyed once an event fails maxFailure times.
+     * <p>
+     * @param type
+     * @param payload
+     */
+    @SuppressWarnings("unchecked") // Payload type is given by the slot type
+    private void dispatch( byte type, Object payload )
+    {
+        if ( type == EVENT )
+        {
+            // carries its own retry logic
+            ( (AbstractCacheEvent) payload ).run();
+            return;
+        }
+
+        int failures = 0;
+        while ( true )
+        {
+            try
+            {
+                switch ( type )
+                {
+                    case PUT:
+                        getListener().handlePut( (ICacheElement<K, V>) payload );
+                        break;
+                    case REMOVE:
+                        getListener().handleRemove( getCacheName(), (K) payload );
+                        break;
+                    case REMOVE_ALL:
+                        getListener().handleRemoveAll( getCacheName() );
+                        break;
+                    default:
+                        getListener().handleDispose( getCacheName() );
+                        break;
+                }
+                return;
+            }
+            catch ( IOException e )
+            {
+                if ( log.isWarnEnabled() )
+                {
+                    log.warn( e );
+                }
+                if ( ++failures >= getMaxFailure() )
+                {
+                    if ( log.isWarnEnabled() )
+                    {
+                        log.warn( "Error while running event from Queue: " + this
+                            + ". Dropping Event and marking Event Queue as non-functional." );
+                    }
+                    destroy();
+                    return;
+                }
+                if ( log.isInfoEnabled() )
+                {
+                    log.info( "Error while running event from Queue: " + this + ". Retrying..." );
+                }
+                try
+                {
+                    Thread.sleep( getWaitBeforeRetry() );
+                }
+                catch ( InterruptedException ie )
+                {
+                    if ( log.isWarnEnabled() )
+                    {
+                        log.warn( "Interrupted while sleeping for retry on event from Queue: " + this + "." );
+                    }
+                    destroy();
+                    return;
+                }
+            }
+            catch ( RuntimeException e )
+            {
+                // keep the consumer alive for the remaining events
+                if ( log.isErrorEnabled() )
+                {
+                    log.error( "Unexpected error while running event from Queue: " + this, e );
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Destroy the queue. The consumer stops after the event it is handling, queued events are
+     * discarded and waiting producers are released.
+     */
+    @Override
+    public synchronized void destroy()
+    {
+        if ( isWorking() )
+        {
+            setWorking( false );
+
+            lock.lock();
+            try
+            {
+                for ( long seq = head; seq < tail; seq++ )
+                {
+                    payloads[(int) ( seq & mask )] = null;
+                }
+                pending.addAndGet( (int) ( head - tail ) );
+                head = tail;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if ( log.isInfoEnabled() )
+            {
+                log.info( "Cache event queue destroyed: " + this );
+            }
+        }
+    }
+
+    /**
+     * @return IStats
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = new Stats();
+        stats.setTypeName( "Ring Buffer Cache Event Queue" );
+
+        ArrayList<IStatElement<?>> elems = new ArrayList<IStatElement<?>>();
+
+        elems.add(new StatElement<Boolean>( "Working", Boolean.valueOf(isWorking()) ) );
+        elems.add(new StatElement<Boolean>( "Empty", Boolean.valueOf(this.isEmpty()) ) );
+        elems.add(new StatElement<Integer>( "Queue Size", Integer.valueOf(size()) ) );
+        elems.add(new StatElement<Integer>( "Queue Capacity", Integer.valueOf(getCapacity()) ) );
+        elems.add(new StatElement<WaitStrategy>( "Wait Strategy", waitStrategy ) );
+        elems.add(new StatElement<OverflowPolicy>( "Overflow Policy", overflowPolicy ) );
+        elems.add(new StatElement<AtomicLong>( "Batches", batches ) );
+        elems.add(new StatElement<AtomicLong>( "Dropped Events", droppedEvents ) );
+        elems.add(new StatElement<AtomicLong>( "Coalesced Events", coalescedEvents ) );
+        elems.add(new StatElement<AtomicLong>( "Blocked Puts", blockedPuts ) );
+
+        stats.setStatElements( elems );
+
+        return stats;
+    }
+
+    /**
+     * @return whether there are events that have not been handed to the listener yet
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Events still in the ring or drained but not yet started count toward the size.
+     * <p>
+     * @return number of events not yet handed to the listener.
+     */
+    @Override
+    public int size()
+    {
+        return pending.get();
+    }
+}
@@ -35,13 +35,46 @@ public interface ICacheEventQueue<K, V>
         SINGLE,
 
         /** Uses a thread pool. */
-        POOLED
+        POOLED,
+
+        /** Uses a preallocated ring buffer drained in batches by one thread. */
+        RING
+    }
+
+    /**
+     * How the consumer of a RING queue waits for events when the ring is empty.
+     */
+    enum WaitStrategy
+    {
+        /** Parks on a condition until a producer signals. Lowest CPU use. */
+        BLOCKING,
+
+        /** Polls the ring, sleeping briefly between looks. */
+        SLEEPING,
+
+        /** Polls the ring, yielding between looks. Lowest latency, highest CPU use. */
+        YIELDING
+    }
+
+    /**
+     * What a RING queue does with a new event when the ring is full.
+     */
+    enum OverflowPolicy
+    {
+        /** The producer waits for the consumer to free a slot. */
+        BLOCK,
+
+        /** The oldest queued event is discarded if it is a put; otherwise the producer waits. */
+        DROP_OLDEST,
+
+        /** A queued put for the same key is replaced by the new one. */
+        COALESCE
     }
 
     /**
-     * Return the type of event queue we are using, either single or pooled.
+     * Return the type of event queue we are using, either single, pooled or ring.
      * <p>
-     * @return the queue type: single or pooled
+     * @return the queue type: single, pooled or ring
      */
     QueueType getQueueType();
 
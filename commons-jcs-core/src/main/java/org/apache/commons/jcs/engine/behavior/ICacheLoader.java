@@ -0,0 +1,37 @@
+package org.apache.commons.jcs.engine.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Loads the value of a key from the system of record. A region uses its loader to refresh
+ * elements ahead of their expiration.
+ */
+public interface ICacheLoader<K, V>
+{
+    /**
+     * Load the current value of the key.
+     * <p>
+     * @param key the key of the element
+     * @return the value, or null if the key has no value any more
+     * @throws Exception if the value cannot be loaded
+     */
+    V load( K key )
+        throws Exception;
+}
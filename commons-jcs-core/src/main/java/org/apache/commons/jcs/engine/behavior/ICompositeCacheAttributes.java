@@ -237,6 +237,178 @@ public interface ICompositeCacheAttributes
      */
     void setSpoolChunkSize( int spoolChunkSize );
 
+    /**
+     * If true, memory hits are served without taking the region lock. Updates, removals and
+     * auxiliary lookups after a memory miss are coordinated per key instead of per region.
+     * <p>
+     * @param useKeyLocks
+     */
+    void setUseKeyLocks( boolean useKeyLocks );
+
+    /**
+     * Whether the region uses per key locks instead of a single region lock.
+     * <p>
+     * @return true if per key locks are used
+     */
+    boolean isUseKeyLocks();
+
+    /**
+     * Memory caches based on a double linked list can record hits in striped, lossy ring buffers
+     * and reorder the list in batches. This sets the capacity of each stripe. 0 disables the
+     * buffers, the list is then reordered under the lock on every hit.
+     * <p>
+     * @param accessBufferSize
+     */
+    void setAccessBufferSize( int accessBufferSize );
+
+    /**
+     * Capacity of each access buffer stripe of the double linked list memory caches. 0 means the
+     * list is reordered on every hit.
+     * <p>
+     * @return the accessBufferSize setting
+     */
+    int getAccessBufferSize();
+
+    /**
+     * Sets the maximum number of bytes of direct memory the off heap memory cache may allocate
+     * for the serialized elements of this region.
+     * <p>
+     * @param offHeapMaxBytes
+     */
+    void setOffHeapMaxBytes( long offHeapMaxBytes );
+
+    /**
+     * Gets the maximum number of bytes of direct memory the off heap memory cache may allocate.
+     * <p>
+     * @return the offHeapMaxBytes setting
+     */
+    long getOffHeapMaxBytes();
+
+    /**
+     * Sets the size of the blocks the off heap memory is divided into. A serialized element
+     * occupies as many blocks as it needs, so smaller blocks waste less memory but need more
+     * bookkeeping.
+     * <p>
+     * @param offHeapBlockSizeBytes
+     */
+    void setOffHeapBlockSizeBytes( int offHeapBlockSizeBytes );
+
+    /**
+     * Gets the size of the blocks the off heap memory is divided into.
+     * <p>
+     * @return the offHeapBlockSizeBytes setting
+     */
+    int getOffHeapBlockSizeBytes();
+
+    /**
+     * Sets the maximum total weight, usually the size in bytes, of the elements the memory cache
+     * may hold. If the limit is exceeded, elements are spooled until the region fits again. 0
+     * disables the limit, so only MaxObjects applies.
+     * <p>
+     * @param maxMemoryBytes
+     */
+    void setMaxMemoryBytes( long maxMemoryBytes );
+
+    /**
+     * Gets the maximum total weight of the elements the memory cache may hold. 0 means no limit.
+     * <p>
+     * @return the maxMemoryBytes setting
+     */
+    long getMaxMemoryBytes();
+
+    /**
+     * Sets the class name of the IElementWeigher that computes the weight of an element when
+     * MaxMemoryBytes is set.
+     * <p>
+     * @param memoryWeigherName
+     */
+    void setMemoryWeigherName( String memoryWeigherName );
+
+    /**
+     * Gets the class name of the IElementWeigher that computes the weight of an element.
+     * <p>
+     * @return the memoryWeigherName setting
+     */
+    String getMemoryWeigherName();
+
+    /**
+     * Hits on an element in the last refreshAheadPercent percent of its max life return the
+     * current value and reload the element in the background through the cache loader of the
+     * region. 0 disables refresh-ahead.
+     * <p>
+     * @param refreshAheadPercent
+     */
+    void setRefreshAheadPercent( int refreshAheadPercent );
+
+    /**
+     * Gets the percentage of the max life in which hits refresh the element. 0 means disabled.
+     * <p>
+     * @return the refreshAheadPercent setting
+     */
+    int getRefreshAheadPercent();
+
+    /**
+     * If true, updates and multiple gets that go remote or lateral call those auxiliaries
+     * concurrently on a thread pool, while the disk auxiliaries are called on the calling
+     * thread. Each call is waited for at most AuxiliaryTimeoutMillis.
+     * <p>
+     * @param useParallelAuxiliaries
+     */
+    void setUseParallelAuxiliaries( boolean useParallelAuxiliaries );
+
+    /**
+     * Whether the remote and lateral auxiliaries are called concurrently.
+     * <p>
+     * @return the useParallelAuxiliaries setting
+     */
+    boolean isUseParallelAuxiliaries();
+
+    /**
+     * Sets how long to wait for each concurrent auxiliary call when UseParallelAuxiliaries is
+     * set. A call that takes longer is left running and its result is ignored.
+     * <p>
+     * @param auxiliaryTimeoutMillis
+     */
+    void setAuxiliaryTimeoutMillis( long auxiliaryTimeoutMillis );
+
+    /**
+     * Gets how long to wait for each concurrent auxiliary call.
+     * <p>
+     * @return the auxiliaryTimeoutMillis setting
+     */
+    long getAuxiliaryTimeoutMillis();
+
+    /**
+     * Sets how many of the hottest memory keys are written next to the disk cache files when the
+     * region is disposed. On the next start these keys are loaded from disk into memory in the
+     * background. 0 disables the warm start.
+     * <p>
+     * @param warmStartKeyCount
+     */
+    void setWarmStartKeyCount( int warmStartKeyCount );
+
+    /**
+     * Gets how many keys are remembered for the warm start. 0 means disabled.
+     * <p>
+     * @return the warmStartKeyCount setting
+     */
+    int getWarmStartKeyCount();
+
+    /**
+     * Sets how many keys per second the warm start loads from disk. 0 or less loads them as fast
+     * as the warm start thread pool allows.
+     * <p>
+     * @param warmStartKeysPerSecond
+     */
+    void setWarmStartKeysPerSecond( int warmStartKeysPerSecond );
+
+    /**
+     * Gets how many keys per second the warm start loads from disk.
+     * <p>
+     * @return the warmStartKeysPerSecond setting
+     */
+    int getWarmStartKeysPerSecond();
+
     /**
      * Clone object
      */
@@ -19,26 +19,42 @@ package org.apache.commons.jcs.engine.control;
  * under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.jcs.access.exception.CacheException;
 import org.apache.commons.jcs.access.exception.ObjectNotFoundException;
 import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes;
 import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.behavior.ICache;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheLoader;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes.DiskUsagePattern;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
@@ -48,17 +64,23 @@ import org.apache.commons.jcs.engine.control.event.behavior.ElementEventType;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEvent;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEventHandler;
 import org.apache.commons.jcs.engine.control.event.behavior.IElementEventQueue;
+import org.apache.commons.jcs.engine.control.group.GroupAttrName;
 import org.apache.commons.jcs.engine.control.group.GroupId;
 import org.apache.commons.jcs.engine.match.KeyMatcherPatternImpl;
 import org.apache.commons.jcs.engine.match.behavior.IKeyMatcher;
 import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
 import org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache;
 import org.apache.commons.jcs.engine.memory.shrinking.ShrinkerThread;
+import org.apache.commons.jcs.engine.stats.AuxiliaryCallStats;
 import org.apache.commons.jcs.engine.stats.CacheStats;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.behavior.ICacheStats;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.struct.StripedLock;
+import org.apache.commons.jcs.utils.struct.TimerWheel;
+import org.apache.commons.jcs.utils.timing.Clock;
+import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -74,6 +96,15 @@ public class CompositeCache<K, V>
     /** log instance */
     private static final Log log = LogFactory.getLog( CompositeCache.class );
 
+    /** Number of key locks used if the region is configured to lock per key. */
+    private static final int KEY_LOCK_STRIPES = 64;
+
+    /** Name of the thread pool used by UseParallelAuxiliaries */
+    public static final String AUXILIARY_POOL_NAME = "auxiliary";
+
+    /** Name of the thread pool running refresh-ahead loads */
+    public static final String REFRESH_POOL_NAME = "refresh_ahead";
+
     /**
      * EventQueue for handling element events. Lazy initialized. One for each region. To be more efficient, the manager
      * should pass a shared queue in.
@@ -84,6 +115,9 @@ public class CompositeCache<K, V>
     @SuppressWarnings("unchecked") // OK because this is an empty array
     private AuxiliaryCache<K, V>[] auxCaches = new AuxiliaryCache[0];
 
+    /** Latency of the calls to each auxiliary, in the order of auxCaches */
+    private AuxiliaryCallStats[] auxCallStats = new AuxiliaryCallStats[0];
+
     /** is this alive? */
     private AtomicBoolean alive;
 
@@ -111,6 +145,9 @@ public class CompositeCache<K, V>
     /** Count of misses where element was expired. */
     private AtomicInteger missCountExpired;
 
+    /** Count of elements reloaded by refresh-ahead. */
+    private AtomicInteger refreshCount;
+
     /** Cache manager. */
     private CompositeCacheManager cacheManager = null;
 
@@ -125,6 +162,27 @@ public class CompositeCache<K, V>
 
     private ScheduledFuture<?> future;
 
+    /** Locks used instead of the region monitor if UseKeyLocks is set */
+    private final StripedLock keyLocks = new StripedLock( KEY_LOCK_STRIPES );
+
+    /** Next expiration time of the keys in memory, null if the region has no memory shrinker */
+    private TimerWheel<K> expirationIndex;
+
+    /** Runs the shrinker and the warm start */
+    private ScheduledExecutorService scheduledExecutor;
+
+    /** Loader used to refresh elements ahead of their expiration, null if none is registered */
+    private volatile ICacheLoader<K, V> cacheLoader;
+
+    /** Keys with a refresh in progress */
+    private final ConcurrentMap<K, Boolean> refreshing = new ConcurrentHashMap<K, Boolean>();
+
+    /** Loads in progress through get(key, loader), shared by every access handle of the region */
+    private final ConcurrentMap<K, FutureTask<V>> loads = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /** Loads the keys remembered at the last dispose, null if there was no warm start */
+    private WarmStartLoader<K, V> warmStartLoader;
+
     /**
      * Constructor for the Cache object
      * <p>
@@ -142,6 +200,12 @@ public class CompositeCache<K, V>
         this.hitCountAux = new AtomicInteger(0);
         this.missCountNotFound = new AtomicInteger(0);
         this.missCountExpired = new AtomicInteger(0);
+        this.refreshCount = new AtomicInteger(0);
+
+        if ( cattr.isUseMemoryShrinker() )
+        {
+            this.expirationIndex = new TimerWheel<K>( Clock.currentTimeMillis() );
+        }
 
         createMemoryCache( cattr );
 
@@ -177,6 +241,8 @@ public class CompositeCache<K, V>
     @Override
     public void setScheduledExecutorService(ScheduledExecutorService scheduledExecutor)
     {
+        this.scheduledExecutor = scheduledExecutor;
+
         if ( cacheAttr.isUseMemoryShrinker() )
         {
             future = scheduledExecutor.scheduleAtFixedRate(
@@ -192,7 +258,201 @@ public class CompositeCache<K, V>
      */
     public void setAuxCaches( AuxiliaryCache<K, V>[] auxCaches )
     {
+        AuxiliaryCallStats[] callStats = new AuxiliaryCallStats[auxCaches.length];
+        for ( int i = 0; i < auxCaches.length; i++ )
+        {
+            String name = "Aux " + i;
+            if ( auxCaches[i] != null && auxCaches[i].getAuxiliaryCacheAttributes() != null )
+            {
+                name = auxCaches[i].getAuxiliaryCacheAttributes().getName();
+            }
+            callStats[i] = new AuxiliaryCallStats( name );
+        }
+
+        this.auxCallStats = callStats;
         this.auxCaches = auxCaches;
+
+        startWarmStart();
+    }
+
+    /**
+     * Starts loading the keys remembered at the last dispose if WarmStartKeyCount is set and a
+     * disk auxiliary holds a key file.
+     */
+    private void startWarmStart()
+    {
+        if ( cacheAttr.getWarmStartKeyCount() <= 0 || scheduledExecutor == null || warmStartLoader != null )
+        {
+            return;
+        }
+
+        File file = getWarmStartFile();
+        if ( file == null || !file.exists() )
+        {
+            return;
+        }
+
+        List<K> keys;
+        try
+        {
+            keys = WarmStartLoader.readKeys( file );
+        }
+        catch ( IOException e )
+        {
+            log.warn( cacheAttr.getCacheName() + " - Could not read warm start keys from " + file, e );
+            return;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            log.warn( cacheAttr.getCacheName() + " - Could not read warm start keys from " + file, e );
+            return;
+        }
+        finally
+        {
+            // the keys must not be replayed after a later shutdown that does not save them
+            if ( !file.delete() )
+            {
+                log.warn( cacheAttr.getCacheName() + " - Could not delete warm start key file " + file );
+            }
+        }
+
+        // more keys than the memory cache holds would only push the hottest ones out again
+        int count = Math.min( cacheAttr.getWarmStartKeyCount(), cacheAttr.getMaxObjects() );
+        if ( keys.size() > count )
+        {
+            keys = keys.subList( 0, Math.max( count, 0 ) );
+        }
+
+        // Every loaded key becomes the most recently used one. Without a rate limit the hottest key
+        // goes last so it ends up at the warm end. With a rate limit the hottest keys go first, as
+        // traffic needs them soonest; all of them fit into memory anyway.
+        if ( cacheAttr.getWarmStartKeysPerSecond() <= 0 )
+        {
+            keys = new ArrayList<K>( keys );
+            Collections.reverse( keys );
+        }
+
+        warmStartLoader = new WarmStartLoader<K, V>( this, keys, cacheAttr.getWarmStartKeysPerSecond() );
+        warmStartLoader.start( scheduledExecutor );
+    }
+
+    /**
+     * Writes the hottest keys of the memory cache for the warm start of the next run.
+     */
+    private void saveWarmStartKeys()
+    {
+        File file = getWarmStartFile();
+        if ( file == null )
+        {
+            log.warn( cacheAttr.getCacheName() + " - No disk auxiliary with a disk path, warm start keys are not saved" );
+            return;
+        }
+
+        try
+        {
+            List<K> keys = memCache.getHottestKeys( cacheAttr.getWarmStartKeyCount() );
+            WarmStartLoader.writeKeys( file, keys );
+
+            if ( log.isInfoEnabled() )
+            {
+                log.info( cacheAttr.getCacheName() + " - Saved " + keys.size() + " warm start keys to " + file );
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( cacheAttr.getCacheName() + " - Failure saving warm start keys to " + file, e );
+        }
+    }
+
+    /**
+     * The warm start keys are kept next to the files of the first disk auxiliary.
+     * <p>
+     * @return the key file, or null if no disk auxiliary has a disk path
+     */
+    private File getWarmStartFile()
+    {
+        for ( AuxiliaryCache<K, V> aux : auxCaches )
+        {
+            if ( aux != null && aux.getCacheType() == CacheType.DISK_CACHE
+                && aux.getAuxiliaryCacheAttributes() instanceof IDiskCacheAttributes )
+            {
+                File diskPath = ( (IDiskCacheAttributes) aux.getAuxiliaryCacheAttributes() ).getDiskPath();
+                if ( diskPath != null )
+                {
+                    return new File( diskPath, getCacheName().replaceAll( "[^a-zA-Z0-9-_\\.]", "_" ) + ".warm" );
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Loads a key from the disk auxiliaries into memory unless it is in memory already. Used by
+     * the warm start.
+     * <p>
+     * @param key the key
+     * @return true if the element was loaded into memory
+     * @throws IOException
+     */
+    boolean warmUp( K key )
+        throws IOException
+    {
+        if ( cacheAttr.isUseKeyLocks() )
+        {
+            ReentrantLock keyLock = keyLocks.getLock( key );
+            keyLock.lock();
+            try
+            {
+                return lockedWarmUp( key );
+            }
+            finally
+            {
+                keyLock.unlock();
+            }
+        }
+
+        synchronized ( this )
+        {
+            return lockedWarmUp( key );
+        }
+    }
+
+    /**
+     * Loads a key from the disk auxiliaries into memory. (guarded by the key lock or the region
+     * lock)
+     * <p>
+     * @param key the key
+     * @return true if the element was loaded into memory
+     * @throws IOException
+     */
+    private boolean lockedWarmUp( K key )
+        throws IOException
+    {
+        if ( memCache.getQuiet( key ) != null )
+        {
+            return false;
+        }
+
+        for ( AuxiliaryCache<K, V> aux : auxCaches )
+        {
+            if ( aux != null && aux.getCacheType() == CacheType.DISK_CACHE )
+            {
+                ICacheElement<K, V> element = aux.get( key );
+                if ( element != null )
+                {
+                    if ( isExpired( element ) )
+                    {
+                        return false;
+                    }
+
+                    copyAuxiliaryRetrievedItemToMemory( element );
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -260,15 +520,103 @@ public class CompositeCache<K, V>
 
         updateCount.incrementAndGet();
 
-        synchronized ( this )
+        if ( cacheAttr.isUseKeyLocks() )
         {
-            memCache.update( cacheElement );
-            updateAuxiliaries( cacheElement, localOnly );
+            ReentrantLock keyLock = keyLocks.getLock( cacheElement.getKey() );
+            keyLock.lock();
+            try
+            {
+                memCache.update( cacheElement );
+                scheduleExpiration( cacheElement );
+                updateAuxiliaries( cacheElement, localOnly );
+            }
+            finally
+            {
+                keyLock.unlock();
+            }
+        }
+        else
+        {
+            synchronized ( this )
+            {
+                memCache.update( cacheElement );
+                scheduleExpiration( cacheElement );
+                updateAuxiliaries( cacheElement, localOnly );
+            }
         }
 
         cacheElement.getElementAttributes().setLastAccessTimeNow();
     }
 
+    /**
+     * Schedule the next expiration check of an element that was put into memory. Does nothing if
+     * the region has no memory shrinker or the element never expires.
+     * <p>
+     * @param element the element
+     */
+    private void scheduleExpiration( ICacheElement<K, V> element )
+    {
+        if ( expirationIndex != null )
+        {
+            long expirationTime = getExpirationTime( element );
+            if ( expirationTime != Long.MAX_VALUE )
+            {
+                expirationIndex.schedule( element.getKey(), expirationTime );
+            }
+        }
+    }
+
+    /**
+     * Get the earliest time at which the memory shrinker has to look at the element again: when
+     * the max life or idle time of the element is exceeded, or when it has been idle in memory
+     * for longer than MaxMemoryIdleTimeSeconds. Accesses after this call may move the actual
+     * time further out.
+     * <p>
+     * @param element the element
+     * @return the time in milliseconds, Long.MAX_VALUE if the element never has to be checked
+     */
+    public long getExpirationTime( ICacheElement<K, V> element )
+    {
+        IElementAttributes attributes = element.getElementAttributes();
+        long lastAccessTime = attributes.getLastAccessTime();
+        long expirationTime = Long.MAX_VALUE;
+
+        if ( !attributes.getIsEternal() )
+        {
+            final long timeFactorForMilliseconds = attributes.getTimeFactorForMilliseconds();
+
+            if ( attributes.getMaxLife() != -1 )
+            {
+                expirationTime = Math.min( expirationTime,
+                    attributes.getCreateTime() + attributes.getMaxLife() * timeFactorForMilliseconds );
+            }
+            if ( attributes.getIdleTime() != -1 )
+            {
+                expirationTime = Math.min( expirationTime,
+                    lastAccessTime + attributes.getIdleTime() * timeFactorForMilliseconds );
+            }
+        }
+
+        if ( cacheAttr.getMaxMemoryIdleTimeSeconds() >= 0 )
+        {
+            expirationTime = Math.min( expirationTime,
+                lastAccessTime + cacheAttr.getMaxMemoryIdleTimeSeconds() * 1000 );
+        }
+
+        return expirationTime;
+    }
+
+    /**
+     * Get the index of the expiration times of the keys in memory. It is maintained if the region
+     * uses the memory shrinker.
+     * <p>
+     * @return the index, or null if the region has no memory shrinker
+     */
+    public TimerWheel<K> getExpirationIndex()
+    {
+        return expirationIndex;
+    }
+
     /**
      * This method is responsible for updating the auxiliaries if they are present. If it is local
      * only, any lateral and remote auxiliaries will not be updated.
@@ -306,8 +654,16 @@ public class CompositeCache<K, V>
             }
         }
 
-        for ( ICache<K, V> aux : auxCaches )
+        // remote and lateral updates started on the auxiliary pool, by aux index
+        Future<?>[] pending = null;
+        if ( cacheAttr.isUseParallelAuxiliaries() && !localOnly )
         {
+            pending = new Future<?>[auxCaches.length];
+        }
+
+        for ( int i = 0; i < auxCaches.length; i++ )
+        {
+            ICache<K, V> aux = auxCaches[i];
             if ( aux == null )
             {
                 continue;
@@ -334,7 +690,7 @@ public class CompositeCache<K, V>
                         {
                             // need to make sure the group cache understands that
                             // the key is a group attribute on update
-                            aux.update( cacheElement );
+                            updateAuxiliary( i, cacheElement, pending );
                             if ( log.isDebugEnabled() )
                             {
                                 log.debug( "Updated remote store for " + cacheElement.getKey() + cacheElement );
@@ -360,7 +716,7 @@ public class CompositeCache<K, V>
                         // DISTRIBUTE LATERALLY
                         // Currently always multicast even if the value is
                         // unchanged, to cause the cache item to move to the front.
-                        aux.update( cacheElement );
+                        updateAuxiliary( i, cacheElement, pending );
                         if ( log.isDebugEnabled() )
                         {
                             log.debug( "updated lateral cache for " + cacheElement.getKey() );
@@ -378,7 +734,7 @@ public class CompositeCache<K, V>
                         && cacheAttr.getDiskUsagePattern() == DiskUsagePattern.UPDATE
                         && cacheElement.getElementAttributes().getIsSpool() )
                     {
-                        aux.update( cacheElement );
+                        updateAuxiliary( i, cacheElement, pending );
                         if ( log.isDebugEnabled() )
                         {
                             log.debug( "updated disk cache for " + cacheElement.getKey() );
@@ -390,6 +746,108 @@ public class CompositeCache<K, V>
                     break;
             }
         }
+
+        if ( pending != null )
+        {
+            long deadline = System.currentTimeMillis() + cacheAttr.getAuxiliaryTimeoutMillis();
+            for ( int i = 0; i < pending.length; i++ )
+            {
+                if ( pending[i] != null )
+                {
+                    awaitAuxiliary( i, pending[i], deadline );
+                }
+            }
+        }
+    }
+
+    /**
+     * Update one auxiliary. If pending is not null, remote and lateral auxiliaries are updated on
+     * the auxiliary pool and the future is stored in pending.
+     * <p>
+     * @param index the index of the auxiliary
+     * @param cacheElement the element
+     * @param pending futures of the concurrent updates, null to update on this thread
+     * @throws IOException
+     */
+    private void updateAuxiliary( final int index, final ICacheElement<K, V> cacheElement, Future<?>[] pending )
+        throws IOException
+    {
+        if ( pending != null && auxCaches[index].getCacheType() != CacheType.DISK_CACHE )
+        {
+            pending[index] = getAuxiliaryPool().submit( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws IOException
+                {
+                    timedUpdate( index, cacheElement );
+                    return null;
+                }
+            } );
+        }
+        else
+        {
+            timedUpdate( index, cacheElement );
+        }
+    }
+
+    /**
+     * Update an auxiliary and record the latency of the call.
+     * <p>
+     * @param index the index of the auxiliary
+     * @param cacheElement the element
+     * @throws IOException
+     */
+    private void timedUpdate( int index, ICacheElement<K, V> cacheElement )
+        throws IOException
+    {
+        long start = System.nanoTime();
+        auxCaches[index].update( cacheElement );
+        auxCallStats[index].record( start );
+    }
+
+    /**
+     * Wait for a concurrent auxiliary call until the deadline. A call that fails is logged. A call
+     * that takes too long is logged and cancelled, which interrupts its pool thread, so a stuck
+     * auxiliary does not keep pool threads and a late update cannot overwrite a later one unless
+     * the auxiliary ignores the interrupt.
+     * <p>
+     * @param index the index of the auxiliary
+     * @param future the call
+     * @param deadline the time to give up
+     * @return the result of the call, or null if it failed or timed out
+     */
+    private <T> T awaitAuxiliary( int index, Future<T> future, long deadline )
+    {
+        try
+        {
+            return future.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException e )
+        {
+            future.cancel( true );
+            auxCallStats[index].recordTimeout();
+            log.warn( cacheAttr.getCacheName() + " - Auxiliary [" + auxCallStats[index].getName()
+                + "] did not answer within " + cacheAttr.getAuxiliaryTimeoutMillis() + " ms, cancelled the call" );
+        }
+        catch ( ExecutionException e )
+        {
+            log.error( cacheAttr.getCacheName() + " - Failure calling auxiliary [" + auxCallStats[index].getName() + "]",
+                e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * @return the pool running the concurrent auxiliary calls
+     */
+    private ExecutorService getAuxiliaryPool()
+    {
+        return ThreadPoolManager.getInstance().getExecutorService( AUXILIARY_POOL_NAME );
     }
 
     /**
@@ -403,6 +861,12 @@ public class CompositeCache<K, V>
      */
     public void spoolToDisk( ICacheElement<K, V> ce )
     {
+        // the element has left memory
+        if ( expirationIndex != null )
+        {
+            expirationIndex.cancel( ce.getKey() );
+        }
+
         // if the item is not spoolable, return
         if ( !ce.getElementAttributes().getIsSpool() )
         {
@@ -502,31 +966,326 @@ public class CompositeCache<K, V>
     {
         ICacheElement<K, V> element = null;
 
-        boolean found = false;
-
         if ( log.isDebugEnabled() )
         {
             log.debug( "get: key = " + key + ", localOnly = " + localOnly );
         }
 
-        synchronized (this)
+        try
+        {
+            if ( cacheAttr.isUseKeyLocks() )
+            {
+                element = getWithKeyLock( key, localOnly );
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    element = memCache.get( key );
+
+                    if ( element != null )
+                    {
+                        element = checkMemoryElement( element );
+                    }
+                    else
+                    {
+                        element = getFromAuxiliaryCaches( key, localOnly );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( "Problem encountered getting element.", e );
+        }
+
+        if (element != null)
+        {
+            element.getElementAttributes().setLastAccessTimeNow();
+            refreshAheadIfDue( element );
+        }
+
+        return element;
+    }
+
+    /**
+     * Reload the element in the background if refresh-ahead is enabled and the element is in the
+     * last RefreshAheadPercent percent of its max life. The caller keeps the current element. Only
+     * one refresh per key runs at a time. Refreshes run on their own pool, so a slow loader does
+     * not hold up the shrinker or other scheduled work.
+     * <p>
+     * @param element the element that was hit
+     */
+    private void refreshAheadIfDue( ICacheElement<K, V> element )
+    {
+        int percent = cacheAttr.getRefreshAheadPercent();
+        final ICacheLoader<K, V> loader = cacheLoader;
+
+        if ( percent <= 0 || loader == null )
+        {
+            return;
+        }
+
+        final IElementAttributes attributes = element.getElementAttributes();
+        if ( attributes.getIsEternal() || attributes.getMaxLife() == -1 )
+        {
+            return;
+        }
+
+        long lifeMillis = attributes.getMaxLife() * attributes.getTimeFactorForMilliseconds();
+        long refreshTime = attributes.getCreateTime() + lifeMillis - lifeMillis * Math.min( percent, 100 ) / 100;
+        if ( Clock.currentTimeMillis() < refreshTime )
+        {
+            return;
+        }
+
+        final K key = element.getKey();
+        if ( refreshing.putIfAbsent( key, Boolean.TRUE ) != null )
+        {
+            return;
+        }
+
+        try
+        {
+            getRefreshPool().execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    refresh( key, loader, attributes );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            refreshing.remove( key );
+            log.warn( cacheAttr.getCacheName() + " - Could not schedule refresh of key [" + key + "]", e );
+        }
+    }
+
+    /**
+     * @return the pool running the refresh-ahead loads
+     */
+    private ExecutorService getRefreshPool()
+    {
+        return ThreadPoolManager.getInstance().getExecutorService( REFRESH_POOL_NAME );
+    }
+
+    /**
+     * Load the key and put the result with a copy of the attributes of the old element, which
+     * starts a new max life. If the loader returns null the element is removed. If the loader
+     * fails the old element stays until it expires.
+     * <p>
+     * @param key the key to refresh
+     * @param loader the loader
+     * @param attributes the attributes of the old element
+     */
+    private void refresh( K key, ICacheLoader<K, V> loader, IElementAttributes attributes )
+    {
+        try
+        {
+            V value = loader.load( key );
+
+            if ( !alive.get() )
+            {
+                return;
+            }
+
+            if ( value == null )
+            {
+                remove( key );
+            }
+            else
+            {
+                CacheElement<K, V> ce = new CacheElement<K, V>( getCacheName(), key, value );
+                ce.setElementAttributes( attributes.clone() );
+                update( ce );
+            }
+            refreshCount.incrementAndGet();
+        }
+        catch ( Exception e )
+        {
+            log.warn( cacheAttr.getCacheName() + " - Refresh of key [" + key + "] failed, keeping the current value", e );
+        }
+        finally
+        {
+            refreshing.remove( key );
+        }
+    }
+
+    /**
+     * Register the loader used to refresh elements ahead of their expiration. Refresh-ahead is
+     * enabled with the RefreshAheadPercent region attribute.
+     * <p>
+     * @param cacheLoader the loader, or null to stop refreshing
+     */
+    public void setCacheLoader( ICacheLoader<K, V> cacheLoader )
+    {
+        this.cacheLoader = cacheLoader;
+    }
+
+    /**
+     * @return the loader used to refresh elements, or null
+     */
+    public ICacheLoader<K, V> getCacheLoader()
+    {
+        return cacheLoader;
+    }
+
+    /**
+     * Register a load of a key unless one is already running. The loads are kept by the region,
+     * so callers holding different access handles to it still share one load per key.
+     * <p>
+     * @param key the key to load
+     * @param load the load to register
+     * @return the load already running for the key, or null if the given one was registered
+     */
+    public FutureTask<V> startLoad( K key, FutureTask<V> load )
+    {
+        return loads.putIfAbsent( key, load );
+    }
+
+    /**
+     * Forget a load registered with startLoad once it has completed.
+     * <p>
+     * @param key the key loaded
+     * @param load the completed load
+     */
+    public void finishLoad( K key, FutureTask<V> load )
+    {
+        loads.remove( key, load );
+    }
+
+    /**
+     * Get an element without taking the region lock. Memory hits are returned directly. On a
+     * memory miss the lock for the key is taken, the memory cache is checked again in case another
+     * thread loaded the element meanwhile, and then the auxiliaries are searched.
+     * <p>
+     * @param key
+     * @param localOnly
+     * @return the element or null
+     * @throws IOException
+     */
+    private ICacheElement<K, V> getWithKeyLock( K key, boolean localOnly )
+        throws IOException
+    {
+        ICacheElement<K, V> element = memCache.get( key );
+
+        if ( element != null )
+        {
+            return checkMemoryElement( element );
+        }
+
+        ReentrantLock keyLock = keyLocks.getLock( key );
+        keyLock.lock();
+        try
+        {
+            element = memCache.getQuiet( key );
+
+            if ( element != null )
+            {
+                return checkMemoryElement( element );
+            }
+
+            return getFromAuxiliaryCaches( key, localOnly );
+        }
+        finally
+        {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * Check an element found in the memory cache for expiration and update the counters.
+     * <p>
+     * @param element the element found in memory
+     * @return the element or null if it was expired
+     */
+    private ICacheElement<K, V> checkMemoryElement( ICacheElement<K, V> element )
+    {
+        if ( isExpired( element ) )
+        {
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( cacheAttr.getCacheName() + " - Memory cache hit, but element expired" );
+            }
+
+            missCountExpired.incrementAndGet();
+            remove( element.getKey() );
+            return null;
+        }
+
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( cacheAttr.getCacheName() + " - Memory cache hit" );
+        }
+
+        // Update counters
+        hitCountRam.incrementAndGet();
+        return element;
+    }
+
+    /**
+     * Item not found in memory. If local invocation look in aux caches, even if not local look in
+     * disk auxiliaries. Counts a miss if the item is not found anywhere.
+     * <p>
+     * @param key
+     * @param localOnly
+     * @return the element or null if it was not found or expired
+     * @throws IOException
+     */
+    private ICacheElement<K, V> getFromAuxiliaryCaches( K key, boolean localOnly )
+        throws IOException
+    {
+        ICacheElement<K, V> element = null;
+
+        for (AuxiliaryCache<K, V> aux : auxCaches)
         {
-            try
+            if ( aux != null )
             {
-                // First look in memory cache
-                element = memCache.get( key );
+                CacheType cacheType = aux.getCacheType();
+
+                if ( !localOnly || cacheType == CacheType.DISK_CACHE )
+                {
+                    if ( log.isDebugEnabled() )
+                    {
+                        log.debug( "Attempting to get from aux [" + aux.getCacheName() + "] which is of type: "
+                            + cacheType );
+                    }
+
+                    try
+                    {
+                        long start = System.nanoTime();
+                        element = aux.get( key );
+                        recordAuxiliaryCall( aux, start );
+                    }
+                    catch ( IOException e )
+                    {
+                        log.error( "Error getting from aux", e );
+                    }
+                }
+
+                if ( log.isDebugEnabled() )
+                {
+                    log.debug( "Got CacheElement: " + element );
+                }
 
+                // Item found in one of the auxiliary caches.
                 if ( element != null )
                 {
-                    // Found in memory cache
                     if ( isExpired( element ) )
                     {
                         if ( log.isDebugEnabled() )
                         {
-                            log.debug( cacheAttr.getCacheName() + " - Memory cache hit, but element expired" );
+                            log.debug( cacheAttr.getCacheName() + " - Aux cache[" + aux.getCacheName() + "] hit, but element expired." );
                         }
 
                         missCountExpired.incrementAndGet();
+
+                        // This will tell the remotes to remove the item
+                        // based on the element's expiration policy. The elements attributes
+                        // associated with the item when it created govern its behavior
+                        // everywhere.
                         remove( key );
                         element = null;
                     }
@@ -534,109 +1293,27 @@ public class CompositeCache<K, V>
                     {
                         if ( log.isDebugEnabled() )
                         {
-                            log.debug( cacheAttr.getCacheName() + " - Memory cache hit" );
+                            log.debug( cacheAttr.getCacheName() + " - Aux cache[" + aux.getCacheName() + "] hit" );
                         }
 
                         // Update counters
-                        hitCountRam.incrementAndGet();
+                        hitCountAux.incrementAndGet();
+                        copyAuxiliaryRetrievedItemToMemory( element );
                     }
 
-                    found = true;
-                }
-                else
-                {
-                    // Item not found in memory. If local invocation look in aux
-                    // caches, even if not local look in disk auxiliaries
-                    for (AuxiliaryCache<K, V> aux : auxCaches)
-                    {
-                        if ( aux != null )
-                        {
-                            CacheType cacheType = aux.getCacheType();
-
-                            if ( !localOnly || cacheType == CacheType.DISK_CACHE )
-                            {
-                                if ( log.isDebugEnabled() )
-                                {
-                                    log.debug( "Attempting to get from aux [" + aux.getCacheName() + "] which is of type: "
-                                        + cacheType );
-                                }
-
-                                try
-                                {
-                                    element = aux.get( key );
-                                }
-                                catch ( IOException e )
-                                {
-                                    log.error( "Error getting from aux", e );
-                                }
-                            }
-
-                            if ( log.isDebugEnabled() )
-                            {
-                                log.debug( "Got CacheElement: " + element );
-                            }
-
-                            // Item found in one of the auxiliary caches.
-                            if ( element != null )
-                            {
-                                if ( isExpired( element ) )
-                                {
-                                    if ( log.isDebugEnabled() )
-                                    {
-                                        log.debug( cacheAttr.getCacheName() + " - Aux cache[" + aux.getCacheName() + "] hit, but element expired." );
-                                    }
-
-                                    missCountExpired.incrementAndGet();
-
-                                    // This will tell the remotes to remove the item
-                                    // based on the element's expiration policy. The elements attributes
-                                    // associated with the item when it created govern its behavior
-                                    // everywhere.
-                                    remove( key );
-                                    element = null;
-                                }
-                                else
-                                {
-                                    if ( log.isDebugEnabled() )
-                                    {
-                                        log.debug( cacheAttr.getCacheName() + " - Aux cache[" + aux.getCacheName() + "] hit" );
-                                    }
-
-                                    // Update counters
-                                    hitCountAux.incrementAndGet();
-                                    copyAuxiliaryRetrievedItemToMemory( element );
-                                }
-
-                                found = true;
-
-                                break;
-                            }
-                        }
-                    }
+                    return element;
                 }
             }
-            catch ( IOException e )
-            {
-                log.error( "Problem encountered getting element.", e );
-            }
         }
 
-        if ( !found )
-        {
-            missCountNotFound.incrementAndGet();
-
-            if ( log.isDebugEnabled() )
-            {
-                log.debug( cacheAttr.getCacheName() + " - Miss" );
-            }
-        }
+        missCountNotFound.incrementAndGet();
 
-        if (element != null)
+        if ( log.isDebugEnabled() )
         {
-            element.getElementAttributes().setLastAccessTimeNow();
+            log.debug( cacheAttr.getCacheName() + " - Miss" );
         }
 
-        return element;
+        return null;
     }
 
     /**
@@ -775,6 +1452,11 @@ public class CompositeCache<K, V>
     private Map<K, ICacheElement<K, V>> getMultipleFromAuxiliaryCaches( Set<K> keys, boolean localOnly )
         throws IOException
     {
+        if ( cacheAttr.isUseParallelAuxiliaries() && !localOnly )
+        {
+            return getMultipleFromAuxiliaryCachesInParallel( keys );
+        }
+
         Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
         Set<K> remainingKeys = new HashSet<K>( keys );
 
@@ -797,7 +1479,9 @@ public class CompositeCache<K, V>
 
                     try
                     {
+                        long start = System.nanoTime();
                         elementsFromAuxiliary.putAll( aux.getMultiple( remainingKeys ) );
+                        recordAuxiliaryCall( aux, start );
                     }
                     catch ( IOException e )
                     {
@@ -828,6 +1512,106 @@ public class CompositeCache<K, V>
         return elements;
     }
 
+    /**
+     * Ask the remote and lateral auxiliaries for all the keys concurrently on the auxiliary pool,
+     * while the disk auxiliaries are asked on this thread. An auxiliary that does not answer within
+     * AuxiliaryTimeoutMillis is ignored. The results are merged in the order of the auxiliaries,
+     * so an earlier auxiliary wins if several have the key.
+     * <p>
+     * @param keys
+     * @return the elements found in the auxiliary caches
+     * @throws IOException
+     */
+    private Map<K, ICacheElement<K, V>> getMultipleFromAuxiliaryCachesInParallel( final Set<K> keys )
+        throws IOException
+    {
+        List<Future<Map<K, ICacheElement<K, V>>>> futures =
+            new ArrayList<Future<Map<K, ICacheElement<K, V>>>>( auxCaches.length );
+        for ( final AuxiliaryCache<K, V> aux : auxCaches )
+        {
+            Future<Map<K, ICacheElement<K, V>>> future = null;
+            if ( aux != null && aux.getCacheType() != CacheType.DISK_CACHE )
+            {
+                future = getAuxiliaryPool().submit( new Callable<Map<K, ICacheElement<K, V>>>()
+                {
+                    @Override
+                    public Map<K, ICacheElement<K, V>> call()
+                        throws IOException
+                    {
+                        long start = System.nanoTime();
+                        Map<K, ICacheElement<K, V>> result = aux.getMultiple( keys );
+                        recordAuxiliaryCall( aux, start );
+                        return result;
+                    }
+                } );
+            }
+            futures.add( future );
+        }
+        long deadline = System.currentTimeMillis() + cacheAttr.getAuxiliaryTimeoutMillis();
+
+        List<Map<K, ICacheElement<K, V>>> results = new ArrayList<Map<K, ICacheElement<K, V>>>( auxCaches.length );
+        for ( AuxiliaryCache<K, V> aux : auxCaches )
+        {
+            Map<K, ICacheElement<K, V>> result = null;
+            if ( aux != null && aux.getCacheType() == CacheType.DISK_CACHE )
+            {
+                try
+                {
+                    long start = System.nanoTime();
+                    result = aux.getMultiple( keys );
+                    recordAuxiliaryCall( aux, start );
+                }
+                catch ( IOException e )
+                {
+                    log.error( "Error getting from aux", e );
+                }
+            }
+            results.add( result );
+        }
+
+        for ( int i = 0; i < futures.size(); i++ )
+        {
+            if ( futures.get( i ) != null )
+            {
+                results.set( i, awaitAuxiliary( i, futures.get( i ), deadline ) );
+            }
+        }
+
+        Map<K, ICacheElement<K, V>> elements = new HashMap<K, ICacheElement<K, V>>();
+        for ( int i = 0; i < results.size(); i++ )
+        {
+            if ( results.get( i ) != null )
+            {
+                Map<K, ICacheElement<K, V>> elementsFromAuxiliary = new HashMap<K, ICacheElement<K, V>>( results.get( i ) );
+                elementsFromAuxiliary.keySet().removeAll( elements.keySet() );
+
+                processRetrievedElements( auxCaches[i], elementsFromAuxiliary );
+
+                elements.putAll( elementsFromAuxiliary );
+            }
+        }
+
+        return elements;
+    }
+
+    /**
+     * Record the latency of a call to an auxiliary.
+     * <p>
+     * @param aux the auxiliary
+     * @param start the System.nanoTime() at the start of the call
+     */
+    private void recordAuxiliaryCall( AuxiliaryCache<K, V> aux, long start )
+    {
+        for ( int i = 0; i < auxCaches.length; i++ )
+        {
+            if ( auxCaches[i] == aux )
+            {
+                auxCallStats[i].record( start );
+                return;
+            }
+        }
+    }
+
     /**
      * Build a map of all the matching elements in all of the auxiliaries and memory.
      * <p>
@@ -1037,6 +1821,7 @@ public class CompositeCache<K, V>
         if ( memCache.getCacheAttributes().getMaxObjects() > 0 )
         {
             memCache.update( element );
+            scheduleExpiration( element );
         }
         else
         {
@@ -1154,60 +1939,118 @@ public class CompositeCache<K, V>
     {
         removeCount.incrementAndGet();
 
-        boolean removed = false;
-
-        synchronized (this)
+        if ( cacheAttr.isUseKeyLocks() )
         {
+            if ( isPartialKey( key ) )
+            {
+                // a partial key covers keys guarded by any lock
+                keyLocks.lockAll();
+                try
+                {
+                    return removeFromAll( key, localOnly );
+                }
+                finally
+                {
+                    keyLocks.unlockAll();
+                }
+            }
+
+            ReentrantLock keyLock = keyLocks.getLock( key );
+            keyLock.lock();
             try
             {
-                removed = memCache.remove( key );
+                return removeFromAll( key, localOnly );
             }
-            catch ( IOException e )
+            finally
             {
-                log.error( e );
+                keyLock.unlock();
             }
+        }
 
-            // Removes from all auxiliary caches.
-            for ( ICache<K, V> aux : auxCaches )
+        synchronized (this)
+        {
+            return removeFromAll( key, localOnly );
+        }
+    }
+
+    /**
+     * Removes the key from memory and all auxiliaries. The caller holds the appropriate lock.
+     * <p>
+     * @param key
+     * @param localOnly
+     * @return true if the item was in the cache, else false
+     */
+    private boolean removeFromAll( K key, boolean localOnly )
+    {
+        boolean removed = false;
+
+        try
+        {
+            removed = memCache.remove( key );
+        }
+        catch ( IOException e )
+        {
+            log.error( e );
+        }
+
+        if ( expirationIndex != null )
+        {
+            // keys removed by a partial key are dropped when they come due
+            expirationIndex.cancel( key );
+        }
+
+        // Removes from all auxiliary caches.
+        for ( ICache<K, V> aux : auxCaches )
+        {
+            if ( aux == null )
             {
-                if ( aux == null )
-                {
-                    continue;
-                }
+                continue;
+            }
 
-                CacheType cacheType = aux.getCacheType();
+            CacheType cacheType = aux.getCacheType();
 
-                // for now let laterals call remote remove but not vice versa
+            // for now let laterals call remote remove but not vice versa
 
-                if ( localOnly && ( cacheType == CacheType.REMOTE_CACHE || cacheType == CacheType.LATERAL_CACHE ) )
+            if ( localOnly && ( cacheType == CacheType.REMOTE_CACHE || cacheType == CacheType.LATERAL_CACHE ) )
+            {
+                continue;
+            }
+            try
+            {
+                if ( log.isDebugEnabled() )
                 {
-                    continue;
+                    log.debug( "Removing " + key + " from cacheType" + cacheType );
                 }
-                try
-                {
-                    if ( log.isDebugEnabled() )
-                    {
-                        log.debug( "Removing " + key + " from cacheType" + cacheType );
-                    }
 
-                    boolean b = aux.remove( key );
+                boolean b = aux.remove( key );
 
-                    // Don't take the remote removal into account.
-                    if ( !removed && cacheType != CacheType.REMOTE_CACHE )
-                    {
-                        removed = b;
-                    }
-                }
-                catch ( IOException ex )
+                // Don't take the remote removal into account.
+                if ( !removed && cacheType != CacheType.REMOTE_CACHE )
                 {
-                    log.error( "Failure removing from aux", ex );
+                    removed = b;
                 }
             }
+            catch ( IOException ex )
+            {
+                log.error( "Failure removing from aux", ex );
+            }
         }
 
         return removed;
     }
 
+    /**
+     * A partial key removes a whole name hierarchy or group from the cache.
+     * <p>
+     * @param key
+     * @return true if the key denotes more than one element
+     */
+    private boolean isPartialKey( K key )
+    {
+        return ( key instanceof String && ( (String) key ).endsWith( CacheConstants.NAME_COMPONENT_DELIMITER ) )
+            || ( key instanceof GroupAttrName && ( (GroupAttrName<?>) key ).attrName == null );
+    }
+
     /**
      * Clears the region. This command will be sent to all auxiliaries. Some auxiliaries, such as
      * the JDBC disk cache, can be configured to not honor removeAll requests.
@@ -1242,40 +2085,70 @@ public class CompositeCache<K, V>
     protected void removeAll( boolean localOnly )
         throws IOException
     {
-        synchronized (this)
+        if ( cacheAttr.isUseKeyLocks() )
         {
+            keyLocks.lockAll();
             try
             {
-                memCache.removeAll();
+                removeAllFromAll( localOnly );
+            }
+            finally
+            {
+                keyLocks.unlockAll();
+            }
+        }
+        else
+        {
+            synchronized (this)
+            {
+                removeAllFromAll( localOnly );
+            }
+        }
+    }
 
-                if ( log.isDebugEnabled() )
-                {
-                    log.debug( "Removed All keys from the memory cache." );
-                }
+    /**
+     * Clears memory and the auxiliaries. The caller holds the appropriate lock.
+     * <p>
+     * @param localOnly
+     */
+    private void removeAllFromAll( boolean localOnly )
+    {
+        try
+        {
+            memCache.removeAll();
+
+            if ( expirationIndex != null )
+            {
+                expirationIndex.clear();
             }
-            catch ( IOException ex )
+
+            if ( log.isDebugEnabled() )
             {
-                log.error( "Trouble updating memory cache.", ex );
+                log.debug( "Removed All keys from the memory cache." );
             }
+        }
+        catch ( IOException ex )
+        {
+            log.error( "Trouble updating memory cache.", ex );
+        }
 
-            // Removes from all auxiliary disk caches.
-            for ( ICache<K, V> aux : auxCaches )
+        // Removes from all auxiliary disk caches.
+        for ( ICache<K, V> aux : auxCaches )
+        {
+            if ( aux != null && ( aux.getCacheType() == CacheType.DISK_CACHE || !localOnly ) )
             {
-                if ( aux != null && ( aux.getCacheType() == CacheType.DISK_CACHE || !localOnly ) )
+                try
                 {
-                    try
-                    {
-                        if ( log.isDebugEnabled() )
-                        {
-                            log.debug( "Removing All keys from cacheType" + aux.getCacheType() );
-                        }
-
-                        aux.removeAll();
-                    }
-                    catch ( IOException ex )
+                    if ( log.isDebugEnabled() )
                     {
-                        log.error( "Failure removing all from aux", ex );
+                        log.debug( "Removing All keys from cacheType" + aux.getCacheType() );
                     }
+
+                    aux.removeAll();
+                }
+                catch ( IOException ex )
+                {
+                    log.error( "Failure removing all from aux", ex );
                 }
             }
         }
@@ -1325,6 +2198,17 @@ public class CompositeCache<K, V>
                 future.cancel(true);
             }
 
+            if (warmStartLoader != null)
+            {
+                warmStartLoader.stop();
+            }
+
+            // Remember the hottest keys before memory is spooled to disk
+            if (cacheAttr.getWarmStartKeyCount() > 0)
+            {
+                saveWarmStartKeys();
+            }
+
             // Now, shut down the event queue
             if (elementEventQ != null)
             {
@@ -1503,6 +2387,26 @@ public class CompositeCache<K, V>
         elems.add(new StatElement<Integer>( "HitCountRam", Integer.valueOf(getHitCountRam()) ) );
         elems.add(new StatElement<Integer>( "HitCountAux", Integer.valueOf(getHitCountAux()) ) );
 
+        if ( cacheAttr.getRefreshAheadPercent() > 0 )
+        {
+            elems.add(new StatElement<Integer>( "RefreshCount", Integer.valueOf(getRefreshCount()) ) );
+        }
+
+        for ( AuxiliaryCallStats callStats : auxCallStats )
+        {
+            callStats.addStatElements( elems );
+        }
+
+        if ( expirationIndex != null )
+        {
+            elems.add(new StatElement<Integer>( "ExpirationIndexSize", Integer.valueOf(expirationIndex.size()) ) );
+        }
+
+        if ( warmStartLoader != null )
+        {
+            warmStartLoader.addStatElements( elems );
+        }
+
         stats.setStatElements( elems );
 
         // memory + aux, memory is not considered an auxiliary internally
@@ -1608,7 +2512,7 @@ public class CompositeCache<K, V>
      */
     public boolean isExpired( ICacheElement<K, V> element)
     {
-        return isExpired(element, System.currentTimeMillis(),
+        return isExpired(element, Clock.currentTimeMillis(),
                 ElementEventType.EXCEEDED_MAXLIFE_ONREQUEST,
                 ElementEventType.EXCEEDED_IDLETIME_ONREQUEST );
     }
@@ -1799,6 +2703,15 @@ public class CompositeCache<K, V>
         return missCountExpired.get();
     }
 
+    /**
+     * Number of elements reloaded by refresh-ahead.
+     * @return number of refreshes.
+     */
+    public int getRefreshCount()
+    {
+        return refreshCount.get();
+    }
+
     /**
      * @return Returns the updateCount.
      */
@@ -38,6 +38,7 @@ import org.apache.commons.jcs.engine.match.KeyMatcherPatternImpl;
 import org.apache.commons.jcs.engine.match.behavior.IKeyMatcher;
 import org.apache.commons.jcs.utils.config.OptionConverter;
 import org.apache.commons.jcs.utils.config.PropertySetter;
+import org.apache.commons.jcs.utils.timing.behavior.IClock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -81,6 +82,13 @@ public class CompositeCacheConfigurator
      */
     public static final String KEY_MATCHER_PREFIX = ".keymatcher";
 
+    /**
+     * jcs.clock=CLASSNAME
+     * <p>
+     * jcs.clock.attributes.CUSTOMPROPERTY=VALUE
+     */
+    public static final String CLOCK_PREFIX = "jcs.clock";
+
     /**
      * Constructor for the CompositeCacheConfigurator object
      */
@@ -533,6 +541,26 @@ public class CompositeCacheConfigurator
         }
     }
 
+    /**
+     * Creates the clock configured with jcs.clock, if any.
+     * <p>
+     * @param props
+     * @return the clock, or null if none is configured
+     */
+    protected IClock parseClock( Properties props )
+    {
+        IClock clock = OptionConverter.instantiateByKey( props, CLOCK_PREFIX, null );
+        if ( clock != null )
+        {
+            PropertySetter.setProperties( clock, props, CLOCK_PREFIX + ATTRIBUTE_PREFIX + "." );
+            if ( log.isInfoEnabled() )
+            {
+                log.info( "Using clock [" + clock.getClass().getName() + "]" );
+            }
+        }
+        return clock;
+    }
+
     /**
      * Creates a custom key matcher if one is defined.  Else, it uses the default.
      * <p>
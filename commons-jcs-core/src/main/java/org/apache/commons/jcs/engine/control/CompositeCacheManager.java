@@ -59,6 +59,8 @@ import org.apache.commons.jcs.engine.stats.behavior.ICacheStats;
 import org.apache.commons.jcs.utils.config.OptionConverter;
 import org.apache.commons.jcs.utils.threadpool.DaemonThreadFactory;
 import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
+import org.apache.commons.jcs.utils.timing.Clock;
+import org.apache.commons.jcs.utils.timing.behavior.IClock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -143,6 +145,9 @@ public class CompositeCacheManager
     /** Indicates whether configure has been called. */
     private boolean isConfigured = false;
 
+    /** Whether the configuration replaced the clock */
+    private boolean isClockConfigured = false;
+
     /** Indicates whether JMX bean has been registered. */
     private boolean isJMXRegistered = false;
 
@@ -464,6 +469,14 @@ public class CompositeCacheManager
 
         long start = System.currentTimeMillis();
 
+        // set the clock before any element is created
+        IClock clock = configurator.parseClock( properties );
+        if ( clock != null )
+        {
+            Clock.setClock( clock );
+            isClockConfigured = true;
+        }
+
         // set default value list
         this.defaultAuxValues = OptionConverter.findAndSubst( CompositeCacheManager.DEFAULT_REGION,
                 properties );
@@ -659,6 +672,13 @@ public class CompositeCacheManager
             // shutdown all thread pools
             ThreadPoolManager.dispose();
 
+            // go back to the system clock
+            if ( isClockConfigured )
+            {
+                Clock.setClock( null );
+                isClockConfigured = false;
+            }
+
             // notify any observers
             IShutdownObserver observer = null;
             while ((observer = shutdownObservers.poll()) != null)
@@ -695,6 +715,7 @@ public class CompositeCacheManager
                 factory.dispose();
             }
 
+            auxiliaryCaches.clear();
             auxiliaryAttributeRegistry.clear();
             auxiliaryFactoryRegistry.clear();
 
@@ -0,0 +1,286 @@
+package org.apache.commons.jcs.engine.control;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.jcs.engine.CacheStatus;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.io.ObjectInputStreamClassLoaderAware;
+import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Loads the keys a region remembered at its last dispose from the disk auxiliaries back into
+ * memory. A scheduled task hands the keys out at the configured rate to the warm start thread
+ * pool, so several keys are read from disk at once while the region already serves requests.
+ * Keys that are in memory by then, or that are no longer on disk, are skipped.
+ */
+class WarmStartLoader<K, V>
+    implements Runnable
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog( WarmStartLoader.class );
+
+    /** Name of the thread pool loading the keys */
+    public static final String WARM_START_POOL_NAME = "warmstart";
+
+    /** How often the keys are handed out to the pool */
+    private static final long TICK_MILLIS = 100;
+
+    /** The region to warm up */
+    private final CompositeCache<K, V> cache;
+
+    /** The keys to load, in load order */
+    private final List<K> keys;
+
+    /** Keys per second, 0 or less for no limit */
+    private final int keysPerSecond;
+
+    /** Index of the next key to hand out, only touched by the scheduled task */
+    private int nextKey = 0;
+
+    /** Keys that were processed */
+    private final AtomicInteger doneCount = new AtomicInteger( 0 );
+
+    /** Keys that were loaded into memory */
+    private final AtomicInteger loadedCount = new AtomicInteger( 0 );
+
+    /** When the warm start began */
+    private volatile long startTime;
+
+    /** How long the warm start took, -1 while it is running */
+    private volatile long durationMillis = -1;
+
+    /** The scheduled task, guarded by this */
+    private ScheduledFuture<?> future;
+
+    /** Set once the task should not run anymore, guarded by this */
+    private boolean stopped = false;
+
+    /**
+     * @param cache the region to warm up
+     * @param keys the keys to load, in load order
+     * @param keysPerSecond keys per second, 0 or less for no limit
+     */
+    public WarmStartLoader( CompositeCache<K, V> cache, List<K> keys, int keysPerSecond )
+    {
+        this.cache = cache;
+        this.keys = keys;
+        this.keysPerSecond = keysPerSecond;
+    }
+
+    /**
+     * Starts handing out the keys.
+     * <p>
+     * @param scheduler the scheduler of the region
+     */
+    public synchronized void start( ScheduledExecutorService scheduler )
+    {
+        startTime = System.currentTimeMillis();
+
+        if ( keys.isEmpty() )
+        {
+            finish();
+            return;
+        }
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( cache.getCacheName() + " - Warm start loading " + keys.size() + " keys" );
+        }
+
+        future = scheduler.scheduleAtFixedRate( this, 0, TICK_MILLIS, TimeUnit.MILLISECONDS );
+        if ( stopped )
+        {
+            future.cancel( false );
+        }
+    }
+
+    /**
+     * Stops handing out keys. Keys already handed out are still loaded unless the region is
+     * disposed.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if ( future != null )
+        {
+            future.cancel( false );
+        }
+    }
+
+    /**
+     * Hands out the keys that are due at the configured rate.
+     */
+    @Override
+    public void run()
+    {
+        int due = keys.size();
+        if ( keysPerSecond > 0 )
+        {
+            // one tick ahead, so the first run already hands out keys
+            long elapsed = System.currentTimeMillis() - startTime + TICK_MILLIS;
+            due = (int) Math.min( due, elapsed * keysPerSecond / 1000 );
+        }
+
+        ExecutorService pool = ThreadPoolManager.getInstance().getExecutorService( WARM_START_POOL_NAME );
+        while ( nextKey < due )
+        {
+            final K key = keys.get( nextKey++ );
+            pool.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    load( key );
+                }
+            } );
+        }
+
+        if ( nextKey >= keys.size() )
+        {
+            stop();
+        }
+    }
+
+    /**
+     * Loads one key and finishes the warm start after the last one.
+     * <p>
+     * @param key the key
+     */
+    protected void load( K key )
+    {
+        try
+        {
+            if ( cache.getStatus() == CacheStatus.ALIVE && cache.warmUp( key ) )
+            {
+                loadedCount.incrementAndGet();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error( cache.getCacheName() + " - Failure warming up key [" + key + "]", e );
+        }
+        finally
+        {
+            if ( doneCount.incrementAndGet() == keys.size() )
+            {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Records the duration of the warm start.
+     */
+    private void finish()
+    {
+        durationMillis = System.currentTimeMillis() - startTime;
+
+        if ( log.isInfoEnabled() )
+        {
+            log.info( cache.getCacheName() + " - Warm start loaded " + loadedCount.get() + " of " + keys.size()
+                + " keys in " + durationMillis + " ms" );
+        }
+    }
+
+    /**
+     * @return true once all keys were processed
+     */
+    public boolean isFinished()
+    {
+        return durationMillis >= 0;
+    }
+
+    /**
+     * Adds the progress of the warm start to the region statistics.
+     * <p>
+     * @param elems the statistics of the region
+     */
+    public void addStatElements( List<IStatElement<?>> elems )
+    {
+        elems.add( new StatElement<Integer>( "Warm Start Keys", Integer.valueOf( keys.size() ) ) );
+        elems.add( new StatElement<Integer>( "Warm Start Done", Integer.valueOf( doneCount.get() ) ) );
+        elems.add( new StatElement<Integer>( "Warm Start Loaded", Integer.valueOf( loadedCount.get() ) ) );
+        elems.add( new StatElement<Long>( "Warm Start Millis", Long.valueOf( durationMillis ) ) );
+    }
+
+    /**
+     * Writes the keys to remember to a file.
+     * <p>
+     * @param file the file
+     * @param keys the keys, hottest first
+     * @throws IOException if the file cannot be written or a key is not serializable
+     */
+    public static <K> void writeKeys( File file, List<K> keys )
+        throws IOException
+    {
+        ObjectOutputStream oos = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+        try
+        {
+            oos.writeObject( new ArrayList<K>( keys ) );
+        }
+        finally
+        {
+            oos.close();
+        }
+    }
+
+    /**
+     * Reads the keys written by writeKeys.
+     * <p>
+     * @param file the file
+     * @return the keys, hottest first
+     * @throws IOException if the file cannot be read
+     * @throws ClassNotFoundException if a key class is not available
+     */
+    @SuppressWarnings("unchecked") // Written by writeKeys
+    public static <K> List<K> readKeys( File file )
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream ois = new ObjectInputStreamClassLoaderAware(
+            new BufferedInputStream( new FileInputStream( file ) ), null );
+        try
+        {
+            return (List<K>) ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+}
@@ -20,18 +20,24 @@ package org.apache.commons.jcs.engine.memory;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.control.group.GroupAttrName;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
+import org.apache.commons.jcs.engine.memory.util.ElementSizeWeigher;
 import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
 import org.apache.commons.jcs.engine.stats.StatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.config.OptionConverter;
 import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.jcs.utils.struct.StripedRingBuffer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -42,6 +48,13 @@ import org.apache.commons.logging.LogFactory;
  * Children can control the expiration algorithm by controlling the update and get. The last item in the list will be the one
  * removed when the list fills. For instance LRU should more items to the front as they are used. FIFO should simply add new items
  * to the front of the list.
+ * <p>
+ * If the region sets an AccessBufferSize, hits are recorded in striped, lossy ring buffers and the
+ * list is reordered in batches. Readers then rarely take the lock, at the price of an approximate
+ * order: hits that do not fit into a full buffer are dropped.
+ * <p>
+ * If the region sets MaxMemoryBytes, every element is weighed when it is put and elements are
+ * spooled from the end of the list until the total weight fits into the limit again.
  */
 public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends AbstractMemoryCache<K, V>
 {
@@ -51,6 +64,27 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     /** thread-safe double linked list for lru */
     protected DoubleLinkedList<MemoryElementDescriptor<K, V>> list; // TODO privatise
 
+    /** Buffered hits, null if the list is reordered on every hit */
+    private StripedRingBuffer<MemoryElementDescriptor<K, V>> accessBuffer;
+
+    /** Reusable list for draining the access buffer (guarded by the lock) */
+    private final List<MemoryElementDescriptor<K, V>> drained = new ArrayList<MemoryElementDescriptor<K, V>>();
+
+    /** number of times the access buffer was drained */
+    private AtomicLong drainCnt;
+
+    /** number of buffered hits applied to the list */
+    private AtomicLong reorderCnt;
+
+    /** number of hits dropped because the buffer was full or contended */
+    private AtomicLong droppedReorderCnt;
+
+    /** Computes the element weights, null if the region has no MaxMemoryBytes limit */
+    private IElementWeigher weigher;
+
+    /** total weight of the elements in memory (changed under the lock) */
+    private AtomicLong currentWeight;
+
     /**
      * For post reflection creation initialization.
      * <p>
@@ -62,6 +96,23 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     {
         super.initialize(hub);
         list = new DoubleLinkedList<MemoryElementDescriptor<K, V>>();
+        drainCnt = new AtomicLong(0);
+        reorderCnt = new AtomicLong(0);
+        droppedReorderCnt = new AtomicLong(0);
+        currentWeight = new AtomicLong(0);
+
+        if (getCacheAttributes().getMaxMemoryBytes() > 0)
+        {
+            weigher = OptionConverter.instantiateByClassName(getCacheAttributes().getMemoryWeigherName(),
+                    (IElementWeigher) new ElementSizeWeigher());
+        }
+
+        int bufferSize = getCacheAttributes().getAccessBufferSize();
+        if (bufferSize > 0)
+        {
+            accessBuffer = new StripedRingBuffer<MemoryElementDescriptor<K, V>>(
+                    Runtime.getRuntime().availableProcessors(), bufferSize);
+        }
         log.info("initialized MemoryCache for " + getCacheName());
     }
 
@@ -95,10 +146,16 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     {
         putCnt.incrementAndGet();
 
+        // weigh outside of the lock, this may serialize the value
+        long weight = weigher != null ? weigher.weigh(ce) : 0;
+
         lock.lock();
         try
         {
+            drainAccessBuffer();
             MemoryElementDescriptor<K, V> newNode = adjustListForUpdate(ce);
+            newNode.setWeight(weight);
+            currentWeight.addAndGet(weight);
 
             // this should be synchronized if we were not using a ConcurrentHashMap
             final K key = newNode.getCacheElement().getKey();
@@ -108,6 +165,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
             if (oldNode != null && key.equals(oldNode.getCacheElement().getKey()))
             {
                 list.remove(oldNode);
+                currentWeight.addAndGet(-oldNode.getWeight());
             }
         }
         finally
@@ -130,7 +188,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     protected abstract MemoryElementDescriptor<K, V> adjustListForUpdate(ICacheElement<K, V> ce) throws IOException;
 
     /**
-     * If the max size has been reached, spool.
+     * If the max size or the max weight has been reached, spool.
      * <p>
      *
      * @throws Error
@@ -138,9 +196,10 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     private void spoolIfNeeded() throws Error
     {
         int size = map.size();
-        // If the element limit is reached, we need to spool
+        boolean overCount = size > this.getCacheAttributes().getMaxObjects();
+        // If the element or weight limit is reached, we need to spool
 
-        if (size <= this.getCacheAttributes().getMaxObjects())
+        if (!overCount && !isOverWeight())
         {
             return;
         }
@@ -151,7 +210,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         }
 
         // Write the last 'chunkSize' items to disk.
-        int chunkSizeCorrected = Math.min(size, chunkSize);
+        int chunkSizeCorrected = overCount ? Math.min(size, chunkSize) : 0;
 
         if (log.isDebugEnabled())
         {
@@ -166,6 +225,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
 
         try
         {
+            drainAccessBuffer();
             for (int i = 0; i < chunkSizeCorrected; i++)
             {
                 ICacheElement<K, V> lastElement = spoolLastElement();
@@ -175,6 +235,15 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
                 }
             }
 
+            // then spool until the weight fits
+            while (isOverWeight())
+            {
+                if (spoolLastElement() == null)
+                {
+                    break;
+                }
+            }
+
             // If this is out of the sync block it can detect a mismatch
             // where there is none.
             if (log.isDebugEnabled() && map.size() != list.size())
@@ -193,6 +262,14 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         }
     }
 
+    /**
+     * @return true if the region has a weight limit and exceeds it
+     */
+    private boolean isOverWeight()
+    {
+        return weigher != null && currentWeight.get() > getCacheAttributes().getMaxMemoryBytes();
+    }
+
     /**
      * This instructs the memory cache to remove the <i>numberToFree</i> according to its eviction
      * policy. For example, the LRUMemoryCache will remove the <i>numberToFree</i> least recently
@@ -213,6 +290,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
 
         try
         {
+            drainAccessBuffer();
             for (; freed < numberToFree; freed++)
             {
                 ICacheElement<K, V> element = spoolLastElement();
@@ -264,6 +342,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
             }
 
             list.remove(last);
+            currentWeight.addAndGet(-last.getWeight());
         }
 
         return toSpool;
@@ -285,6 +364,65 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
         return ce;
     }
 
+    /**
+     * Record a hit on the element. Without an access buffer the list is adjusted immediately.
+     * Otherwise the hit is buffered and the buffer is drained if it asks for it and the lock is
+     * free. A hit that does not fit into the buffer is dropped.
+     *
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void recordAccess(MemoryElementDescriptor<K, V> me)
+    {
+        if (accessBuffer == null)
+        {
+            super.recordAccess(me);
+            return;
+        }
+
+        int result = accessBuffer.offer(me);
+        if (result == StripedRingBuffer.FULL || result == StripedRingBuffer.FAILED)
+        {
+            droppedReorderCnt.incrementAndGet();
+        }
+
+        if (result != StripedRingBuffer.SUCCESS && lock.tryLock())
+        {
+            try
+            {
+                drainAccessBuffer();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the buffered hits to the list. Hits on elements that have been removed or replaced
+     * meanwhile are ignored.
+     * (guarded by the lock)
+     */
+    private void drainAccessBuffer()
+    {
+        if (accessBuffer == null || accessBuffer.drainTo(drained) == 0)
+        {
+            return;
+        }
+
+        drainCnt.incrementAndGet();
+        for (MemoryElementDescriptor<K, V> me : drained)
+        {
+            if (map.get(me.getCacheElement().getKey()) == me)
+            {
+                adjustListForGet(me);
+                reorderCnt.incrementAndGet();
+            }
+        }
+        drained.clear();
+    }
+
     /**
      * Adjust the list as needed for a get. This allows children to control the algorithm
      * <p>
@@ -315,6 +453,7 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     protected void lockedRemoveElement(MemoryElementDescriptor<K, V> me)
     {
         list.remove(me);
+        currentWeight.addAndGet(-me.getWeight());
     }
 
     /**
@@ -324,7 +463,41 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
     @Override
     protected void lockedRemoveAll()
     {
+        if (accessBuffer != null)
+        {
+            accessBuffer.drainTo(drained);
+            drained.clear();
+        }
         list.removeAll();
+        currentWeight.set(0);
+    }
+
+    /**
+     * Walks the list from the most recently used end.
+     * <p>
+     * @param max the maximum number of keys to return
+     * @return a list of at most max keys, in list order
+     */
+    @SuppressWarnings("unchecked")
+    // No generics for public fields
+    @Override
+    public List<K> getHottestKeys(int max)
+    {
+        lock.lock();
+        try
+        {
+            List<K> keys = new ArrayList<K>(Math.min(max, list.size()));
+            for (MemoryElementDescriptor<K, V> me = list.getFirst(); me != null && keys.size() < max;
+                me = (MemoryElementDescriptor<K, V>) me.next)
+            {
+                keys.add(me.getCacheElement().getKey());
+            }
+            return keys;
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     // --------------------------- internal methods (linked list implementation)
@@ -519,6 +692,20 @@ public abstract class AbstractDoubleLinkedListMemoryCache<K, V> extends Abstract
 
         elems.add(new StatElement<Integer>("List Size", Integer.valueOf(list.size())));
 
+        if (accessBuffer != null)
+        {
+            elems.add(new StatElement<Integer>("Access Buffer Stripes", Integer.valueOf(accessBuffer.getStripeCount())));
+            elems.add(new StatElement<AtomicLong>("Access Buffer Drains", drainCnt));
+            elems.add(new StatElement<AtomicLong>("Reorders Applied", reorderCnt));
+            elems.add(new StatElement<AtomicLong>("Reorders Dropped", droppedReorderCnt));
+        }
+
+        if (weigher != null)
+        {
+            elems.add(new StatElement<AtomicLong>("Current Bytes", currentWeight));
+            elems.add(new StatElement<Long>("Max Bytes", Long.valueOf(getCacheAttributes().getMaxMemoryBytes())));
+        }
+
         return stats;
     }
 }
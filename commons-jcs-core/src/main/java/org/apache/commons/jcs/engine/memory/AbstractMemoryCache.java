@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -460,6 +461,24 @@ public abstract class AbstractMemoryCache<K, V>
         return new LinkedHashSet<K>(map.keySet());
     }
 
+    /**
+     * Get the hottest keys. The base implementation has no notion of access order and returns
+     * the first keys of the map.
+     * <p>
+     * @param max the maximum number of keys to return
+     * @return a list of at most max keys
+     */
+    @Override
+    public List<K> getHottestKeys(int max)
+    {
+        List<K> keys = new ArrayList<K>(Math.min(max, map.size()));
+        for (Iterator<K> it = map.keySet().iterator(); it.hasNext() && keys.size() < max;)
+        {
+            keys.add(it.next());
+        }
+        return keys;
+    }
+
     /**
      * Get an item from the cache.
      * <p>
@@ -485,15 +504,7 @@ public abstract class AbstractMemoryCache<K, V>
             hitCnt.incrementAndGet();
             ce = me.getCacheElement();
 
-            lock.lock();
-            try
-            {
-                lockedGetElement(me);
-            }
-            finally
-            {
-                lock.unlock();
-            }
+            recordAccess(me);
 
             if (log.isDebugEnabled())
             {
@@ -513,6 +524,25 @@ public abstract class AbstractMemoryCache<K, V>
         return ce;
     }
 
+    /**
+     * Record a hit on the element. By default this takes the lock and updates the control
+     * structures immediately. Children may defer the update.
+     *
+     * @param me the memory element descriptor
+     */
+    protected void recordAccess(MemoryElementDescriptor<K, V> me)
+    {
+        lock.lock();
+        try
+        {
+            lockedGetElement(me);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
     /**
      * Update control structures after get
      * (guarded by the lock)
@@ -0,0 +1,40 @@
+package org.apache.commons.jcs.engine.memory.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Computes the weight of an element for memory caches limited by MaxMemoryBytes. The weight is
+ * usually an estimate of the number of bytes the element occupies. It is computed once, when the
+ * element is put into memory.
+ * <p>
+ * Implementations need a public no-argument constructor and must be thread safe.
+ */
+public interface IElementWeigher
+{
+    /**
+     * Compute the weight of the element.
+     * <p>
+     * @param ce the cache element
+     * @return the weight, not negative
+     */
+    <K, V> long weigh( ICacheElement<K, V> ce );
+}
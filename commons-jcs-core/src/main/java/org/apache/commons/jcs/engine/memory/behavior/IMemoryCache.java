@@ -25,6 +25,7 @@ import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.stats.behavior.IStats;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -70,6 +71,15 @@ public interface IMemoryCache<K, V>
      */
     Set<K> getKeySet();
 
+    /**
+     * Get the keys of the elements the memory cache would keep longest, hottest first. This is
+     * used to remember the working set of a region across a restart.
+     * <p>
+     * @param max the maximum number of keys to return
+     * @return a list of at most max keys
+     */
+    List<K> getHottestKeys( int max );
+
     /**
      * Removes an item from the cache
      * <p>
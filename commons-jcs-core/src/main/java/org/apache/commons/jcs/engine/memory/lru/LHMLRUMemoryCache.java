@@ -20,7 +20,9 @@ package org.apache.commons.jcs.engine.memory.lru;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
@@ -126,6 +128,24 @@ public class LHMLRUMemoryCache<K, V>
         return stats;
     }
 
+    /**
+     * The spooler is in access order, eldest first, so the hottest keys are at the end.
+     * <p>
+     * @param max the maximum number of keys to return
+     * @return a list of at most max keys, most recently used first
+     */
+    @Override
+    public List<K> getHottestKeys( int max )
+    {
+        List<K> keys;
+        synchronized ( map )
+        {
+            keys = new ArrayList<K>( map.keySet() );
+        }
+        Collections.reverse( keys );
+        return keys.size() > max ? new ArrayList<K>( keys.subList( 0, max ) ) : keys;
+    }
+
     // ---------------------------------------------------------- debug methods
 
     /**
@@ -0,0 +1,314 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Direct memory divided into fixed size blocks. The memory is allocated in slabs of direct
+ * ByteBuffers as it is needed, up to the configured maximum. A record occupies as many blocks as
+ * it needs, the blocks do not have to be contiguous.
+ * <p>
+ * Reads take the read lock, allocating and freeing blocks take the write lock. A record that has
+ * been freed can no longer be read, so a reader never sees blocks that were handed to another
+ * record.
+ */
+public class OffHeapBlockStore
+{
+    /** Largest slab allocated at once */
+    private static final int MAX_SLAB_SIZE = 1 << 26;
+
+    /** Size of a block */
+    private final int blockSize;
+
+    /** Number of blocks in a slab */
+    private final int blocksPerSlab;
+
+    /** Maximum number of blocks */
+    private final int maxBlocks;
+
+    /** The slabs, allocated on demand */
+    private final ByteBuffer[] slabs;
+
+    /** Blocks that have been freed, used as a stack */
+    private int[] freeBlocks;
+
+    /** Number of entries in freeBlocks */
+    private int freeCount;
+
+    /** Blocks below this number have been handed out at least once */
+    private int nextBlock;
+
+    /** Guards the allocation state against concurrent reads */
+    private final ReentrantReadWriteLock storeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Create the store. No memory is allocated until the first record is written.
+     * <p>
+     * @param maxBytes the maximum number of bytes to allocate
+     * @param blockSize the size of a block
+     */
+    public OffHeapBlockStore( long maxBytes, int blockSize )
+    {
+        if ( blockSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Block size must be positive: " + blockSize );
+        }
+
+        this.blockSize = blockSize;
+        this.maxBlocks = (int) Math.min( Integer.MAX_VALUE, Math.max( 0, maxBytes / blockSize ) );
+        this.blocksPerSlab = Math.max( 1, Math.min( maxBlocks, MAX_SLAB_SIZE / blockSize ) );
+        this.slabs = new ByteBuffer[( maxBlocks + blocksPerSlab - 1 ) / blocksPerSlab];
+        this.freeBlocks = new int[16];
+    }
+
+    /**
+     * @param length the length of a record
+     * @return the number of blocks needed to store it
+     */
+    public int blocksNeeded( int length )
+    {
+        return Math.max( 1, ( length + blockSize - 1 ) / blockSize );
+    }
+
+    /**
+     * @param length the length of a record
+     * @return true if a record of this length can be stored once the store is empty
+     */
+    public boolean fits( int length )
+    {
+        return blocksNeeded( length ) <= maxBlocks;
+    }
+
+    /**
+     * Copy the data into free blocks.
+     * <p>
+     * @param data the serialized record
+     * @return the blocks holding the data, or null if there are not enough free blocks
+     */
+    public int[] write( byte[] data )
+    {
+        int needed = blocksNeeded( data.length );
+
+        storeLock.writeLock().lock();
+        try
+        {
+            if ( needed > getFreeBlockCount() )
+            {
+                return null;
+            }
+
+            int[] blocks = new int[needed];
+            for ( int i = 0; i < needed; i++ )
+            {
+                blocks[i] = allocateBlock();
+
+                int offset = i * blockSize;
+                ByteBuffer buffer = blockBuffer( blocks[i] );
+                buffer.put( data, offset, Math.min( blockSize, data.length - offset ) );
+            }
+            return blocks;
+        }
+        finally
+        {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copy the record out of direct memory.
+     * <p>
+     * @param descriptor the descriptor of the record
+     * @return the serialized record, or null if the record has been freed
+     */
+    public byte[] read( OffHeapElementDescriptor<?, ?> descriptor )
+    {
+        storeLock.readLock().lock();
+        try
+        {
+            int[] blocks = descriptor.getBlocks();
+            if ( blocks == null )
+            {
+                return null;
+            }
+
+            int length = descriptor.getLength();
+            byte[] data = new byte[length];
+            for ( int i = 0; i < blocks.length; i++ )
+            {
+                int offset = i * blockSize;
+                ByteBuffer buffer = blockBuffer( blocks[i] );
+                buffer.get( data, offset, Math.min( blockSize, length - offset ) );
+            }
+            return data;
+        }
+        finally
+        {
+            storeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the blocks of the record to the store. Does nothing if the record has already been
+     * freed.
+     * <p>
+     * @param descriptor the descriptor of the record
+     */
+    public void free( OffHeapElementDescriptor<?, ?> descriptor )
+    {
+        storeLock.writeLock().lock();
+        try
+        {
+            int[] blocks = descriptor.getBlocks();
+            if ( blocks == null )
+            {
+                return;
+            }
+            descriptor.clearBlocks();
+
+            if ( freeCount + blocks.length > freeBlocks.length )
+            {
+                int[] larger = new int[Math.max( freeBlocks.length * 2, freeCount + blocks.length )];
+                System.arraycopy( freeBlocks, 0, larger, 0, freeCount );
+                freeBlocks = larger;
+            }
+            System.arraycopy( blocks, 0, freeBlocks, freeCount, blocks.length );
+            freeCount += blocks.length;
+        }
+        finally
+        {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget all records and release the slabs. Descriptors written before must not be used
+     * afterwards.
+     */
+    public void clear()
+    {
+        storeLock.writeLock().lock();
+        try
+        {
+            for ( int i = 0; i < slabs.length; i++ )
+            {
+                slabs[i] = null;
+            }
+            freeBlocks = new int[16];
+            freeCount = 0;
+            nextBlock = 0;
+        }
+        finally
+        {
+            storeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Take a block from the free stack, or the next block that has never been used.
+     * <p>
+     * (guarded by the write lock)
+     * <p>
+     * @return the block number
+     */
+    private int allocateBlock()
+    {
+        if ( freeCount > 0 )
+        {
+            return freeBlocks[--freeCount];
+        }
+        return nextBlock++;
+    }
+
+    /**
+     * Get a buffer positioned at the start of the block and limited to its end. The buffer is a
+     * duplicate, so concurrent readers do not share a position.
+     * <p>
+     * @param block the block number
+     * @return the buffer
+     */
+    private ByteBuffer blockBuffer( int block )
+    {
+        int slabIndex = block / blocksPerSlab;
+        ByteBuffer slab = slabs[slabIndex];
+        if ( slab == null )
+        {
+            // only reached from write, under the write lock
+            int blocks = Math.min( blocksPerSlab, maxBlocks - slabIndex * blocksPerSlab );
+            slab = ByteBuffer.allocateDirect( blocks * blockSize );
+            slabs[slabIndex] = slab;
+        }
+
+        int start = ( block % blocksPerSlab ) * blockSize;
+        ByteBuffer buffer = slab.duplicate();
+        buffer.limit( start + blockSize );
+        buffer.position( start );
+        return buffer;
+    }
+
+    /**
+     * @return the number of blocks that can still be allocated
+     */
+    public int getFreeBlockCount()
+    {
+        return freeCount + maxBlocks - nextBlock;
+    }
+
+    /**
+     * @return the size of a block
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * @return the maximum number of blocks
+     */
+    public int getMaxBlocks()
+    {
+        return maxBlocks;
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated so far
+     */
+    public long getAllocatedBytes()
+    {
+        storeLock.readLock().lock();
+        try
+        {
+            long bytes = 0;
+            for ( ByteBuffer slab : slabs )
+            {
+                if ( slab != null )
+                {
+                    bytes += slab.capacity();
+                }
+            }
+            return bytes;
+        }
+        finally
+        {
+            storeLock.readLock().unlock();
+        }
+    }
+}
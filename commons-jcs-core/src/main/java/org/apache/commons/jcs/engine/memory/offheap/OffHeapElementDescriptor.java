@@ -0,0 +1,145 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+
+/**
+ * Describes an element stored in direct memory. The descriptor only keeps the location of the
+ * serialized element, the element itself is deserialized on every access.
+ */
+public class OffHeapElementDescriptor<K, V>
+    extends MemoryElementDescriptor<K, V>
+{
+    /** Don't change */
+    private static final long serialVersionUID = 4337236463391264357L;
+
+    /** The cache that wrote the element */
+    private final transient OffHeapMemoryCache<K, V> cache;
+
+    /** The key of the element */
+    private final K key;
+
+    /** Blocks holding the serialized element, null once freed */
+    private volatile int[] blocks;
+
+    /** Length of the serialized element */
+    private final int length;
+
+    /** Set on access, cleared when the clock hand passes */
+    private volatile boolean referenced;
+
+    /** Last access time of the element */
+    private volatile long lastAccessTime;
+
+    /**
+     * Constructs a usable OffHeapElementDescriptor.
+     * <p>
+     * @param cache the cache that wrote the element
+     * @param key the key of the element
+     * @param blocks the blocks holding the serialized element
+     * @param length the length of the serialized element
+     * @param lastAccessTime the last access time of the element
+     */
+    public OffHeapElementDescriptor( OffHeapMemoryCache<K, V> cache, K key, int[] blocks,
+        int length, long lastAccessTime )
+    {
+        super( null );
+        this.cache = cache;
+        this.key = key;
+        this.blocks = blocks;
+        this.length = length;
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    /**
+     * @return a copy of the element, or null if it has been removed meanwhile
+     */
+    @Override
+    public ICacheElement<K, V> getCacheElement()
+    {
+        return cache.readElement( this );
+    }
+
+    /**
+     * @return the key of the element
+     */
+    public K getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return the blocks holding the serialized element, null once freed
+     */
+    public int[] getBlocks()
+    {
+        return blocks;
+    }
+
+    /**
+     * Mark the blocks as freed.
+     */
+    protected void clearBlocks()
+    {
+        this.blocks = null;
+    }
+
+    /**
+     * @return the length of the serialized element
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return true if the element was accessed since the clock hand passed
+     */
+    public boolean isReferenced()
+    {
+        return referenced;
+    }
+
+    /**
+     * @param referenced the reference bit
+     */
+    public void setReferenced( boolean referenced )
+    {
+        this.referenced = referenced;
+    }
+
+    /**
+     * @return the last access time of the element
+     */
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+    /**
+     * @param lastAccessTime the last access time of the element
+     */
+    public void setLastAccessTime( long lastAccessTime )
+    {
+        this.lastAccessTime = lastAccessTime;
+    }
+}
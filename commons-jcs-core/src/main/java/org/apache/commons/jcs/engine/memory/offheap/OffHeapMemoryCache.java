@@ -0,0 +1,398 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.auxiliary.AbstractAuxiliaryCache;
+import org.apache.commons.jcs.auxiliary.AuxiliaryCache;
+import org.apache.commons.jcs.engine.CacheStatus;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheType.CacheType;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.jcs.utils.timing.Clock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A memory cache that keeps serialized elements in direct memory instead of on the heap. Only the
+ * key index and a small descriptor per element live on the heap, so large regions do not add to
+ * the garbage collector's work.
+ * <p>
+ * The direct memory is limited by OffHeapMaxBytes and divided into blocks of OffHeapBlockSizeBytes.
+ * The number of elements is limited by MaxObjects. When either limit is reached, elements are
+ * evicted using the CLOCK algorithm and spooled to disk like in the other memory caches. A hit
+ * only sets the reference bit of the element, so gets do not take the lock.
+ * <p>
+ * Elements are serialized with the serializer of the first disk cache of the region, or with the
+ * standard serializer if the region has none. Every get returns a fresh copy of the element.
+ */
+public class OffHeapMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( OffHeapMemoryCache.class );
+
+    /** The direct memory */
+    private OffHeapBlockStore store;
+
+    /** The elements in clock order, the hand points at the last element */
+    private DoubleLinkedList<OffHeapElementDescriptor<K, V>> clock;
+
+    /** The serializer, resolved on first use */
+    private volatile IElementSerializer elementSerializer;
+
+    /** Number of elements evicted to make room */
+    private AtomicLong evictedCnt;
+
+    /** Number of elements too large for the direct memory */
+    private AtomicLong tooLargeCnt;
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+        store = new OffHeapBlockStore( getCacheAttributes().getOffHeapMaxBytes(),
+                                       getCacheAttributes().getOffHeapBlockSizeBytes() );
+        clock = new DoubleLinkedList<OffHeapElementDescriptor<K, V>>();
+        evictedCnt = new AtomicLong( 0 );
+        tooLargeCnt = new AtomicLong( 0 );
+        log.info( "initialized Off Heap Memory Cache for " + getCacheName() );
+    }
+
+    /**
+     * @see org.apache.commons.jcs.engine.memory.AbstractMemoryCache#createMap()
+     */
+    @Override
+    public Map<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<K, MemoryElementDescriptor<K, V>>();
+    }
+
+    /**
+     * Serializes the element and copies it into direct memory, evicting elements until there is
+     * enough room. Elements larger than the whole direct memory are spooled right away.
+     * <p>
+     * @param ce the cache element
+     * @throws IOException if the element cannot be serialized
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        byte[] data = getElementSerializer().serialize( ce );
+        K key = ce.getKey();
+
+        lock.lock();
+        try
+        {
+            if ( !store.fits( data.length ) )
+            {
+                tooLargeCnt.incrementAndGet();
+                MemoryElementDescriptor<K, V> oldNode = map.remove( key );
+                if ( oldNode != null )
+                {
+                    lockedRemoveElement( oldNode );
+                }
+                waterfal( ce );
+                return;
+            }
+
+            int needed = store.blocksNeeded( data.length );
+            while ( store.getFreeBlockCount() < needed && clock.size() > 0 )
+            {
+                evictOne();
+            }
+
+            int[] blocks = store.write( data );
+            OffHeapElementDescriptor<K, V> newNode = new OffHeapElementDescriptor<K, V>(
+                this, key, blocks, data.length, ce.getElementAttributes().getLastAccessTime() );
+
+            MemoryElementDescriptor<K, V> oldNode = map.put( key, newNode );
+            if ( oldNode != null )
+            {
+                lockedRemoveElement( oldNode );
+            }
+            clock.addFirst( newNode );
+
+            int maxObjects = getCacheAttributes().getMaxObjects();
+            while ( map.size() > maxObjects && clock.size() > 0 )
+            {
+                evictOne();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advance the clock hand past all recently referenced elements, clearing their reference bit,
+     * and spool the first element that was not referenced.
+     * <p>
+     * (guarded by the lock)
+     */
+    private void evictOne()
+    {
+        OffHeapElementDescriptor<K, V> victim = clock.getLast();
+
+        // bounded, so that concurrent hits cannot keep the hand moving forever
+        for ( int i = clock.size(); i > 0 && victim.isReferenced(); i-- )
+        {
+            victim.setReferenced( false );
+            clock.makeFirst( victim );
+            victim = clock.getLast();
+        }
+
+        ICacheElement<K, V> ce = victim.getCacheElement();
+
+        if ( map.get( victim.getKey() ) == victim )
+        {
+            map.remove( victim.getKey() );
+        }
+        lockedRemoveElement( victim );
+        evictedCnt.incrementAndGet();
+
+        if ( ce != null )
+        {
+            waterfal( ce );
+        }
+    }
+
+    /**
+     * Set the reference bit and the last access time. Does not take the lock.
+     * <p>
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void recordAccess( MemoryElementDescriptor<K, V> me )
+    {
+        OffHeapElementDescriptor<K, V> node = (OffHeapElementDescriptor<K, V>) me;
+        node.setReferenced( true );
+        node.setLastAccessTime( Clock.currentTimeMillis() );
+    }
+
+    /**
+     * Update control structures after get
+     * (guarded by the lock)
+     * <p>
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedGetElement( MemoryElementDescriptor<K, V> me )
+    {
+        recordAccess( me );
+    }
+
+    /**
+     * Remove element from control structure and release its direct memory
+     * (guarded by the lock)
+     * <p>
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedRemoveElement( MemoryElementDescriptor<K, V> me )
+    {
+        OffHeapElementDescriptor<K, V> node = (OffHeapElementDescriptor<K, V>) me;
+        clock.remove( node );
+        store.free( node );
+    }
+
+    /**
+     * Removes all cached items from the cache control structures and releases the direct memory.
+     * (guarded by the lock)
+     */
+    @Override
+    protected void lockedRemoveAll()
+    {
+        for ( MemoryElementDescriptor<K, V> me : map.values() )
+        {
+            store.free( (OffHeapElementDescriptor<K, V>) me );
+        }
+        clock.removeAll();
+        store.clear();
+    }
+
+    /**
+     * Spools the given number of elements, chosen by the clock.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+
+        lock.lock();
+        try
+        {
+            for ( ; freed < numberToFree && clock.size() > 0; freed++ )
+            {
+                evictOne();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return freed;
+    }
+
+    /**
+     * Copy the element out of direct memory and deserialize it. The last access time of the copy
+     * is the last access time recorded by this cache.
+     * <p>
+     * @param node the descriptor of the element
+     * @return a copy of the element, or null if it has been removed meanwhile or cannot be read
+     */
+    protected ICacheElement<K, V> readElement( OffHeapElementDescriptor<K, V> node )
+    {
+        byte[] data = store.read( node );
+        if ( data == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            ICacheElement<K, V> ce = getElementSerializer().deSerialize( data, null );
+
+            IElementAttributes attr = ce.getElementAttributes();
+            if ( attr instanceof ElementAttributes )
+            {
+                ( (ElementAttributes) attr ).setLastAccessTime( node.getLastAccessTime() );
+            }
+
+            return ce;
+        }
+        catch ( IOException e )
+        {
+            log.error( getCacheName() + ": Failure deserializing element for key " + node.getKey(), e );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            log.error( getCacheName() + ": Failure deserializing element for key " + node.getKey(), e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Use the serializer of the first disk cache of the region. The auxiliaries are configured
+     * after the memory cache, so this is resolved on first use.
+     * <p>
+     * @return the serializer used for the direct memory
+     */
+    public IElementSerializer getElementSerializer()
+    {
+        if ( elementSerializer == null )
+        {
+            IElementSerializer serializer = null;
+            for ( AuxiliaryCache<K, V> aux : getCompositeCache().getAuxCaches() )
+            {
+                if ( aux instanceof AbstractAuxiliaryCache
+                    && aux.getCacheType() == CacheType.DISK_CACHE
+                    && aux.getStatus() == CacheStatus.ALIVE )
+                {
+                    serializer = ( (AbstractAuxiliaryCache<K, V>) aux ).getElementSerializer();
+                    break;
+                }
+            }
+
+            elementSerializer = serializer != null ? serializer : new StandardSerializer();
+        }
+
+        return elementSerializer;
+    }
+
+    /**
+     * Allows you to inject a serializer instead of the one of the disk cache. Must be called
+     * before the first element is put.
+     * <p>
+     * @param elementSerializer
+     */
+    public void setElementSerializer( IElementSerializer elementSerializer )
+    {
+        this.elementSerializer = elementSerializer;
+    }
+
+    /**
+     * Releases the direct memory.
+     * <p>
+     * @throws IOException
+     */
+    @Override
+    public void dispose()
+        throws IOException
+    {
+        super.dispose();
+        store.clear();
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as the size, put count,
+     * hit count, miss count and the usage of the direct memory.
+     * <p>
+     * @return statistics about the cache
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "Off Heap Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+
+        elems.add( new StatElement<Integer>( "Block Size", Integer.valueOf( store.getBlockSize() ) ) );
+        elems.add( new StatElement<Integer>( "Max Blocks", Integer.valueOf( store.getMaxBlocks() ) ) );
+        elems.add( new StatElement<Integer>( "Free Blocks", Integer.valueOf( store.getFreeBlockCount() ) ) );
+        elems.add( new StatElement<Long>( "Allocated Bytes", Long.valueOf( store.getAllocatedBytes() ) ) );
+        elems.add( new StatElement<AtomicLong>( "Evicted Count", evictedCnt ) );
+        elems.add( new StatElement<AtomicLong>( "Too Large Count", tooLargeCnt ) );
+
+        return stats;
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.commons.jcs.engine.memory.shrinking;
  * under the License.
  */
 
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
@@ -26,12 +27,17 @@ import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.control.event.behavior.ElementEventType;
 import org.apache.commons.jcs.engine.memory.behavior.IMemoryCache;
+import org.apache.commons.jcs.utils.struct.TimerWheel;
+import org.apache.commons.jcs.utils.timing.Clock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * A background memory shrinker. Memory problems and concurrent modification exception caused by
  * acting directly on an iterator of the underlying memory cache should have been solved.
+ * <p>
+ * If the region maintains an expiration index, each run only looks at the keys that are due
+ * according to the index. Otherwise every key in memory is checked.
  * @version $Id$
  */
 public class ShrinkerThread<K, V>
@@ -52,6 +58,9 @@ public class ShrinkerThread<K, V>
     /** Should we limit the number spooled per run. If so, the maxSpoolPerRun will be used. */
     private boolean spoolLimit = false;
 
+    /** The expiration index of the region, null to scan all keys */
+    private final TimerWheel<K> expirationIndex;
+
     /**
      * Constructor for the ShrinkerThread object.
      * <p>
@@ -80,6 +89,7 @@ public class ShrinkerThread<K, V>
             this.spoolLimit = true;
         }
 
+        this.expirationIndex = cache.getExpirationIndex();
     }
 
     /**
@@ -88,7 +98,90 @@ public class ShrinkerThread<K, V>
     @Override
     public void run()
     {
-        shrink();
+        if ( expirationIndex != null )
+        {
+            shrinkDue();
+        }
+        else
+        {
+            shrink();
+        }
+    }
+
+    /**
+     * Check the keys that are due according to the expiration index. The checks are the same as
+     * in shrink(). Keys that neither expire nor have been idle long enough, because they were
+     * accessed since they were scheduled, are scheduled again. If the spool limit is reached,
+     * idle keys are kept for the next run.
+     */
+    protected void shrinkDue()
+    {
+        IMemoryCache<K, V> memCache = cache.getMemoryCache();
+
+        try
+        {
+            long now = Clock.currentTimeMillis();
+            List<K> keys = expirationIndex.advance( now );
+
+            if ( log.isDebugEnabled() )
+            {
+                log.debug( "Shrinking memory cache for: " + this.cache.getCacheName() + ", due keys: " + keys.size() );
+            }
+
+            int spoolCount = 0;
+
+            for (K key : keys)
+            {
+                ICacheElement<K, V> cacheElement = memCache.getQuiet( key );
+
+                if ( cacheElement == null )
+                {
+                    // removed or spooled meanwhile
+                    continue;
+                }
+
+                if ( !cacheElement.getElementAttributes().getIsEternal()
+                    && cache.isExpired( cacheElement, now,
+                        ElementEventType.EXCEEDED_MAXLIFE_BACKGROUND,
+                        ElementEventType.EXCEEDED_IDLETIME_BACKGROUND ) )
+                {
+                    memCache.remove( key );
+                    continue;
+                }
+
+                if ( maxMemoryIdleTime != -1
+                    && cacheElement.getElementAttributes().getLastAccessTime() + maxMemoryIdleTime < now )
+                {
+                    if ( !spoolLimit || spoolCount < this.maxSpoolPerRun )
+                    {
+                        if ( log.isDebugEnabled() )
+                        {
+                            log.debug( "Exceeded memory idle time: " + key );
+                        }
+
+                        spoolCount++;
+                        memCache.remove( key );
+                        memCache.waterfal( cacheElement );
+                    }
+                    else
+                    {
+                        // try again in the next run
+                        expirationIndex.schedule( key, now );
+                    }
+                    continue;
+                }
+
+                long expirationTime = cache.getExpirationTime( cacheElement );
+                if ( expirationTime != Long.MAX_VALUE )
+                {
+                    expirationIndex.schedule( key, expirationTime );
+                }
+            }
+        }
+        catch ( Throwable t )
+        {
+            log.info( "Unexpected trouble in shrink cycle", t );
+        }
     }
 
     /**
@@ -142,7 +235,7 @@ public class ShrinkerThread<K, V>
 
                 boolean remove = false;
 
-                long now = System.currentTimeMillis();
+                long now = Clock.currentTimeMillis();
 
                 // If the element is not eternal, check if it should be
                 // removed and remove it if so.
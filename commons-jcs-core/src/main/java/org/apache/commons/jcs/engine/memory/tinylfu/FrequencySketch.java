@@ -0,0 +1,227 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A count-min sketch estimating how often a key has been seen recently.
+ * <p>
+ * Every long of the table holds sixteen 4-bit counters. A key maps to four counters in one long,
+ * one per hash function, and its frequency is the minimum of these counters. When the number of
+ * increments reaches the sample size, all counters are halved so that the sketch follows changes
+ * in popularity.
+ * <p>
+ * This class is not thread safe. The memory cache calls it while holding its lock.
+ */
+public class FrequencySketch
+{
+    /** Seeds for the four hash functions */
+    private static final long[] SEED = new long[] {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** Mask clearing the high bit of every counter after a shift */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** Mask selecting the low bit of every counter */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** Largest table, in longs */
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 30;
+
+    /** The counters */
+    private long[] table;
+
+    /** Mask to select a table index */
+    private int tableMask;
+
+    /** Number of increments after which the counters are halved */
+    private int sampleSize;
+
+    /** Number of increments since the last reset */
+    private int size;
+
+    /** Number of resets so far */
+    private long resetCount;
+
+    /**
+     * Create a sketch for a cache holding about the given number of elements.
+     * <p>
+     * @param maximumSize the expected maximum number of elements
+     */
+    public FrequencySketch( int maximumSize )
+    {
+        int maximum = Math.min( Math.max( maximumSize, 1 ), MAXIMUM_TABLE_SIZE );
+        int tableSize = 1;
+        while ( tableSize < maximum )
+        {
+            tableSize <<= 1;
+        }
+
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = maximumSize > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * Math.max( maximumSize, 1 );
+    }
+
+    /**
+     * Estimate how often the key has been seen.
+     * <p>
+     * @param key the key
+     * @return the estimated frequency, between 0 and 15
+     */
+    public int frequency( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            int count = (int) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0xfL );
+            frequency = Math.min( frequency, count );
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of the key. Halves all counters if the sample size is reached.
+     * <p>
+     * @param key the key
+     */
+    public void increment( Object key )
+    {
+        int hash = spread( key.hashCode() );
+        int start = ( hash & 3 ) << 2;
+
+        boolean added = false;
+        for ( int i = 0; i < 4; i++ )
+        {
+            added |= incrementAt( indexOf( hash, i ), start + i );
+        }
+
+        if ( added && ++size == sampleSize )
+        {
+            reset();
+        }
+    }
+
+    /**
+     * Forget all frequencies.
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < table.length; i++ )
+        {
+            table[i] = 0L;
+        }
+        size = 0;
+    }
+
+    /**
+     * Increment the counter j of table entry i unless it is at its maximum.
+     * <p>
+     * @param i the table index
+     * @param j the counter within the entry, between 0 and 15
+     * @return true if the counter was incremented
+     */
+    private boolean incrementAt( int i, int j )
+    {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ( ( table[i] & mask ) != mask )
+        {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halve all counters. Odd counters lose their remainder, which is subtracted from the size.
+     */
+    private void reset()
+    {
+        int count = 0;
+        for ( int i = 0; i < table.length; i++ )
+        {
+            count += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+        size = ( size >>> 1 ) - ( count >>> 2 );
+        resetCount++;
+    }
+
+    /**
+     * Table index of the key for the given hash function.
+     * <p>
+     * @param hash the spread hash of the key
+     * @param i the hash function
+     * @return the table index
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEED[i] ) * SEED[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    /**
+     * Apply a supplemental hash function to defend against poor quality hash codes.
+     * <p>
+     * @param x the hash code
+     * @return the spread hash
+     */
+    private static int spread( int x )
+    {
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        x = ( ( x >>> 16 ) ^ x ) * 0x45d9f3b;
+        return ( x >>> 16 ) ^ x;
+    }
+
+    /**
+     * @return the number of counters
+     */
+    public int getCounterCount()
+    {
+        return table.length * 16;
+    }
+
+    /**
+     * @return the number of increments after which the counters are halved
+     */
+    public int getSampleSize()
+    {
+        return sampleSize;
+    }
+
+    /**
+     * @return the number of increments since the last reset
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return the number of times the counters were halved
+     */
+    public long getResetCount()
+    {
+        return resetCount;
+    }
+}
@@ -0,0 +1,456 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.memory.util.TinyLFUElementDescriptor;
+import org.apache.commons.jcs.engine.memory.util.TinyLFUElementDescriptor.Queue;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.apache.commons.jcs.utils.struct.DoubleLinkedList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A memory cache using the W-TinyLFU policy. New elements enter a small LRU window. Elements
+ * leaving the window become candidates for the main space, which is a segmented LRU consisting of
+ * a probation and a protected segment. A candidate is only admitted if a frequency sketch
+ * estimates it to be more popular than the element the main space would evict for it.
+ * <p>
+ * Elements that are seen only once, for instance during a scan, therefore do not push popular
+ * elements out of memory. Evicted and rejected elements are spooled to disk like in the other
+ * memory caches.
+ */
+public class TinyLFUMemoryCache<K, V>
+    extends AbstractMemoryCache<K, V>
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( TinyLFUMemoryCache.class );
+
+    /** Percentage of maxObjects used for the admission window */
+    private static final int WINDOW_PERCENT = 1;
+
+    /** Percentage of the main space used for the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** Admission window, LRU */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> window;
+
+    /** Main space, elements not accessed since admission */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> probation;
+
+    /** Main space, elements accessed after admission */
+    private DoubleLinkedList<TinyLFUElementDescriptor<K, V>> protectedSegment;
+
+    /** Popularity estimate for admission */
+    private FrequencySketch sketch;
+
+    /** Number of window candidates admitted to the main space */
+    private AtomicLong admittedCnt;
+
+    /** Number of window candidates rejected in favour of the main space victim */
+    private AtomicLong rejectedCnt;
+
+    /**
+     * For post reflection creation initialization.
+     * <p>
+     * @param hub
+     */
+    @Override
+    public void initialize( CompositeCache<K, V> hub )
+    {
+        super.initialize( hub );
+        window = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        probation = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        protectedSegment = new DoubleLinkedList<TinyLFUElementDescriptor<K, V>>();
+        sketch = new FrequencySketch( getCacheAttributes().getMaxObjects() );
+        admittedCnt = new AtomicLong( 0 );
+        rejectedCnt = new AtomicLong( 0 );
+        log.info( "initialized TinyLFU Memory Cache for " + getCacheName() );
+    }
+
+    /**
+     * @see org.apache.commons.jcs.engine.memory.AbstractMemoryCache#createMap()
+     */
+    @Override
+    public Map<K, MemoryElementDescriptor<K, V>> createMap()
+    {
+        return new ConcurrentHashMap<K, MemoryElementDescriptor<K, V>>();
+    }
+
+    /**
+     * Puts an item to the cache. New items enter the admission window. If the region is full, the
+     * window candidate competes with the probation victim and the loser is spooled.
+     * <p>
+     * @param ce the cache element
+     * @throws IOException
+     */
+    @Override
+    public void update( ICacheElement<K, V> ce )
+        throws IOException
+    {
+        putCnt.incrementAndGet();
+
+        lock.lock();
+        try
+        {
+            final K key = ce.getKey();
+            sketch.increment( key );
+
+            TinyLFUElementDescriptor<K, V> newNode = new TinyLFUElementDescriptor<K, V>( ce );
+            MemoryElementDescriptor<K, V> oldNode = map.put( key, newNode );
+            if ( oldNode != null )
+            {
+                unlink( (TinyLFUElementDescriptor<K, V>) oldNode );
+            }
+            window.addFirst( newNode );
+
+            TinyLFUElementDescriptor<K, V> candidate = null;
+            if ( window.size() > getWindowMaximum() )
+            {
+                candidate = window.removeLast();
+                candidate.setQueue( Queue.PROBATION );
+                probation.addFirst( candidate );
+            }
+
+            evict( candidate );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Spool elements until the region fits into maxObjects. The candidate leaving the window, if
+     * any, is admitted only if it is estimated to be accessed more often than the probation victim.
+     * <p>
+     * (guarded by the lock)
+     * <p>
+     * @param candidate the element that just left the window, may be null
+     */
+    private void evict( TinyLFUElementDescriptor<K, V> candidate )
+    {
+        int maxObjects = getCacheAttributes().getMaxObjects();
+
+        while ( map.size() > maxObjects )
+        {
+            TinyLFUElementDescriptor<K, V> victim = probation.getLast();
+
+            if ( candidate != null && victim != null && candidate != victim )
+            {
+                K candidateKey = candidate.getCacheElement().getKey();
+                K victimKey = victim.getCacheElement().getKey();
+
+                if ( sketch.frequency( candidateKey ) > sketch.frequency( victimKey ) )
+                {
+                    admittedCnt.incrementAndGet();
+                }
+                else
+                {
+                    rejectedCnt.incrementAndGet();
+                    victim = candidate;
+                }
+                candidate = null;
+            }
+            else if ( victim == null )
+            {
+                victim = protectedSegment.getLast();
+                if ( victim == null )
+                {
+                    victim = window.getLast();
+                }
+                if ( victim == null )
+                {
+                    break;
+                }
+            }
+
+            spool( victim );
+        }
+    }
+
+    /**
+     * Remove the element from memory and send it to the disk cache.
+     * <p>
+     * (guarded by the lock)
+     * <p>
+     * @param me the element to spool
+     */
+    private void spool( TinyLFUElementDescriptor<K, V> me )
+    {
+        ICacheElement<K, V> ce = me.getCacheElement();
+        unlink( me );
+
+        if ( map.remove( ce.getKey() ) == null )
+        {
+            log.warn( "spool: remove failed for key: " + ce.getKey() );
+        }
+
+        waterfal( ce );
+    }
+
+    /**
+     * Remove the element from the queue it is linked into.
+     * <p>
+     * @param me the element
+     */
+    private void unlink( TinyLFUElementDescriptor<K, V> me )
+    {
+        switch ( me.getQueue() )
+        {
+            case WINDOW:
+                window.remove( me );
+                break;
+            case PROBATION:
+                probation.remove( me );
+                break;
+            default:
+                protectedSegment.remove( me );
+                break;
+        }
+    }
+
+    /**
+     * Record the access in the sketch and reorder the queues. A probation hit promotes the element
+     * to the protected segment, demoting the least recently used protected element if the segment
+     * is full.
+     * <p>
+     * (guarded by the lock)
+     * <p>
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedGetElement( MemoryElementDescriptor<K, V> me )
+    {
+        TinyLFUElementDescriptor<K, V> node = (TinyLFUElementDescriptor<K, V>) me;
+        K key = node.getCacheElement().getKey();
+        sketch.increment( key );
+
+        // the node may have been replaced or removed since it was looked up
+        if ( map.get( key ) != node )
+        {
+            return;
+        }
+
+        switch ( node.getQueue() )
+        {
+            case WINDOW:
+                window.makeFirst( node );
+                break;
+
+            case PROBATION:
+                probation.remove( node );
+                node.setQueue( Queue.PROTECTED );
+                protectedSegment.addFirst( node );
+
+                if ( protectedSegment.size() > getProtectedMaximum() )
+                {
+                    TinyLFUElementDescriptor<K, V> demoted = protectedSegment.removeLast();
+                    demoted.setQueue( Queue.PROBATION );
+                    probation.addFirst( demoted );
+                }
+                break;
+
+            default:
+                protectedSegment.makeFirst( node );
+                break;
+        }
+    }
+
+    /**
+     * Remove element from control structure
+     * (guarded by the lock)
+     * <p>
+     * @param me the memory element descriptor
+     */
+    @Override
+    protected void lockedRemoveElement( MemoryElementDescriptor<K, V> me )
+    {
+        unlink( (TinyLFUElementDescriptor<K, V>) me );
+    }
+
+    /**
+     * The protected segment holds the elements that were hit repeatedly, so it comes first,
+     * followed by the window and the probation segment. Each segment is walked from its most
+     * recently used end.
+     * <p>
+     * @param max the maximum number of keys to return
+     * @return a list of at most max keys
+     */
+    @Override
+    public List<K> getHottestKeys( int max )
+    {
+        List<K> keys = new ArrayList<K>( Math.min( max, map.size() ) );
+
+        lock.lock();
+        try
+        {
+            addKeys( protectedSegment, keys, max );
+            addKeys( window, keys, max );
+            addKeys( probation, keys, max );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return keys;
+    }
+
+    /**
+     * Adds the keys of a segment to the list until it holds max keys.
+     * (guarded by the lock)
+     * <p>
+     * @param segment the segment to walk
+     * @param keys the list to add to
+     * @param max the maximum size of the list
+     */
+    @SuppressWarnings("unchecked")
+    // No generics for public fields
+    private void addKeys( DoubleLinkedList<TinyLFUElementDescriptor<K, V>> segment, List<K> keys, int max )
+    {
+        for ( TinyLFUElementDescriptor<K, V> me = segment.getFirst(); me != null && keys.size() < max;
+            me = (TinyLFUElementDescriptor<K, V>) me.next )
+        {
+            keys.add( me.getCacheElement().getKey() );
+        }
+    }
+
+    /**
+     * Removes all cached items from the cache control structures.
+     * (guarded by the lock)
+     */
+    @Override
+    protected void lockedRemoveAll()
+    {
+        window.removeAll();
+        probation.removeAll();
+        protectedSegment.removeAll();
+        sketch.clear();
+    }
+
+    /**
+     * Spools the given number of elements, taking them from the end of the probation segment
+     * first, then from the protected segment and finally from the window.
+     * <p>
+     * @param numberToFree
+     * @return the number that were removed.
+     * @throws IOException
+     */
+    @Override
+    public int freeElements( int numberToFree )
+        throws IOException
+    {
+        int freed = 0;
+
+        lock.lock();
+        try
+        {
+            for ( ; freed < numberToFree; freed++ )
+            {
+                TinyLFUElementDescriptor<K, V> victim = probation.getLast();
+                if ( victim == null )
+                {
+                    victim = protectedSegment.getLast();
+                }
+                if ( victim == null )
+                {
+                    victim = window.getLast();
+                }
+                if ( victim == null )
+                {
+                    break;
+                }
+
+                spool( victim );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return freed;
+    }
+
+    /**
+     * @return the maximum size of the admission window
+     */
+    private int getWindowMaximum()
+    {
+        return Math.max( 1, getCacheAttributes().getMaxObjects() * WINDOW_PERCENT / 100 );
+    }
+
+    /**
+     * @return the maximum size of the protected segment
+     */
+    private int getProtectedMaximum()
+    {
+        int main = getCacheAttributes().getMaxObjects() - getWindowMaximum();
+        return Math.max( 0, main * PROTECTED_PERCENT / 100 );
+    }
+
+    /**
+     * This returns semi-structured information on the memory cache, such as the size, put count,
+     * hit count, miss count and the admission statistics.
+     * <p>
+     * @return statistics about the cache
+     */
+    @Override
+    public IStats getStatistics()
+    {
+        IStats stats = super.getStatistics();
+        stats.setTypeName( "TinyLFU Memory Cache" );
+
+        List<IStatElement<?>> elems = stats.getStatElements();
+
+        lock.lock();
+        try
+        {
+            elems.add( new StatElement<Integer>( "Window Size", Integer.valueOf( window.size() ) ) );
+            elems.add( new StatElement<Integer>( "Probation Size", Integer.valueOf( probation.size() ) ) );
+            elems.add( new StatElement<Integer>( "Protected Size", Integer.valueOf( protectedSegment.size() ) ) );
+            elems.add( new StatElement<Integer>( "Sketch Counters", Integer.valueOf( sketch.getCounterCount() ) ) );
+            elems.add( new StatElement<Integer>( "Sketch Sample Size", Integer.valueOf( sketch.getSampleSize() ) ) );
+            elems.add( new StatElement<Long>( "Sketch Resets", Long.valueOf( sketch.getResetCount() ) ) );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        elems.add( new StatElement<AtomicLong>( "Admitted Count", admittedCnt ) );
+        elems.add( new StatElement<AtomicLong>( "Rejected Count", rejectedCnt ) );
+
+        return stats;
+    }
+}
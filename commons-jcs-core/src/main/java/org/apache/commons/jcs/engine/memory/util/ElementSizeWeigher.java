@@ -0,0 +1,67 @@
+package org.apache.commons.jcs.engine.memory.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The default weigher. Uses the size set in the element attributes if there is one, otherwise
+ * the length of the serialized value.
+ */
+public class ElementSizeWeigher
+    implements IElementWeigher
+{
+    /** The logger. */
+    private static final Log log = LogFactory.getLog( ElementSizeWeigher.class );
+
+    /** Used to measure values without a size attribute */
+    private final IElementSerializer serializer = new StandardSerializer();
+
+    /**
+     * @param ce the cache element
+     * @return the size attribute or the serialized length of the value, 0 if neither is known
+     */
+    @Override
+    public <K, V> long weigh( ICacheElement<K, V> ce )
+    {
+        int size = ce.getElementAttributes() == null ? 0 : ce.getElementAttributes().getSize();
+        if ( size > 0 )
+        {
+            return size;
+        }
+
+        try
+        {
+            return serializer.serialize( ce.getVal() ).length;
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Could not measure value for key " + ce.getKey() + ", counting it as 0 bytes", e );
+            return 0;
+        }
+    }
+}
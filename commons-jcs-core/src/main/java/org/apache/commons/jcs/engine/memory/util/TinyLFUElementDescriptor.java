@@ -0,0 +1,75 @@
+package org.apache.commons.jcs.engine.memory.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * This wrapper remembers which of the W-TinyLFU queues the element is linked into.
+ */
+public class TinyLFUElementDescriptor<K, V>
+    extends MemoryElementDescriptor<K, V>
+{
+    /** Don't change */
+    private static final long serialVersionUID = 3521964185312847412L;
+
+    /** The queues of the W-TinyLFU memory cache */
+    public enum Queue
+    {
+        /** Admission window, recently added elements */
+        WINDOW,
+
+        /** Main space, elements accessed once since admission */
+        PROBATION,
+
+        /** Main space, elements accessed more than once */
+        PROTECTED
+    }
+
+    /** The queue this element currently belongs to */
+    private Queue queue;
+
+    /**
+     * Constructs a usable TinyLFUElementDescriptor.
+     * <p>
+     * @param ce
+     */
+    public TinyLFUElementDescriptor( ICacheElement<K, V> ce )
+    {
+        super( ce );
+        this.queue = Queue.WINDOW;
+    }
+
+    /**
+     * @return the queue this element belongs to
+     */
+    public Queue getQueue()
+    {
+        return queue;
+    }
+
+    /**
+     * @param queue the queue this element belongs to
+     */
+    public void setQueue( Queue queue )
+    {
+        this.queue = queue;
+    }
+}
@@ -0,0 +1,134 @@
+package org.apache.commons.jcs.engine.stats;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+
+/**
+ * Latency of the calls a region makes to one of its auxiliaries.
+ */
+public class AuxiliaryCallStats
+{
+    /** Name used in the statistics */
+    private final String name;
+
+    /** Number of completed calls */
+    private final AtomicLong callCount = new AtomicLong();
+
+    /** Total time of the completed calls */
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /** Longest completed call */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** Number of calls that were not waited for because they took too long */
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * @param name the name of the auxiliary
+     */
+    public AuxiliaryCallStats( String name )
+    {
+        this.name = name;
+    }
+
+    /**
+     * Record a completed call.
+     * <p>
+     * @param startNanos the System.nanoTime() at the start of the call
+     */
+    public void record( long startNanos )
+    {
+        long nanos = System.nanoTime() - startNanos;
+        callCount.incrementAndGet();
+        totalNanos.addAndGet( nanos );
+
+        long max = maxNanos.get();
+        while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) )
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Record a call that timed out.
+     */
+    public void recordTimeout()
+    {
+        timeoutCount.incrementAndGet();
+    }
+
+    /**
+     * @return the name of the auxiliary
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of completed calls
+     */
+    public long getCallCount()
+    {
+        return callCount.get();
+    }
+
+    /**
+     * @return the average time of a completed call in microseconds
+     */
+    public long getAverageMicros()
+    {
+        long count = callCount.get();
+        return count == 0 ? 0 : totalNanos.get() / count / 1000;
+    }
+
+    /**
+     * @return the longest completed call in microseconds
+     */
+    public long getMaxMicros()
+    {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * @return the number of calls that timed out
+     */
+    public long getTimeoutCount()
+    {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Add the statistics to the list.
+     * <p>
+     * @param elems the statistic elements of the region
+     */
+    public void addStatElements( List<IStatElement<?>> elems )
+    {
+        elems.add( new StatElement<Long>( name + " Call Count", Long.valueOf( getCallCount() ) ) );
+        elems.add( new StatElement<Long>( name + " Average Micros", Long.valueOf( getAverageMicros() ) ) );
+        elems.add( new StatElement<Long>( name + " Max Micros", Long.valueOf( getMaxMicros() ) ) );
+        elems.add( new StatElement<Long>( name + " Timeouts", Long.valueOf( getTimeoutCount() ) ) );
+    }
+}
@@ -0,0 +1,99 @@
+package org.apache.commons.jcs.io;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading the remaining bytes of a buffer, without copying them first. The
+ * position of the buffer moves as the stream is read.
+ */
+public class ByteBufferInputStream
+    extends InputStream
+{
+    /** The buffer to read */
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer the buffer to read from its position to its limit
+     */
+    public ByteBufferInputStream( ByteBuffer buffer )
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the next byte, or -1 at the limit of the buffer
+     */
+    @Override
+    public int read()
+    {
+        if ( !buffer.hasRemaining() )
+        {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * @param b the destination
+     * @param off the offset in the destination
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the limit of the buffer
+     */
+    @Override
+    public int read( byte[] b, int off, int len )
+    {
+        if ( len == 0 )
+        {
+            return 0;
+        }
+        if ( !buffer.hasRemaining() )
+        {
+            return -1;
+        }
+
+        int count = Math.min( len, buffer.remaining() );
+        buffer.get( b, off, count );
+        return count;
+    }
+
+    /**
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped
+     */
+    @Override
+    public long skip( long n )
+    {
+        int count = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+        buffer.position( buffer.position() + count );
+        return count;
+    }
+
+    /**
+     * @return the number of bytes left in the buffer
+     */
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
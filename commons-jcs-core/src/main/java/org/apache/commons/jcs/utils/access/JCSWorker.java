@@ -89,6 +89,10 @@ import org.apache.commons.logging.LogFactory;
  * time, the same query would happen multiple times on the database, and the
  * resulting object would get put into JCS multiple times.
  * <p>
+ * New code should use {@link org.apache.commons.jcs.access.behavior.ICacheAccess#get(Object,
+ * java.util.concurrent.Callable)} instead, which shares the work the same way for any key type
+ * and lets the waiting threads block on a future rather than on a shared monitor.
+ * <p>
  * @author Travis Savo
  */
 public class JCSWorker<K, V>
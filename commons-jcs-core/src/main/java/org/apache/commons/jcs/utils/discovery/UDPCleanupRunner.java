@@ -19,6 +19,7 @@ package org.apache.commons.jcs.utils.discovery;
  * under the License.
  */
 
+import org.apache.commons.jcs.utils.timing.Clock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -64,7 +65,7 @@ public class UDPCleanupRunner
     @Override
     public void run()
     {
-        long now = System.currentTimeMillis();
+        long now = Clock.currentTimeMillis();
 
         // iterate through the set
         // it is thread safe
@@ -34,6 +34,7 @@ import org.apache.commons.jcs.utils.discovery.UDPDiscoveryMessage.BroadcastType;
 import org.apache.commons.jcs.utils.threadpool.PoolConfiguration;
 import org.apache.commons.jcs.utils.threadpool.PoolConfiguration.WhenBlockedPolicy;
 import org.apache.commons.jcs.utils.threadpool.ThreadPoolManager;
+import org.apache.commons.jcs.utils.timing.Clock;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -347,7 +348,7 @@ public class UDPDiscoveryReceiver
             discoveredService.setServiceAddress( message.getHost() );
             discoveredService.setCacheNames( message.getCacheNames() );
             discoveredService.setServicePort( message.getPort() );
-            discoveredService.setLastHearFromTime( System.currentTimeMillis() );
+            discoveredService.setLastHearFromTime( Clock.currentTimeMillis() );
 
             // if this is a request message, have the service handle it and
             // return
@@ -26,6 +26,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
@@ -75,8 +76,23 @@ public class StandardSerializer
         throws IOException, ClassNotFoundException
     {
         ByteArrayInputStream bais = new ByteArrayInputStream( data );
-        BufferedInputStream bis = new BufferedInputStream( bais );
-        ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( bis, loader );
+        return deSerialize( new BufferedInputStream( bais ), loader );
+    }
+
+    /**
+     * Uses default de-serialization to read an object from a stream, for callers that can provide
+     * the data without copying it into a byte array first. The stream is closed.
+     * <p>
+     * @param in the serialized object
+     * @param loader the class loader to use, null for the context class loader
+     * @return Object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public <T> T deSerialize( InputStream in, ClassLoader loader )
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream ois = new ObjectInputStreamClassLoaderAware( in, loader );
         try
         {
             @SuppressWarnings("unchecked") // Need to cast from Object
@@ -0,0 +1,195 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A counting Bloom filter over 32 bit hash codes. It answers whether a hash may have been added,
+ * with no false negatives and a configurable rate of false positives. Unlike a plain Bloom
+ * filter, a hash can be removed again.
+ * <p>
+ * Every hash sets several one byte counters, picked by double hashing. A counter that reaches 255
+ * stays there, so a very crowded filter errs on the side of false positives. A hash must only be
+ * removed after it was added, removing anything else causes false negatives.
+ * <p>
+ * Four counters are packed into an int and updated with compare and set, so this class is thread
+ * safe without locking.
+ */
+public class CountingBloomFilter
+{
+    /** Value of a saturated counter */
+    private static final int MAX_COUNT = 0xff;
+
+    /** The counters, four per int */
+    private final AtomicIntegerArray counters;
+
+    /** The number of counters */
+    private final int counterCount;
+
+    /** The number of counters set per hash */
+    private final int hashCount;
+
+    /**
+     * Sizes the filter for the expected number of hashes and the rate of false positives.
+     * <p>
+     * @param expectedInsertions the number of hashes expected to be in the filter at once
+     * @param falsePositiveRate the accepted rate of false positives, between 0 and 1
+     */
+    public CountingBloomFilter( int expectedInsertions, double falsePositiveRate )
+    {
+        int n = Math.max( 1, expectedInsertions );
+        double p = Math.min( 0.5, Math.max( Double.MIN_NORMAL, falsePositiveRate ) );
+        long m = (long) Math.ceil( -n * Math.log( p ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+
+        this.counterCount = (int) Math.max( 64, Math.min( m, Integer.MAX_VALUE - 3 ) );
+        this.hashCount = Math.max( 1, (int) Math.round( (double) counterCount / n * Math.log( 2 ) ) );
+        this.counters = new AtomicIntegerArray( ( counterCount + 3 ) / 4 );
+    }
+
+    /**
+     * Adds a hash code.
+     * <p>
+     * @param hash
+     */
+    public void add( int hash )
+    {
+        int h1 = mix( hash );
+        int h2 = mix( h1 ) | 1;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            update( index( h1, h2, i ), 1 );
+        }
+    }
+
+    /**
+     * Removes a hash code added before.
+     * <p>
+     * @param hash
+     */
+    public void remove( int hash )
+    {
+        int h1 = mix( hash );
+        int h2 = mix( h1 ) | 1;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            update( index( h1, h2, i ), -1 );
+        }
+    }
+
+    /**
+     * @param hash
+     * @return false if the hash code was certainly not added, true if it may have been
+     */
+    public boolean mightContain( int hash )
+    {
+        int h1 = mix( hash );
+        int h2 = mix( h1 ) | 1;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            int index = index( h1, h2, i );
+            if ( ( counters.get( index >> 2 ) >>> ( ( index & 3 ) << 3 ) & MAX_COUNT ) == 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all hash codes. Additions and removals running at the same time may or may not
+     * survive.
+     */
+    public void clear()
+    {
+        for ( int i = 0; i < counters.length(); i++ )
+        {
+            counters.set( i, 0 );
+        }
+    }
+
+    /**
+     * @return the number of counters
+     */
+    public int getCounterCount()
+    {
+        return counterCount;
+    }
+
+    /**
+     * @return the number of counters set per hash
+     */
+    public int getHashCount()
+    {
+        return hashCount;
+    }
+
+    /**
+     * Adds one to or takes one from a counter. Saturated counters and, when taking, empty
+     * counters are left alone.
+     * <p>
+     * @param index the counter
+     * @param delta 1 or -1
+     */
+    private void update( int index, int delta )
+    {
+        int slot = index >> 2;
+        int shift = ( index & 3 ) << 3;
+        while ( true )
+        {
+            int packed = counters.get( slot );
+            int count = packed >>> shift & MAX_COUNT;
+            if ( count == MAX_COUNT || count == 0 && delta < 0 )
+            {
+                return;
+            }
+            if ( counters.compareAndSet( slot, packed, packed + ( delta << shift ) ) )
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param h1 the first hash
+     * @param h2 the second hash, odd
+     * @param i the number of the counter
+     * @return the index of the i-th counter of a hash
+     */
+    private int index( int h1, int h2, int i )
+    {
+        return ( ( h1 + i * h2 ) & Integer.MAX_VALUE ) % counterCount;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, so that close hash codes pick unrelated counters.
+     * <p>
+     * @param h
+     * @return the mixed hash
+     */
+    private static int mix( int h )
+    {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
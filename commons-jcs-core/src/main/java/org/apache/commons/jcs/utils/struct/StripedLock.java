@@ -0,0 +1,115 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, selected by the hash code of a key. Two operations on the same key always
+ * use the same lock, two operations on different keys will usually use different locks.
+ * <p>
+ * The number of stripes is rounded up to the next power of two.
+ */
+public class StripedLock
+{
+    /** The locks */
+    private final ReentrantLock[] locks;
+
+    /** Mask to select a stripe */
+    private final int mask;
+
+    /**
+     * Create a set of locks.
+     * <p>
+     * @param stripes the minimum number of locks
+     */
+    public StripedLock( int stripes )
+    {
+        int size = 1;
+        while ( size < stripes )
+        {
+            size <<= 1;
+        }
+
+        this.locks = new ReentrantLock[size];
+        for ( int i = 0; i < size; i++ )
+        {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the lock responsible for the given key.
+     * <p>
+     * @param key the key, may be null
+     * @return the lock for this key
+     */
+    public ReentrantLock getLock( Object key )
+    {
+        return locks[indexFor( key )];
+    }
+
+    /**
+     * Get the stripe index for the given key.
+     * <p>
+     * @param key the key, may be null
+     * @return an index between 0 and getStripes() - 1
+     */
+    public int indexFor( Object key )
+    {
+        int h = key == null ? 0 : key.hashCode();
+        // spread the bits, the same way HashMap does
+        h ^= ( h >>> 20 ) ^ ( h >>> 12 );
+        h ^= ( h >>> 7 ) ^ ( h >>> 4 );
+        return h & mask;
+    }
+
+    /**
+     * Acquire all locks in stripe order. Use this for operations that have to exclude every
+     * per-key operation, such as clearing a region.
+     */
+    public void lockAll()
+    {
+        for ( ReentrantLock lock : locks )
+        {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Release all locks acquired by lockAll().
+     */
+    public void unlockAll()
+    {
+        for ( int i = locks.length - 1; i >= 0; i-- )
+        {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * @return the number of locks
+     */
+    public int getStripes()
+    {
+        return locks.length;
+    }
+}
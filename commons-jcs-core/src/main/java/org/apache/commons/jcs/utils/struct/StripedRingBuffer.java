@@ -0,0 +1,191 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A set of bounded, lossy ring buffers. Many threads may offer elements concurrently, each thread
+ * is assigned to a stripe by its id. A single consumer drains all stripes. If a stripe is full or
+ * contended the element is rejected instead of blocking the producer.
+ * <p>
+ * The consumer must be serialized by the caller, e.g. by holding a lock while draining.
+ */
+public class StripedRingBuffer<E>
+{
+    /** The element was added */
+    public static final int SUCCESS = 0;
+
+    /** The element was added and the stripe is at least half full */
+    public static final int DRAIN_ADVISED = 1;
+
+    /** The element was rejected because the stripe is full */
+    public static final int FULL = 2;
+
+    /** The element was rejected because another producer won the race for the slot */
+    public static final int FAILED = 3;
+
+    /** The stripes */
+    private final Stripe<E>[] stripes;
+
+    /** Mask to select a stripe */
+    private final int stripeMask;
+
+    /** Capacity of each stripe, a power of two */
+    private final int capacity;
+
+    /**
+     * Create the buffer.
+     * <p>
+     * @param stripeCount the minimum number of stripes
+     * @param stripeCapacity the minimum capacity of each stripe
+     */
+    @SuppressWarnings("unchecked") // No generic arrays
+    public StripedRingBuffer( int stripeCount, int stripeCapacity )
+    {
+        int count = ceilingPowerOfTwo( stripeCount );
+        this.capacity = ceilingPowerOfTwo( stripeCapacity );
+        this.stripes = new Stripe[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            stripes[i] = new Stripe<E>( capacity );
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Offer an element to the stripe of the current thread.
+     * <p>
+     * @param e the element, not null
+     * @return SUCCESS, DRAIN_ADVISED, FULL or FAILED
+     */
+    public int offer( E e )
+    {
+        Stripe<E> stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+
+        long head = stripe.readCounter;
+        long tail = stripe.writeCounter.get();
+        long size = tail - head;
+        if ( size >= capacity )
+        {
+            return FULL;
+        }
+
+        if ( stripe.writeCounter.compareAndSet( tail, tail + 1 ) )
+        {
+            stripe.slots.lazySet( (int) tail & ( capacity - 1 ), e );
+            return size + 1 >= capacity >>> 1 ? DRAIN_ADVISED : SUCCESS;
+        }
+
+        return FAILED;
+    }
+
+    /**
+     * Move all published elements of all stripes to the collection. Must not be called
+     * concurrently.
+     * <p>
+     * @param target the collection receiving the elements
+     * @return the number of elements drained
+     */
+    public int drainTo( Collection<? super E> target )
+    {
+        int drained = 0;
+
+        for ( Stripe<E> stripe : stripes )
+        {
+            long head = stripe.readCounter;
+            long tail = stripe.writeCounter.get();
+
+            for ( ; head < tail; head++ )
+            {
+                int index = (int) head & ( capacity - 1 );
+                E e = stripe.slots.get( index );
+                if ( e == null )
+                {
+                    // the producer has not published the element yet
+                    break;
+                }
+
+                stripe.slots.lazySet( index, null );
+                target.add( e );
+                drained++;
+            }
+
+            stripe.readCounter = head;
+        }
+
+        return drained;
+    }
+
+    /**
+     * @return the number of stripes
+     */
+    public int getStripeCount()
+    {
+        return stripes.length;
+    }
+
+    /**
+     * @return the capacity of each stripe
+     */
+    public int getStripeCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @param value
+     * @return the smallest power of two equal to or larger than value
+     */
+    private static int ceilingPowerOfTwo( int value )
+    {
+        int result = 1;
+        while ( result < value )
+        {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    /**
+     * A single ring buffer.
+     */
+    private static final class Stripe<E>
+    {
+        /** The elements */
+        final AtomicReferenceArray<E> slots;
+
+        /** Next slot to write */
+        final AtomicLong writeCounter = new AtomicLong();
+
+        /** Next slot to read, only written by the consumer */
+        volatile long readCounter;
+
+        /**
+         * @param capacity
+         */
+        Stripe( int capacity )
+        {
+            this.slots = new AtomicReferenceArray<E>( capacity );
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel holding at most one deadline per key. Scheduling, rescheduling and
+ * cancelling a key take constant time. Advancing the wheel only touches the buckets whose time
+ * has passed, so the cost of a tick depends on the number of due keys, not on the number of
+ * scheduled keys.
+ * <p>
+ * The wheel has five levels. A bucket of the first level spans about one second, each further
+ * level spans 64 times more, and the last level holds everything due in more than about 198
+ * days. Keys of a bucket that has passed are either due, or are moved to a finer level.
+ * <p>
+ * Times are milliseconds. This class is thread safe.
+ */
+public class TimerWheel<K>
+{
+    /** Bucket span of each level is 1 &lt;&lt; SHIFT milliseconds */
+    private static final int[] SHIFT = { 10, 16, 22, 28, 34 };
+
+    /** Number of buckets of each level, powers of two */
+    private static final int[] BUCKETS = { 64, 64, 64, 64, 1 };
+
+    /** The buckets */
+    private final DoubleLinkedList<Node<K>>[][] wheel;
+
+    /** The node of every scheduled key */
+    private final Map<K, Node<K>> nodes = new HashMap<K, Node<K>>();
+
+    /** The time of the last advance */
+    private long currentTime;
+
+    /** Guards the wheel */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Create an empty wheel.
+     * <p>
+     * @param now the current time
+     */
+    @SuppressWarnings("unchecked") // No generic arrays
+    public TimerWheel( long now )
+    {
+        this.currentTime = now;
+        this.wheel = new DoubleLinkedList[SHIFT.length][];
+        for ( int i = 0; i < SHIFT.length; i++ )
+        {
+            wheel[i] = new DoubleLinkedList[BUCKETS[i]];
+            for ( int j = 0; j < BUCKETS[i]; j++ )
+            {
+                wheel[i][j] = new DoubleLinkedList<Node<K>>();
+            }
+        }
+    }
+
+    /**
+     * Schedule the key, replacing an earlier deadline of the same key. A deadline in the past is
+     * due at the next advance.
+     * <p>
+     * @param key the key
+     * @param deadline the time the key is due
+     */
+    public void schedule( K key, long deadline )
+    {
+        lock.lock();
+        try
+        {
+            Node<K> node = nodes.get( key );
+            if ( node == null )
+            {
+                node = new Node<K>( key );
+                nodes.put( key, node );
+            }
+            else
+            {
+                node.bucket.remove( node );
+            }
+
+            node.deadline = deadline;
+            link( node );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the key from the wheel.
+     * <p>
+     * @param key the key
+     * @return true if the key was scheduled
+     */
+    public boolean cancel( K key )
+    {
+        lock.lock();
+        try
+        {
+            Node<K> node = nodes.remove( key );
+            if ( node == null )
+            {
+                return false;
+            }
+
+            node.bucket.remove( node );
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move the wheel to the given time and remove all keys that are due.
+     * <p>
+     * @param now the current time
+     * @return the keys whose deadline is not after now
+     */
+    public List<K> advance( long now )
+    {
+        List<K> due = new ArrayList<K>();
+
+        lock.lock();
+        try
+        {
+            long previousTime = currentTime;
+            if ( now <= previousTime )
+            {
+                return due;
+            }
+            currentTime = now;
+
+            for ( int i = 0; i < SHIFT.length; i++ )
+            {
+                long previousTicks = previousTime >>> SHIFT[i];
+                long delta = ( now >>> SHIFT[i] ) - previousTicks;
+                if ( delta <= 0 )
+                {
+                    break;
+                }
+                expire( i, previousTicks, delta, due );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        return due;
+    }
+
+    /**
+     * Remove all keys.
+     */
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            for ( DoubleLinkedList<Node<K>>[] level : wheel )
+            {
+                for ( DoubleLinkedList<Node<K>> bucket : level )
+                {
+                    bucket.removeAll();
+                }
+            }
+            nodes.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of scheduled keys
+     */
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return nodes.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empty the buckets of a level that have passed. Due keys are collected, the others are
+     * linked into a finer level.
+     * <p>
+     * (guarded by the lock)
+     * <p>
+     * @param level the level
+     * @param previousTicks the tick of the level at the previous advance
+     * @param delta the number of ticks passed since then
+     * @param due receives the due keys
+     */
+    private void expire( int level, long previousTicks, long delta, List<K> due )
+    {
+        DoubleLinkedList<Node<K>>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        // include the bucket of the current tick, its keys move to a finer level
+        int steps = (int) Math.min( delta + 1, buckets.length );
+        int start = (int) ( previousTicks & mask );
+
+        for ( int i = start; i < start + steps; i++ )
+        {
+            DoubleLinkedList<Node<K>> bucket = buckets[i & mask];
+
+            // nodes may be linked into the same bucket again, at its head
+            for ( int count = bucket.size(); count > 0; count-- )
+            {
+                Node<K> node = bucket.removeLast();
+                if ( node.deadline <= currentTime )
+                {
+                    nodes.remove( node.getPayload() );
+                    due.add( node.getPayload() );
+                }
+                else
+                {
+                    link( node );
+                }
+            }
+        }
+    }
+
+    /**
+     * Link the node into the bucket matching its deadline.
+     * <p>
+     * (guarded by the lock)
+     * <p>
+     * @param node the node
+     */
+    private void link( Node<K> node )
+    {
+        long time = Math.max( node.deadline, currentTime );
+        long duration = time - currentTime;
+
+        int level = SHIFT.length - 1;
+        for ( int i = 0; i < SHIFT.length - 1; i++ )
+        {
+            if ( duration < 1L << SHIFT[i + 1] )
+            {
+                level = i;
+                break;
+            }
+        }
+
+        int index = (int) ( ( time >>> SHIFT[level] ) & ( BUCKETS[level] - 1 ) );
+        node.bucket = wheel[level][index];
+        node.bucket.addFirst( node );
+    }
+
+    /**
+     * A scheduled key.
+     */
+    private static class Node<K>
+        extends DoubleLinkedListNode<K>
+    {
+        /** Don't change */
+        private static final long serialVersionUID = 2470512498355474207L;
+
+        /** The time the key is due */
+        long deadline;
+
+        /** The bucket the node is linked into */
+        transient DoubleLinkedList<Node<K>> bucket;
+
+        /**
+         * @param key the key
+         */
+        Node( K key )
+        {
+            super( key );
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.commons.jcs.utils.timing;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.utils.timing.behavior.IClock;
+
+/**
+ * The clock used by the engine and the auxiliaries. It reads the system clock unless another
+ * clock is set, for instance a {@link CoarseClock} through the jcs.clock property of the
+ * configuration, or a fixed clock in a test.
+ */
+public final class Clock
+{
+    /** The current clock */
+    private static volatile IClock clock = new SystemClock();
+
+    /**
+     * Static access only.
+     */
+    private Clock()
+    {
+        // no instances
+    }
+
+    /**
+     * @return the current time in milliseconds according to the clock
+     */
+    public static long currentTimeMillis()
+    {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * @return a time in nanoseconds for measuring durations according to the clock
+     */
+    public static long nanoTime()
+    {
+        return clock.nanoTime();
+    }
+
+    /**
+     * Replace the clock. A replaced CoarseClock is disposed.
+     * <p>
+     * @param newClock the clock to use, null to go back to the system clock
+     */
+    public static synchronized void setClock( IClock newClock )
+    {
+        IClock oldClock = clock;
+        clock = newClock != null ? newClock : new SystemClock();
+
+        if ( oldClock != clock && oldClock instanceof CoarseClock )
+        {
+            ( (CoarseClock) oldClock ).dispose();
+        }
+    }
+
+    /**
+     * @return the clock in use
+     */
+    public static IClock getClock()
+    {
+        return clock;
+    }
+}
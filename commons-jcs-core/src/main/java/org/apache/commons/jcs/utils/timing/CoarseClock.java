@@ -0,0 +1,120 @@
+package org.apache.commons.jcs.utils.timing;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.utils.timing.behavior.IClock;
+
+/**
+ * A clock that reads the system clock once per tick on a daemon thread. Reads only return the
+ * cached values, which makes them very cheap, at the cost of being up to TickMillis late.
+ * <p>
+ * The ticker thread starts when the clock is created and stops when it is disposed.
+ */
+public class CoarseClock
+    implements IClock, Runnable
+{
+    /** Default time between two reads of the system clock */
+    private static final long DEFAULT_TICK_MILLIS = 10;
+
+    /** Time between two reads of the system clock */
+    private volatile long tickMillis = DEFAULT_TICK_MILLIS;
+
+    /** The cached System.currentTimeMillis() */
+    private volatile long currentTimeMillis = System.currentTimeMillis();
+
+    /** The cached System.nanoTime() */
+    private volatile long nanoTime = System.nanoTime();
+
+    /** Set to stop the ticker */
+    private volatile boolean disposed;
+
+    /**
+     * Create the clock and start the ticker.
+     */
+    public CoarseClock()
+    {
+        Thread ticker = new Thread( this, "JCS-CoarseClock" );
+        ticker.setDaemon( true );
+        ticker.start();
+    }
+
+    /**
+     * Update the cached values until the clock is disposed.
+     */
+    @Override
+    public void run()
+    {
+        while ( !disposed )
+        {
+            try
+            {
+                Thread.sleep( tickMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                return;
+            }
+            currentTimeMillis = System.currentTimeMillis();
+            nanoTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return the system time at the last tick
+     */
+    @Override
+    public long currentTimeMillis()
+    {
+        return currentTimeMillis;
+    }
+
+    /**
+     * @return the nano time at the last tick
+     */
+    @Override
+    public long nanoTime()
+    {
+        return nanoTime;
+    }
+
+    /**
+     * Stop the ticker. The clock keeps returning the time of the last tick.
+     */
+    public void dispose()
+    {
+        disposed = true;
+    }
+
+    /**
+     * @param tickMillis the time between two reads of the system clock
+     */
+    public void setTickMillis( long tickMillis )
+    {
+        this.tickMillis = Math.max( 1, tickMillis );
+    }
+
+    /**
+     * @return the time between two reads of the system clock
+     */
+    public long getTickMillis()
+    {
+        return tickMillis;
+    }
+}
@@ -0,0 +1,37 @@
+package org.apache.commons.jcs.utils.timing.behavior;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * A source of time. All the time reads of the engine and the auxiliaries that decide expiration go
+ * through the clock set in {@link org.apache.commons.jcs.utils.timing.Clock}.
+ */
+public interface IClock
+{
+    /**
+     * @return the current time in milliseconds, like System.currentTimeMillis()
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return a time in nanoseconds for measuring durations, like System.nanoTime()
+     */
+    long nanoTime();
+}
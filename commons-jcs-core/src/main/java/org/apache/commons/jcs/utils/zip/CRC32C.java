@@ -0,0 +1,149 @@
+package org.apache.commons.jcs.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as used by iSCSI and ext4. It detects more error patterns than
+ * CRC-32 and is computed eight bytes at a time with the slicing-by-8 tables.
+ * <p>
+ * Not thread safe, use one instance per thread.
+ */
+public final class CRC32C
+    implements Checksum
+{
+    /** The reflected Castagnoli polynomial */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /** Lookup tables, TABLES[0] is the byte-wise table */
+    private static final int[][] TABLES = new int[8][256];
+
+    static
+    {
+        for ( int i = 0; i < 256; i++ )
+        {
+            int crc = i;
+            for ( int bit = 0; bit < 8; bit++ )
+            {
+                crc = ( crc & 1 ) != 0 ? ( crc >>> 1 ) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for ( int t = 1; t < 8; t++ )
+        {
+            for ( int i = 0; i < 256; i++ )
+            {
+                int previous = TABLES[t - 1][i];
+                TABLES[t][i] = ( previous >>> 8 ) ^ TABLES[0][previous & 0xFF];
+            }
+        }
+    }
+
+    /** The inverted running checksum */
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * @param b the byte to add
+     */
+    @Override
+    public void update( int b )
+    {
+        crc = ( crc >>> 8 ) ^ TABLES[0][( crc ^ b ) & 0xFF];
+    }
+
+    /**
+     * @param b the bytes to add
+     * @param off the start of the bytes
+     * @param len the number of bytes
+     */
+    @Override
+    public void update( byte[] b, int off, int len )
+    {
+        int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+        int c = crc;
+        int end = off + len;
+
+        while ( end - off >= 8 )
+        {
+            c ^= ( b[off] & 0xFF ) | ( b[off + 1] & 0xFF ) << 8 | ( b[off + 2] & 0xFF ) << 16 | ( b[off + 3] & 0xFF ) << 24;
+            c = t7[c & 0xFF] ^ t6[( c >>> 8 ) & 0xFF] ^ t5[( c >>> 16 ) & 0xFF] ^ t4[c >>> 24]
+                ^ t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF] ^ t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while ( off < end )
+        {
+            c = ( c >>> 8 ) ^ t0[( c ^ b[off++] ) & 0xFF];
+        }
+
+        crc = c;
+    }
+
+    /**
+     * @param b the bytes to add
+     */
+    public void update( byte[] b )
+    {
+        update( b, 0, b.length );
+    }
+
+    /**
+     * Adds the remaining bytes of a buffer. The position of the buffer is moved to its limit.
+     * <p>
+     * @param buffer the bytes to add
+     */
+    public void update( ByteBuffer buffer )
+    {
+        if ( buffer.hasArray() )
+        {
+            update( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+            buffer.position( buffer.limit() );
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min( buffer.remaining(), 8192 )];
+        while ( buffer.hasRemaining() )
+        {
+            int len = Math.min( chunk.length, buffer.remaining() );
+            buffer.get( chunk, 0, len );
+            update( chunk, 0, len );
+        }
+    }
+
+    /**
+     * @return the checksum of the bytes added since the last reset
+     */
+    @Override
+    public long getValue()
+    {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Starts a new checksum.
+     */
+    @Override
+    public void reset()
+    {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -22,6 +22,9 @@ package org.apache.commons.jcs.access;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.jcs.JCS;
 import org.apache.commons.jcs.access.exception.CacheException;
@@ -353,4 +356,165 @@ public class CacheAccessUnitTest
             assertTrue( "Should be a cache element.", value instanceof ICacheElement );
         }
     }
+
+    /**
+     * Verify that concurrent misses on the same key run the loader only once, even when each
+     * caller has its own handle to the region.
+     * @throws Exception
+     */
+    public void testGetWithLoader_SingleFlight()
+        throws Exception
+    {
+        // SETUP
+        final CacheAccess<String, String> access = JCS.getInstance( "testGetWithLoader_SingleFlight" );
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final Callable<String> loader = new Callable<String>()
+        {
+            @Override
+            public String call()
+                throws Exception
+            {
+                loads.incrementAndGet();
+                release.await();
+                return "loaded";
+            }
+        };
+
+        int numThreads = 20;
+        final String[] results = new String[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for ( int i = 0; i < numThreads; i++ )
+        {
+            final int index = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    CacheAccess<String, String> handle = JCS.getInstance( "testGetWithLoader_SingleFlight" );
+                    results[index] = handle.get( "hotkey", loader );
+                }
+            };
+            threads[i].start();
+        }
+
+        // DO WORK
+        Thread.sleep( 200 );
+        release.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        // VERIFY
+        assertEquals( "Loader should run once", 1, loads.get() );
+        for ( String result : results )
+        {
+            assertEquals( "Wrong value returned.", "loaded", result );
+        }
+        assertEquals( "Value should be cached.", "loaded", access.get( "hotkey" ) );
+    }
+
+    /**
+     * Verify that a miss with a loader looks the key up in the region only once.
+     * @throws Exception
+     */
+    public void testGetWithLoader_CountsOneMiss()
+        throws Exception
+    {
+        // SETUP
+        CacheAccess<String, String> access = JCS.getInstance( "testGetWithLoader_CountsOneMiss" );
+        int misses = access.getCacheControl().getMissCountNotFound();
+
+        // DO WORK
+        String result = access.get( "key", new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "value";
+            }
+        } );
+
+        // VERIFY
+        assertEquals( "Wrong value returned.", "value", result );
+        assertEquals( "Wrong number of misses.", misses + 1, access.getCacheControl().getMissCountNotFound() );
+    }
+
+    /**
+     * Verify that a failing loader propagates its failure and that the next call loads again.
+     * @throws Exception
+     */
+    public void testGetWithLoader_FailureNotCached()
+        throws Exception
+    {
+        // SETUP
+        CacheAccess<String, String> access = JCS.getInstance( "testGetWithLoader_FailureNotCached" );
+        final IllegalStateException failure = new IllegalStateException( "database down" );
+
+        // DO WORK
+        try
+        {
+            access.get( "key", new Callable<String>()
+            {
+                @Override
+                public String call()
+                {
+                    throw failure;
+                }
+            } );
+            fail( "We should have received an exception from the loader." );
+        }
+        catch ( CacheException e )
+        {
+            assertSame( "Wrong cause.", failure, e.getCause() );
+        }
+
+        String result = access.get( "key", new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "value";
+            }
+        } );
+
+        // VERIFY
+        assertEquals( "Wrong value returned.", "value", result );
+        assertEquals( "Value should be cached.", "value", access.get( "key" ) );
+    }
+
+    /**
+     * Verify that a null key is rejected before the loader runs.
+     * @throws Exception
+     */
+    public void testGetWithLoader_NullKey()
+        throws Exception
+    {
+        // SETUP
+        CacheAccess<String, String> access = JCS.getInstance( "test" );
+        final AtomicInteger loads = new AtomicInteger();
+
+        // DO WORK
+        try
+        {
+            access.get( null, new Callable<String>()
+            {
+                @Override
+                public String call()
+                {
+                    loads.incrementAndGet();
+                    return "value";
+                }
+            } );
+            fail( "Should not have been able to load a null key." );
+        }
+        catch ( CacheException e )
+        {
+            // VERIFY
+            assertTrue( "Should have the word null in the error message.", e.getMessage().indexOf( "null" ) != -1 );
+        }
+        assertEquals( "Loader should not run", 0, loads.get() );
+    }
 }
@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 
@@ -37,6 +38,7 @@ import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.ElementAttributes;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 
 /** Tests for the abstract disk cache. It's largely tested by actual instances. */
@@ -166,6 +168,342 @@ public class AbstractDiskCacheUnitTest
         assertNull( "Item should not be in the map.", diskCache.get( key ) );
     }
 
+    /**
+     * Verify that the key filter keeps gets of missing keys from disk, and follows puts and
+     * removes.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeyFilter_SkipsMisses()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testKeyFilter_SkipsMisses";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setUseKeyFilter( true );
+        diskCacheAttributes.setKeyFilterExpectedKeys( 1000 );
+
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "key" + i, "value" + i ) );
+        }
+        for ( int i = 0; i < 50 && diskCache.getSize() < 100; i++ )
+        {
+            Thread.sleep( 20 );
+        }
+        diskCache.processGetCount = 0;
+
+        // DO WORK
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertNull( "Should not be found", diskCache.get( "missing" + i ) );
+        }
+
+        // VERIFY
+        assertTrue( "Most misses should not reach the disk: " + diskCache.processGetCount, diskCache.processGetCount < 100 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNotNull( "Should be found " + i, diskCache.get( "key" + i ) );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < 100; i++ )
+        {
+            diskCache.remove( "key" + i );
+        }
+        diskCache.processGetCount = 0;
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNull( "Should be removed", diskCache.get( "key" + i ) );
+        }
+
+        // VERIFY
+        assertTrue( "Removed keys should not reach the disk: " + diskCache.processGetCount, diskCache.processGetCount < 20 );
+        assertTrue( "The key filter should be in use: " + diskCache.getStats(), diskCache.getStats().indexOf( "Key Filter Ready = true" ) >= 0 );
+    }
+
+    /**
+     * Verify that a key written twice and removed once is gone from the key filter.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeyFilter_PutPutRemove()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testKeyFilter_PutPutRemove";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setUseKeyFilter( true );
+        diskCacheAttributes.setKeyFilterExpectedKeys( 1000 );
+
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+
+        // DO WORK
+        for ( int i = 0; i < 2; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "key", "value" + i ) );
+            for ( int j = 0; j < 50 && diskCache.processUpdateCount < i + 1; j++ )
+            {
+                Thread.sleep( 20 );
+            }
+            // wait for the element to leave purgatory
+            Thread.sleep( 50 );
+        }
+        assertEquals( "Both puts should be written", 2, diskCache.processUpdateCount );
+        diskCache.remove( "key" );
+        diskCache.processGetCount = 0;
+
+        // VERIFY
+        assertNull( "Should be removed", diskCache.get( "key" ) );
+        assertEquals( "The removed key should not reach the disk", 0, diskCache.processGetCount );
+        assertTrue( "Should count the skip: " + diskCache.getStats(), diskCache.getStats().indexOf( "Key Filter Skips = 1" ) >= 0 );
+    }
+
+    /**
+     * Verify that the key filter is loaded with the keys on disk when the cache becomes alive, and
+     * again after a remove all.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeyFilter_LoadedOnStartup()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testKeyFilter_LoadedOnStartup";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setUseKeyFilter( true );
+        diskCacheAttributes.setAllowRemoveAll( true );
+
+        Map<String, ICacheElement<String, String>> contents = new HashMap<String, ICacheElement<String, String>>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            contents.put( "key" + i, new CacheElement<String, String>( cacheName, "key" + i, "value" + i ) );
+        }
+
+        // DO WORK
+        AbstractDiskCacheTestInstance<String, String> diskCache =
+            new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes, contents );
+
+        // VERIFY
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNotNull( "Should be found " + i, diskCache.get( "key" + i ) );
+        }
+
+        // DO WORK
+        diskCache.removeAll();
+        diskCache.processGetCount = 0;
+
+        // VERIFY
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNull( "Should be removed", diskCache.get( "key" + i ) );
+        }
+        assertTrue( "Removed keys should not reach the disk: " + diskCache.processGetCount, diskCache.processGetCount < 20 );
+    }
+
+    /**
+     * Verify that a key updated many times while its put waits in the queue is written once, with
+     * the latest value, and that a remove cancels the waiting put of its key.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_CoalescesPuts()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testUpdate_CoalescesPuts";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+        CountDownLatch gate = new CountDownLatch( 1 );
+        diskCache.updateGate = gate;
+
+        // DO WORK
+        // holds up the queue
+        diskCache.update( new CacheElement<String, String>( cacheName, "first", "first" ) );
+        for ( int i = 0; i < 50; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "key", "value" + i ) );
+        }
+        diskCache.update( new CacheElement<String, String>( cacheName, "removed", "removed" ) );
+        diskCache.remove( "removed" );
+        assertEquals( "Purgatory should have the latest value", "value49", diskCache.get( "key" ).getVal() );
+        gate.countDown();
+        for ( int i = 0; i < 50 && diskCache.processUpdateCount < 2; i++ )
+        {
+            Thread.sleep( 20 );
+        }
+        Thread.sleep( 100 );
+
+        // VERIFY
+        assertEquals( "Wrong number of writes", 2, diskCache.processUpdateCount );
+        assertEquals( "Wrong value on disk", "value49", diskCache.map.get( "key" ).getVal() );
+        assertNull( "Removed key should not be written", diskCache.map.get( "removed" ) );
+        String stats = diskCache.getStats();
+        assertTrue( "Should report the coalesced puts: " + stats, stats.indexOf( "Coalesced Puts = 49" ) >= 0 );
+    }
+
+    /**
+     * Verify that a full purgatory evicts its oldest puts.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_PurgatoryLimit()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testUpdate_PurgatoryLimit";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setMaxPurgatorySize( 10 );
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+        CountDownLatch gate = new CountDownLatch( 1 );
+        diskCache.updateGate = gate;
+
+        // DO WORK
+        diskCache.update( new CacheElement<String, String>( cacheName, "first", "first" ) );
+        // wait for the first put to be taken, it is never evicted but counts against the limit
+        Thread.sleep( 100 );
+        for ( int i = 0; i < 100; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "key" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < 100; i++ )
+        {
+            ICacheElement<String, String> element = diskCache.get( "key" + i );
+            if ( i < 91 )
+            {
+                assertNull( "Old put should be evicted " + i, element );
+            }
+            else
+            {
+                assertNotNull( "New put should be in purgatory " + i, element );
+            }
+        }
+        assertNotNull( "Put being written should be in purgatory", diskCache.get( "first" ) );
+        gate.countDown();
+    }
+
+    /**
+     * Verify that many updates of one key do not make the older puts unevictable.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_PurgatoryLimitWithSupersededPuts()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testUpdate_PurgatoryLimitWithSupersededPuts";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setMaxPurgatorySize( 10 );
+        AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+        CountDownLatch gate = new CountDownLatch( 1 );
+        diskCache.updateGate = gate;
+
+        // DO WORK
+        diskCache.update( new CacheElement<String, String>( cacheName, "first", "first" ) );
+        // wait for the first put to be taken, it is never evicted but counts against the limit
+        Thread.sleep( 100 );
+        for ( int i = 0; i < 5; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "old" + i, "value" + i ) );
+        }
+        // superseded puts fill the order well past twice the limit
+        for ( int i = 0; i < 30; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "hot", "value" + i ) );
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            diskCache.update( new CacheElement<String, String>( cacheName, "new" + i, "value" + i ) );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertNull( "Old put should be evicted " + i, diskCache.get( "old" + i ) );
+        }
+        assertNull( "Hot put should be evicted", diskCache.get( "hot" ) );
+        assertNull( "Oldest new put should be evicted", diskCache.get( "new0" ) );
+        for ( int i = 1; i < 10; i++ )
+        {
+            assertNotNull( "New put should be in purgatory " + i, diskCache.get( "new" + i ) );
+        }
+        assertNotNull( "Put being written should be in purgatory", diskCache.get( "first" ) );
+        gate.countDown();
+    }
+
+    /**
+     * Verify that a disk cache on a full ring queue configured to drop the oldest put waits
+     * instead, so that every put reaches the disk and later puts of its key are written too.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_RingQueueDoesNotDropPuts()
+        throws Exception
+    {
+        // SETUP
+        final String cacheName = "testUpdate_RingQueueDoesNotDropPuts";
+        IDiskCacheAttributes diskCacheAttributes = new IndexedDiskCacheAttributes();
+        diskCacheAttributes.setCacheName( cacheName );
+        diskCacheAttributes.setEventQueueType( ICacheEventQueue.QueueType.RING );
+        diskCacheAttributes.setEventQueueCapacity( 4 );
+        diskCacheAttributes.setEventQueueOverflowPolicy( ICacheEventQueue.OverflowPolicy.DROP_OLDEST );
+        final AbstractDiskCacheTestInstance<String, String> diskCache = new AbstractDiskCacheTestInstance<String, String>( diskCacheAttributes );
+        CountDownLatch gate = new CountDownLatch( 1 );
+        diskCache.updateGate = gate;
+
+        // DO WORK
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0; i < 10; i++ )
+                    {
+                        diskCache.update( new CacheElement<String, String>( cacheName, "key" + i, "value" + i ) );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    // the test fails on the missing keys
+                }
+            }
+        };
+        producer.start();
+        Thread.sleep( 200 );
+        assertTrue( "The producer should wait for the full ring", producer.isAlive() );
+        gate.countDown();
+        producer.join( 5000 );
+        diskCache.update( new CacheElement<String, String>( cacheName, "key1", "again" ) );
+        for ( int i = 0; i < 50 && diskCache.processUpdateCount < 11; i++ )
+        {
+            Thread.sleep( 20 );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong number of writes", 11, diskCache.processUpdateCount );
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertNotNull( "Put should be on disk " + i, diskCache.map.get( "key" + i ) );
+        }
+        assertEquals( "Later put should be on disk", "again", diskCache.map.get( "key1" ).getVal() );
+        String stats = diskCache.getStats();
+        assertTrue( "Should block: " + stats, stats.indexOf( "Overflow Policy = BLOCK" ) >= 0 );
+        assertTrue( "Should drop nothing: " + stats, stats.indexOf( "Dropped Events = 0" ) >= 0 );
+    }
+
     /** Concrete, testable instance. */
     protected static class AbstractDiskCacheTestInstance<K, V>
         extends AbstractDiskCache<K, V>
@@ -176,15 +514,36 @@ public class AbstractDiskCacheUnitTest
         /** used by the abstract aux class */
         protected IDiskCacheAttributes diskCacheAttributes;
 
+        /** The number of gets that reached the internal map */
+        protected int processGetCount = 0;
+
+        /** The number of puts that reached the internal map */
+        protected volatile int processUpdateCount = 0;
+
+        /** Puts wait for this before they reach the internal map, if it is set */
+        protected volatile CountDownLatch updateGate = null;
+
         /**
          * Creates the disk cache.
          * <p>
          * @param attr
          */
         public AbstractDiskCacheTestInstance( IDiskCacheAttributes attr )
+        {
+            this( attr, Collections.<K, ICacheElement<K, V>>emptyMap() );
+        }
+
+        /**
+         * Creates the disk cache with elements already on "disk".
+         * <p>
+         * @param attr
+         * @param contents
+         */
+        public AbstractDiskCacheTestInstance( IDiskCacheAttributes attr, Map<K, ICacheElement<K, V>> contents )
         {
             super( attr );
             diskCacheAttributes = attr;
+            map.putAll( contents );
             setAlive(true);
         }
 
@@ -239,6 +598,7 @@ public class AbstractDiskCacheUnitTest
             throws IOException
         {
             //System.out.println( "processGet: " + key );
+            processGetCount++;
             return map.get( key );
         }
 
@@ -286,7 +646,23 @@ public class AbstractDiskCacheUnitTest
             throws IOException
         {
             //System.out.println( "processUpdate: " + cacheElement );
-            map.put( cacheElement.getKey(), cacheElement );
+            CountDownLatch gate = updateGate;
+            if ( gate != null )
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( "Interrupted" );
+                }
+            }
+            processUpdateCount++;
+            if ( map.put( cacheElement.getKey(), cacheElement ) != null )
+            {
+                keyReplaced( cacheElement.getKey() );
+            }
         }
 
         /**
@@ -0,0 +1,198 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for running disk operations on a pool.
+ */
+public class DiskIOEngineUnitTest
+    extends TestCase
+{
+    /** The pool of the engine under test. */
+    private ExecutorService pool;
+
+    /**
+     * Shuts the pool down.
+     */
+    @Override
+    protected void tearDown()
+    {
+        if ( pool != null )
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The results come back in the order of the operations and the handler sees each of them.
+     * <p>
+     * @throws Exception
+     */
+    public void testRunAll_ResultsInOrder()
+        throws Exception
+    {
+        // SETUP
+        pool = Executors.newFixedThreadPool( 4 );
+        DiskIOEngine engine = new DiskIOEngine( pool, "test" );
+        List<Callable<Integer>> operations = new ArrayList<Callable<Integer>>();
+        for ( int i = 0; i < 100; i++ )
+        {
+            final int value = i;
+            operations.add( new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return Integer.valueOf( value * 2 );
+                }
+            } );
+        }
+        final AtomicInteger completed = new AtomicInteger( 0 );
+
+        // DO WORK
+        List<Integer> results = engine.runAll( operations, new DiskIOEngine.CompletionHandler<Integer>()
+        {
+            @Override
+            public void completed( int index, Integer result )
+            {
+                assertEquals( "Wrong result for its index", index * 2, result.intValue() );
+                completed.incrementAndGet();
+            }
+        } );
+
+        // VERIFY
+        assertEquals( "Wrong number of results", 100, results.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( "Wrong result", i * 2, results.get( i ).intValue() );
+        }
+        assertEquals( "Handler should see every result", 100, completed.get() );
+        assertEquals( "Every operation should be counted", 100, engine.getPooledOperations() + engine.getCallerOperations() );
+    }
+
+    /**
+     * An operation that fails does not stop the others, and its exception is thrown after all of
+     * them finished.
+     * <p>
+     * @throws Exception
+     */
+    public void testRunAll_Failure()
+        throws Exception
+    {
+        // SETUP
+        pool = Executors.newFixedThreadPool( 2 );
+        DiskIOEngine engine = new DiskIOEngine( pool, "test" );
+        final AtomicInteger ran = new AtomicInteger( 0 );
+        List<Callable<Void>> operations = new ArrayList<Callable<Void>>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            final boolean fail = i == 3;
+            operations.add( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws IOException
+                {
+                    ran.incrementAndGet();
+                    if ( fail )
+                    {
+                        throw new IOException( "disk full" );
+                    }
+                    return null;
+                }
+            } );
+        }
+
+        // DO WORK
+        try
+        {
+            engine.runAll( operations, null );
+            fail( "Should have thrown the failure" );
+        }
+        catch ( IOException e )
+        {
+            // VERIFY
+            assertEquals( "Wrong exception", "disk full", e.getMessage() );
+        }
+        assertEquals( "Every operation should have run", 10, ran.get() );
+    }
+
+    /**
+     * When every pool thread is busy the calling thread runs the operations itself.
+     * <p>
+     * @throws Exception
+     */
+    public void testRunAll_BusyPool()
+        throws Exception
+    {
+        // SETUP
+        pool = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch( 1 );
+        pool.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    // done
+                }
+            }
+        } );
+        DiskIOEngine engine = new DiskIOEngine( pool, "test" );
+        List<Callable<String>> operations = new ArrayList<Callable<String>>();
+        for ( int i = 0; i < 5; i++ )
+        {
+            final String value = "value" + i;
+            operations.add( new Callable<String>()
+            {
+                @Override
+                public String call()
+                {
+                    return value;
+                }
+            } );
+        }
+
+        // DO WORK
+        List<String> results = engine.runAll( operations, null );
+        release.countDown();
+
+        // VERIFY
+        assertEquals( "Wrong result", "value4", results.get( 4 ) );
+        assertEquals( "The caller should have run everything", 5, engine.getCallerOperations() );
+        assertEquals( "The pool should have run nothing", 0, engine.getPooledOperations() );
+    }
+}
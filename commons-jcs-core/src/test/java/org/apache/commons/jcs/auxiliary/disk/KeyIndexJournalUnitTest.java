@@ -0,0 +1,185 @@
+package org.apache.commons.jcs.auxiliary.disk;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IKeyIndexCodec;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the journaled key index.
+ */
+public class KeyIndexJournalUnitTest
+    extends TestCase
+{
+    /** Writes the descriptor as an int. */
+    private static final IKeyIndexCodec<Integer> CODEC = new IKeyIndexCodec<Integer>()
+    {
+        @Override
+        public void write( DataOutput out, Integer descriptor )
+            throws IOException
+        {
+            out.writeInt( descriptor.intValue() );
+        }
+
+        @Override
+        public Integer read( DataInput in )
+            throws IOException
+        {
+            return Integer.valueOf( in.readInt() );
+        }
+    };
+
+    /** The directory of the files */
+    private final File directory = new File( "target/test-sandbox/KeyIndexJournalUnitTest" );
+
+    /**
+     * @param name
+     * @return a cleared journal
+     * @throws IOException
+     */
+    private KeyIndexJournal<Object, Integer> createJournal( String name )
+        throws IOException
+    {
+        directory.mkdirs();
+        KeyIndexJournal<Object, Integer> journal = newJournal( name );
+        journal.clear();
+        return journal;
+    }
+
+    /**
+     * @param name
+     * @return a journal on the files of the name
+     */
+    private KeyIndexJournal<Object, Integer> newJournal( String name )
+    {
+        return new KeyIndexJournal<Object, Integer>( directory, name, CODEC, new StandardSerializer(), 0 );
+    }
+
+    /**
+     * Verify that a checkpoint followed by journal records replays to the latest state, for string
+     * and serialized keys.
+     *
+     * @throws IOException
+     */
+    public void testLoad_CheckpointAndJournal()
+        throws IOException
+    {
+        // SETUP
+        KeyIndexJournal<Object, Integer> journal = createJournal( "testLoad_CheckpointAndJournal" );
+        Map<Object, Integer> keys = new HashMap<Object, Integer>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            keys.put( "key:" + i, Integer.valueOf( i ) );
+            journal.put( "key:" + i, Integer.valueOf( i ) );
+        }
+
+        // DO WORK
+        long rotation = journal.rotate();
+        assertTrue( "Checkpoint should be installed.", journal.writeCheckpoint( new HashMap<Object, Integer>( keys ), rotation ) );
+        journal.remove( "key:0" );
+        journal.put( "key:1", Integer.valueOf( 100 ) );
+        journal.put( Long.valueOf( 7 ), Integer.valueOf( 7 ) );
+        journal.close();
+
+        Map<Object, Integer> loaded = new HashMap<Object, Integer>();
+        newJournal( "testLoad_CheckpointAndJournal" ).load( loaded );
+
+        // VERIFY
+        assertEquals( "Wrong number of keys.", 10, loaded.size() );
+        assertNull( "Should have been removed.", loaded.get( "key:0" ) );
+        assertEquals( "Wrong updated descriptor.", Integer.valueOf( 100 ), loaded.get( "key:1" ) );
+        assertEquals( "Wrong descriptor for serialized key.", Integer.valueOf( 7 ), loaded.get( Long.valueOf( 7 ) ) );
+        assertEquals( "Wrong descriptor from checkpoint.", Integer.valueOf( 9 ), loaded.get( "key:9" ) );
+    }
+
+    /**
+     * Verify that a torn record at the end of the journal is cut off and that appending continues
+     * after the last good record.
+     *
+     * @throws IOException
+     */
+    public void testLoad_TornTail()
+        throws IOException
+    {
+        // SETUP
+        KeyIndexJournal<Object, Integer> journal = createJournal( "testLoad_TornTail" );
+        journal.put( "a", Integer.valueOf( 1 ) );
+        journal.put( "b", Integer.valueOf( 2 ) );
+        journal.close();
+
+        File file = new File( directory, "testLoad_TornTail.kjnl" );
+        long goodLength = file.length();
+        FileOutputStream out = new FileOutputStream( file, true );
+        out.write( new byte[] { 0, 0, 0, 20, 1, 0, 0 } );
+        out.close();
+
+        // DO WORK
+        KeyIndexJournal<Object, Integer> reopened = newJournal( "testLoad_TornTail" );
+        Map<Object, Integer> loaded = new HashMap<Object, Integer>();
+        reopened.load( loaded );
+
+        // VERIFY
+        assertEquals( "Wrong number of keys.", 2, loaded.size() );
+        assertEquals( "Torn record should be cut off.", goodLength, file.length() );
+
+        // DO WORK
+        reopened.put( "c", Integer.valueOf( 3 ) );
+        reopened.close();
+        loaded.clear();
+        newJournal( "testLoad_TornTail" ).load( loaded );
+
+        // VERIFY
+        assertEquals( "Should append after the last good record.", Integer.valueOf( 3 ), loaded.get( "c" ) );
+    }
+
+    /**
+     * Verify that a checkpoint is not installed once the journal was cleared after the rotation.
+     *
+     * @throws IOException
+     */
+    public void testWriteCheckpoint_StaleAfterClear()
+        throws IOException
+    {
+        // SETUP
+        KeyIndexJournal<Object, Integer> journal = createJournal( "testWriteCheckpoint_StaleAfterClear" );
+        journal.put( "a", Integer.valueOf( 1 ) );
+        Map<Object, Integer> keys = new HashMap<Object, Integer>();
+        keys.put( "a", Integer.valueOf( 1 ) );
+
+        // DO WORK
+        long rotation = journal.rotate();
+        journal.clear();
+        boolean installed = journal.writeCheckpoint( keys, rotation );
+
+        // VERIFY
+        assertFalse( "Stale checkpoint should not be installed.", installed );
+        assertFalse( "Nothing should be left to load.", journal.exists() );
+    }
+}
@@ -187,4 +187,54 @@ public class BlockDiskCacheKeyStoreUnitTest
         assertNull(keyStore.get("1"));
         assertNotNull(keyStore.get("2"));
     }
+
+    /**
+     * Put and remove keys with a journaled key store and load them in a new key store without
+     * saving, as after a crash. Then write a checkpoint, change more keys, and load again.
+     */
+    public void testJournaledKeys_ReplayWithoutSave()
+    {
+        // SETUP
+        BlockDiskCacheAttributes attributes = new BlockDiskCacheAttributes();
+        attributes.setCacheName("testJournaledKeys");
+        attributes.setDiskPath(rootDirName);
+        attributes.setMaxKeySize(10000);
+        attributes.setBlockSizeBytes(2000);
+        attributes.setJournalKeys(true);
+        attributes.setKeyJournalSyncIntervalMillis(0);
+
+        BlockDiskKeyStore<String> keyStore = new BlockDiskKeyStore<String>(attributes, null);
+        keyStore.reset();
+
+        // DO WORK
+        int numElements = 100;
+        for (int i = 0; i < numElements; i++)
+        {
+            keyStore.put(String.valueOf(i), new int[] { i });
+        }
+        for (int i = 0; i < numElements; i += 2)
+        {
+            keyStore.remove(String.valueOf(i));
+        }
+        BlockDiskKeyStore<String> replayed = new BlockDiskKeyStore<String>(attributes, null);
+
+        // VERIFY
+        assertEquals("Wrong number of keys after replay", numElements / 2, replayed.size());
+        for (int i = 1; i < numElements; i += 2)
+        {
+            assertEquals("Wrong blocks after replay.", i, replayed.get(String.valueOf(i))[0]);
+        }
+
+        // DO WORK
+        replayed.saveKeys();
+        replayed.put("new", new int[] { numElements });
+        replayed.remove("1");
+        replayed.close();
+        BlockDiskKeyStore<String> reloaded = new BlockDiskKeyStore<String>(attributes, null);
+
+        // VERIFY
+        assertEquals("Wrong number of keys after checkpoint and replay", numElements / 2, reloaded.size());
+        assertNull("Should have been removed.", reloaded.get("1"));
+        assertEquals("Wrong blocks for new key.", numElements, reloaded.get("new")[0]);
+    }
 }
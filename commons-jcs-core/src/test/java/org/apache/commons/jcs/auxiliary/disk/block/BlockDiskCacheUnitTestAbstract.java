@@ -22,11 +22,16 @@ package org.apache.commons.jcs.auxiliary.disk.block;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CacheStatus;
 import org.apache.commons.jcs.engine.ElementAttributes;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
@@ -66,6 +71,56 @@ public abstract class BlockDiskCacheUnitTestAbstract extends TestCase
         // System.out.println( "\nAFTER TEST \n" + diskCache.getStats() );
     }
 
+    /**
+     * Write a batch straight to the cache and then let the event queue batch a burst of puts.
+     * <p>
+     *
+     * @throws Exception
+     */
+    public void testPutGet_WriteBatches() throws Exception
+    {
+        // SETUP
+        int items = 200;
+
+        String cacheName = "testPutGet_WriteBatches";
+        BlockDiskCacheAttributes cattr = getCacheAttributes();
+        cattr.setCacheName(cacheName);
+        cattr.setMaxKeySize(items * 2);
+        cattr.setWriteBatchSize(16);
+        cattr.setSyncWriteBatches(true);
+        cattr.setDiskPath("target/test-sandbox/BlockDiskCacheUnitTest");
+        BlockDiskCache<String, String> diskCache = new BlockDiskCache<String, String>(cattr);
+        diskCache.removeAll();
+
+        // DO WORK
+        List<ICacheElement<String, String>> batch = new ArrayList<ICacheElement<String, String>>();
+        for (int i = 0; i < items; i++)
+        {
+            batch.add(new CacheElement<String, String>(cacheName, i + ":key", cacheName + " batch " + i));
+        }
+        diskCache.processUpdates(batch);
+
+        for (int i = 0; i < items; i++)
+        {
+            diskCache.update(new CacheElement<String, String>(cacheName, i + ":key", cacheName + " data " + i));
+        }
+        for (int i = 0; i < 50 && diskCache.getStats().indexOf("Batched Puts = " + items) < 0; i++)
+        {
+            Thread.sleep(100);
+        }
+
+        // VERIFY
+        assertEquals("Wrong size", items, diskCache.getSize());
+        for (int i = 0; i < items; i++)
+        {
+            ICacheElement<String, String> element = diskCache.get(i + ":key");
+            assertNotNull("Missing element " + i, element);
+            assertEquals("Wrong value", cacheName + " data " + i, element.getVal());
+        }
+        assertTrue("Should have written the puts in batches: " + diskCache.getStats(),
+            diskCache.getStats().indexOf("Batched Puts = " + items) >= 0);
+    }
+
     /**
      * Test the basic get matching. With no wait this will all come from purgatory.
      * <p>
@@ -359,6 +414,144 @@ public abstract class BlockDiskCacheUnitTestAbstract extends TestCase
         assertEquals(value2.string, diskCache.get("2").getVal().string);
     }
 
+    /**
+     * Verify that a batch written on an I/O pool and read back with getMultiple is complete.
+     *
+     * @throws Exception
+     */
+    public void testPutGetMultiple_IOPool() throws Exception
+    {
+        // SETUP
+        String cacheName = "testPutGetMultiple_IOPool";
+        BlockDiskCacheAttributes cattr = getCacheAttributes();
+        cattr.setCacheName(cacheName);
+        cattr.setMaxKeySize(10000);
+        cattr.setBlockSizeBytes(200);
+        cattr.setIOPoolName("disk_io");
+        cattr.setDiskPath("target/test-sandbox/BlockDiskCacheUnitTest");
+        BlockDiskCache<String, String> diskCache = new BlockDiskCache<String, String>(cattr);
+        diskCache.removeAll();
+
+        // DO WORK
+        List<ICacheElement<String, String>> batch = new ArrayList<ICacheElement<String, String>>();
+        for (int i = 0; i < 100; i++)
+        {
+            batch.add(new CacheElement<String, String>(cacheName, "key" + i, "value" + i));
+        }
+        // a later put of the same key in a batch wins
+        batch.add(new CacheElement<String, String>(cacheName, "key0", "replaced"));
+        diskCache.processUpdates(batch);
+
+        Set<String> keys = new HashSet<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            keys.add("key" + i);
+        }
+        Map<String, ICacheElement<String, String>> result = diskCache.getMultiple(keys);
+
+        // VERIFY
+        assertTrue(diskCache.verifyDisk());
+        assertEquals(100, diskCache.getSize());
+        assertEquals(100, result.size());
+        assertEquals("replaced", result.get("key0").getVal());
+        for (int i = 1; i < 100; i++)
+        {
+            assertEquals("value" + i, result.get("key" + i).getVal());
+        }
+        diskCache.dispose();
+    }
+
+    /**
+     * Verify that values of very different sizes are routed to their size class files and survive
+     * a restart.
+     *
+     * @throws Exception
+     */
+    public void testPutGetRemove_SizeClasses() throws Exception
+    {
+        // SETUP
+        String cacheName = "testPutGetRemove_SizeClasses";
+        BlockDiskCacheAttributes cattr = getCacheAttributes();
+        cattr.setCacheName(cacheName);
+        cattr.setMaxKeySize(10000);
+        cattr.setBlockSizeClasses("4096,512");
+        cattr.setDiskPath("target/test-sandbox/BlockDiskCacheUnitTest");
+        BlockDiskCache<String, String> diskCache = new BlockDiskCache<String, String>(cattr);
+        diskCache.removeAll();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            sb.append("0123456789");
+        }
+        String big = sb.toString();
+
+        // DO WORK
+        for (int i = 0; i < 10; i++)
+        {
+            diskCache.update(new CacheElement<String, String>(cacheName, "small" + i, "value" + i));
+            diskCache.update(new CacheElement<String, String>(cacheName, "big" + i, big + i));
+        }
+        diskCache.remove("small0");
+        diskCache.remove("big0");
+        diskCache.dispose();
+        diskCache = new BlockDiskCache<String, String>(cattr);
+
+        // VERIFY
+        assertTrue(diskCache.verifyDisk());
+        assertNull(diskCache.get("small0"));
+        assertNull(diskCache.get("big0"));
+        for (int i = 1; i < 10; i++)
+        {
+            assertEquals("value" + i, diskCache.get("small" + i).getVal());
+            assertEquals(big + i, diskCache.get("big" + i).getVal());
+        }
+        String stats = diskCache.getStats();
+        assertTrue(stats, stats.contains("Size Class 512 Utilization"));
+        assertTrue(stats, stats.contains("Size Class 4096 Utilization"));
+        diskCache.dispose();
+    }
+
+    /**
+     * Verify that a data file written without size classes is only opened by size classes whose
+     * smallest block size is the one it was written with.
+     *
+     * @throws Exception
+     */
+    public void testSizeClasses_ExistingSingleFile() throws Exception
+    {
+        // SETUP
+        String cacheName = "testSizeClasses_ExistingSingleFile";
+        BlockDiskCacheAttributes cattr = getCacheAttributes();
+        cattr.setCacheName(cacheName);
+        cattr.setMaxKeySize(100);
+        cattr.setBlockSizeBytes(1024);
+        cattr.setDiskPath("target/test-sandbox/BlockDiskCacheUnitTest");
+        new File("target/test-sandbox/BlockDiskCacheUnitTest", cacheName + ".1.data").delete();
+        BlockDiskCache<String, String> diskCache = new BlockDiskCache<String, String>(cattr);
+        diskCache.removeAll();
+        for (int i = 0; i < 10; i++)
+        {
+            diskCache.update(new CacheElement<String, String>(cacheName, "key" + i, "value" + i));
+        }
+        diskCache.dispose();
+
+        // DO WORK
+        cattr.setBlockSizeClasses("512,4096");
+        BlockDiskCache<String, String> mismatched = new BlockDiskCache<String, String>(cattr);
+        cattr.setBlockSizeClasses("1024,8192");
+        diskCache = new BlockDiskCache<String, String>(cattr);
+
+        // VERIFY
+        assertEquals(CacheStatus.DISPOSED, mismatched.getStatus());
+        assertEquals(CacheStatus.ALIVE, diskCache.getStatus());
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("value" + i, diskCache.get("key" + i).getVal());
+        }
+        diskCache.dispose();
+    }
+
     public void oneLoadFromDisk() throws Exception
     {
         // initialize object to be stored
@@ -23,6 +23,9 @@ import junit.framework.TestCase;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -373,4 +376,109 @@ public class BlockDiskUnitTest
         assertEquals(Integer.MAX_VALUE*4096L,offset);
         file.delete();
     }
+
+    /**
+     * Verify that a checksummed record spanning several blocks reads back and that a damaged one
+     * is refused.
+     * <p>
+     * @throws Exception
+     */
+    public void testWriteAndRead_Checksummed()
+        throws Exception
+    {
+        // SETUP
+        String fileName = "testWriteAndRead_Checksummed";
+        File file = new File( rafDir, fileName + ".data" );
+        file.delete();
+        int blockSizeBytes = 47;
+        BlockDisk disk = new BlockDisk( file, blockSizeBytes, new StandardSerializer(), true );
+        String string = "abcdefghijklmnopqrstuvwxyz1234567890abcdefghijklmnopqrstuvwxyz";
+
+        // DO WORK
+        int[] blocks = disk.write( string );
+        String result = (String) disk.read( blocks );
+
+        // flip a byte in the last block
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        long pos = disk.calculateByteOffsetForBlockAsLong( blocks[blocks.length - 1] ) + BlockDisk.HEADER_SIZE_BYTES;
+        raf.seek( pos );
+        int b = raf.read();
+        raf.seek( pos );
+        raf.write( b ^ 0x55 );
+        raf.close();
+
+        // VERIFY
+        assertEquals( "Wrong item retured.", string, result );
+        try
+        {
+            disk.read( blocks );
+            fail( "The damaged record should be refused" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that a record goes to a run of empty blocks long enough for it, and that it is
+     * spread over the empty blocks and the end of the file when there is none.
+     * <p>
+     * @throws Exception
+     */
+    public void testWrite_PrefersContiguousEmptyBlocks()
+        throws Exception
+    {
+        // SETUP
+        String fileName = "testWrite_PrefersContiguousEmptyBlocks";
+        File file = new File( rafDir, fileName + ".data" );
+        file.delete();
+        BlockDisk disk = new BlockDisk( file, 1024, new StandardSerializer() );
+        byte[] threeBlocks = new byte[2500];
+        byte[] twoBlocks = new byte[1500];
+        Arrays.fill( threeBlocks, (byte) 3 );
+        Arrays.fill( twoBlocks, (byte) 2 );
+        disk.write( threeBlocks );
+        int[] middle = disk.write( threeBlocks );
+        int[] last = disk.write( threeBlocks );
+        disk.freeBlocks( middle );
+
+        // DO WORK
+        int[] run = disk.write( twoBlocks );
+        int[] spread = disk.write( threeBlocks );
+
+        // VERIFY
+        assertTrue( "Wrong blocks for the middle record.", Arrays.equals( new int[] { 3, 4, 5 }, middle ) );
+        assertTrue( "Should use the empty run.", Arrays.equals( new int[] { 3, 4 }, run ) );
+        assertTrue( "Should use the empty block, then the end of the file.",
+                    Arrays.equals( new int[] { 5, 9, 10 }, spread ) );
+        assertEquals( "Wrong number of empty blocks.", 0, disk.getEmptyBlocks() );
+        assertTrue( "Wrong item returned.", Arrays.equals( twoBlocks, (byte[]) disk.read( run ) ) );
+        assertTrue( "Wrong item returned.", Arrays.equals( threeBlocks, (byte[]) disk.read( spread ) ) );
+        assertTrue( "Wrong item returned.", Arrays.equals( threeBlocks, (byte[]) disk.read( last ) ) );
+    }
+
+    /**
+     * Verify that freeing blocks twice counts them once.
+     * <p>
+     * @throws Exception
+     */
+    public void testFreeBlocks_Twice()
+        throws Exception
+    {
+        // SETUP
+        String fileName = "testFreeBlocks_Twice";
+        File file = new File( rafDir, fileName + ".data" );
+        file.delete();
+        BlockDisk disk = new BlockDisk( file, 1024, new StandardSerializer() );
+        int[] blocks = disk.write( new byte[2500] );
+
+        // DO WORK
+        disk.freeBlocks( blocks );
+        disk.freeBlocks( blocks );
+
+        // VERIFY
+        assertEquals( "Wrong number of empty blocks.", 3, disk.getEmptyBlocks() );
+        assertTrue( "Should reuse the blocks.", Arrays.equals( blocks, disk.write( new byte[2500] ) ) );
+    }
 }
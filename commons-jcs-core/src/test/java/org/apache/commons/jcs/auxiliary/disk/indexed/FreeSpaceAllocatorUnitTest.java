@@ -0,0 +1,149 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.DiskTestObject;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Tests for the size class free space allocator and the recycle bin that uses it.
+ */
+public class FreeSpaceAllocatorUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that neighbouring extents are merged, whatever the order they are freed in.
+     */
+    public void testFree_Coalesces()
+    {
+        // SETUP
+        FreeSpaceAllocator allocator = new FreeSpaceAllocator();
+
+        // DO WORK
+        allocator.free( 100, 50 );
+        allocator.free( 200, 50 );
+        allocator.free( 150, 50 );
+        allocator.free( 0, 10 );
+
+        // VERIFY
+        assertEquals( "Wrong extent count", 2, allocator.getExtentCount() );
+        assertEquals( "Wrong free bytes", 160, allocator.getFreeBytes() );
+        assertEquals( "Wrong largest extent", 150, allocator.getLargestExtent() );
+    }
+
+    /**
+     * Verify that free space is not counted twice.
+     */
+    public void testFree_OverlapIgnored()
+    {
+        // SETUP
+        FreeSpaceAllocator allocator = new FreeSpaceAllocator();
+        allocator.free( 100, 50 );
+
+        // DO WORK
+        boolean result = allocator.free( 120, 50 );
+
+        // VERIFY
+        assertFalse( "Overlap should be refused", result );
+        assertEquals( "Wrong free bytes", 50, allocator.getFreeBytes() );
+    }
+
+    /**
+     * Verify that the smallest fitting extent is used and the remainder stays free.
+     */
+    public void testAllocate_BestFitAndSplit()
+    {
+        // SETUP
+        FreeSpaceAllocator allocator = new FreeSpaceAllocator();
+        allocator.free( 0, 1000 );
+        allocator.free( 2000, 70 );
+        allocator.free( 3000, 100 );
+
+        // DO WORK
+        long first = allocator.allocate( 60 );
+        long second = allocator.allocate( 90 );
+        long third = allocator.allocate( 600 );
+        long none = allocator.allocate( 5000 );
+
+        // VERIFY
+        assertEquals( "Should use the extent of 70", 2000, first );
+        assertEquals( "Should use the extent of 100", 3000, second );
+        assertEquals( "Should use the extent of 1000", 0, third );
+        assertEquals( "Nothing is large enough", -1, none );
+        assertEquals( "Wrong extent count", 3, allocator.getExtentCount() );
+        assertEquals( "Wrong free bytes", 1170 - 750, allocator.getFreeBytes() );
+        assertEquals( "Wrong largest extent", 400, allocator.getLargestExtent() );
+    }
+
+    /**
+     * Verify that the space of removed neighbours is reused for a larger item without growing
+     * the file, and that the metrics are in the statistics.
+     * <p>
+     * @throws IOException
+     */
+    public void testCache_ReusesCoalescedSpace()
+        throws IOException
+    {
+        // SETUP
+        int numberToInsert = 20;
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testCache_ReusesCoalescedSpace" );
+        cattr.setDiskPath( "target/test-sandbox/FreeSpaceAllocatorUnitTest" );
+        cattr.setMaxKeySize( numberToInsert * 2 );
+        cattr.setUseSizeClassRecycleBin( true );
+        IndexedDiskCache<Integer, DiskTestObject> disk = new IndexedDiskCache<Integer, DiskTestObject>( cattr );
+        disk.processRemoveAll();
+
+        ICacheElement<Integer, DiskTestObject>[] elements =
+            DiskTestObjectUtil.createCacheElementsWithTestObjects( numberToInsert, 1, cattr.getCacheName() );
+        for ( int i = 0; i < elements.length; i++ )
+        {
+            disk.processUpdate( elements[i] );
+        }
+        for ( int i = 0; i < numberToInsert / 2; i++ )
+        {
+            disk.processRemove( elements[i].getKey() );
+        }
+        long fileSize = disk.getDataFileSize();
+        long bytesFree = disk.getBytesFree();
+
+        // DO WORK
+        DiskTestObject big = new DiskTestObject( Integer.valueOf( 100 ), new byte[5 * 1024] );
+        disk.processUpdate( new CacheElement<Integer, DiskTestObject>( cattr.getCacheName(), big.id, big ) );
+
+        // VERIFY
+        assertEquals( "Removed neighbours should be one extent", 1, disk.getRecyleBinSize() );
+        assertEquals( "Wrong recycle count", 1, disk.getRecyleCount() );
+        assertEquals( "File should not grow", fileSize, disk.getDataFileSize() );
+        assertTrue( "Bytes free should go down", disk.getBytesFree() < bytesFree );
+        assertEquals( "Wrong largest extent", disk.getBytesFree(), disk.getLargestFreeExtent() );
+        assertEquals( "Wrong item", big, disk.processGet( big.id ).getVal() );
+        assertEquals( "Wrong neighbour", elements[numberToInsert / 2].getVal(),
+                      disk.processGet( elements[numberToInsert / 2].getKey() ).getVal() );
+        String stats = disk.getStats();
+        assertTrue( "Should have the largest extent", stats.contains( "Largest Free Extent" ) );
+        assertTrue( "Should have the fragmentation", stats.contains( "Fragmentation = 0.0%" ) );
+    }
+}
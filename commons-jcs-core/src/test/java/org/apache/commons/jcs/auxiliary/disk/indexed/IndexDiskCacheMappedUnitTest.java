@@ -0,0 +1,97 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+
+/**
+ * Runs the common tests with reads from small mapped chunks, so that records crossing a chunk
+ * boundary and chunks growing with the file are both exercised.
+ */
+public class IndexDiskCacheMappedUnitTest extends IndexDiskCacheUnitTestAbstract
+{
+    @Override
+    public IndexedDiskCacheAttributes getCacheAttributes()
+    {
+        IndexedDiskCacheAttributes ret = new IndexedDiskCacheAttributes();
+        ret.setDiskLimitType(DiskLimitType.COUNT);
+        ret.setUseMemoryMappedReads(true);
+        ret.setMappedChunkSizeBytes(4096);
+        return ret;
+    }
+
+    /**
+     * Verify that reads are still correct after the file grows and after an optimization moved
+     * the records and truncated the file.
+     *
+     * @throws IOException
+     */
+    public void testReadAfterGrowAndOptimize() throws IOException
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = getCacheAttributes();
+        cattr.setCacheName("testReadAfterGrowAndOptimize");
+        cattr.setMaxKeySize(1000);
+        cattr.setDiskPath("target/test-sandbox/IndexDiskCacheMappedUnitTest");
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>(cattr);
+        disk.processRemoveAll();
+
+        IElementAttributes eAttr = new ElementAttributes();
+        eAttr.setIsSpool(true);
+
+        // DO WORK
+        int cnt = 200;
+        for (int i = 0; i < cnt; i++)
+        {
+            ICacheElement<String, String> element = new CacheElement<String, String>("testReadAfterGrowAndOptimize", "key:" + i, "data:" + i);
+            element.setElementAttributes(eAttr);
+            disk.processUpdate(element);
+            assertEquals("Element is wrong after growing.", "data:" + i, disk.processGet("key:" + i).getVal());
+        }
+
+        for (int i = 0; i < cnt; i += 2)
+        {
+            disk.processRemove("key:" + i);
+        }
+        long sizeBefore = disk.getDataFileSize();
+        disk.optimizeFile();
+
+        // VERIFY
+        assertTrue("File should have shrunk", disk.getDataFileSize() < sizeBefore);
+        for (int i = 0; i < cnt; i++)
+        {
+            ICacheElement<String, String> element = disk.processGet("key:" + i);
+            if (i % 2 == 0)
+            {
+                assertNull("Should have been removed.", element);
+            }
+            else
+            {
+                assertEquals("Element is wrong after optimization.", "data:" + i, element.getVal());
+            }
+        }
+    }
+}
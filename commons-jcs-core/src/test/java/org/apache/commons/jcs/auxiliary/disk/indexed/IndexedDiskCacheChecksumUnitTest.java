@@ -0,0 +1,264 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Tests for the checksummed records of the indexed disk cache and the rebuild of the keys from the
+ * data file.
+ */
+public class IndexedDiskCacheChecksumUnitTest
+    extends TestCase
+{
+    /** The directory of the files */
+    private static final String DISK_PATH = "target/test-sandbox/IndexedDiskCacheChecksumUnitTest";
+
+    /**
+     * Create attributes for a region.
+     * <p>
+     * @param cacheName
+     * @return attributes with record checksums
+     */
+    private IndexedDiskCacheAttributes createAttributes( String cacheName )
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setDiskPath( DISK_PATH );
+        cattr.setMaxKeySize( 1000 );
+        cattr.setUseRecordChecksums( true );
+        cattr.setRecoveryThreads( 3 );
+        return cattr;
+    }
+
+    /**
+     * Flips a byte of the value in the data file.
+     * <p>
+     * @param cacheName
+     * @param value the value to damage
+     * @throws IOException
+     */
+    private void damage( String cacheName, String value )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( new File( DISK_PATH, cacheName + ".data" ), "rw" );
+        try
+        {
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully( content );
+            int pos = new String( content, "ISO-8859-1" ).indexOf( value );
+            assertTrue( "Value not found in the data file", pos >= 0 );
+            raf.seek( pos );
+            raf.write( content[pos] ^ 0x55 );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Put values for keys 0 to count - 1.
+     * <p>
+     * @param disk
+     * @param count
+     */
+    private void putValues( IndexedDiskCache<String, String> disk, int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            disk.processUpdate( new CacheElement<String, String>( "test", "key" + i, "value-" + i + "-payload" ) );
+        }
+    }
+
+    /**
+     * A damaged record drops only its key instead of resetting the cache.
+     * <p>
+     * @throws Exception
+     */
+    public void testDamagedRecordDropped()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testDamagedRecordDropped";
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+        disk.removeAll();
+        putValues( disk, 10 );
+
+        // DO WORK
+        damage( cacheName, "value-5-payload" );
+
+        // VERIFY
+        assertNull( "Damaged record should not be returned", disk.processGet( "key5" ) );
+        assertEquals( "Wrong size", 9, disk.getSize() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            if ( i != 5 )
+            {
+                ICacheElement<String, String> element = disk.processGet( "key" + i );
+                assertNotNull( "Missing element " + i, element );
+                assertEquals( "Wrong value", "value-" + i + "-payload", element.getVal() );
+            }
+        }
+        String stats = disk.getStats();
+        assertTrue( "Should count the dropped record: " + stats, stats.indexOf( "Dropped Records = 1" ) >= 0 );
+    }
+
+    /**
+     * Without the key file written at shutdown, the keys are rebuilt from the data file. Removed
+     * keys and replaced values do not come back.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeysRebuiltAfterCrash()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testKeysRebuiltAfterCrash";
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+        disk.removeAll();
+        putValues( disk, 100 );
+        disk.processRemove( "key0" );
+        disk.processUpdate( new CacheElement<String, String>( "test", "key1", "a value too long for the old slot" ) );
+        disk.processUpdate( new CacheElement<String, String>( "test", "key2", "short" ) );
+
+        // DO WORK
+        // not disposed, as if the process died
+        IndexedDiskCache<String, String> restarted =
+            new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+
+        // VERIFY
+        assertEquals( "Wrong size", 99, restarted.getSize() );
+        assertNull( "Removed key should stay removed", restarted.processGet( "key0" ) );
+        assertEquals( "Wrong value", "a value too long for the old slot", restarted.processGet( "key1" ).getVal() );
+        assertEquals( "Wrong value", "short", restarted.processGet( "key2" ).getVal() );
+        for ( int i = 3; i < 100; i++ )
+        {
+            ICacheElement<String, String> element = restarted.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "value-" + i + "-payload", element.getVal() );
+        }
+        String stats = restarted.getStats();
+        assertTrue( "Should have rebuilt the keys: " + stats, stats.indexOf( "Recovered Records = 99" ) >= 0 );
+
+        // the rebuilt cache keeps working
+        restarted.processUpdate( new CacheElement<String, String>( "test", "key0", "back" ) );
+        assertEquals( "Wrong value", "back", restarted.processGet( "key0" ).getVal() );
+    }
+
+    /**
+     * A data file of several megabytes is scanned in parallel ranges. Records crossing the end of
+     * a range are found once.
+     * <p>
+     * @throws Exception
+     */
+    public void testParallelRebuild()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testParallelRebuild";
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+        disk.removeAll();
+        StringBuilder padding = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            padding.append( "0123456789" );
+        }
+        int items = 400;
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( new CacheElement<String, String>( "test", "key" + i, i + padding.toString() ) );
+        }
+
+        // DO WORK
+        IndexedDiskCache<String, String> restarted =
+            new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+
+        // VERIFY
+        assertEquals( "Wrong size", items, restarted.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = restarted.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", i + padding.toString(), element.getVal() );
+        }
+    }
+
+    /**
+     * A damaged record is skipped by the rebuild, the records after it are found.
+     * <p>
+     * @throws Exception
+     */
+    public void testRebuildSkipsDamagedRecord()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRebuildSkipsDamagedRecord";
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+        disk.removeAll();
+        putValues( disk, 20 );
+        damage( cacheName, "value-7-payload" );
+
+        // DO WORK
+        IndexedDiskCache<String, String> restarted =
+            new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+
+        // VERIFY
+        assertEquals( "Wrong size", 19, restarted.getSize() );
+        assertNull( "Damaged record should be dropped", restarted.processGet( "key7" ) );
+        for ( int i = 8; i < 20; i++ )
+        {
+            assertNotNull( "Missing element " + i, restarted.processGet( "key" + i ) );
+        }
+    }
+
+    /**
+     * After a clean shutdown the keys come from the key file.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeyFileUsedAfterShutdown()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testKeyFileUsedAfterShutdown";
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+        disk.removeAll();
+        putValues( disk, 50 );
+
+        // DO WORK
+        disk.processDispose();
+        IndexedDiskCache<String, String> restarted =
+            new IndexedDiskCache<String, String>( createAttributes( cacheName ) );
+
+        // VERIFY
+        assertEquals( "Wrong size", 50, restarted.getSize() );
+        assertEquals( "Wrong value", "value-49-payload", restarted.processGet( "key49" ).getVal() );
+        String stats = restarted.getStats();
+        assertTrue( "Should not have rebuilt the keys: " + stats, stats.indexOf( "Recovered Records = 0" ) >= 0 );
+    }
+}
@@ -146,4 +146,59 @@ public class IndexedDiskCacheKeyStoreUnitTest
             assertEquals( "postsave, element is wrong.", "data:" + i, element.getVal() );
         }
     }
+
+    /**
+     * Put and remove elements with journaled keys and open the cache again without disposing it,
+     * as after a crash. Then optimize, which writes a checkpoint, and open it once more.
+     *
+     * @throws Exception
+     */
+    public void testJournaledKeys_RecoverWithoutDispose()
+        throws Exception
+    {
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testJournaledKeys" );
+        cattr.setMaxKeySize( 100 );
+        cattr.setDiskPath( "target/test-sandbox/KeyStoreUnitTest" );
+        cattr.setJournalKeys( true );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+
+        disk.processRemoveAll();
+
+        int cnt = 25;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            IElementAttributes eAttr = new ElementAttributes();
+            eAttr.setIsSpool( true );
+            ICacheElement<String, String> element = new CacheElement<String, String>( cattr.getCacheName(), "key:" + i, "data:" + i );
+            element.setElementAttributes( eAttr );
+            disk.processUpdate( element );
+        }
+        disk.processRemove( "key:0" );
+        disk.persistKeyJournal();
+
+        IndexedDiskCache<String, String> recovered = new IndexedDiskCache<String, String>( cattr );
+
+        assertEquals( "The disk is the wrong size after recovery.", cnt - 1, recovered.getSize() );
+        assertNull( "Should have been removed.", recovered.processGet( "key:0" ) );
+        for ( int i = 1; i < cnt; i++ )
+        {
+            ICacheElement<String, String> element = recovered.processGet( "key:" + i );
+            assertNotNull( "recovered, Should have received an element.", element );
+            assertEquals( "recovered, element is wrong.", "data:" + i, element.getVal() );
+        }
+
+        recovered.processRemove( "key:1" );
+        recovered.optimizeFile();
+
+        IndexedDiskCache<String, String> optimized = new IndexedDiskCache<String, String>( cattr );
+
+        assertEquals( "The disk is the wrong size after optimization.", cnt - 2, optimized.getSize() );
+        for ( int i = 2; i < cnt; i++ )
+        {
+            ICacheElement<String, String> element = optimized.processGet( "key:" + i );
+            assertNotNull( "optimized, Should have received an element.", element );
+            assertEquals( "optimized, element is wrong.", "data:" + i, element.getVal() );
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+
+/**
+ * Puts, gets and removes from several threads straight on the disk cache, so that they run
+ * under the key locks at the same time, with the recycle bin and the optimization busy.
+ */
+public class IndexedDiskCacheStripedLockUnitTest
+    extends TestCase
+{
+    /** number of threads */
+    private static final int THREADS = 8;
+
+    /** operations per thread */
+    private static final int OPERATIONS = 2000;
+
+    /** keys per thread */
+    private static final int KEYS = 50;
+
+    /**
+     * Every thread checks that it reads back what it last wrote for its keys. No key is dropped,
+     * so a missing or wrong value is an error.
+     * <p>
+     * @throws Exception
+     */
+    public void testParallelUpdates_RecycleBin()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testParallelUpdates_RecycleBin" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheStripedLockUnitTest" );
+        cattr.setMaxKeySize( THREADS * KEYS * 2 );
+        cattr.setOptimizeAtRemoveCount( 500 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+
+        // DO WORK, VERIFY
+        runThreads( cattr, true );
+    }
+
+    /**
+     * Same with the size class recycle bin and a key limit small enough that the threads drop
+     * each other's keys. A value read must still be the last one written.
+     * <p>
+     * @throws Exception
+     */
+    public void testParallelUpdates_SizeClassRecycleBinWithEviction()
+        throws Exception
+    {
+        // SETUP
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testParallelUpdates_SizeClassRecycleBinWithEviction" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheStripedLockUnitTest" );
+        cattr.setMaxKeySize( THREADS * KEYS / 4 );
+        cattr.setOptimizeAtRemoveCount( 500 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setUseSizeClassRecycleBin( true );
+
+        // DO WORK, VERIFY
+        runThreads( cattr, false );
+    }
+
+    /**
+     * @param cattr
+     * @param strict whether every value must be found
+     * @throws Exception
+     */
+    private void runThreads( IndexedDiskCacheAttributes cattr, final boolean strict )
+        throws Exception
+    {
+        final IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+        disk.processRemoveAll();
+        final String cacheName = cattr.getCacheName();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < THREADS; t++ )
+        {
+            final int thread = t;
+            threads.add( new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Random random = new Random( thread );
+                        String[] expected = new String[KEYS];
+                        for ( int i = 0; i < OPERATIONS; i++ )
+                        {
+                            int k = random.nextInt( KEYS );
+                            String key = thread + ":" + k;
+                            int action = random.nextInt( 10 );
+                            if ( action < 4 )
+                            {
+                                StringBuilder value = new StringBuilder( key + "@" + i + ":" );
+                                for ( int pad = random.nextInt( 200 ); pad > 0; pad-- )
+                                {
+                                    value.append( 'x' );
+                                }
+                                expected[k] = value.toString();
+                                disk.processUpdate( new CacheElement<String, String>( cacheName, key, expected[k] ) );
+                            }
+                            else if ( action < 5 )
+                            {
+                                disk.processRemove( key );
+                                expected[k] = null;
+                            }
+                            else
+                            {
+                                ICacheElement<String, String> element = disk.processGet( key );
+                                String value = element == null ? null : element.getVal();
+                                if ( strict || value != null || expected[k] == null )
+                                {
+                                    assertEquals( "Wrong value for " + key, expected[k], value );
+                                }
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        synchronized ( errors )
+                        {
+                            errors.add( e );
+                        }
+                    }
+                }
+            } ) );
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        if ( !errors.isEmpty() )
+        {
+            throw new AssertionError( errors.size() + " threads failed, first: " + errors.get( 0 ) );
+        }
+        disk.processDispose();
+    }
+}
@@ -0,0 +1,234 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
+
+/**
+ * Tests for writing queued puts to the indexed disk cache in batches.
+ */
+public class IndexedDiskCacheWriteBatchUnitTest
+    extends TestCase
+{
+    /**
+     * A batch of new keys is appended with one gathering write. Rewriting the keys with smaller
+     * values reuses their slots in place.
+     * <p>
+     * @throws Exception
+     */
+    public void testProcessUpdates_AppendAndReuse()
+        throws Exception
+    {
+        // SETUP
+        int items = 100;
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testProcessUpdates_AppendAndReuse" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheWriteBatchUnitTest" );
+        cattr.setMaxKeySize( items * 2 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setSyncWriteBatches( true );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+        disk.removeAll();
+
+        // DO WORK
+        List<ICacheElement<String, String>> batch = new ArrayList<ICacheElement<String, String>>();
+        for ( int i = 0; i < items; i++ )
+        {
+            batch.add( new CacheElement<String, String>( "test", "key" + i, "a somewhat longer value " + i ) );
+        }
+        // a later put of the same key in a batch wins
+        batch.add( new CacheElement<String, String>( "test", "key0", "replaced" ) );
+        disk.processUpdates( batch );
+        long lengthAfterAppend = disk.getDataFileSize();
+
+        batch.clear();
+        for ( int i = 0; i < items; i++ )
+        {
+            batch.add( new CacheElement<String, String>( "test", "key" + i, "short " + i ) );
+        }
+        disk.processUpdates( batch );
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "short " + i, element.getVal() );
+        }
+        assertEquals( "Rewrites should have reused the slots", lengthAfterAppend, disk.getDataFileSize() );
+    }
+
+    /**
+     * A burst of puts through the event queue is written in batches.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_BatchedThroughQueue()
+        throws Exception
+    {
+        // SETUP
+        int items = 500;
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testUpdate_BatchedThroughQueue" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheWriteBatchUnitTest" );
+        cattr.setMaxKeySize( items * 2 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setWriteBatchSize( 32 );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+        disk.removeAll();
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.update( new CacheElement<String, String>( "test", "key" + i, "data " + i ) );
+        }
+        for ( int i = 0; i < 50 && disk.getSize() < items; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "data " + i, element.getVal() );
+        }
+        String stats = disk.getStats();
+        assertTrue( "Should have written the puts in batches: " + stats, stats.indexOf( "Batched Puts = " + items ) >= 0 );
+        assertTrue( "Should have written fewer batches than puts: " + stats, stats.indexOf( "Write Batches = " + items ) < 0 );
+    }
+
+    /**
+     * A burst of puts through a small RING event queue is written in batches, with producers
+     * waiting for the ring to drain.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_BatchedThroughRingQueue()
+        throws Exception
+    {
+        // SETUP
+        int items = 500;
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testUpdate_BatchedThroughRingQueue" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheWriteBatchUnitTest" );
+        cattr.setMaxKeySize( items * 2 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setWriteBatchSize( 32 );
+        cattr.setEventQueueType( ICacheEventQueue.QueueType.RING );
+        cattr.setEventQueueCapacity( 64 );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+        disk.removeAll();
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.update( new CacheElement<String, String>( "test", "key" + i, "data " + i ) );
+        }
+        for ( int i = 0; i < 50 && disk.getSize() < items; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "data " + i, element.getVal() );
+        }
+        String stats = disk.getStats();
+        assertTrue( "Should have written the puts in batches: " + stats, stats.indexOf( "Batched Puts = " + items ) >= 0 );
+        disk.dispose();
+    }
+
+    /**
+     * With an I/O pool, a batch that lands in scattered free slots is written run by run on the
+     * pool, and getMultiple reads the keys concurrently.
+     * <p>
+     * @throws Exception
+     */
+    public void testProcessUpdates_IOPool()
+        throws Exception
+    {
+        // SETUP
+        int items = 100;
+        IndexedDiskCacheAttributes cattr = new IndexedDiskCacheAttributes();
+        cattr.setCacheName( "testProcessUpdates_IOPool" );
+        cattr.setDiskPath( "target/test-sandbox/IndexedDiskCacheWriteBatchUnitTest" );
+        cattr.setMaxKeySize( items * 2 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setIOPoolName( "disk_io" );
+        IndexedDiskCache<String, String> disk = new IndexedDiskCache<String, String>( cattr );
+        disk.removeAll();
+
+        List<ICacheElement<String, String>> batch = new ArrayList<ICacheElement<String, String>>();
+        for ( int i = 0; i < items; i++ )
+        {
+            batch.add( new CacheElement<String, String>( "test", "key" + ( 1000 + i ), "value " + ( 1000 + i ) ) );
+        }
+        disk.processUpdates( batch );
+        for ( int i = 0; i < items; i += 2 )
+        {
+            disk.processRemove( "key" + ( 1000 + i ) );
+        }
+
+        // DO WORK
+        batch.clear();
+        for ( int i = 0; i < items; i += 2 )
+        {
+            batch.add( new CacheElement<String, String>( "test", "new" + ( 1000 + i ), "other " + ( 1000 + i ) ) );
+        }
+        disk.processUpdates( batch );
+
+        Set<String> keys = new HashSet<String>();
+        for ( int i = 0; i < items; i++ )
+        {
+            keys.add( ( i % 2 == 0 ? "new" : "key" ) + ( 1000 + i ) );
+        }
+        keys.add( "missing" );
+        Map<String, ICacheElement<String, String>> result = disk.getMultiple( keys );
+
+        // VERIFY
+        assertEquals( "Wrong number of elements", items, result.size() );
+        for ( int i = 0; i < items; i++ )
+        {
+            String key = ( i % 2 == 0 ? "new" : "key" ) + ( 1000 + i );
+            String value = ( i % 2 == 0 ? "other " : "value " ) + ( 1000 + i );
+            assertEquals( "Wrong value", value, result.get( key ).getVal() );
+        }
+        String stats = disk.getStats();
+        assertTrue( "Should report the pool: " + stats, stats.indexOf( "IO Pool = disk_io" ) >= 0 );
+    }
+}
@@ -0,0 +1,274 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the log structured disk cache.
+ */
+public class LogStructuredDiskCacheUnitTest
+    extends TestCase
+{
+    /**
+     * @param name the name of the region
+     * @return attributes with small segments and no background compaction
+     */
+    private LogStructuredDiskCacheAttributes getCacheAttributes( String name )
+    {
+        LogStructuredDiskCacheAttributes cattr = new LogStructuredDiskCacheAttributes();
+        cattr.setCacheName( name );
+        cattr.setMaxKeySize( 10000 );
+        cattr.setDiskPath( "target/test-sandbox/LogStructuredDiskCacheUnitTest" );
+        cattr.setSegmentSizeBytes( 4096 );
+        cattr.setCompactionIntervalSeconds( 0 );
+        return cattr;
+    }
+
+    /**
+     * @param disk
+     * @param region
+     * @param key
+     * @param value
+     */
+    private void put( LogStructuredDiskCache<String, String> disk, String region, String key, String value )
+    {
+        IElementAttributes eAttr = new ElementAttributes();
+        eAttr.setIsSpool( true );
+        ICacheElement<String, String> element = new CacheElement<String, String>( region, key, value );
+        element.setElementAttributes( eAttr );
+        disk.processUpdate( element );
+    }
+
+    /**
+     * Verify that puts roll over to new segments and that updates and removes are visible.
+     */
+    public void testPutGetRemove_AcrossSegments()
+    {
+        // SETUP
+        LogStructuredDiskCache<String, String> disk =
+            new LogStructuredDiskCache<String, String>( getCacheAttributes( "testPutGetRemove" ) );
+        disk.processRemoveAll();
+
+        // DO WORK
+        int cnt = 500;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            put( disk, "testPutGetRemove", "key:" + i, "data:" + i );
+        }
+        put( disk, "testPutGetRemove", "key:1", "updated" );
+        disk.processRemove( "key:2" );
+
+        // VERIFY
+        assertTrue( "Should have started several segments.", disk.getSegmentCount() > 1 );
+        assertEquals( "Wrong size.", cnt - 1, disk.getSize() );
+        assertEquals( "Wrong updated value.", "updated", disk.processGet( "key:1" ).getVal() );
+        assertNull( "Should have been removed.", disk.processGet( "key:2" ) );
+        for ( int i = 3; i < cnt; i++ )
+        {
+            assertEquals( "Element is wrong.", "data:" + i, disk.processGet( "key:" + i ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that a key ending in the name component delimiter removes the whole hierarchy.
+     */
+    public void testRemove_Hierarchy()
+    {
+        // SETUP
+        LogStructuredDiskCache<String, String> disk =
+            new LogStructuredDiskCache<String, String>( getCacheAttributes( "testRemove_Hierarchy" ) );
+        disk.processRemoveAll();
+        put( disk, "testRemove_Hierarchy", "a:1", "data" );
+        put( disk, "testRemove_Hierarchy", "a:2", "data" );
+        put( disk, "testRemove_Hierarchy", "b:1", "data" );
+
+        // DO WORK
+        boolean removed = disk.processRemove( "a:" );
+
+        // VERIFY
+        assertTrue( "Should have removed the hierarchy.", removed );
+        assertNull( "Should have been removed.", disk.processGet( "a:1" ) );
+        assertNull( "Should have been removed.", disk.processGet( "a:2" ) );
+        assertNotNull( "Should still be there.", disk.processGet( "b:1" ) );
+    }
+
+    /**
+     * Verify that puts, gets and compaction running at the same time leave the latest values.
+     * <p>
+     * @throws Exception
+     */
+    public void testCompact_ConcurrentPutsAndGets()
+        throws Exception
+    {
+        // SETUP
+        final String region = "testCompact_ConcurrentPutsAndGets";
+        final LogStructuredDiskCache<String, String> disk =
+            new LogStructuredDiskCache<String, String>( getCacheAttributes( region ) );
+        disk.processRemoveAll();
+        final int cnt = 200;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            put( disk, region, "key:" + i, "data:0:" + i );
+        }
+
+        final int rounds = 20;
+        final boolean[] failed = new boolean[1];
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int r = 1; r <= rounds; r++ )
+                {
+                    for ( int i = 0; i < cnt; i++ )
+                    {
+                        put( disk, region, "key:" + i, "data:" + r + ":" + i );
+                    }
+                }
+            }
+        };
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int r = 0; r < rounds; r++ )
+                {
+                    for ( int i = 0; i < cnt; i++ )
+                    {
+                        ICacheElement<String, String> element = disk.processGet( "key:" + i );
+                        if ( element == null || !element.getVal().endsWith( ":" + i ) )
+                        {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            }
+        };
+
+        // DO WORK
+        writer.start();
+        reader.start();
+        while ( writer.isAlive() )
+        {
+            disk.compact();
+        }
+        writer.join();
+        reader.join();
+        disk.compact();
+
+        // VERIFY
+        assertFalse( "A get returned a missing or wrong element.", failed[0] );
+        assertTrue( "Should have compacted segments.", disk.getSegmentsCompacted() > 0 );
+        for ( int i = 0; i < cnt; i++ )
+        {
+            assertEquals( "Element is wrong.", "data:" + rounds + ":" + i, disk.processGet( "key:" + i ).getVal() );
+        }
+    }
+
+    /**
+     * Verify that compaction deletes mostly dead segments, keeps the live records readable, and
+     * reports its write amplification.
+     */
+    public void testCompact()
+    {
+        // SETUP
+        LogStructuredDiskCache<String, String> disk =
+            new LogStructuredDiskCache<String, String>( getCacheAttributes( "testCompact" ) );
+        disk.processRemoveAll();
+
+        int cnt = 500;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            put( disk, "testCompact", "key:" + i, "data:" + i );
+        }
+        for ( int i = 0; i < cnt; i++ )
+        {
+            if ( i % 4 != 0 )
+            {
+                disk.processRemove( "key:" + i );
+            }
+        }
+        int segmentsBefore = disk.getSegmentCount();
+
+        // DO WORK
+        int compacted = disk.compact();
+
+        // VERIFY
+        assertTrue( "Should have compacted segments.", compacted > 0 );
+        assertTrue( "Should have fewer segments.", disk.getSegmentCount() < segmentsBefore );
+        for ( int i = 0; i < cnt; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( "key:" + i );
+            if ( i % 4 == 0 )
+            {
+                assertEquals( "Element is wrong after compaction.", "data:" + i, element.getVal() );
+            }
+            else
+            {
+                assertNull( "Should have been removed.", element );
+            }
+        }
+        String stats = disk.getStats();
+        assertTrue( "Should report compaction. " + stats, stats.contains( "Segments Compacted = " + compacted ) );
+        assertTrue( "Should report write amplification. " + stats, stats.contains( "Write Amplification = 1." ) );
+    }
+
+    /**
+     * Verify that the keys and segments survive a restart, including moves made by compaction.
+     */
+    public void testDisposeAndReload()
+    {
+        // SETUP
+        LogStructuredDiskCacheAttributes cattr = getCacheAttributes( "testDisposeAndReload" );
+        LogStructuredDiskCache<String, String> disk = new LogStructuredDiskCache<String, String>( cattr );
+        disk.processRemoveAll();
+
+        int cnt = 300;
+        for ( int i = 0; i < cnt; i++ )
+        {
+            put( disk, "testDisposeAndReload", "key:" + i, "data:" + i );
+        }
+        for ( int i = 0; i < cnt; i += 2 )
+        {
+            disk.processRemove( "key:" + i );
+        }
+        disk.compact();
+
+        // DO WORK
+        disk.processDispose();
+        LogStructuredDiskCache<String, String> reloaded = new LogStructuredDiskCache<String, String>( cattr );
+
+        // VERIFY
+        assertEquals( "Wrong size after reload.", cnt / 2, reloaded.getSize() );
+        for ( int i = 1; i < cnt; i += 2 )
+        {
+            assertEquals( "Element is wrong after reload.", "data:" + i, reloaded.processGet( "key:" + i ).getVal() );
+        }
+        put( reloaded, "testDisposeAndReload", "key:new", "new" );
+        assertEquals( "Should append after reload.", "new", reloaded.processGet( "key:new" ).getVal() );
+    }
+}
@@ -0,0 +1,174 @@
+package org.apache.commons.jcs.auxiliary.disk.indexed;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes.DiskLimitType;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
+
+/**
+ * Tests for the sharded indexed disk cache.
+ */
+public class ShardedIndexedDiskCacheUnitTest
+    extends TestCase
+{
+    /** number of shards */
+    private static final int SHARDS = 4;
+
+    /**
+     * @param cacheName
+     * @return attributes for a sharded cache that counts keys
+     */
+    private ShardedIndexedDiskCacheAttributes getCacheAttributes( String cacheName )
+    {
+        ShardedIndexedDiskCacheAttributes cattr = new ShardedIndexedDiskCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setDiskPath( "target/test-sandbox/ShardedIndexedDiskCacheUnitTest" );
+        cattr.setMaxKeySize( 10000 );
+        cattr.setDiskLimitType( DiskLimitType.COUNT );
+        cattr.setShardCount( SHARDS );
+        return cattr;
+    }
+
+    /**
+     * Only the region starts a ring queue consumer, the shards do not queue events.
+     * <p>
+     * @throws Exception
+     */
+    public void testRingQueue_OneConsumerThread()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testRingQueue_OneConsumerThread";
+        ShardedIndexedDiskCacheAttributes cattr = getCacheAttributes( cacheName );
+        cattr.setEventQueueType( ICacheEventQueue.QueueType.RING );
+
+        // DO WORK
+        ShardedIndexedDiskCache<String, String> disk = new ShardedIndexedDiskCache<String, String>( cattr );
+
+        // VERIFY
+        int consumers = 0;
+        for ( Thread thread : Thread.getAllStackTraces().keySet() )
+        {
+            if ( thread.getName().startsWith( "JCS-RingBufferCacheEventQueue-" + cacheName + "-" ) )
+            {
+                consumers++;
+            }
+        }
+        assertEquals( "Wrong number of consumer threads", 1, consumers );
+        disk.dispose();
+    }
+
+    /**
+     * Keys are spread over all shards and read back from the right one.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutGetRemove()
+        throws Exception
+    {
+        // SETUP
+        int items = 400;
+        ShardedIndexedDiskCache<String, String> disk =
+            new ShardedIndexedDiskCache<String, String>( getCacheAttributes( "testPutGetRemove" ) );
+        disk.processRemoveAll();
+
+        // DO WORK
+        for ( int i = 0; i < items; i++ )
+        {
+            disk.processUpdate( new CacheElement<String, String>( "test", i % 2 + ":" + i, "data " + i ) );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong size", items, disk.getSize() );
+        for ( IndexedDiskCache<String, String> shard : disk.getShards() )
+        {
+            assertTrue( "Every shard should hold some keys", shard.getSize() > 0 );
+        }
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = disk.processGet( i % 2 + ":" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "data " + i, element.getVal() );
+        }
+        assertEquals( "Wrong key set size", items, disk.getKeySet().size() );
+        assertEquals( "Wrong matching size", 5, disk.processGetMatching( "1:1[0-9]" ).size() );
+
+        // DO WORK
+        assertTrue( "Should have removed the keys with the prefix", disk.processRemove( "1:" ) );
+
+        // VERIFY
+        assertEquals( "Wrong size after the partial removal", items / 2, disk.getSize() );
+        assertNull( "Should be removed", disk.processGet( "1:1" ) );
+        assertNotNull( "Should not be removed", disk.processGet( "0:0" ) );
+        String stats = disk.getStats();
+        assertTrue( "Wrong shard count: " + stats, stats.indexOf( "Shard Count = " + SHARDS ) >= 0 );
+        assertTrue( "Wrong summed key count: " + stats, stats.indexOf( "Key Map Size = " + items / 2 ) >= 0 );
+    }
+
+    /**
+     * A batch is split over the shards. After a dispose, every shard loads its keys again.
+     * <p>
+     * @throws Exception
+     */
+    public void testBatchedUpdatesAndReload()
+        throws Exception
+    {
+        // SETUP
+        int items = 300;
+        ShardedIndexedDiskCacheAttributes cattr = getCacheAttributes( "testBatchedUpdatesAndReload" );
+        ShardedIndexedDiskCache<String, String> disk = new ShardedIndexedDiskCache<String, String>( cattr );
+        disk.processRemoveAll();
+
+        List<ICacheElement<String, String>> batch = new ArrayList<ICacheElement<String, String>>();
+        for ( int i = 0; i < items; i++ )
+        {
+            batch.add( new CacheElement<String, String>( "test", "key" + i, "data " + i ) );
+        }
+
+        // DO WORK
+        disk.processUpdates( batch );
+        disk.dispose();
+        ShardedIndexedDiskCache<String, String> reloaded = new ShardedIndexedDiskCache<String, String>( cattr );
+
+        // VERIFY
+        assertFalse( "Should be disposed", disk.isAlive() );
+        assertTrue( "Should be alive", reloaded.isAlive() );
+        assertEquals( "Wrong size", items, reloaded.getSize() );
+        for ( int i = 0; i < items; i++ )
+        {
+            ICacheElement<String, String> element = reloaded.processGet( "key" + i );
+            assertNotNull( "Missing element " + i, element );
+            assertEquals( "Wrong value", "data " + i, element.getVal() );
+        }
+
+        // DO WORK
+        reloaded.processRemoveAll();
+
+        // VERIFY
+        assertEquals( "Wrong size after remove all", 0, reloaded.getSize() );
+        reloaded.dispose();
+    }
+}
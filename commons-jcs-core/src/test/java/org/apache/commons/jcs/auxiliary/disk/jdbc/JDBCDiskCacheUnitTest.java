@@ -32,6 +32,7 @@ import junit.framework.TestCase;
 import org.apache.commons.jcs.JCS;
 import org.apache.commons.jcs.access.CacheAccess;
 import org.apache.commons.jcs.auxiliary.disk.jdbc.dsfactory.DataSourceFactory;
+import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
 import org.apache.commons.jcs.engine.control.MockCompositeCacheManager;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
@@ -203,4 +204,63 @@ public class JDBCDiskCacheUnitTest
         HsqlSetupTableUtil.setupTABLE( cConn, "JCSTESTTABLE_InitializePoolAccess" );
 
     }
+
+    /**
+     * Verify that a cache with a key filter loads the keys of its region from the table on
+     * startup, and answers gets of other keys without a query.
+     * <p>
+     * @throws Exception
+     */
+    public void testKeyFilter_WithHSQL()
+        throws Exception
+    {
+        // SETUP
+        String tableName = "JCSTESTTABLE_KeyFilter";
+        String url = "jdbc:hsqldb:target/cache_hsql_db";
+        new org.hsqldb.jdbcDriver();
+        Connection cConn = DriverManager.getConnection( url, "sa", "" );
+        HsqlSetupTableUtil.setupTABLE( cConn, tableName );
+
+        JDBCDiskCacheAttributes cattr = new JDBCDiskCacheAttributes();
+        cattr.setCacheName( "testKeyFilter_WithHSQL" );
+        cattr.setTableName( tableName );
+        cattr.setUrl( url );
+        cattr.setDriverClassName( "org.hsqldb.jdbcDriver" );
+        cattr.setUserName( "sa" );
+        cattr.setPassword( "" );
+
+        MockCompositeCacheManager compositeCacheManager = new MockCompositeCacheManager();
+        JDBCDiskCacheFactory dcFactory = new JDBCDiskCacheFactory();
+        dcFactory.initialize();
+        dcFactory.setScheduledExecutorService(Executors.newScheduledThreadPool(2,
+            new DaemonThreadFactory("JCS-JDBCDiskCacheManager-", Thread.MIN_PRIORITY)));
+
+        JDBCDiskCache<String, String> writer = dcFactory.createCache( cattr, compositeCacheManager, null, new StandardSerializer() );
+        for ( int i = 0; i < 50; i++ )
+        {
+            writer.processUpdate( new CacheElement<String, String>( cattr.getCacheName(), "key" + i, "value" + i ) );
+        }
+
+        // DO WORK
+        JDBCDiskCacheAttributes filteredAttr = (JDBCDiskCacheAttributes) cattr.clone();
+        filteredAttr.setUseKeyFilter( true );
+        filteredAttr.setKeyFilterExpectedKeys( 1000 );
+        JDBCDiskCache<String, String> reader = dcFactory.createCache( filteredAttr, compositeCacheManager, null, new StandardSerializer() );
+
+        // VERIFY
+        for ( int i = 0; i < 50; i++ )
+        {
+            ICacheElement<String, String> element = reader.get( "key" + i );
+            assertNotNull( "Should be found " + i, element );
+            assertEquals( "Wrong value", "value" + i, element.getVal() );
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertNull( "Should not be found", reader.get( "missing" + i ) );
+        }
+        String stats = reader.getStats();
+        assertTrue( "The key filter should be loaded: " + stats, stats.indexOf( "Key Filter Ready = true" ) >= 0 );
+        int skips = Integer.parseInt( stats.replaceAll( "(?s).*Key Filter Skips = (\\d+).*", "$1" ) );
+        assertTrue( "Most misses should not reach the table: " + stats, skips >= 90 );
+    }
 }
@@ -1,5 +1,6 @@
 package org.apache.commons.jcs.engine;
 
+import org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCacheAttributes;
 import org.apache.commons.jcs.auxiliary.remote.MockRemoteCacheListener;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue;
 import org.apache.commons.jcs.engine.behavior.ICacheEventQueue.QueueType;
@@ -65,4 +66,31 @@ public class CacheEventQueueFactoryUnitTest
         assertNotNull( "Should have a result", result );
         assertTrue( "Wrong type", result.getQueueType() == QueueType.POOLED );
     }
+
+    /** Test create from attributes */
+    public void testCreateCacheEventQueue_Ring()
+    {
+        // SETUP
+        IndexedDiskCacheAttributes attributes = new IndexedDiskCacheAttributes();
+        attributes.setEventQueueType( QueueType.RING );
+        attributes.setEventQueueCapacity( 100 );
+        attributes.setEventQueueWaitStrategy( ICacheEventQueue.WaitStrategy.YIELDING );
+        attributes.setEventQueueOverflowPolicy( ICacheEventQueue.OverflowPolicy.COALESCE );
+        ICacheListener<String, String> listener = new MockRemoteCacheListener<String, String>();
+        long listenerId = 1;
+
+        CacheEventQueueFactory<String, String> factory = new CacheEventQueueFactory<String, String>();
+
+        // DO WORK
+        ICacheEventQueue<String, String> result = factory.createCacheEventQueue( listener, listenerId, "cacheName", attributes );
+
+        // VERIFY
+        assertNotNull( "Should have a result", result );
+        assertTrue( "Wrong type", result.getQueueType() == QueueType.RING );
+        RingBufferCacheEventQueue<String, String> ring = (RingBufferCacheEventQueue<String, String>) result;
+        assertEquals( "Wrong capacity", 128, ring.getCapacity() );
+        assertEquals( "Wrong wait strategy", ICacheEventQueue.WaitStrategy.YIELDING, ring.getWaitStrategy() );
+        assertEquals( "Wrong overflow policy", ICacheEventQueue.OverflowPolicy.COALESCE, ring.getOverflowPolicy() );
+        result.destroy();
+    }
 }
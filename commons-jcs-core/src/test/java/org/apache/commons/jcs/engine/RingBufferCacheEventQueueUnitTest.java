@@ -0,0 +1,463 @@
+package org.apache.commons.jcs.engine;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue.OverflowPolicy;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue.QueueType;
+import org.apache.commons.jcs.engine.behavior.ICacheEventQueue.WaitStrategy;
+import org.apache.commons.jcs.engine.behavior.ICacheListener;
+
+/** Unit tests for the RingBufferCacheEventQueue */
+public class RingBufferCacheEventQueueUnitTest
+    extends TestCase
+{
+    /** The queue under test. */
+    private RingBufferCacheEventQueue<String, String> queue;
+
+    /** Records what the queue delivers. */
+    private RecordingListener listener;
+
+    /**
+     * Creates the listener.
+     */
+    @Override
+    protected void setUp()
+    {
+        listener = new RecordingListener();
+    }
+
+    /**
+     * Stops the consumer.
+     */
+    @Override
+    protected void tearDown()
+    {
+        listener.gate.countDown();
+        if ( queue != null )
+        {
+            queue.destroy();
+        }
+    }
+
+    /**
+     * Events are delivered in the order they were added, across many batches.
+     * <p>
+     * @throws Exception
+     */
+    public void testPutRemove_InOrder()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 16, WaitStrategy.BLOCKING, OverflowPolicy.BLOCK );
+        List<String> expected = new ArrayList<String>();
+
+        // DO WORK
+        for ( int i = 0; i < 200; i++ )
+        {
+            queue.addPutEvent( element( "key" + i, "value" + i ) );
+            expected.add( "put key" + i + "=value" + i );
+            if ( i % 3 == 0 )
+            {
+                queue.addRemoveEvent( "key" + i );
+                expected.add( "remove key" + i );
+            }
+        }
+        queue.addRemoveAllEvent();
+        expected.add( "removeAll" );
+
+        // VERIFY
+        listener.awaitEvents( expected.size() );
+        assertEquals( "Wrong events", expected, listener.events );
+        assertEquals( "Wrong type", QueueType.RING, queue.getQueueType() );
+        assertEquals( "Wrong capacity", 16, queue.getCapacity() );
+        assertTrue( "Should be empty", queue.isEmpty() );
+    }
+
+    /**
+     * The capacity is rounded up to a power of two.
+     */
+    public void testCapacity_RoundedUp()
+    {
+        // DO WORK
+        queue = createQueue( 100, WaitStrategy.BLOCKING, OverflowPolicy.BLOCK );
+
+        // VERIFY
+        assertEquals( "Wrong capacity", 128, queue.getCapacity() );
+    }
+
+    /**
+     * Each wait strategy delivers everything from concurrent producers.
+     * <p>
+     * @throws Exception
+     */
+    public void testWaitStrategies()
+        throws Exception
+    {
+        for ( WaitStrategy waitStrategy : WaitStrategy.values() )
+        {
+            // SETUP
+            listener = new RecordingListener();
+            queue = createQueue( 8, waitStrategy, OverflowPolicy.BLOCK );
+            int producers = 4;
+            final int perProducer = 500;
+            Thread[] threads = new Thread[producers];
+
+            // DO WORK
+            for ( int p = 0; p < producers; p++ )
+            {
+                final String prefix = "p" + p + "-";
+                threads[p] = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for ( int i = 0; i < perProducer; i++ )
+                        {
+                            queue.addPutEvent( element( prefix + i, "value" ) );
+                        }
+                    }
+                };
+                threads[p].start();
+            }
+            for ( Thread thread : threads )
+            {
+                thread.join();
+            }
+
+            // VERIFY
+            listener.awaitEvents( producers * perProducer );
+            assertEquals( "Wrong number of events for " + waitStrategy, producers * perProducer,
+                          listener.events.size() );
+            assertTrue( "Should have stats for " + waitStrategy,
+                        queue.getStatistics().toString().contains( "Wait Strategy = " + waitStrategy ) );
+            queue.destroy();
+        }
+    }
+
+    /**
+     * A full ring makes the producer wait under BLOCK; nothing is lost.
+     * <p>
+     * @throws Exception
+     */
+    public void testOverflow_Block()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 2, WaitStrategy.BLOCKING, OverflowPolicy.BLOCK );
+        holdConsumer();
+        queue.addPutEvent( element( "a", "1" ) );
+        queue.addPutEvent( element( "b", "1" ) );
+
+        // DO WORK
+        Thread producer = putInThread( element( "c", "1" ) );
+        awaitBlockedPut();
+        listener.gate.countDown();
+        producer.join( 10000 );
+
+        // VERIFY
+        listener.awaitEvents( 4 );
+        assertEquals( "Wrong events", list( "put gate=gate", "put a=1", "put b=1", "put c=1" ), listener.events );
+        assertFalse( "Producer should be done", producer.isAlive() );
+    }
+
+    /**
+     * A full ring drops the oldest put under DROP_OLDEST.
+     * <p>
+     * @throws Exception
+     */
+    public void testOverflow_DropOldest()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 4, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST );
+        holdConsumer();
+
+        // DO WORK
+        for ( int i = 0; i < 6; i++ )
+        {
+            queue.addPutEvent( element( "key" + i, "1" ) );
+        }
+        assertEquals( "Wrong size", 4, queue.size() );
+        listener.gate.countDown();
+
+        // VERIFY
+        listener.awaitEvents( 5 );
+        assertEquals( "Wrong events",
+                      list( "put gate=gate", "put key2=1", "put key3=1", "put key4=1", "put key5=1" ),
+                      listener.events );
+        assertTrue( "Should count drops", queue.getStatistics().toString().contains( "Dropped Events = 2" ) );
+    }
+
+    /**
+     * A full ring replaces a queued put for the same key under COALESCE.
+     * <p>
+     * @throws Exception
+     */
+    public void testOverflow_Coalesce()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 4, WaitStrategy.BLOCKING, OverflowPolicy.COALESCE );
+        holdConsumer();
+        queue.addPutEvent( element( "a", "1" ) );
+        queue.addPutEvent( element( "b", "1" ) );
+        queue.addPutEvent( element( "c", "1" ) );
+        queue.addPutEvent( element( "d", "1" ) );
+
+        // DO WORK
+        queue.addPutEvent( element( "a", "2" ) );
+        queue.addPutEvent( element( "c", "2" ) );
+        listener.gate.countDown();
+
+        // VERIFY
+        listener.awaitEvents( 5 );
+        assertEquals( "Wrong events", list( "put gate=gate", "put a=2", "put b=1", "put c=2", "put d=1" ),
+                      listener.events );
+        assertTrue( "Should count coalesced puts",
+                    queue.getStatistics().toString().contains( "Coalesced Events = 2" ) );
+    }
+
+    /**
+     * A put is not coalesced past a remove of the same key; the producer waits instead.
+     * <p>
+     * @throws Exception
+     */
+    public void testOverflow_CoalesceStopsAtRemove()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 4, WaitStrategy.BLOCKING, OverflowPolicy.COALESCE );
+        holdConsumer();
+        queue.addPutEvent( element( "a", "1" ) );
+        queue.addPutEvent( element( "b", "1" ) );
+        queue.addRemoveEvent( "a" );
+        queue.addPutEvent( element( "c", "1" ) );
+
+        // DO WORK
+        Thread producer = putInThread( element( "a", "2" ) );
+        awaitBlockedPut();
+        listener.gate.countDown();
+        producer.join( 10000 );
+
+        // VERIFY
+        listener.awaitEvents( 6 );
+        assertEquals( "Wrong events",
+                      list( "put gate=gate", "put a=1", "put b=1", "remove a", "put c=1", "put a=2" ),
+                      listener.events );
+    }
+
+    /**
+     * Destroying the queue releases a waiting producer and discards queued events.
+     * <p>
+     * @throws Exception
+     */
+    public void testDestroy_ReleasesProducer()
+        throws Exception
+    {
+        // SETUP
+        queue = createQueue( 1, WaitStrategy.BLOCKING, OverflowPolicy.BLOCK );
+        holdConsumer();
+        queue.addPutEvent( element( "a", "1" ) );
+        Thread producer = putInThread( element( "b", "1" ) );
+        awaitBlockedPut();
+
+        // DO WORK
+        queue.destroy();
+        producer.join( 10000 );
+
+        // VERIFY
+        assertFalse( "Producer should be released", producer.isAlive() );
+        assertFalse( "Should not be working", queue.isWorking() );
+        assertTrue( "Should be empty", queue.isEmpty() );
+    }
+
+    /**
+     * @param capacity
+     * @param waitStrategy
+     * @param overflowPolicy
+     * @return a queue delivering to the listener
+     */
+    private RingBufferCacheEventQueue<String, String> createQueue( int capacity, WaitStrategy waitStrategy,
+                                                                   OverflowPolicy overflowPolicy )
+    {
+        return new RingBufferCacheEventQueue<String, String>( listener, 1, "testCache", 3, 100, capacity,
+                                                              waitStrategy, overflowPolicy );
+    }
+
+    /**
+     * Puts the gate element and waits until the consumer is holding it, so the ring is empty and
+     * does not drain until the gate is opened.
+     * <p>
+     * @throws Exception
+     */
+    private void holdConsumer()
+        throws Exception
+    {
+        queue.addPutEvent( element( "gate", "gate" ) );
+        assertTrue( "Consumer should take the gate", listener.atGate.await( 10, TimeUnit.SECONDS ) );
+    }
+
+    /**
+     * Waits until a producer is waiting for a free slot.
+     * <p>
+     * @throws Exception
+     */
+    private void awaitBlockedPut()
+        throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( !queue.getStatistics().toString().contains( "Blocked Puts = 1" ) )
+        {
+            assertTrue( "Producer should block", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+    }
+
+    /**
+     * @param element
+     * @return a started thread adding a put event
+     */
+    private Thread putInThread( final ICacheElement<String, String> element )
+    {
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                queue.addPutEvent( element );
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return an element
+     */
+    private static ICacheElement<String, String> element( String key, String value )
+    {
+        return new CacheElement<String, String>( "testCache", key, value );
+    }
+
+    /**
+     * @param events
+     * @return the events as a list
+     */
+    private static List<String> list( String... events )
+    {
+        List<String> result = new ArrayList<String>();
+        Collections.addAll( result, events );
+        return result;
+    }
+
+    /**
+     * Records delivered events. A put of the key "gate" holds the consumer until the gate is opened.
+     */
+    private static class RecordingListener
+        implements ICacheListener<String, String>
+    {
+        /** Delivered events. */
+        final List<String> events = Collections.synchronizedList( new ArrayList<String>() );
+
+        /** Counted down when the consumer reaches the gate element. */
+        final CountDownLatch atGate = new CountDownLatch( 1 );
+
+        /** Opened to let the consumer pass the gate element. */
+        final CountDownLatch gate = new CountDownLatch( 1 );
+
+        /**
+         * @param count
+         * @throws InterruptedException
+         */
+        void awaitEvents( int count )
+            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while ( events.size() < count && System.currentTimeMillis() < deadline )
+            {
+                Thread.sleep( 10 );
+            }
+        }
+
+        @Override
+        public void handlePut( ICacheElement<String, String> item )
+            throws IOException
+        {
+            events.add( "put " + item.getKey() + "=" + item.getVal() );
+            if ( "gate".equals( item.getKey() ) )
+            {
+                atGate.countDown();
+                try
+                {
+                    gate.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( e.getMessage() );
+                }
+            }
+        }
+
+        @Override
+        public void handleRemove( String cacheName, String key )
+            throws IOException
+        {
+            events.add( "remove " + key );
+        }
+
+        @Override
+        public void handleRemoveAll( String cacheName )
+            throws IOException
+        {
+            events.add( "removeAll" );
+        }
+
+        @Override
+        public void handleDispose( String cacheName )
+            throws IOException
+        {
+            events.add( "dispose" );
+        }
+
+        @Override
+        public void setListenerId( long id )
+        {
+            // not used
+        }
+
+        @Override
+        public long getListenerId()
+        {
+            return 1;
+        }
+    }
+}
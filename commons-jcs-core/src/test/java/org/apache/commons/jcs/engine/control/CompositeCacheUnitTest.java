@@ -26,13 +26,21 @@ import org.apache.commons.jcs.engine.CacheElement;
 import org.apache.commons.jcs.engine.CompositeCacheAttributes;
 import org.apache.commons.jcs.engine.ElementAttributes;
 import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheLoader;
 import org.apache.commons.jcs.engine.behavior.ICacheType.CacheType;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.IElementAttributes;
 import org.apache.commons.jcs.engine.memory.MockMemoryCache;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests that directly engage the composite cache.
@@ -242,4 +250,347 @@ public class CompositeCacheUnitTest
         // VERIFY
         assertEquals( "Wrong number of calls", 1, diskMock.getMatchingCallCount );
     }
+
+    /**
+     * Verify that a region using key locks serves hits from memory and counts misses and
+     * removals the same way as a region locked as a whole.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetRemove_KeyLocks()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testGetRemove_KeyLocks";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        cattr.setMaxObjects( 1000 );
+        cattr.setUseKeyLocks( true );
+
+        IElementAttributes attr = new ElementAttributes();
+
+        final CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, attr );
+
+        MockAuxiliaryCache<String, Integer> diskMock = new MockAuxiliaryCache<String, Integer>();
+        diskMock.cacheType = CacheType.DISK_CACHE;
+        @SuppressWarnings("unchecked")
+        AuxiliaryCache<String, Integer>[] aux = new AuxiliaryCache[] { diskMock };
+        cache.setAuxCaches( aux );
+
+        final int numToInsert = 100;
+        for ( int i = 0; i < numToInsert; i++ )
+        {
+            cache.update( new CacheElement<String, Integer>( cacheName, "key" + i, Integer.valueOf( i ) ) );
+        }
+
+        // DO WORK
+        final int numThreads = 4;
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[numThreads];
+        for ( int t = 0; t < numThreads; t++ )
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < numToInsert; i++ )
+                    {
+                        ICacheElement<String, Integer> element = cache.get( "key" + i );
+                        if ( element == null || element.getVal().intValue() != i )
+                        {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        boolean removed = cache.remove( "key0" );
+        ICacheElement<String, Integer> afterRemove = cache.get( "key0" );
+
+        // VERIFY
+        assertFalse( "Wrong value returned", failed[0] );
+        assertEquals( "Wrong number of memory hits", numThreads * numToInsert, cache.getHitCountRam() );
+        assertTrue( "Should have been removed", removed );
+        assertNull( "Should be gone", afterRemove );
+        assertEquals( "Wrong number of misses", 1, cache.getMissCountNotFound() );
+    }
+
+    /**
+     * Verify that a hit near the end of the max life returns the current value and reloads the
+     * element in the background.
+     * <p>
+     * @throws Exception
+     */
+    public void testGet_RefreshAhead()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testGet_RefreshAhead";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        cattr.setMaxObjects( 100 );
+        cattr.setRefreshAheadPercent( 50 );
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( false );
+        attr.setTimeFactorForMilliseconds( 1 );
+        attr.setMaxLife( 1000 );
+
+        CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, attr );
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        cache.setScheduledExecutorService( scheduler );
+
+        final AtomicInteger loads = new AtomicInteger();
+        cache.setCacheLoader( new ICacheLoader<String, Integer>()
+        {
+            @Override
+            public Integer load( String key )
+            {
+                return Integer.valueOf( loads.incrementAndGet() );
+            }
+        } );
+
+        CacheElement<String, Integer> element = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 0 ) );
+        element.setElementAttributes( cache.getElementAttributes() );
+        cache.update( element );
+
+        // DO WORK
+        ICacheElement<String, Integer> early = cache.get( "key" );
+        Thread.sleep( 600 );
+        ICacheElement<String, Integer> late = cache.get( "key" );
+        for ( int i = 0; i < 100 && cache.getRefreshCount() == 0; i++ )
+        {
+            Thread.sleep( 20 );
+        }
+        ICacheElement<String, Integer> refreshed = cache.get( "key" );
+        scheduler.shutdownNow();
+
+        // VERIFY
+        assertEquals( "Wrong value before the refresh window", 0, early.getVal().intValue() );
+        assertEquals( "Should keep returning the current value", 0, late.getVal().intValue() );
+        assertEquals( "Wrong number of refreshes", 1, cache.getRefreshCount() );
+        assertEquals( "Should have the refreshed value", 1, refreshed.getVal().intValue() );
+        assertEquals( "Loader should run once", 1, loads.get() );
+    }
+
+    /**
+     * Verify that refresh-ahead loads do not run on the region scheduler, so a busy scheduler does
+     * not delay them and a slow loader does not delay the scheduler.
+     * <p>
+     * @throws Exception
+     */
+    public void testGet_RefreshAheadWithBusyScheduler()
+        throws Exception
+    {
+        // SETUP
+        String cacheName = "testGet_RefreshAheadWithBusyScheduler";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        cattr.setMaxObjects( 100 );
+        cattr.setRefreshAheadPercent( 100 );
+
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( false );
+        attr.setTimeFactorForMilliseconds( 1 );
+        attr.setMaxLife( 60000 );
+
+        CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, attr );
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch schedulerBusy = new CountDownLatch( 1 );
+        scheduler.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    schedulerBusy.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    // done
+                }
+            }
+        } );
+        cache.setScheduledExecutorService( scheduler );
+
+        cache.setCacheLoader( new ICacheLoader<String, Integer>()
+        {
+            @Override
+            public Integer load( String key )
+            {
+                return Integer.valueOf( 1 );
+            }
+        } );
+
+        CacheElement<String, Integer> element = new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 0 ) );
+        element.setElementAttributes( cache.getElementAttributes() );
+        cache.update( element );
+
+        // DO WORK
+        cache.get( "key" );
+        for ( int i = 0; i < 100 && cache.getRefreshCount() == 0; i++ )
+        {
+            Thread.sleep( 20 );
+        }
+        int refreshes = cache.getRefreshCount();
+        schedulerBusy.countDown();
+        scheduler.shutdownNow();
+
+        // VERIFY
+        assertEquals( "Refresh should not wait for the scheduler", 1, refreshes );
+        assertEquals( "Should have the refreshed value", 1, cache.get( "key" ).getVal().intValue() );
+    }
+
+    /**
+     * Verify that a slow remote does not hold up the disk answer when the auxiliaries are called
+     * in parallel, and that the timeout shows up in the statistics.
+     * <p>
+     * @throws Exception
+     */
+    public void testGetMultipleAndUpdate_ParallelAuxiliaries()
+        throws Exception
+    {
+        // SETUP
+        final String cacheName = "testGetMultipleAndUpdate_ParallelAuxiliaries";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        cattr.setMaxObjects( 100 );
+        cattr.setUseParallelAuxiliaries( true );
+        cattr.setAuxiliaryTimeoutMillis( 200 );
+
+        CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, new ElementAttributes() );
+
+        MockAuxiliaryCache<String, Integer> remoteMock = new MockAuxiliaryCache<String, Integer>()
+        {
+            @Override
+            public void update( ICacheElement<String, Integer> ce )
+            {
+                sleep( 2000 );
+            }
+
+            @Override
+            public Map<String, ICacheElement<String, Integer>> getMultiple( Set<String> keys )
+            {
+                sleep( 2000 );
+                return new HashMap<String, ICacheElement<String, Integer>>();
+            }
+        };
+        remoteMock.cacheType = CacheType.REMOTE_CACHE;
+
+        MockAuxiliaryCache<String, Integer> diskMock = new MockAuxiliaryCache<String, Integer>()
+        {
+            @Override
+            public Map<String, ICacheElement<String, Integer>> getMultiple( Set<String> keys )
+            {
+                Map<String, ICacheElement<String, Integer>> result = new HashMap<String, ICacheElement<String, Integer>>();
+                for ( String key : keys )
+                {
+                    result.put( key, new CacheElement<String, Integer>( cacheName, key, Integer.valueOf( 1 ) ) );
+                }
+                return result;
+            }
+        };
+        diskMock.cacheType = CacheType.DISK_CACHE;
+
+        @SuppressWarnings("unchecked")
+        AuxiliaryCache<String, Integer>[] aux = new AuxiliaryCache[] { remoteMock, diskMock };
+        cache.setAuxCaches( aux );
+
+        Set<String> keys = new HashSet<String>();
+        keys.add( "a" );
+        keys.add( "b" );
+
+        // DO WORK
+        long start = System.currentTimeMillis();
+        Map<String, ICacheElement<String, Integer>> elements = cache.getMultiple( keys );
+        cache.update( new CacheElement<String, Integer>( cacheName, "c", Integer.valueOf( 3 ) ) );
+        long elapsed = System.currentTimeMillis() - start;
+
+        // VERIFY
+        assertEquals( "Wrong number of elements", 2, elements.size() );
+        assertTrue( "Should not wait for the slow remote: " + elapsed, elapsed < 1500 );
+        String stats = cache.getStats();
+        assertTrue( "Should report the timeouts. " + stats, stats.indexOf( "Aux 0 Timeouts = 2" ) != -1 );
+        assertTrue( "Should report the disk calls. " + stats, stats.indexOf( "Aux 1 Call Count = 1" ) != -1 );
+    }
+
+    /**
+     * Verify that a parallel update that times out is cancelled, so it neither keeps its pool
+     * thread nor reaches the auxiliary late.
+     * <p>
+     * @throws Exception
+     */
+    public void testUpdate_ParallelAuxiliaryTimeoutCancels()
+        throws Exception
+    {
+        // SETUP
+        final String cacheName = "testUpdate_ParallelAuxiliaryTimeoutCancels";
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( cacheName );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        cattr.setMaxObjects( 100 );
+        cattr.setUseParallelAuxiliaries( true );
+        cattr.setAuxiliaryTimeoutMillis( 100 );
+
+        CompositeCache<String, Integer> cache = new CompositeCache<String, Integer>( cattr, new ElementAttributes() );
+
+        final AtomicInteger applied = new AtomicInteger( 0 );
+        final AtomicInteger interrupted = new AtomicInteger( 0 );
+        MockAuxiliaryCache<String, Integer> remoteMock = new MockAuxiliaryCache<String, Integer>()
+        {
+            @Override
+            public void update( ICacheElement<String, Integer> ce )
+            {
+                try
+                {
+                    Thread.sleep( 1000 );
+                    applied.incrementAndGet();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted.incrementAndGet();
+                }
+            }
+        };
+        remoteMock.cacheType = CacheType.REMOTE_CACHE;
+
+        @SuppressWarnings("unchecked")
+        AuxiliaryCache<String, Integer>[] aux = new AuxiliaryCache[] { remoteMock };
+        cache.setAuxCaches( aux );
+
+        // DO WORK
+        cache.update( new CacheElement<String, Integer>( cacheName, "key", Integer.valueOf( 1 ) ) );
+        Thread.sleep( 1500 );
+
+        // VERIFY
+        assertEquals( "The timed out update should not be applied", 0, applied.get() );
+        assertEquals( "The timed out update should be interrupted", 1, interrupted.get() );
+    }
+
+    /**
+     * @param millis time to sleep
+     */
+    static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
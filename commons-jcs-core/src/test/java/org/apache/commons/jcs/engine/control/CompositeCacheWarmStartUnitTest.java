@@ -0,0 +1,311 @@
+package org.apache.commons.jcs.engine.control;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+
+/**
+ * Tests the warm start of a region from the keys remembered at the last shutdown.
+ */
+public class CompositeCacheWarmStartUnitTest
+    extends TestCase
+{
+    /** Region used by the tests */
+    private static final String REGION = "warmStart";
+
+    /** Where the disk cache keeps its files */
+    private static final String DISK_PATH = "target/test-sandbox/warm-start";
+
+    /**
+     * Start clean.
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        File dir = new File( DISK_PATH );
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param keysPerSecond the warm start rate
+     * @return the configuration of a region with a memory cache of 50 and an indexed disk cache
+     */
+    private Properties getProperties( int keysPerSecond )
+    {
+        return getProperties( keysPerSecond, 50 );
+    }
+
+    /**
+     * @param keysPerSecond the warm start rate
+     * @param maxObjects the size of the memory cache
+     * @return the configuration of a region with an indexed disk cache
+     */
+    private Properties getProperties( int keysPerSecond, int maxObjects )
+    {
+        Properties props = new Properties();
+        props.put( "jcs.default", "DC" );
+        props.put( "jcs.default.cacheattributes", "org.apache.commons.jcs.engine.CompositeCacheAttributes" );
+        props.put( "jcs.default.cacheattributes.MaxObjects", String.valueOf( maxObjects ) );
+        props.put( "jcs.default.cacheattributes.MemoryCacheName", "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        props.put( "jcs.default.cacheattributes.WarmStartKeyCount", "20" );
+        props.put( "jcs.default.cacheattributes.WarmStartKeysPerSecond", String.valueOf( keysPerSecond ) );
+        props.put( "jcs.auxiliary.DC", "org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCacheFactory" );
+        props.put( "jcs.auxiliary.DC.attributes", "org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCacheAttributes" );
+        props.put( "jcs.auxiliary.DC.attributes.DiskPath", DISK_PATH );
+        return props;
+    }
+
+    /**
+     * Fill the region, touch some elements that went to disk, shut down and start again. The
+     * touched elements must come back into memory without being requested.
+     * <p>
+     * @throws Exception
+     */
+    public void testHottestKeysReloadedAfterRestart()
+        throws Exception
+    {
+        // SETUP
+        CompositeCacheManager mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 0 ) );
+        CompositeCache<String, String> cache = mgr.getCache( REGION );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            put( cache, "key" + i, "data" + i );
+        }
+
+        // the first keys were spooled to disk, bring them back as the most recently used ones
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertNotNull( "key" + i + " should be on disk", cache.get( "key" + i ) );
+        }
+
+        mgr.shutDown();
+        assertTrue( "Key file should exist", new File( DISK_PATH, REGION + ".warm" ).exists() );
+
+        // DO WORK
+        mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 0 ) );
+        cache = mgr.getCache( REGION );
+        waitForWarmStart( cache );
+
+        // VERIFY
+        Set<String> keys = cache.getMemoryCache().getKeySet();
+        assertEquals( "Wrong number of keys in memory " + keys, 20, keys.size() );
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( "Wrong value in memory", "data" + i, cache.getMemoryCache().getQuiet( "key" + i ).getVal() );
+        }
+        assertEquals( "Warm Start Loaded", "20", getStat( cache, "Warm Start Loaded" ) );
+
+        mgr.shutDown();
+    }
+
+    /**
+     * Restart with a memory cache smaller than the number of remembered keys. Only the hottest
+     * keys that fit must be loaded, and the key file must be gone so it is not replayed again.
+     * <p>
+     * @throws Exception
+     */
+    public void testHottestKeysKeptWhenMemoryIsSmaller()
+        throws Exception
+    {
+        // SETUP
+        CompositeCacheManager mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 0 ) );
+        CompositeCache<String, String> cache = mgr.getCache( REGION );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            put( cache, "key" + i, "data" + i );
+        }
+
+        // key19 ends up as the hottest key
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertNotNull( "key" + i + " should be on disk", cache.get( "key" + i ) );
+        }
+
+        mgr.shutDown();
+        File warmFile = new File( DISK_PATH, REGION + ".warm" );
+        assertTrue( "Key file should exist", warmFile.exists() );
+
+        // DO WORK
+        mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 0, 10 ) );
+        cache = mgr.getCache( REGION );
+        waitForWarmStart( cache );
+
+        // VERIFY
+        assertFalse( "Key file should be deleted once read", warmFile.exists() );
+        Set<String> keys = cache.getMemoryCache().getKeySet();
+        assertEquals( "Wrong number of keys in memory " + keys, 10, keys.size() );
+        for ( int i = 10; i < 20; i++ )
+        {
+            assertTrue( "key" + i + " should be in memory " + keys, keys.contains( "key" + i ) );
+        }
+        assertEquals( "Warm Start Keys", "10", getStat( cache, "Warm Start Keys" ) );
+
+        mgr.shutDown();
+    }
+
+    /**
+     * Verify that the rate limit spreads the warm start over time.
+     * <p>
+     * @throws Exception
+     */
+    public void testRateLimit()
+        throws Exception
+    {
+        // SETUP
+        CompositeCacheManager mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 40 ) );
+        CompositeCache<String, String> cache = mgr.getCache( REGION );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            put( cache, "key" + i, "data" + i );
+        }
+        mgr.shutDown();
+
+        // DO WORK
+        mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 40 ) );
+        cache = mgr.getCache( REGION );
+        waitForWarmStart( cache );
+
+        // VERIFY
+        long millis = Long.parseLong( getStat( cache, "Warm Start Millis" ) );
+        assertTrue( "20 keys at 40 per second should take a while, took " + millis, millis >= 300 );
+        assertEquals( "Warm Start Loaded", "20", getStat( cache, "Warm Start Loaded" ) );
+
+        mgr.shutDown();
+    }
+
+    /**
+     * Verify that a rate limited warm start loads the hottest keys first.
+     * <p>
+     * @throws Exception
+     */
+    public void testRateLimit_HottestFirst()
+        throws Exception
+    {
+        // SETUP
+        CompositeCacheManager mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 20 ) );
+        CompositeCache<String, String> cache = mgr.getCache( REGION );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            put( cache, "key" + i, "data" + i );
+        }
+        // key19 ends up as the hottest key
+        for ( int i = 0; i < 20; i++ )
+        {
+            cache.get( "key" + i );
+        }
+        mgr.shutDown();
+
+        // DO WORK
+        mgr = CompositeCacheManager.getUnconfiguredInstance();
+        mgr.configure( getProperties( 20 ) );
+        cache = mgr.getCache( REGION );
+        for ( int i = 0; i < 100 && cache.getMemoryCache().getQuiet( "key19" ) == null; i++ )
+        {
+            Thread.sleep( 10 );
+        }
+
+        // VERIFY
+        assertNotNull( "The hottest key should be loaded", cache.getMemoryCache().getQuiet( "key19" ) );
+        assertNull( "The coldest key should come last", cache.getMemoryCache().getQuiet( "key0" ) );
+        waitForWarmStart( cache );
+        assertEquals( "Warm Start Loaded", "20", getStat( cache, "Warm Start Loaded" ) );
+
+        mgr.shutDown();
+    }
+
+    /**
+     * @param cache the region
+     * @param key the key
+     * @param value the value
+     * @throws IOException
+     */
+    private void put( CompositeCache<String, String> cache, String key, String value )
+        throws IOException
+    {
+        CacheElement<String, String> ce = new CacheElement<String, String>( REGION, key, value );
+        ce.setElementAttributes( cache.getElementAttributes() );
+        cache.update( ce );
+    }
+
+    /**
+     * Waits up to ten seconds for the warm start to finish.
+     * <p>
+     * @param cache the region
+     * @throws InterruptedException
+     */
+    private void waitForWarmStart( CompositeCache<String, String> cache )
+        throws InterruptedException
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            String millis = getStat( cache, "Warm Start Millis" );
+            if ( millis != null && !"-1".equals( millis ) )
+            {
+                return;
+            }
+            Thread.sleep( 100 );
+        }
+        fail( "Warm start did not finish" );
+    }
+
+    /**
+     * @param cache the region
+     * @param name the name of a statistic
+     * @return the value of the statistic or null
+     */
+    private String getStat( CompositeCache<String, String> cache, String name )
+    {
+        for ( IStatElement<?> se : cache.getStatistics().getStatElements() )
+        {
+            if ( name.equals( se.getName() ) )
+            {
+                return String.valueOf( se.getData() );
+            }
+        }
+        return null;
+    }
+}
@@ -20,9 +20,11 @@ package org.apache.commons.jcs.engine.memory;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -96,6 +98,17 @@ public class MockMemoryCache<K, V>
         return new LinkedHashSet<K>(map.keySet());
     }
 
+    /**
+     * @param max
+     * @return the first max keys of the map
+     */
+    @Override
+    public List<K> getHottestKeys( int max )
+    {
+        List<K> keys = new ArrayList<K>( map.keySet() );
+        return keys.size() > max ? keys.subList( 0, max ) : keys;
+    }
+
     /**
      * @param key
      * @return map.remove( key ) != null
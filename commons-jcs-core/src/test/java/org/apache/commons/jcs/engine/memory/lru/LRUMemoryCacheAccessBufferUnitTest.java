@@ -0,0 +1,171 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+
+/**
+ * Tests the LRU memory cache with buffered reordering of hits.
+ */
+public class LRUMemoryCacheAccessBufferUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that buffered hits are applied before elements are spooled, so the recently used
+     * elements stay in memory.
+     * <p>
+     * @throws Exception
+     */
+    public void testBufferedHitsAffectEviction()
+        throws Exception
+    {
+        // SETUP
+        int max = 100;
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testBufferedHitsAffectEviction" );
+        cattr.setMaxObjects( max );
+        cattr.setSpoolChunkSize( 1 );
+        cattr.setAccessBufferSize( 16 );
+        CompositeCache<String, String> cache = new CompositeCache<String, String>( cattr, new ElementAttributes() );
+
+        LRUMemoryCache<String, String> lru = new LRUMemoryCache<String, String>();
+        lru.initialize( cache );
+
+        for ( int i = 0; i < max; i++ )
+        {
+            lru.update( new CacheElement<String, String>( cattr.getCacheName(), i + ":key", "data " + i ) );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < max / 2; i++ )
+        {
+            assertNotNull( lru.get( i + ":key" ) );
+        }
+        for ( int i = max; i < max + max / 2; i++ )
+        {
+            lru.update( new CacheElement<String, String>( cattr.getCacheName(), i + ":key", "data " + i ) );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < max / 2; i++ )
+        {
+            assertNotNull( "Recently used item was spooled: " + i, lru.getQuiet( i + ":key" ) );
+        }
+        for ( int i = max / 2; i < max; i++ )
+        {
+            assertNull( "Least recently used item should be spooled: " + i, lru.getQuiet( i + ":key" ) );
+        }
+
+        assertEquals( "Wrong number of reorders", String.valueOf( max / 2 ), getStat( lru.getStatistics(), "Reorders Applied" ) );
+        assertEquals( "Nothing should be dropped", "0", getStat( lru.getStatistics(), "Reorders Dropped" ) );
+    }
+
+    /**
+     * Verify that concurrent readers see consistent values and the list stays consistent with the
+     * map.
+     * <p>
+     * @throws Exception
+     */
+    public void testConcurrentGets()
+        throws Exception
+    {
+        // SETUP
+        final int max = 1000;
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testConcurrentGets" );
+        cattr.setMaxObjects( max );
+        cattr.setAccessBufferSize( 4 );
+        CompositeCache<String, String> cache = new CompositeCache<String, String>( cattr, new ElementAttributes() );
+
+        final LRUMemoryCache<String, String> lru = new LRUMemoryCache<String, String>();
+        lru.initialize( cache );
+
+        for ( int i = 0; i < max; i++ )
+        {
+            lru.update( new CacheElement<String, String>( cattr.getCacheName(), i + ":key", "data " + i ) );
+        }
+
+        // DO WORK
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int n = 0; n < 10; n++ )
+                        {
+                            for ( int i = 0; i < max; i++ )
+                            {
+                                if ( !( "data " + i ).equals( lru.get( i + ":key" ).getVal() ) )
+                                {
+                                    failed[0] = true;
+                                }
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        failed[0] = true;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        lru.freeElements( 0 );
+
+        // VERIFY
+        assertFalse( "Wrong value returned", failed[0] );
+        assertEquals( "Wrong list size", String.valueOf( max ), getStat( lru.getStatistics(), "List Size" ) );
+        assertEquals( "Wrong map size", max, lru.getSize() );
+    }
+
+    /**
+     * @param stats the stats
+     * @param name the name of the stat element
+     * @return the value of the stat element as a string
+     */
+    private String getStat( IStats stats, String name )
+    {
+        for ( IStatElement<?> element : stats.getStatElements() )
+        {
+            if ( name.equals( element.getName() ) )
+            {
+                return String.valueOf( element.getData() );
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,158 @@
+package org.apache.commons.jcs.engine.memory.lru;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.behavior.IElementWeigher;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+
+/**
+ * Tests the LRU memory cache limited by the weight of its elements.
+ */
+public class LRUMemoryCacheWeightUnitTest
+    extends TestCase
+{
+    /**
+     * Verify that the size attribute of the elements limits the memory cache.
+     * <p>
+     * @throws Exception
+     */
+    public void testSizeAttributeLimit()
+        throws Exception
+    {
+        // SETUP
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testSizeAttributeLimit" );
+        cattr.setMaxObjects( 1000 );
+        cattr.setMaxMemoryBytes( 1000 );
+        CompositeCache<String, String> cache = new CompositeCache<String, String>( cattr, new ElementAttributes() );
+
+        LRUMemoryCache<String, String> lru = new LRUMemoryCache<String, String>();
+        lru.initialize( cache );
+
+        // DO WORK
+        for ( int i = 0; i < 20; i++ )
+        {
+            CacheElement<String, String> ce = new CacheElement<String, String>( cattr.getCacheName(), i + ":key", "data " + i );
+            ElementAttributes attr = new ElementAttributes();
+            attr.setSize( 100 );
+            ce.setElementAttributes( attr );
+            lru.update( ce );
+        }
+
+        // VERIFY
+        assertEquals( "Wrong memory size", 10, lru.getSize() );
+        assertNull( "Oldest element should be spooled", lru.getQuiet( "9:key" ) );
+        assertNotNull( "Newest element should be in memory", lru.getQuiet( "10:key" ) );
+        assertEquals( "Wrong current bytes", "1000", getStat( lru.getStatistics(), "Current Bytes" ) );
+        assertEquals( "Wrong max bytes", "1000", getStat( lru.getStatistics(), "Max Bytes" ) );
+
+        lru.remove( "19:key" );
+        assertEquals( "Remove should release the weight", "900", getStat( lru.getStatistics(), "Current Bytes" ) );
+
+        lru.removeAll();
+        assertEquals( "RemoveAll should release the weight", "0", getStat( lru.getStatistics(), "Current Bytes" ) );
+    }
+
+    /**
+     * Verify that a configured weigher is used and that one heavy element pushes out many light
+     * ones.
+     * <p>
+     * @throws Exception
+     */
+    public void testCustomWeigher()
+        throws Exception
+    {
+        // SETUP
+        ICompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testCustomWeigher" );
+        cattr.setMaxObjects( 1000 );
+        cattr.setMaxMemoryBytes( 100 );
+        cattr.setMemoryWeigherName( LengthWeigher.class.getName() );
+        CompositeCache<String, String> cache = new CompositeCache<String, String>( cattr, new ElementAttributes() );
+
+        LRUMemoryCache<String, String> lru = new LRUMemoryCache<String, String>();
+        lru.initialize( cache );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            lru.update( new CacheElement<String, String>( cattr.getCacheName(), i + ":key", "0123456789" ) );
+        }
+        assertEquals( "All light elements should fit", 10, lru.getSize() );
+
+        // DO WORK
+        StringBuilder heavy = new StringBuilder();
+        for ( int i = 0; i < 60; i++ )
+        {
+            heavy.append( 'x' );
+        }
+        lru.update( new CacheElement<String, String>( cattr.getCacheName(), "heavy", heavy.toString() ) );
+
+        // VERIFY
+        assertEquals( "Wrong memory size", 5, lru.getSize() );
+        assertNotNull( lru.getQuiet( "heavy" ) );
+        assertEquals( "Wrong current bytes", "100", getStat( lru.getStatistics(), "Current Bytes" ) );
+
+        // replacing an element releases the old weight
+        lru.update( new CacheElement<String, String>( cattr.getCacheName(), "heavy", "x" ) );
+        assertEquals( "Wrong current bytes", "41", getStat( lru.getStatistics(), "Current Bytes" ) );
+    }
+
+    /**
+     * Weighs a string value by its length.
+     */
+    public static class LengthWeigher
+        implements IElementWeigher
+    {
+        /**
+         * @param ce the element
+         * @return the length of the value
+         */
+        @Override
+        public <K, V> long weigh( ICacheElement<K, V> ce )
+        {
+            return ce.getVal().toString().length();
+        }
+    }
+
+    /**
+     * @param stats the stats
+     * @param name the name of the stat element
+     * @return the value of the stat element as a string
+     */
+    private String getStat( IStats stats, String name )
+    {
+        for ( IStatElement<?> element : stats.getStatElements() )
+        {
+            if ( name.equals( element.getName() ) )
+            {
+                return String.valueOf( element.getData() );
+            }
+        }
+        return null;
+    }
+}
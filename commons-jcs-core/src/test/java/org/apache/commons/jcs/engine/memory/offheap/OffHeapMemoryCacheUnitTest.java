@@ -0,0 +1,153 @@
+package org.apache.commons.jcs.engine.memory.offheap;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.commons.jcs.JCS;
+import org.apache.commons.jcs.access.CacheAccess;
+import org.apache.commons.jcs.access.exception.CacheException;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.CompositeCacheManager;
+
+/**
+ * Tests for the off heap memory cache.
+ */
+public class OffHeapMemoryCacheUnitTest
+    extends TestCase
+{
+    /** Test setup */
+    @Override
+    public void setUp()
+    {
+        JCS.setConfigFilename( "/TestOffHeapCache.ccf" );
+    }
+
+    /**
+     * Verify that the off heap cache can be selected in the cache.ccf.
+     * <p>
+     * @throws CacheException
+     */
+    public void testLoadFromCCF()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testLoadFromCCF" );
+        String memoryCacheName = cache.getCacheAttributes().getMemoryCacheName();
+        assertTrue( "Cache name should have OffHeap in it.", memoryCacheName.indexOf( "OffHeapMemoryCache" ) != -1 );
+    }
+
+    /**
+     * Put as many as the max. Verify that all are in the cache and that the size is respected
+     * when more are added.
+     * <p>
+     * @throws CacheException
+     */
+    public void testPutGetThroughHub()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testPutGetThroughHub" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+
+        for ( int i = 0; i < max; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        for ( int i = 0; i < max; i++ )
+        {
+            assertEquals( "data " + i, cache.get( i + ":key" ) );
+        }
+
+        // replace an element
+        cache.put( "0:key", "new data" );
+        assertEquals( "new data", cache.get( "0:key" ) );
+
+        for ( int i = max; i < max * 3; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        CompositeCache<String, String> hub = CompositeCacheManager.getInstance().getCache( "testPutGetThroughHub" );
+        assertEquals( "Wrong memory size", max, hub.getMemoryCache().getSize() );
+    }
+
+    /**
+     * Verify that elements are evicted when the direct memory is full, before MaxObjects is
+     * reached, and that removing elements returns their blocks.
+     * <p>
+     * @throws Exception
+     */
+    public void testByteLimit()
+        throws Exception
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testByteLimit" );
+        CompositeCache<String, String> hub = CompositeCacheManager.getInstance().getCache( "testByteLimit" );
+        OffHeapMemoryCache<String, String> memCache = (OffHeapMemoryCache<String, String>) hub.getMemoryCache();
+
+        StringBuilder value = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            value.append( 'x' );
+        }
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            cache.put( "key" + i, value.toString() + i );
+        }
+
+        // 128 blocks of 512 bytes, every element needs at least 3
+        int size = memCache.getSize();
+        assertTrue( "Too many elements in memory: " + size, size > 0 && size <= 128 / 3 );
+        assertEquals( value.toString() + 199, cache.get( "key199" ) );
+
+        cache.clear();
+        assertEquals( "Wrong memory size", 0, memCache.getSize() );
+
+        String stats = cache.getStats();
+        assertTrue( "Should contain the type name. " + stats, stats.indexOf( "Off Heap Memory Cache" ) != -1 );
+        assertTrue( "All blocks should be free. " + stats, stats.indexOf( "Free Blocks = 128" ) != -1 );
+    }
+
+    /**
+     * Verify that referenced elements get a second chance when the clock hand passes.
+     * <p>
+     * @throws Exception
+     */
+    public void testClockSecondChance()
+        throws Exception
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testClockSecondChance" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+
+        for ( int i = 0; i < max; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        // the oldest element has been used, the next one has not
+        assertNotNull( cache.get( "0:key" ) );
+        cache.put( "new:key", "data" );
+
+        CompositeCache<String, String> hub = CompositeCacheManager.getInstance().getCache( "testClockSecondChance" );
+        assertNotNull( "Referenced element should survive", hub.getMemoryCache().getQuiet( "0:key" ) );
+        assertNull( "Unreferenced element should be evicted", hub.getMemoryCache().getQuiet( "1:key" ) );
+    }
+}
@@ -333,4 +333,56 @@ public class ShrinkerThreadUnitTest
         //assertEquals( "Event handler ExceededIdleTimeBackground called the wrong number of times.", 3, handler.getExceededIdleTimeBackgroundCount() );
         assertEquals( "Wrong number of elements remain.", 7, memory.getSize() );
     }
+
+    /**
+     * With the memory shrinker enabled, the region keeps an expiration index. Verify that the
+     * shrinker spools the due items, respects the spool limit and keeps the rest for the next run.
+     * <p>
+     * @throws Exception
+     */
+    public void testShrinkDue_ExpirationIndex()
+        throws Exception
+    {
+        // SETUP
+        CompositeCacheAttributes cacheAttr = new CompositeCacheAttributes();
+        cacheAttr.setCacheName("testRegion");
+        cacheAttr.setMemoryCacheName("org.apache.commons.jcs.engine.memory.MockMemoryCache");
+        cacheAttr.setUseMemoryShrinker( true );
+        cacheAttr.setMaxMemoryIdleTimeSeconds( 1 );
+        cacheAttr.setMaxSpoolPerRun( 3 );
+
+        CompositeCache<String, String> cache = new CompositeCache<String, String>(cacheAttr, new ElementAttributes());
+        MockMemoryCache<String, String> memory = (MockMemoryCache<String, String>)cache.getMemoryCache();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            ICacheElement<String, String> element = new CacheElement<String, String>( "testRegion", "key" + i, "value" );
+
+            ElementAttributes elementAttr = new ElementAttributes();
+            elementAttr.setIsEternal( false );
+            elementAttr.setMaxLife( 100 );
+            element.setElementAttributes( elementAttr );
+            cache.update( element );
+        }
+        assertEquals( "All keys should be scheduled.", 10, cache.getExpirationIndex().size() );
+
+        ShrinkerThread<String, String> shrinker = new ShrinkerThread<String, String>( cache );
+
+        // DO WORK
+        shrinker.run();
+
+        // VERIFY
+        assertEquals( "Nothing should be due yet.", 0, memory.waterfallCallCount );
+
+        Thread.sleep( 1500 );
+        shrinker.run();
+        assertEquals( "Waterfall called the wrong number of times.", 3, memory.waterfallCallCount );
+        assertEquals( "Wrong number of elements remain.", 7, memory.getSize() );
+        assertEquals( "The rest should be scheduled again.", 7, cache.getExpirationIndex().size() );
+
+        Thread.sleep( 1100 );
+        shrinker.run();
+        assertEquals( "Waterfall called the wrong number of times.", 6, memory.waterfallCallCount );
+        assertEquals( "Wrong number of elements remain.", 4, memory.getSize() );
+    }
 }
@@ -0,0 +1,179 @@
+package org.apache.commons.jcs.engine.memory.tinylfu;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.apache.commons.jcs.JCS;
+import org.apache.commons.jcs.access.CacheAccess;
+import org.apache.commons.jcs.access.exception.CacheException;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.control.CompositeCacheManager;
+
+/**
+ * Tests for the W-TinyLFU memory cache.
+ */
+public class TinyLFUMemoryCacheUnitTest
+    extends TestCase
+{
+    /** Test setup */
+    @Override
+    public void setUp()
+    {
+        JCS.setConfigFilename( "/TestTinyLFUCache.ccf" );
+    }
+
+    /**
+     * Verify that the TinyLFU cache can be selected in the cache.ccf.
+     * <p>
+     * @throws CacheException
+     */
+    public void testLoadFromCCF()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testLoadFromCCF" );
+        String memoryCacheName = cache.getCacheAttributes().getMemoryCacheName();
+        assertTrue( "Cache name should have TinyLFU in it.", memoryCacheName.indexOf( "TinyLFUMemoryCache" ) != -1 );
+    }
+
+    /**
+     * Put as many as the max. Verify that all are in the cache and that the size is respected
+     * when more are added.
+     * <p>
+     * @throws CacheException
+     */
+    public void testPutGetThroughHub()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testPutGetThroughHub" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+
+        for ( int i = 0; i < max; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        for ( int i = 0; i < max; i++ )
+        {
+            assertEquals( "data " + i, cache.get( i + ":key" ) );
+        }
+
+        for ( int i = max; i < max * 3; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        CompositeCache<String, String> hub = CompositeCacheManager.getInstance().getCache( "testPutGetThroughHub" );
+        assertEquals( "Wrong memory size", max, hub.getMemoryCache().getSize() );
+    }
+
+    /**
+     * Verify that frequently used items survive a scan of items that are only used once.
+     * <p>
+     * @throws CacheException
+     */
+    public void testScanResistance()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testScanResistance" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+        int hot = max / 2;
+
+        for ( int i = 0; i < hot; i++ )
+        {
+            cache.put( "hot" + i, "data " + i );
+        }
+        for ( int round = 0; round < 5; round++ )
+        {
+            for ( int i = 0; i < hot; i++ )
+            {
+                assertNotNull( cache.get( "hot" + i ) );
+            }
+        }
+
+        // one hit wonders
+        for ( int i = 0; i < max * 10; i++ )
+        {
+            cache.put( "cold" + i, "data " + i );
+        }
+
+        for ( int i = 0; i < hot; i++ )
+        {
+            assertEquals( "Hot item was evicted by the scan. " + cache.getStats(), "data " + i, cache.get( "hot" + i ) );
+        }
+    }
+
+    /**
+     * Verify that the admission statistics are reported.
+     * <p>
+     * @throws CacheException
+     */
+    public void testStatistics()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testStatistics" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+        for ( int i = 0; i < max * 2; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+
+        String stats = cache.getStats();
+        assertTrue( "Should contain the type name. " + stats, stats.indexOf( "TinyLFU Memory Cache" ) != -1 );
+        assertTrue( "Should contain the admission stats. " + stats, stats.indexOf( "Rejected Count" ) != -1 );
+        assertTrue( "Should contain the sketch stats. " + stats, stats.indexOf( "Sketch Counters" ) != -1 );
+    }
+
+    /**
+     * Verify that the elements that were hit repeatedly are reported as the hottest keys.
+     * <p>
+     * @throws CacheException
+     */
+    public void testHottestKeys()
+        throws CacheException
+    {
+        CacheAccess<String, String> cache = JCS.getInstance( "testHottestKeys" );
+
+        int max = cache.getCacheAttributes().getMaxObjects();
+        for ( int i = 0; i < max; i++ )
+        {
+            cache.put( i + ":key", "data " + i );
+        }
+        for ( int round = 0; round < 3; round++ )
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                assertNotNull( cache.get( i + ":key" ) );
+            }
+        }
+
+        CompositeCache<String, String> hub = CompositeCacheManager.getInstance().getCache( "testHottestKeys" );
+        List<String> keys = hub.getMemoryCache().getHottestKeys( 10 );
+        assertEquals( "Wrong number of keys", 10, keys.size() );
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( "Hot key missing " + keys, keys.contains( i + ":key" ) );
+        }
+    }
+}
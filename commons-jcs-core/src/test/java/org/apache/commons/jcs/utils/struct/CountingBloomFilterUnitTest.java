@@ -0,0 +1,120 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import junit.framework.TestCase;
+
+/** Unit tests for the counting Bloom filter. */
+public class CountingBloomFilterUnitTest
+    extends TestCase
+{
+    /** verify that added hashes are always found and others mostly not. */
+    public void testMightContain_FalsePositiveRate()
+    {
+        // SETUP
+        CountingBloomFilter filter = new CountingBloomFilter( 10000, 0.01 );
+
+        // DO WORK
+        for ( int i = 0; i < 10000; i++ )
+        {
+            filter.add( ( "key" + i ).hashCode() );
+        }
+
+        // VERIFY
+        for ( int i = 0; i < 10000; i++ )
+        {
+            assertTrue( "Added hash not found " + i, filter.mightContain( ( "key" + i ).hashCode() ) );
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 10000; i++ )
+        {
+            if ( filter.mightContain( ( "other" + i ).hashCode() ) )
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue( "Too many false positives: " + falsePositives, falsePositives < 300 );
+    }
+
+    /** verify that removed hashes are gone and the others stay. */
+    public void testRemove()
+    {
+        // SETUP
+        CountingBloomFilter filter = new CountingBloomFilter( 1000, 0.01 );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            filter.add( i );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < 1000; i += 2 )
+        {
+            filter.remove( i );
+        }
+
+        // VERIFY
+        int stillFound = 0;
+        for ( int i = 0; i < 1000; i++ )
+        {
+            if ( i % 2 == 1 )
+            {
+                assertTrue( "Kept hash not found " + i, filter.mightContain( i ) );
+            }
+            else if ( filter.mightContain( i ) )
+            {
+                stillFound++;
+            }
+        }
+        assertTrue( "Too many removed hashes found: " + stillFound, stillFound < 30 );
+    }
+
+    /** verify that a saturated counter is never decremented, so nothing else goes missing. */
+    public void testRemove_Saturated()
+    {
+        // SETUP
+        CountingBloomFilter filter = new CountingBloomFilter( 10, 0.01 );
+
+        // DO WORK
+        for ( int i = 0; i < 300; i++ )
+        {
+            filter.add( 42 );
+        }
+        for ( int i = 0; i < 300; i++ )
+        {
+            filter.remove( 42 );
+        }
+
+        // VERIFY
+        assertTrue( "Saturated hash should stay", filter.mightContain( 42 ) );
+    }
+
+    /** verify that clear empties the filter. */
+    public void testClear()
+    {
+        // SETUP
+        CountingBloomFilter filter = new CountingBloomFilter( 100, 0.01 );
+        filter.add( 1 );
+
+        // DO WORK
+        filter.clear();
+
+        // VERIFY
+        assertFalse( "Should be empty", filter.mightContain( 1 ) );
+    }
+}
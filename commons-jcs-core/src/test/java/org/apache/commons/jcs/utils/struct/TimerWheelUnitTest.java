@@ -0,0 +1,128 @@
+package org.apache.commons.jcs.utils.struct;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the timer wheel. */
+public class TimerWheelUnitTest
+    extends TestCase
+{
+    /** verify that only due keys are returned and removed. */
+    public void testAdvance_OnlyDue()
+    {
+        // SETUP
+        long now = 1000000L;
+        TimerWheel<String> wheel = new TimerWheel<String>( now );
+        wheel.schedule( "soon", now + 500 );
+        wheel.schedule( "later", now + 5000 );
+        wheel.schedule( "past", now - 100 );
+
+        // DO WORK
+        List<String> due = wheel.advance( now + 2000 );
+
+        // VERIFY
+        assertEquals( "Wrong number due: " + due, 2, due.size() );
+        assertTrue( due.contains( "soon" ) );
+        assertTrue( due.contains( "past" ) );
+        assertEquals( "Wrong size", 1, wheel.size() );
+
+        due = wheel.advance( now + 6000 );
+        assertEquals( "Wrong keys due", "[later]", due.toString() );
+        assertEquals( "Wrong size", 0, wheel.size() );
+    }
+
+    /** verify that scheduling a key again replaces its deadline. */
+    public void testSchedule_Replace()
+    {
+        // SETUP
+        long now = 1000000L;
+        TimerWheel<String> wheel = new TimerWheel<String>( now );
+        wheel.schedule( "key", now + 1000 );
+
+        // DO WORK
+        wheel.schedule( "key", now + 10000 );
+
+        // VERIFY
+        assertEquals( "Wrong size", 1, wheel.size() );
+        assertTrue( "Should not be due yet", wheel.advance( now + 5000 ).isEmpty() );
+        assertEquals( "Wrong keys due", "[key]", wheel.advance( now + 11000 ).toString() );
+    }
+
+    /** verify that cancelled keys are not returned. */
+    public void testCancel()
+    {
+        // SETUP
+        long now = 1000000L;
+        TimerWheel<String> wheel = new TimerWheel<String>( now );
+        wheel.schedule( "key", now + 1000 );
+
+        // DO WORK
+        boolean cancelled = wheel.cancel( "key" );
+
+        // VERIFY
+        assertTrue( "Should be cancelled", cancelled );
+        assertFalse( "Should not be cancelled twice", wheel.cancel( "key" ) );
+        assertTrue( "Should not be due", wheel.advance( now + 2000 ).isEmpty() );
+    }
+
+    /** verify that keys in the coarse levels cascade and come due at the right time. */
+    public void testAdvance_Cascade()
+    {
+        // SETUP
+        long now = 1000000L;
+        TimerWheel<Integer> wheel = new TimerWheel<Integer>( now );
+        long[] delays = { 70 * 1000L, 2 * 3600 * 1000L, 5 * 24 * 3600 * 1000L, 300 * 24 * 3600 * 1000L };
+        for ( int i = 0; i < delays.length; i++ )
+        {
+            wheel.schedule( Integer.valueOf( i ), now + delays[i] );
+        }
+
+        // DO WORK
+        for ( int i = 0; i < delays.length; i++ )
+        {
+            // VERIFY
+            assertTrue( "Nothing should be due before " + i, wheel.advance( now + delays[i] - 1 ).isEmpty() );
+            assertEquals( "Wrong key due", "[" + i + "]", wheel.advance( now + delays[i] + 1024 ).toString() );
+        }
+        assertEquals( "Wrong size", 0, wheel.size() );
+    }
+
+    /** verify that clear removes all keys. */
+    public void testClear()
+    {
+        // SETUP
+        long now = 1000000L;
+        TimerWheel<String> wheel = new TimerWheel<String>( now );
+        for ( int i = 0; i < 100; i++ )
+        {
+            wheel.schedule( "key" + i, now + i * 1000 );
+        }
+
+        // DO WORK
+        wheel.clear();
+
+        // VERIFY
+        assertEquals( "Wrong size", 0, wheel.size() );
+        assertTrue( "Nothing should be due", wheel.advance( now + 200000 ).isEmpty() );
+    }
+}
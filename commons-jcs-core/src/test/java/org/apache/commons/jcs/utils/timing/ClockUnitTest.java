@@ -0,0 +1,125 @@
+package org.apache.commons.jcs.utils.timing;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.ElementAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.utils.timing.behavior.IClock;
+
+/**
+ * Tests for the pluggable clock.
+ */
+public class ClockUnitTest
+    extends TestCase
+{
+    /** A clock that only moves when told to */
+    private static class FixedClock
+        implements IClock
+    {
+        /** the time */
+        long now = 1000000;
+
+        @Override
+        public long currentTimeMillis()
+        {
+            return now;
+        }
+
+        @Override
+        public long nanoTime()
+        {
+            return now * 1000000;
+        }
+    }
+
+    /** Go back to the system clock */
+    @Override
+    public void tearDown()
+    {
+        Clock.setClock( null );
+    }
+
+    /**
+     * Verify that expiration follows the clock rather than the system time.
+     * <p>
+     * @throws Exception
+     */
+    public void testExpirationFollowsClock()
+        throws Exception
+    {
+        // SETUP
+        FixedClock clock = new FixedClock();
+        Clock.setClock( clock );
+
+        CompositeCacheAttributes cattr = new CompositeCacheAttributes();
+        cattr.setCacheName( "testExpirationFollowsClock" );
+        cattr.setMemoryCacheName( "org.apache.commons.jcs.engine.memory.lru.LRUMemoryCache" );
+        ElementAttributes attr = new ElementAttributes();
+        attr.setIsEternal( false );
+        attr.setMaxLife( 10 );
+
+        CompositeCache<String, String> cache = new CompositeCache<String, String>( cattr, attr );
+        CacheElement<String, String> element = new CacheElement<String, String>( "testExpirationFollowsClock", "key", "value" );
+        element.setElementAttributes( cache.getElementAttributes() );
+        cache.update( element );
+
+        // DO WORK
+        clock.now += 9000;
+        boolean presentBefore = cache.get( "key" ) != null;
+        clock.now += 2000;
+        boolean presentAfter = cache.get( "key" ) != null;
+
+        // VERIFY
+        assertEquals( "Wrong create time", 1000000, element.getElementAttributes().getCreateTime() );
+        assertTrue( "Should not have expired yet", presentBefore );
+        assertFalse( "Should have expired", presentAfter );
+    }
+
+    /**
+     * Verify that the coarse clock moves on and stops when replaced.
+     * <p>
+     * @throws Exception
+     */
+    public void testCoarseClock()
+        throws Exception
+    {
+        // SETUP
+        CoarseClock clock = new CoarseClock();
+        clock.setTickMillis( 5 );
+        Clock.setClock( clock );
+        long start = Clock.currentTimeMillis();
+
+        // DO WORK
+        Thread.sleep( 100 );
+        long later = Clock.currentTimeMillis();
+        Clock.setClock( null );
+        Thread.sleep( 20 );
+        long stopped = clock.currentTimeMillis();
+        Thread.sleep( 100 );
+
+        // VERIFY
+        assertTrue( "Clock should have moved on", later > start );
+        assertEquals( "Replaced clock should stop", stopped, clock.currentTimeMillis() );
+        assertTrue( "Should be back to the system clock", Clock.getClock() instanceof SystemClock );
+    }
+}
@@ -0,0 +1,84 @@
+package org.apache.commons.jcs.utils.zip;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/** Unit tests for the CRC32C checksum */
+public class CRC32CUnitTest
+    extends TestCase
+{
+    /** Checks the standard check value of CRC-32C. */
+    public void testCheckValue()
+    {
+        // SETUP
+        CRC32C crc = new CRC32C();
+
+        // DO WORK
+        crc.update( "123456789".getBytes() );
+
+        // VERIFY
+        assertEquals( "Wrong check value", 0xE3069283L, crc.getValue() );
+    }
+
+    /** The checksum does not depend on how the data is fed in. */
+    public void testUpdateInPieces()
+    {
+        // SETUP
+        byte[] data = new byte[1000];
+        for ( int i = 0; i < data.length; i++ )
+        {
+            data[i] = (byte) ( i * 31 + 7 );
+        }
+        CRC32C whole = new CRC32C();
+        whole.update( data, 0, data.length );
+
+        // DO WORK
+        CRC32C pieces = new CRC32C();
+        pieces.update( data, 0, 3 );
+        pieces.update( data[3] );
+        pieces.update( data, 4, 500 );
+        ByteBuffer direct = ByteBuffer.allocateDirect( data.length );
+        direct.put( data );
+        direct.position( 504 );
+        pieces.update( direct );
+
+        // VERIFY
+        assertEquals( "Wrong checksum", whole.getValue(), pieces.getValue() );
+        assertEquals( "Buffer should be consumed", data.length, direct.position() );
+    }
+
+    /** A reset checksum starts over. */
+    public void testReset()
+    {
+        // SETUP
+        CRC32C crc = new CRC32C();
+        crc.update( "something else".getBytes() );
+
+        // DO WORK
+        crc.reset();
+        crc.update( "123456789".getBytes() );
+
+        // VERIFY
+        assertEquals( "Wrong check value", 0xE3069283L, crc.getValue() );
+    }
+}
@@ -21,6 +21,10 @@ package org.apache.commons.jcs.jcache;
 
 public class Times
 {
+    /**
+     * @param ignore true if the time is not needed
+     * @return the current time in microseconds according to the system clock, -1 if ignored
+     */
     public static long now(final boolean ignore)
     {
         if (ignore)